@@ -0,0 +1,63 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Host-side benchmarks for the parts of the dialer which do not depend on a device.
+# With CLASSPATH set to DialerBenchmarks.jar, layoutlib.jar, guavalib.jar and caliper-host.jar
+# from $ANDROID_HOST_OUT/framework, run the index replay with:
+#   java com.android.dialer.benchmark.SmartDialIndexBenchmark
+# and the micro benchmarks, reporting throughput and allocations, with:
+#   java com.google.caliper.runner.CaliperMain -i runtime,allocation \
+#       com.android.dialer.benchmark.SmartDialPrefixBenchmark
+# and the contention of the contact info cache with:
+#   java com.android.dialer.benchmark.ExpirableCacheContentionBenchmark
+# The grouping of the call log also needs libphonenumber-host.jar, to put numbers in E.164 form:
+#   java com.google.caliper.runner.CaliperMain -i runtime,allocation \
+#       com.android.dialer.benchmark.CallLogGroupBuilderBenchmark
+# The garbage made by the day group map of the call log adapter is compared by:
+#   java com.google.caliper.runner.CaliperMain -i runtime,allocation \
+#       com.android.dialer.benchmark.DayGroupMapBenchmark
+# The reading of the rows of the call log, compared with taking them from the row model cache:
+#   java com.google.caliper.runner.CaliperMain -i runtime,allocation \
+#       com.android.dialer.benchmark.CallLogRowModelBenchmark
+# The time to resolve the contact info of a whole call log with 1, 2 and 4 lookup workers, against
+# a fake contacts provider whose queries take a fixed time, with:
+#   java com.android.dialer.benchmark.ParallelLookupBenchmark 1,2,4 1000
+
+dialer_src_dir := ../src/com/android/dialer
+contacts_common_src_dir := ../../ContactsCommon/src/com/android/contacts/common
+
+LOCAL_MODULE := DialerBenchmarks
+LOCAL_MODULE_TAGS := optional
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    $(dialer_src_dir)/calllog/CallLogGroupBuilder.java \
+    $(dialer_src_dir)/calllog/CallLogGroupLayout.java \
+    $(dialer_src_dir)/calllog/CallLogQuery.java \
+    $(dialer_src_dir)/calllog/CallLogRowModel.java \
+    $(dialer_src_dir)/calllog/ContactInfo.java \
+    $(dialer_src_dir)/calllog/NumberWithCountryIso.java \
+    $(dialer_src_dir)/calllog/PhoneAccountUtils.java \
+    $(dialer_src_dir)/calllog/PhoneNumberFormatCache.java \
+    $(dialer_src_dir)/calllog/PhoneNumberUtilsWrapper.java \
+    $(dialer_src_dir)/database/ContactNumber.java \
+    $(dialer_src_dir)/database/InMemorySmartDialIndex.java \
+    $(dialer_src_dir)/database/SmartDialContact.java \
+    $(dialer_src_dir)/database/SmartDialIndex.java \
+    $(dialer_src_dir)/dialpad/LatinSmartDialMap.java \
+    $(dialer_src_dir)/dialpad/SmartDialMap.java \
+    $(dialer_src_dir)/dialpad/SmartDialMatchPosition.java \
+    $(dialer_src_dir)/dialpad/SmartDialNameMatcher.java \
+    $(dialer_src_dir)/dialpad/SmartDialPrefix.java \
+    $(dialer_src_dir)/util/ExpirableCache.java \
+    $(dialer_src_dir)/util/LongIntMap.java \
+    $(dialer_src_dir)/util/OrderedDelivery.java \
+    $(dialer_src_dir)/util/StripedLruCache.java \
+    $(contacts_common_src_dir)/testing/NeededForTesting.java \
+    $(contacts_common_src_dir)/util/PhoneNumberHelper.java \
+    $(contacts_common_src_dir)/util/UriUtils.java
+
+# layoutlib provides host implementations of the framework classes used by the smart dial code,
+# such as TextUtils, Log and LruCache.
+LOCAL_JAVA_LIBRARIES := layoutlib guavalib caliper-host libphonenumber-host
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import android.database.MatrixCursor;
+import android.provider.CallLog.Calls;
+import android.telephony.PhoneNumberUtils;
+
+import com.android.dialer.calllog.CallLogGroupBuilder;
+import com.android.dialer.calllog.CallLogQuery;
+import com.android.dialer.calllog.PhoneNumberFormatCache;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import java.util.Random;
+
+/**
+ * Measures a full grouping pass of the call log, as done whenever the adapter is given a new
+ * cursor, over {@link #size} calls from {@link #distinctNumbers} numbers written in various
+ * formats. {@link #compareAdjacentNumbers} measures the comparisons of the numbers of adjacent
+ * calls which grouping made before the numbers were compared through precomputed keys.
+ * <p>
+ * As in the dialer, the E.164 forms of the numbers are kept across passes by
+ * {@link PhoneNumberFormatCache}, so only the first pass parses them.
+ */
+public class CallLogGroupBuilderBenchmark {
+    private static final long SEED = 0x5eed;
+
+    /** The probability that a call has the same number as the previous one. */
+    private static final double REPEAT_PROBABILITY = 0.4;
+
+    @Param({"1000", "10000"})
+    int size;
+
+    @Param({"10", "100", "1000"})
+    int distinctNumbers;
+
+    private MatrixCursor mCursor;
+    private CallLogGroupBuilder mGroupBuilder;
+    private int mGroupCount;
+
+    @BeforeExperiment
+    void setUp() {
+        final Random random = new Random(SEED);
+        final String[] projection = CallLogQuery._PROJECTION;
+        final int[] types = { Calls.INCOMING_TYPE, Calls.OUTGOING_TYPE, Calls.MISSED_TYPE };
+        mCursor = new MatrixCursor(projection, size);
+        final long now = System.currentTimeMillis();
+        int numberIndex = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || random.nextDouble() >= REPEAT_PROBABILITY) {
+                numberIndex = random.nextInt(distinctNumbers);
+            }
+            final Object[] values = new Object[projection.length];
+            values[CallLogQuery.ID] = (long) (size - i);
+            values[CallLogQuery.NUMBER] = formatNumber(numberIndex, random.nextInt(4));
+            // About ten calls a day.
+            values[CallLogQuery.DATE] = now - i * 2L * 60 * 60 * 1000;
+            values[CallLogQuery.CALL_TYPE] = types[random.nextInt(types.length)];
+            values[CallLogQuery.COUNTRY_ISO] = "US";
+            mCursor.addRow(values);
+        }
+
+        mGroupBuilder = new CallLogGroupBuilder(new CallLogGroupBuilder.GroupCreator() {
+            @Override
+            public void addGroup(int cursorPosition, int size, boolean expanded) {
+                mGroupCount++;
+            }
+        });
+    }
+
+    /** Returns the given number in one of the formats found in the call log. */
+    private static String formatNumber(int numberIndex, int format) {
+        if (numberIndex % 10 == 9) {
+            return (format % 2 == 0 ? "user" : "USER") + numberIndex + "@sip.example.com";
+        }
+        final String line = String.format("%04d", numberIndex % 10000);
+        switch (format) {
+            case 0:
+                return "650253" + line;
+            case 1:
+                return "+1650253" + line;
+            case 2:
+                return "(650) 253-" + line;
+            default:
+                return "1650253" + line;
+        }
+    }
+
+    @Benchmark
+    int addGroups(int reps) {
+        mGroupCount = 0;
+        for (int i = 0; i < reps; i++) {
+            mGroupBuilder.addGroups(mCursor);
+        }
+        return mGroupCount;
+    }
+
+    @Benchmark
+    int compareAdjacentNumbers(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            mCursor.moveToFirst();
+            String previous = mCursor.getString(CallLogQuery.NUMBER);
+            while (mCursor.moveToNext()) {
+                final String current = mCursor.getString(CallLogQuery.NUMBER);
+                // SIP addresses were compared with a cheaper method.
+                if (previous.indexOf('@') == -1 && current.indexOf('@') == -1
+                        && PhoneNumberUtils.compare(previous, current)) {
+                    dummy++;
+                }
+                previous = current;
+            }
+        }
+        return dummy;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import android.database.MatrixCursor;
+import android.provider.CallLog.Calls;
+import android.telecom.PhoneAccountHandle;
+import android.util.LruCache;
+
+import com.android.dialer.calllog.CallLogQuery;
+import com.android.dialer.calllog.CallLogRowModel;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+/**
+ * Measures the part of binding the {@link #size} rows of a page of the call log which does not
+ * depend on the views: {@link #readRows} reads the values of each row from the cursor, as binding
+ * did before the models of the rows were read on the worker thread of the query handler, and
+ * {@link #cachedRows} takes them from the cache of the adapter instead.
+ * <p>
+ * The resolver does not query the telephony services, whose binder calls made reading the rows
+ * on the UI thread slower still on a device.
+ */
+public class CallLogRowModelBenchmark {
+    @Param({"50", "200"})
+    int size;
+
+    private MatrixCursor mCursor;
+    private LruCache<Long, CallLogRowModel> mRowModels;
+    private CallLogRowModel.Resolver mResolver;
+
+    @BeforeExperiment
+    void setUp() {
+        final String[] projection = CallLogQuery._PROJECTION;
+        mCursor = new MatrixCursor(projection, size);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            final Object[] values = new Object[projection.length];
+            values[CallLogQuery.ID] = (long) (size - i);
+            values[CallLogQuery.NUMBER] = "650253" + String.format("%04d", i);
+            values[CallLogQuery.DATE] = now - i * 60L * 60 * 1000;
+            values[CallLogQuery.DURATION] = 60L;
+            values[CallLogQuery.CALL_TYPE] = Calls.INCOMING_TYPE;
+            values[CallLogQuery.COUNTRY_ISO] = "US";
+            values[CallLogQuery.NUMBER_PRESENTATION] = Calls.PRESENTATION_ALLOWED;
+            values[CallLogQuery.ACCOUNT_COMPONENT_NAME] = "com.example/.ConnectionService";
+            values[CallLogQuery.ACCOUNT_ID] = "sim1";
+            values[CallLogQuery.CACHED_NAME] = "Name " + i;
+            values[CallLogQuery.CACHED_PHOTO_ID] = 0L;
+            mCursor.addRow(values);
+        }
+
+        mResolver = new CallLogRowModel.Resolver() {
+            @Override
+            public boolean isVoicemailNumber(PhoneAccountHandle accountHandle,
+                    CharSequence number) {
+                return false;
+            }
+
+            @Override
+            public CharSequence getDisplayName(CharSequence number, int presentation,
+                    boolean isVoicemailNumber) {
+                return "";
+            }
+
+            @Override
+            public String getAccountLabel(PhoneAccountHandle accountHandle) {
+                return null;
+            }
+
+            @Override
+            public int getAccountColor(PhoneAccountHandle accountHandle) {
+                return 0;
+            }
+        };
+
+        mRowModels = new LruCache<Long, CallLogRowModel>(2 * size);
+        mCursor.moveToPosition(-1);
+        while (mCursor.moveToNext()) {
+            final CallLogRowModel row = CallLogRowModel.read(mCursor, mResolver);
+            mRowModels.put(row.rowId, row);
+        }
+    }
+
+    @Benchmark
+    long readRows(int reps) {
+        long dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            mCursor.moveToPosition(-1);
+            while (mCursor.moveToNext()) {
+                dummy += CallLogRowModel.read(mCursor, mResolver).date;
+            }
+        }
+        return dummy;
+    }
+
+    @Benchmark
+    long cachedRows(int reps) {
+        long dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            mCursor.moveToPosition(-1);
+            while (mCursor.moveToNext()) {
+                dummy += mRowModels.get(mCursor.getLong(CallLogQuery.ID)).date;
+            }
+        }
+        return dummy;
+    }
+}
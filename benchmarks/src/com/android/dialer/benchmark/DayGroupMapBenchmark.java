@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.util.LongIntMap;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import java.util.HashMap;
+
+/**
+ * Compares the maps the call log adapter can keep the day group of each call in. Each rep
+ * regroups {@link #size} calls, putting the day group of every row id, then binds every row,
+ * getting its day group and the one of the previous row. Run with the allocation instrument to
+ * compare the garbage produced by the boxed {@link HashMap} with {@link LongIntMap}.
+ */
+public class DayGroupMapBenchmark {
+    private static final int DAY_GROUP_NONE = -1;
+
+    /** The number of calls in each day group, as with a few calls a day. */
+    private static final int CALLS_PER_DAY = 10;
+
+    @Param({"100", "1000"})
+    int size;
+
+    private long[] mRowIds;
+    private HashMap<Long, Integer> mHashMap;
+    private LongIntMap mLongIntMap;
+
+    @BeforeExperiment
+    void setUp() {
+        mRowIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            // The call log is sorted with the newest calls, which have the largest ids, first.
+            mRowIds[i] = 100000 - i;
+        }
+        mHashMap = new HashMap<Long, Integer>();
+        mLongIntMap = new LongIntMap();
+    }
+
+    private static int getDayGroup(int position) {
+        return Math.min(position / CALLS_PER_DAY, 2);
+    }
+
+    @Benchmark
+    int hashMap(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            mHashMap.clear();
+            for (int position = 0; position < size; position++) {
+                mHashMap.put(mRowIds[position], getDayGroup(position));
+            }
+            for (int position = 0; position < size; position++) {
+                final Integer dayGroup = mHashMap.get(mRowIds[position]);
+                final Integer previous = position == 0 ? null : mHashMap.get(mRowIds[position - 1]);
+                if (previous == null || !previous.equals(dayGroup)) {
+                    dummy++;
+                }
+            }
+        }
+        return dummy;
+    }
+
+    @Benchmark
+    int longIntMap(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            mLongIntMap.clear();
+            for (int position = 0; position < size; position++) {
+                mLongIntMap.put(mRowIds[position], getDayGroup(position));
+            }
+            for (int position = 0; position < size; position++) {
+                final int dayGroup = mLongIntMap.get(mRowIds[position], DAY_GROUP_NONE);
+                final int previous = position == 0
+                        ? DAY_GROUP_NONE : mLongIntMap.get(mRowIds[position - 1], DAY_GROUP_NONE);
+                if (previous != dayGroup) {
+                    dummy++;
+                }
+            }
+        }
+        return dummy;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.util.ExpirableCache;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless runner measuring the latency of {@link ExpirableCache#getCachedValue} on a reader
+ * thread, standing for the UI thread binding call log rows, while writer threads standing for
+ * contact info lookups put and expire values as fast as they can. It compares a cache backed by
+ * a single {@link android.util.LruCache} with caches split in segments.
+ *
+ * Usage: ExpirableCacheContentionBenchmark [writers] [concurrency levels] [reads], for example
+ * {@code ExpirableCacheContentionBenchmark 0,1,2,4 1,4,16 200000}.
+ */
+public class ExpirableCacheContentionBenchmark {
+    private static final long SEED = 0x5eed;
+
+    /** The size of the contact info cache of the call log. */
+    private static final int MAX_SIZE = 100;
+
+    /** The number of distinct keys written, so that writes also cause evictions. */
+    private static final int KEY_COUNT = 2 * MAX_SIZE;
+
+    /** One write in this many expires a value instead of putting one. */
+    private static final int EXPIRE_INTERVAL = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] writerCounts = { 0, 1, 2, 4 };
+        int[] concurrencyLevels = { 1, 4, 16 };
+        int readCount = 200000;
+        if (args.length > 0) {
+            writerCounts = parseInts(args[0]);
+        }
+        if (args.length > 1) {
+            concurrencyLevels = parseInts(args[1]);
+        }
+        if (args.length > 2) {
+            readCount = Integer.parseInt(args[2]);
+        }
+
+        final String[] keys = new String[KEY_COUNT];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "+1650253" + String.format("%04d", i);
+        }
+        for (int concurrencyLevel : concurrencyLevels) {
+            for (int writerCount : writerCounts) {
+                // Warms up the code paths before measuring.
+                run(keys, concurrencyLevel, writerCount, readCount / 10, false);
+                run(keys, concurrencyLevel, writerCount, readCount, true);
+            }
+        }
+    }
+
+    private static void run(final String[] keys, int concurrencyLevel, int writerCount,
+            int readCount, boolean print) throws InterruptedException {
+        final ExpirableCache<String, Object> cache = new ExpirableCache.Builder<String, Object>()
+                .setMaxSize(MAX_SIZE)
+                .setConcurrencyLevel(concurrencyLevel)
+                .build();
+        for (int i = 0; i < MAX_SIZE; i++) {
+            cache.put(keys[i], keys[i]);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong writes = new AtomicLong();
+        final CountDownLatch started = new CountDownLatch(writerCount);
+        final Thread[] writers = new Thread[writerCount];
+        for (int i = 0; i < writerCount; i++) {
+            final Random random = new Random(SEED + i);
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    long count = 0;
+                    while (!done.get()) {
+                        final String key = keys[random.nextInt(keys.length)];
+                        if (count % EXPIRE_INTERVAL == 0) {
+                            cache.expire(key);
+                        } else {
+                            cache.put(key, key);
+                        }
+                        count++;
+                    }
+                    writes.addAndGet(count);
+                }
+            };
+            writers[i].start();
+        }
+        started.await();
+
+        // The reader binds the rows of the first screens of the call log, over and over.
+        final long[] latencies = new long[readCount];
+        final Random random = new Random(SEED);
+        int hits = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < readCount; i++) {
+            final String key = keys[random.nextInt(MAX_SIZE)];
+            final long readStart = System.nanoTime();
+            final ExpirableCache.CachedValue<Object> value = cache.getCachedValue(key);
+            latencies[i] = System.nanoTime() - readStart;
+            if (value != null) {
+                hits++;
+            }
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        done.set(true);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (!print) {
+            return;
+        }
+
+        Arrays.sort(latencies);
+        System.out.println(String.format(
+                "concurrency=%d writers=%d reads=%d hits=%d writes/s=%.0f",
+                concurrencyLevel, writerCount, readCount, hits,
+                writes.get() / (elapsedNanos / 1e9)));
+        System.out.println(String.format(
+                "  getCachedValue p50=%.2fus p90=%.2fus p99=%.2fus p99.9=%.2fus max=%.2fus",
+                percentile(latencies, 500) / 1e3, percentile(latencies, 900) / 1e3,
+                percentile(latencies, 990) / 1e3, percentile(latencies, 999) / 1e3,
+                percentile(latencies, 1000) / 1e3));
+    }
+
+    private static int[] parseInts(String arg) {
+        final String[] values = arg.split(",");
+        final int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i]);
+        }
+        return result;
+    }
+
+    /** Returns the given per mille of the sorted values. */
+    private static long percentile(long[] sorted, int perMille) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * perMille / 1000))];
+    }
+}
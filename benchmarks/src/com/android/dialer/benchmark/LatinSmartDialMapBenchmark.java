@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.benchmark.SyntheticAddressBook.Corpus;
+import com.android.dialer.database.SmartDialContact;
+import com.android.dialer.dialpad.LatinSmartDialMap;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import java.util.ArrayList;
+
+/**
+ * Measures character normalization, which runs for every character of every name tokenized or
+ * matched by smart dial. Each repetition normalizes one character of the corpus.
+ */
+public class LatinSmartDialMapBenchmark {
+    @Param({"LATIN", "ACCENTED", "LONG", "MIXED"})
+    Corpus corpus;
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private final LatinSmartDialMap mMap = new LatinSmartDialMap();
+    private char[] mCharacters;
+
+    @BeforeExperiment
+    void setUp() {
+        final ArrayList<SmartDialContact> contacts = SyntheticAddressBook.generate(size, corpus,
+                size);
+        final StringBuilder builder = new StringBuilder();
+        for (SmartDialContact contact : contacts) {
+            builder.append(contact.displayName);
+        }
+        mCharacters = builder.toString().toCharArray();
+    }
+
+    @Benchmark
+    int normalizeCharacter(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += mMap.normalizeCharacter(mCharacters[i % mCharacters.length]);
+        }
+        return dummy;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.util.OrderedDelivery;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless runner measuring the time to resolve the contact info of a whole call log with the
+ * lookup workers of the call log adapter, for several numbers of workers. Each worker takes a
+ * batch of pending numbers at a time and hands its results over to an {@link OrderedDelivery},
+ * as the adapter does.
+ * <p>
+ * The contacts provider is faked: a batch query and the regular lookups of the numbers it did
+ * not match wait for a fixed time each, with at most {@link #PROVIDER_THREADS} queries served at
+ * once, standing for the binder threads of the provider.
+ *
+ * Usage: ParallelLookupBenchmark [workers] [entries] [batch query millis] [lookup millis], for
+ * example {@code ParallelLookupBenchmark 1,2,4 1000 8 3}.
+ */
+public class ParallelLookupBenchmark {
+    private static final long SEED = 0x5eed;
+
+    /** See CallLogAdapter#LOOKUP_BATCH_SIZE. */
+    private static final int LOOKUP_BATCH_SIZE = 20;
+
+    /** The number of rows of the first page of the call log. */
+    private static final int FIRST_PAGE_SIZE = 50;
+
+    /** The number of queries the fake provider serves at once. */
+    private static final int PROVIDER_THREADS = 4;
+
+    /** The fraction of the numbers which match a contact in the batch query. */
+    private static final double MATCHED_FRACTION = 0.3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] workerCounts = { 1, 2, 4 };
+        int entryCount = 1000;
+        long batchQueryMillis = 8;
+        long lookupMillis = 3;
+        if (args.length > 0) {
+            workerCounts = parseInts(args[0]);
+        }
+        if (args.length > 1) {
+            entryCount = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            batchQueryMillis = Long.parseLong(args[2]);
+        }
+        if (args.length > 3) {
+            lookupMillis = Long.parseLong(args[3]);
+        }
+
+        final FakeProvider provider = new FakeProvider(entryCount, batchQueryMillis, lookupMillis);
+        long baselineNanos = 0;
+        for (int workerCount : workerCounts) {
+            // Warms up the threads and code paths before measuring.
+            run(provider, workerCount, Math.min(entryCount, 5 * LOOKUP_BATCH_SIZE));
+            final Result result = run(provider, workerCount, entryCount);
+            if (baselineNanos == 0) {
+                baselineNanos = result.allNanos;
+            }
+            System.out.printf("workers=%d entries=%d firstPage=%.1fms resolved=%.1fms"
+                    + " speedup=%.2fx queries=%d%n",
+                    workerCount, entryCount, result.firstPageNanos / 1e6,
+                    result.allNanos / 1e6, (double) baselineNanos / result.allNanos,
+                    result.queries);
+        }
+    }
+
+    private static final class Result {
+        public long firstPageNanos;
+        public long allNanos;
+        public long queries;
+    }
+
+    private static Result run(final FakeProvider provider, int workerCount, int entryCount)
+            throws InterruptedException {
+        final ArrayDeque<Integer> requests = new ArrayDeque<Integer>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            requests.add(i);
+        }
+        final OrderedDelivery delivery = new OrderedDelivery();
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicLong firstPageNanos = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(workerCount);
+        provider.resetQueryCount();
+
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < workerCount; i++) {
+            final Thread worker = new Thread("Lookup #" + i) {
+                @Override
+                public void run() {
+                    while (true) {
+                        final List<Integer> batch = new ArrayList<Integer>(LOOKUP_BATCH_SIZE);
+                        final long ticket;
+                        synchronized (requests) {
+                            while (batch.size() < LOOKUP_BATCH_SIZE && !requests.isEmpty()) {
+                                batch.add(requests.poll());
+                            }
+                            if (batch.isEmpty()) {
+                                break;
+                            }
+                            ticket = delivery.start();
+                        }
+                        provider.lookUp(batch);
+                        delivery.finish(ticket, new Runnable() {
+                            @Override
+                            public void run() {
+                                final int count = delivered.addAndGet(batch.size());
+                                if (count >= FIRST_PAGE_SIZE && firstPageNanos.get() == 0) {
+                                    firstPageNanos.set(System.nanoTime() - startNanos);
+                                }
+                            }
+                        });
+                    }
+                    done.countDown();
+                }
+            };
+            worker.start();
+        }
+        done.await();
+
+        final Result result = new Result();
+        result.allNanos = System.nanoTime() - startNanos;
+        result.firstPageNanos =
+                firstPageNanos.get() != 0 ? firstPageNanos.get() : result.allNanos;
+        result.queries = provider.getQueryCount();
+        return result;
+    }
+
+    /** A contacts provider which only takes time. */
+    private static final class FakeProvider {
+        private final boolean[] mMatched;
+        private final long mBatchQueryMillis;
+        private final long mLookupMillis;
+        private final Semaphore mBinderThreads = new Semaphore(PROVIDER_THREADS);
+        private final AtomicLong mQueries = new AtomicLong();
+
+        public FakeProvider(int entryCount, long batchQueryMillis, long lookupMillis) {
+            final Random random = new Random(SEED);
+            mMatched = new boolean[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                mMatched[i] = random.nextDouble() < MATCHED_FRACTION;
+            }
+            mBatchQueryMillis = batchQueryMillis;
+            mLookupMillis = lookupMillis;
+        }
+
+        /**
+         * Looks up the given entries as ContactInfoHelper#lookupNumbers does: one query for the
+         * whole batch, then one for each entry it did not match.
+         */
+        public void lookUp(List<Integer> entries) {
+            query(mBatchQueryMillis);
+            for (int entry : entries) {
+                if (!mMatched[entry]) {
+                    query(mLookupMillis);
+                }
+            }
+        }
+
+        private void query(long millis) {
+            mQueries.incrementAndGet();
+            mBinderThreads.acquireUninterruptibly();
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mBinderThreads.release();
+            }
+        }
+
+        public void resetQueryCount() {
+            mQueries.set(0);
+        }
+
+        public long getQueryCount() {
+            return mQueries.get();
+        }
+    }
+
+    private static int[] parseInts(String arg) {
+        final String[] values = arg.split(",");
+        final int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.benchmark.SyntheticAddressBook.Corpus;
+import com.android.dialer.database.InMemorySmartDialIndex;
+import com.android.dialer.database.SmartDialContact;
+import com.android.dialer.database.SmartDialIndex;
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+import com.android.dialer.dialpad.SmartDialPrefix;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Headless runner replaying synthetic address books and keystroke traces against a
+ * {@link SmartDialIndex}. For each address book size it reports the time to build the index,
+ * to apply a delta and a deletion, and the latency distribution of a single keystroke query.
+ *
+ * Usage: SmartDialIndexBenchmark [sizes] [traces] [corpus], for example
+ * {@code SmartDialIndexBenchmark 1000,10000,100000 500 MIXED}.
+ */
+public class SmartDialIndexBenchmark {
+    private static final long SEED = 0x5eed;
+
+    /** Fraction of the address book touched by the delta and delete phases. */
+    private static final int DELTA_PERCENT = 1;
+
+    public static void main(String[] args) {
+        int[] sizes = { 1000, 10000, 100000 };
+        int traceCount = 500;
+        Corpus corpus = Corpus.MIXED;
+        if (args.length > 0) {
+            final String[] values = args[0].split(",");
+            sizes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                sizes[i] = Integer.parseInt(values[i]);
+            }
+        }
+        if (args.length > 1) {
+            traceCount = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            corpus = Corpus.valueOf(args[2]);
+        }
+
+        SmartDialPrefix.setUserInNanpRegion(true);
+        for (int size : sizes) {
+            run(new InMemorySmartDialIndex(), "in-memory", size, traceCount, corpus);
+        }
+    }
+
+    private static void run(SmartDialIndex index, String name, int size, int traceCount,
+            Corpus corpus) {
+        final ArrayList<SmartDialContact> contacts = SyntheticAddressBook.generate(size, corpus,
+                SEED);
+        final ArrayList<String> traces = SyntheticAddressBook.generateKeystrokeTraces(contacts,
+                traceCount, SEED);
+
+        long start = System.nanoTime();
+        index.build(contacts.iterator());
+        final long buildNanos = System.nanoTime() - start;
+
+        /** Warms up the query path before measuring. */
+        replay(index, traces, null);
+        final long[] latencies = new long[countKeystrokes(traces)];
+        final int results = replay(index, traces, latencies);
+
+        final Random random = new Random(SEED);
+        final int deltaSize = Math.max(1, contacts.size() * DELTA_PERCENT / 100);
+        final ArrayList<SmartDialContact> delta = Lists.newArrayListWithCapacity(deltaSize);
+        final ArrayList<Long> deleted = Lists.newArrayListWithCapacity(deltaSize);
+        for (int i = 0; i < deltaSize; i++) {
+            final SmartDialContact contact = contacts.get(random.nextInt(contacts.size()));
+            delta.add(SyntheticAddressBook.rename(contact, random, corpus));
+            deleted.add(contacts.get(random.nextInt(contacts.size())).contactId);
+        }
+        start = System.nanoTime();
+        index.applyDelta(delta.iterator());
+        final long deltaNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        index.delete(deleted);
+        final long deleteNanos = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format(
+                "%s contacts=%d rows=%d corpus=%s build=%.1fms delta(%d)=%.1fms delete(%d)=%.1fms",
+                name, size, contacts.size(), corpus, buildNanos / 1e6, delta.size(),
+                deltaNanos / 1e6, deleted.size(), deleteNanos / 1e6));
+        System.out.println(String.format(
+                "  keystrokes=%d results/query=%.1f p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                latencies.length, (double) results / Math.max(1, latencies.length),
+                percentile(latencies, 50) / 1e6, percentile(latencies, 90) / 1e6,
+                percentile(latencies, 99) / 1e6, percentile(latencies, 100) / 1e6));
+    }
+
+    /**
+     * Types every trace key by key, issuing one query per keystroke.
+     *
+     * @param latencies If not null, receives the latency of each query in nanoseconds.
+     * @return The total number of results returned.
+     */
+    private static int replay(SmartDialIndex index, ArrayList<String> traces, long[] latencies) {
+        int results = 0;
+        int keystroke = 0;
+        for (String trace : traces) {
+            for (int length = 1; length <= trace.length(); length++) {
+                final String query = trace.substring(0, length);
+                final long start = System.nanoTime();
+                final SmartDialNameMatcher nameMatcher = new SmartDialNameMatcher(query,
+                        SmartDialPrefix.getMap());
+                results += index.query(query, nameMatcher,
+                        SmartDialIndex.DEFAULT_MAX_RESULTS).size();
+                if (latencies != null) {
+                    latencies[keystroke++] = System.nanoTime() - start;
+                }
+            }
+        }
+        return results;
+    }
+
+    private static int countKeystrokes(ArrayList<String> traces) {
+        int count = 0;
+        for (String trace : traces) {
+            count += trace.length();
+        }
+        return count;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.benchmark.SyntheticAddressBook.Corpus;
+import com.android.dialer.database.SmartDialContact;
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+import com.android.dialer.dialpad.SmartDialPrefix;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the matching done for every candidate row of a smart dial query. Half of the queries
+ * are typed towards the candidate itself and mostly match, as candidates returned by the prefix
+ * table would; the other half target random contacts and mostly miss.
+ */
+public class SmartDialNameMatcherBenchmark {
+    @Param({"LATIN", "ACCENTED", "LONG", "MIXED"})
+    Corpus corpus;
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private SmartDialNameMatcher[] mMatchers;
+    private String[] mNames;
+    private String[] mNumbers;
+
+    @BeforeExperiment
+    void setUp() {
+        SmartDialPrefix.setUserInNanpRegion(true);
+        final ArrayList<SmartDialContact> contacts = SyntheticAddressBook.generate(size, corpus,
+                size);
+        final Random random = new Random(size);
+        mMatchers = new SmartDialNameMatcher[contacts.size()];
+        mNames = new String[contacts.size()];
+        mNumbers = new String[contacts.size()];
+        for (int i = 0; i < contacts.size(); i++) {
+            /** Every other query targets the candidate itself, the others a random contact. */
+            final SmartDialContact target = (i % 2 == 0)
+                    ? contacts.get(i) : contacts.get(random.nextInt(contacts.size()));
+            final String keystrokes = SyntheticAddressBook.generateKeystrokes(target, random);
+            /** Truncates the keystrokes to simulate a query in the middle of typing. */
+            final String query = keystrokes.substring(0,
+                    Math.min(keystrokes.length(), 1 + random.nextInt(6)));
+            mMatchers[i] = new SmartDialNameMatcher(query, SmartDialPrefix.getMap());
+            mNames[i] = contacts.get(i).displayName;
+            mNumbers[i] = contacts.get(i).phoneNumber;
+        }
+    }
+
+    @Benchmark
+    int matches(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            final int index = i % mMatchers.length;
+            if (mMatchers[index].matches(mNames[index])) {
+                dummy++;
+            }
+        }
+        return dummy;
+    }
+
+    @Benchmark
+    int matchesNumber(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            final int index = i % mMatchers.length;
+            if (mMatchers[index].matchesNumber(mNumbers[index]) != null) {
+                dummy++;
+            }
+        }
+        return dummy;
+    }
+}
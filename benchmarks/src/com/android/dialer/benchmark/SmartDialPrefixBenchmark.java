@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.benchmark.SyntheticAddressBook.Corpus;
+import com.android.dialer.database.SmartDialContact;
+import com.android.dialer.dialpad.SmartDialPrefix;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the prefix generation done for every contact when the smart dial index is built.
+ * Each repetition processes one contact, cycling through an address book of {@link #size}
+ * contacts so that the working set matches the address book.
+ */
+public class SmartDialPrefixBenchmark {
+    @Param({"LATIN", "ACCENTED", "LONG", "MIXED"})
+    Corpus corpus;
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private String[] mNames;
+    private String[] mNumbers;
+
+    @BeforeExperiment
+    void setUp() {
+        SmartDialPrefix.setUserInNanpRegion(true);
+        final ArrayList<SmartDialContact> contacts = SyntheticAddressBook.generate(size, corpus,
+                size);
+        mNames = new String[contacts.size()];
+        mNumbers = new String[contacts.size()];
+        for (int i = 0; i < contacts.size(); i++) {
+            mNames[i] = contacts.get(i).displayName;
+            mNumbers[i] = contacts.get(i).phoneNumber;
+        }
+    }
+
+    @Benchmark
+    int generateNamePrefixes(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += SmartDialPrefix.generateNamePrefixes(mNames[i % mNames.length]).size();
+        }
+        return dummy;
+    }
+
+    @Benchmark
+    int parseToIndexTokens(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += SmartDialPrefix.parseToIndexTokens(mNames[i % mNames.length]).size();
+        }
+        return dummy;
+    }
+
+    @Benchmark
+    int parseToNumberTokens(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += SmartDialPrefix.parseToNumberTokens(mNumbers[i % mNumbers.length]).size();
+        }
+        return dummy;
+    }
+}
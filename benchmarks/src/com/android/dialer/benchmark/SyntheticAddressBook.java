@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.benchmark;
+
+import com.android.dialer.database.SmartDialContact;
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+import com.android.dialer.dialpad.SmartDialPrefix;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible address books and keystroke traces for the smart dial benchmarks.
+ */
+public class SyntheticAddressBook {
+
+    /** Kinds of display names found in real address books. */
+    public enum Corpus {
+        /** Plain ASCII first and last names. */
+        LATIN,
+        /** Names containing accented Latin characters. */
+        ACCENTED,
+        /** Names with many tokens, such as company names or full Spanish names. */
+        LONG,
+        /** A mix of the above together with non-Latin scripts. */
+        MIXED
+    }
+
+    private static final String[] FIRST_NAMES = {
+        "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William",
+        "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas",
+        "Sarah", "Charles", "Karen", "Daniel", "Nancy", "Matthew", "Lisa", "Anthony", "Betty",
+        "Mark", "Margaret", "Paul", "Sandra", "Steven", "Ashley", "Andrew", "Kimberly", "Jason",
+    };
+
+    private static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+        "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson",
+        "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White",
+        "Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson", "Walker", "Young",
+    };
+
+    private static final String[] ACCENTED_NAMES = {
+        "José", "Zoë", "Renée", "Brontë", "Ångström", "Müller", "François", "Łukasz", "Søren",
+        "Ñúñez", "Çelik", "Dvořák", "Göran", "Íñigo", "Žofie", "Ærø", "Hélène", "Jürgen",
+    };
+
+    private static final String[] NON_LATIN_NAMES = {
+        "Дмитрий", "Ольга", "Γιώργος", "Ελένη", "李小龍", "王芳", "さくら", "たろう",
+        "김민준", "محمد", "שרה", "ราตรี",
+    };
+
+    private static final String[] LONG_NAME_TOKENS = {
+        "de", "la", "van", "der", "Maria", "Jose", "Carlos", "Fernandez", "Rodriguez",
+        "Plumbing", "and", "Heating", "Services", "Dr", "Jr", "Office", "Main", "Line",
+    };
+
+    private static final String[] COUNTRY_CODES = { "1", "44", "49", "33", "852", "91", "55" };
+
+    private SyntheticAddressBook() {
+    }
+
+    /**
+     * Generates an address book of {@code size} contacts, each of which has one to three numbers.
+     */
+    public static ArrayList<SmartDialContact> generate(int size, Corpus corpus, long seed) {
+        final Random random = new Random(seed);
+        final ArrayList<SmartDialContact> result = Lists.newArrayListWithCapacity(size * 2);
+        long dataId = 0;
+        for (long contactId = 0; contactId < size; contactId++) {
+            final String name = generateName(random, corpus);
+            final int numbers = 1 + (random.nextInt(10) < 7 ? 0 : random.nextInt(3));
+            for (int i = 0; i < numbers; i++) {
+                result.add(generateContact(random, dataId++, contactId, name));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of {@code contact} with a new display name, as seen after a rename.
+     */
+    public static SmartDialContact rename(SmartDialContact contact, Random random,
+            Corpus corpus) {
+        return new SmartDialContact(contact.dataId, contact.phoneNumber, contact.contactId,
+                contact.lookupKey, generateName(random, corpus), contact.photoId,
+                contact.lastTimeUsed, contact.timesUsed, contact.starred, contact.isSuperPrimary,
+                contact.inVisibleGroup, contact.isPrimary);
+    }
+
+    /**
+     * Generates {@code count} keystroke sequences. Each one is the full dialpad string a user
+     * would type to reach a random contact, by name, initials or number. Replaying a sequence
+     * issues one query per prefix.
+     */
+    public static ArrayList<String> generateKeystrokeTraces(List<SmartDialContact> contacts,
+            int count, long seed) {
+        final Random random = new Random(seed);
+        final ArrayList<String> result = Lists.newArrayListWithCapacity(count);
+        while (result.size() < count && !contacts.isEmpty()) {
+            result.add(generateKeystrokes(contacts.get(random.nextInt(contacts.size())),
+                    random));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the dialpad string a user would type to reach {@code target}, by its first name,
+     * its initials or its number. Names without any dialpad characters fall back to the number.
+     */
+    public static String generateKeystrokes(SmartDialContact target, Random random) {
+        final ArrayList<String> tokens = SmartDialPrefix.parseToIndexTokens(target.displayName);
+        if (!tokens.isEmpty()) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    return tokens.get(0);
+                case 1:
+                    final StringBuilder initials = new StringBuilder();
+                    for (String token : tokens) {
+                        initials.append(token.charAt(0));
+                    }
+                    return initials.toString();
+                default:
+                    break;
+            }
+        }
+        return SmartDialNameMatcher.normalizeNumber(target.phoneNumber, SmartDialPrefix.getMap());
+    }
+
+    private static SmartDialContact generateContact(Random random, long dataId, long contactId,
+            String name) {
+        final long now = System.currentTimeMillis();
+        final long lastTimeUsed = random.nextInt(4) == 0
+                ? now - (long) random.nextInt(60) * 24 * 60 * 60 * 1000 : 0;
+        return new SmartDialContact(dataId, generateNumber(random), contactId,
+                "lookup" + contactId, name, random.nextInt(3) == 0 ? contactId + 1 : 0,
+                lastTimeUsed, lastTimeUsed == 0 ? 0 : random.nextInt(50),
+                random.nextInt(50) == 0, false, random.nextInt(10) != 0, dataId % 2 == 0);
+    }
+
+    private static String generateNumber(Random random) {
+        final StringBuilder number = new StringBuilder();
+        switch (random.nextInt(3)) {
+            case 0:
+                number.append('+').append(COUNTRY_CODES[random.nextInt(COUNTRY_CODES.length)])
+                        .append(' ');
+                break;
+            case 1:
+                number.append("1-");
+                break;
+            default:
+                break;
+        }
+        appendDigits(random, number, 3);
+        number.append('-');
+        appendDigits(random, number, 3);
+        number.append('-');
+        appendDigits(random, number, 4);
+        return number.toString();
+    }
+
+    private static void appendDigits(Random random, StringBuilder builder, int count) {
+        for (int i = 0; i < count; i++) {
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+    }
+
+    private static String generateName(Random random, Corpus corpus) {
+        switch (corpus) {
+            case ACCENTED:
+                return pick(random, random.nextBoolean() ? ACCENTED_NAMES : FIRST_NAMES) + " "
+                        + pick(random, ACCENTED_NAMES);
+            case LONG:
+                final StringBuilder name = new StringBuilder(pick(random, FIRST_NAMES));
+                final int tokens = 3 + random.nextInt(5);
+                for (int i = 0; i < tokens; i++) {
+                    name.append(' ').append(pick(random, LONG_NAME_TOKENS));
+                }
+                return name.append(' ').append(pick(random, LAST_NAMES)).toString();
+            case MIXED:
+                final Corpus[] others = { Corpus.LATIN, Corpus.ACCENTED, Corpus.LONG };
+                if (random.nextInt(4) == 0) {
+                    return pick(random, NON_LATIN_NAMES) + " " + pick(random, NON_LATIN_NAMES);
+                }
+                return generateName(random, others[random.nextInt(others.length)]);
+            case LATIN:
+            default:
+                return pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+        }
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
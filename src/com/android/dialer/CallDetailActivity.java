@@ -57,6 +57,7 @@ import com.android.dialer.calllog.CallDetailHistoryAdapter;
 import com.android.dialer.calllog.CallTypeHelper;
 import com.android.dialer.calllog.ContactInfo;
 import com.android.dialer.calllog.ContactInfoHelper;
+import com.android.dialer.calllog.ContactInfoResolver;
 import com.android.dialer.calllog.PhoneAccountUtils;
 import com.android.dialer.calllog.PhoneNumberDisplayHelper;
 import com.android.dialer.calllog.PhoneNumberUtilsWrapper;
@@ -114,6 +115,7 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
     private TextView mAccountLabel;
     private AsyncTaskExecutor mAsyncTaskExecutor;
     private ContactInfoHelper mContactInfoHelper;
+    private ContactInfoResolver mContactInfoResolver;
 
     private String mNumber = null;
     private String mDefaultCountryIso;
@@ -251,6 +253,7 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
         mContactPhotoManager = ContactPhotoManager.getInstance(this);
         mProximitySensorManager = new ProximitySensorManager(this, mProximitySensorListener);
         mContactInfoHelper = new ContactInfoHelper(this, GeoUtil.getCurrentCountryIso(this));
+        mContactInfoResolver = ContactInfoResolver.getInstance(this);
         getActionBar().setDisplayHomeAsUpEnabled(true);
 
         optionallyHandleVoicemail();
@@ -561,7 +564,8 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
             ContactInfo info =
                     PhoneNumberUtilsWrapper.canPlaceCallsTo(number, numberPresentation)
                     && !new PhoneNumberUtilsWrapper(this).isVoicemailNumber(accountHandle, number)
-                            ? mContactInfoHelper.lookupNumber(number, countryIso)
+                            ? mContactInfoResolver.resolve(mContactInfoHelper, number,
+                                    countryIso, ContactInfoResolver.Caller.CALL_DETAILS)
                             : null;
             if (info == null) {
                 formattedNumber = mPhoneNumberHelper.getDisplayNumber(accountHandle, number,
@@ -17,10 +17,12 @@
 package com.android.dialer;
 
 import android.app.Application;
+import android.content.res.Configuration;
 
 import com.android.contacts.common.ContactPhotoManager;
 import com.android.contacts.common.extensions.ExtensionsFactory;
 import com.android.contacts.commonbind.analytics.AnalyticsUtil;
+import com.android.dialer.calllog.PhoneNumberFormatCache;
 
 public class DialerApplication extends Application {
 
@@ -33,6 +35,12 @@ public class DialerApplication extends Application {
         AnalyticsUtil.initialize(this);
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        PhoneNumberFormatCache.getInstance().onLocaleChanged(newConfig.locale);
+    }
+
     @Override
     public Object getSystemService(String name) {
         if (ContactPhotoManager.CONTACT_PHOTO_SERVICE.equals(name)) {
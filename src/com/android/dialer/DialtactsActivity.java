@@ -67,7 +67,11 @@ import com.android.contacts.common.list.OnPhoneNumberPickerActionListener;
 import com.android.contacts.common.widget.FloatingActionButtonController;
 import com.android.contacts.commonbind.analytics.AnalyticsUtil;
 import com.android.dialer.calllog.CallLogActivity;
+import com.android.dialer.calllog.CallLogStats;
+import com.android.dialer.calllog.ContactInfoResolver;
+import com.android.dialer.calllog.UnknownNumberCache;
 import com.android.dialer.database.DialerDatabaseHelper;
+import com.android.dialer.database.SmartDialStats;
 import com.android.dialer.dialpad.DialpadFragment;
 import com.android.dialer.dialpad.SmartDialNameMatcher;
 import com.android.dialer.dialpad.SmartDialPrefix;
@@ -90,6 +94,8 @@ import com.android.dialerbind.DatabaseHelperManager;
 import com.android.phone.common.animation.AnimUtils;
 import com.android.phone.common.animation.AnimationListenerAdapter;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -538,6 +544,34 @@ public class DialtactsActivity extends TransactionSafeActivity implements View.O
         mStateSaved = true;
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        final SmartDialStats stats = SmartDialStats.getInstance();
+        stats.dump(prefix, writer);
+        final CallLogStats callLogStats = CallLogStats.getInstance();
+        callLogStats.dump(prefix, writer);
+        final UnknownNumberCache unknownNumbers = UnknownNumberCache.getInstance(this);
+        unknownNumbers.dump(prefix + "  ", writer);
+        final ContactInfoResolver contactInfoResolver = ContactInfoResolver.getInstance(this);
+        contactInfoResolver.dump(prefix + "  ", writer);
+        if (args != null) {
+            for (String arg : args) {
+                if (SmartDialStats.RESET_ARG.equals(arg)) {
+                    stats.reset();
+                    writer.print(prefix);
+                    writer.println("SmartDial statistics reset");
+                } else if (CallLogStats.RESET_ARG.equals(arg)) {
+                    callLogStats.reset();
+                    unknownNumbers.resetStats();
+                    contactInfoResolver.resetStats();
+                    writer.print(prefix);
+                    writer.println("CallLog statistics reset");
+                }
+            }
+        }
+    }
+
     @Override
     public void onAttachFragment(Fragment fragment) {
         if (fragment instanceof DialpadFragment) {
@@ -31,6 +31,7 @@ import android.widget.TextView;
 import com.android.contacts.common.CallUtil;
 import com.android.contacts.common.testing.NeededForTesting;
 import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.dialer.calllog.CallLogRowModel;
 import com.android.dialer.calllog.ContactInfo;
 import com.android.dialer.calllog.PhoneAccountUtils;
 import com.android.dialer.calllog.PhoneNumberDisplayHelper;
@@ -78,6 +79,15 @@ public class PhoneCallDetailsHelper {
 
     /** Fills the call details views with content. */
     public void setPhoneCallDetails(PhoneCallDetailsViews views, PhoneCallDetails details) {
+        setPhoneCallDetails(views, details, null);
+    }
+
+    /**
+     * Fills the call details views with content, taking the values which do not depend on the
+     * contact from the given row of the call log, resolved ahead of time, if not null.
+     */
+    public void setPhoneCallDetails(PhoneCallDetailsViews views, PhoneCallDetails details,
+            CallLogRowModel row) {
         // Display up to a given number of icons.
         views.callTypeIcons.clear();
         int count = details.callTypes.length;
@@ -103,18 +113,20 @@ public class PhoneCallDetailsHelper {
             callCount = null;
         }
 
-        CharSequence callLocationAndDate = getCallLocationAndDate(details);
+        CharSequence callLocationAndDate = getCallLocationAndDate(details, row);
 
         // Set the call count, location and date.
         setCallCountAndDate(views, callCount, callLocationAndDate);
 
         // Set the account label if it exists.
-        String accountLabel = PhoneAccountUtils.getAccountLabel(mContext, details.accountHandle);
+        String accountLabel = row != null ? row.accountLabel
+                : PhoneAccountUtils.getAccountLabel(mContext, details.accountHandle);
 
         if (accountLabel != null) {
             views.callAccountLabel.setVisibility(View.VISIBLE);
             views.callAccountLabel.setText(accountLabel);
-            int color = PhoneAccountUtils.getAccountColor(mContext, details.accountHandle);
+            int color = row != null ? row.accountColor
+                    : PhoneAccountUtils.getAccountColor(mContext, details.accountHandle);
             if (color == PhoneAccount.NO_HIGHLIGHT_COLOR) {
                 int defaultColor = R.color.dialtacts_secondary_text_color;
                 views.callAccountLabel.setTextColor(mContext.getResources().getColor(defaultColor));
@@ -126,9 +138,7 @@ public class PhoneCallDetailsHelper {
         }
 
         final CharSequence nameText;
-        final CharSequence displayNumber =
-            mPhoneNumberHelper.getDisplayNumber(details.accountHandle, details.number,
-                    details.numberPresentation, details.formattedNumber);
+        final CharSequence displayNumber = getDisplayNumber(details, row);
         if (TextUtils.isEmpty(details.name)) {
             nameText = displayNumber;
             // We have a real phone number as "nameView" so make it always LTR
@@ -148,17 +158,33 @@ public class PhoneCallDetailsHelper {
         }
     }
 
+    /**
+     * Returns the string to display for the number of the call, see
+     * {@link PhoneNumberDisplayHelper#getDisplayNumber}.
+     *
+     * @param row the row of the call log of the call, or null if it is not known
+     */
+    public CharSequence getDisplayNumber(PhoneCallDetails details, CallLogRowModel row) {
+        if (row == null) {
+            return mPhoneNumberHelper.getDisplayNumber(details.accountHandle, details.number,
+                    details.numberPresentation, details.formattedNumber);
+        }
+        return PhoneNumberDisplayHelper.getDisplayNumber(row.displayName, details.number,
+                details.formattedNumber);
+    }
+
     /**
      * Builds a string containing the call location and date.
      *
      * @param details The call details.
+     * @param row The row of the call log of the call, or null if it is not known.
      * @return The call location and date string.
      */
-    private CharSequence getCallLocationAndDate(PhoneCallDetails details) {
+    private CharSequence getCallLocationAndDate(PhoneCallDetails details, CallLogRowModel row) {
         mDescriptionItems.clear();
 
         // Get type of call (ie mobile, home, etc) if known, or the caller's location.
-        CharSequence callTypeOrLocation = getCallTypeOrLocation(details);
+        CharSequence callTypeOrLocation = getCallTypeOrLocation(details, row);
 
         // Only add the call type or location if its not empty.  It will be empty for unknown
         // callers.
@@ -180,12 +206,21 @@ public class PhoneCallDetailsHelper {
      * @return Type of call (mobile/home) if known, or the location of the caller (if known).
      */
     public CharSequence getCallTypeOrLocation(PhoneCallDetails details) {
+        return getCallTypeOrLocation(details, null);
+    }
+
+    /**
+     * Like {@link #getCallTypeOrLocation(PhoneCallDetails)}, taking the values which do not
+     * depend on the contact from the given row of the call log, if not null.
+     */
+    public CharSequence getCallTypeOrLocation(PhoneCallDetails details, CallLogRowModel row) {
         CharSequence numberFormattedLabel = null;
         // Only show a label if the number is shown and it is not a SIP address.
         if (!TextUtils.isEmpty(details.number)
                 && !PhoneNumberHelper.isUriNumber(details.number.toString())
-                && !mPhoneNumberUtilsWrapper.isVoicemailNumber(details.accountHandle,
-                        details.number)) {
+                && !(row != null ? row.isVoicemailNumber
+                        : mPhoneNumberUtilsWrapper.isVoicemailNumber(details.accountHandle,
+                                details.number))) {
 
             if (details.numberLabel == ContactInfo.GEOCODE_AS_LABEL) {
                 numberFormattedLabel = details.geocode;
@@ -196,8 +231,7 @@ public class PhoneCallDetailsHelper {
         }
 
         if (!TextUtils.isEmpty(details.name) && TextUtils.isEmpty(numberFormattedLabel)) {
-            numberFormattedLabel = mPhoneNumberHelper.getDisplayNumber(details.accountHandle,
-                    details.number, details.numberPresentation, details.formattedNumber);
+            numberFormattedLabel = getDisplayNumber(details, row);
         }
         return numberFormattedLabel;
     }
@@ -22,17 +22,19 @@ import android.content.Intent;
 import android.content.Loader;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteFullException;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.CallLog.Calls;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
-import android.util.Log;
+import android.util.LruCache;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.AccessibilityDelegate;
@@ -40,7 +42,9 @@ import android.view.ViewGroup;
 import android.view.ViewStub;
 import android.view.ViewTreeObserver;
 import android.view.accessibility.AccessibilityEvent;
+import android.widget.AbsListView;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -56,15 +60,29 @@ import com.android.dialer.DialtactsActivity;
 import com.android.dialer.PhoneCallDetails;
 import com.android.dialer.PhoneCallDetailsHelper;
 import com.android.dialer.R;
+import com.android.dialer.database.DialerDatabaseHelper;
 import com.android.dialer.util.DialerUtils;
 import com.android.dialer.util.ExpirableCache;
+import com.android.dialer.util.OrderedDelivery;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
 
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Adapter class to fill in data for the Call Log.
@@ -108,48 +126,70 @@ public class CallLogAdapter extends GroupingListAdapter
         public void onReportButtonClick(String number);
     }
 
+    /** The time in millis to delay starting the thread processing requests. */
+    private static final int START_PROCESSING_REQUESTS_DELAY_MILLIS = 1000;
+
+    /** The size of the cache of contact info. */
+    private static final int CONTACT_INFO_CACHE_SIZE = 100;
+
     /**
-     * Stores a phone number of a call with the country code where it originally occurred.
-     * <p>
-     * Note the country does not necessarily specifies the country of the phone number itself, but
-     * it is the country in which the user was in when the call was placed or received.
+     * The number of segments of the cache of contact info, so that binding views on the UI thread
+     * rarely waits for the lookup thread writing to the cache.
      */
-    private static final class NumberWithCountryIso {
-        public final String number;
-        public final String countryIso;
+    private static final int CONTACT_INFO_CACHE_CONCURRENCY = 4;
 
-        public NumberWithCountryIso(String number, String countryIso) {
-            this.number = number;
-            this.countryIso = countryIso;
-        }
+    /**
+     * The maximum number of pending requests resolved together, roughly a screen of rows.
+     * See {@link ContactInfoHelper#lookupNumbers}.
+     */
+    private static final int LOOKUP_BATCH_SIZE = 20;
 
-        @Override
-        public boolean equals(Object o) {
-            if (o == null) return false;
-            if (!(o instanceof NumberWithCountryIso)) return false;
-            NumberWithCountryIso other = (NumberWithCountryIso) o;
-            return TextUtils.equals(number, other.number)
-                    && TextUtils.equals(countryIso, other.countryIso);
-        }
+    /**
+     * The number of rows away from the visible ones beyond which pending contact info requests
+     * are dropped. The rows will request their contact info again if scrolled back into view.
+     */
+    private static final int STALE_REQUEST_DISTANCE = 40;
 
-        @Override
-        public int hashCode() {
-            return (number == null ? 0 : number.hashCode())
-                    ^ (countryIso == null ? 0 : countryIso.hashCode());
-        }
-    }
+    /**
+     * The number of rows beyond the visible ones, in the direction of the scroll, whose contact
+     * info is looked up ahead of time even when the list does not move.
+     */
+    private static final int PREFETCH_MIN_ROWS = 5;
 
-    /** The time in millis to delay starting the thread processing requests. */
-    private static final int START_PROCESSING_REQUESTS_DELAY_MILLIS = 1000;
+    /**
+     * The maximum number of rows beyond the visible ones whose contact info is looked up ahead
+     * of time when scrolling fast. Must be less than {@link #STALE_REQUEST_DISTANCE}.
+     */
+    private static final int PREFETCH_MAX_ROWS = 30;
 
-    /** The size of the cache of contact info. */
-    private static final int CONTACT_INFO_CACHE_SIZE = 100;
+    /** The number of rows prefetched in the opposite direction of the scroll. */
+    private static final int PREFETCH_BEHIND_ROWS = 2;
+
+    /**
+     * Roughly the time in millis to look up a batch of contact info: the rows which will scroll
+     * into view within that time at the current speed are prefetched.
+     */
+    private static final int PREFETCH_LEAD_TIME_MILLIS = 300;
+
+    /**
+     * The maximum time in millis updated contact info waits before being written back to the
+     * call log, if the list does not become idle before.
+     */
+    private static final int CALL_LOG_UPDATE_DELAY_MILLIS = 2000;
+
+    /**
+     * The number of row models kept, enough for the pages most recently fetched: the rows of
+     * older pages read their model again when they are bound.
+     */
+    private static final int ROW_MODEL_CACHE_SIZE = 2 * CallLogQueryHandler.PAGE_SIZE;
 
     /** Constant used to indicate no row is expanded. */
     private static final long NONE_EXPANDED = -1;
 
     protected final Context mContext;
     private final ContactInfoHelper mContactInfoHelper;
+    /** Shares the lookups of the numbers with the other parts of the dialer. */
+    private final ContactInfoResolver mContactInfoResolver;
     private final CallFetcher mCallFetcher;
     private final Toast mReportedToast;
     private final OnReportButtonClickListener mOnReportButtonClickListener;
@@ -176,20 +216,6 @@ public class CallLogAdapter extends GroupingListAdapter
      */
     private long mCurrentlyExpanded = NONE_EXPANDED;
 
-    /**
-     *  Hashmap, keyed by call Id, used to track the day group for a call.  As call log entries are
-     *  put into the primary call groups in {@link com.android.dialer.calllog.CallLogGroupBuilder},
-     *  they are also assigned a secondary "day group".  This hashmap tracks the day group assigned
-     *  to all calls in the call log.  This information is used to trigger the display of a day
-     *  group header above the call log entry at the start of a day group.
-     *  Note: Multiple calls are grouped into a single primary "call group" in the call log, and
-     *  the cursor used to bind rows includes all of these calls.  When determining if a day group
-     *  change has occurred it is necessary to look at the last entry in the call log to determine
-     *  its day group.  This hashmap provides a means of determining the previous day group without
-     *  having to reverse the cursor to the start of the previous day call log entry.
-     */
-    private HashMap<Long,Integer> mDayGroups = new HashMap<Long, Integer>();
-
     /**
      * A request for contact details for the given number.
      */
@@ -233,22 +259,163 @@ public class CallLogAdapter extends GroupingListAdapter
         }
     }
 
+    /** Resolves the values of the rows with the telephony services. */
+    private static final class TelephonyRowModelResolver implements CallLogRowModel.Resolver {
+        private final Context mContext;
+        private final PhoneNumberUtilsWrapper mPhoneNumberUtilsWrapper;
+        private final PhoneNumberDisplayHelper mPhoneNumberHelper;
+
+        public TelephonyRowModelResolver(Context context, Resources resources,
+                PhoneNumberUtilsWrapper phoneNumberUtilsWrapper) {
+            mContext = context;
+            mPhoneNumberUtilsWrapper = phoneNumberUtilsWrapper;
+            mPhoneNumberHelper =
+                    new PhoneNumberDisplayHelper(context, resources, phoneNumberUtilsWrapper);
+        }
+
+        @Override
+        public boolean isVoicemailNumber(PhoneAccountHandle accountHandle, CharSequence number) {
+            return mPhoneNumberUtilsWrapper.isVoicemailNumber(accountHandle, number);
+        }
+
+        @Override
+        public CharSequence getDisplayName(CharSequence number, int presentation,
+                boolean isVoicemailNumber) {
+            return mPhoneNumberHelper.getDisplayName(number, presentation, isVoicemailNumber);
+        }
+
+        @Override
+        public String getAccountLabel(PhoneAccountHandle accountHandle) {
+            return PhoneAccountUtils.getAccountLabel(mContext, accountHandle);
+        }
+
+        @Override
+        public int getAccountColor(PhoneAccountHandle accountHandle) {
+            return PhoneAccountUtils.getAccountColor(mContext, accountHandle);
+        }
+    }
+
     /**
-     * List of requests to update contact details.
+     * Queue of requests to update contact details.
      * <p>
      * Each request is made of a phone number to look up, and the contact info currently stored in
      * the call log for this number.
      * <p>
-     * The requests are added when displaying the contacts and are processed by a background
-     * thread.
+     * The requests are added when displaying the contacts and are processed by
+     * {@link #mLookupExecutor}, rows closest to the visible part of the list first.
      */
-    private final LinkedList<ContactInfoRequest> mRequests;
+    private final ViewportRequestQueue<ContactInfoRequest> mRequests;
+
+    /** The list position of the row being bound, used to prioritize its requests. */
+    private int mBindPosition;
+
+    /** The rows beyond the visible ones whose contact info is looked up ahead of time. */
+    private final ScrollPrefetchWindow mPrefetchWindow = new ScrollPrefetchWindow(
+            PREFETCH_MIN_ROWS, PREFETCH_MAX_ROWS, PREFETCH_BEHIND_ROWS, PREFETCH_LEAD_TIME_MILLIS);
+
+    /**
+     * The range of list positions whose contact info was last prefetched, not checked again
+     * until they leave the prefetch window. Only used on the UI thread.
+     */
+    private int mPrefetchedFirst = 0;
+    private int mPrefetchedLast = -1;
+
+    /** The list the rows were last bound for, used to rebind the visible rows in place. */
+    private WeakReference<ViewGroup> mListView;
+
+    /**
+     * The numbers whose contact info changed since the last redraw.
+     * <p>
+     * Added to by the background thread, read by the UI thread at the next frame.
+     */
+    private final HashSet<String> mUpdatedNumbers = new HashSet<String>();
+
+    /** Whether a redraw has been scheduled for the next frame. Only used on the UI thread. */
+    private boolean mRedrawScheduled;
 
     private boolean mLoading = true;
     private static final int REDRAW = 1;
     private static final int START_THREAD = 2;
+    private static final int FLUSH_CALL_LOG_UPDATES = 3;
+
+    /**
+     * Runs {@link #mLookupTask} on up to {@link #mLookupWorkerCount} low priority threads, each
+     * looking up a batch of requests at a time. The lookups mostly wait for the contacts
+     * provider, so several of them resolve the first pages of a long call log sooner.
+     */
+    private ThreadPoolExecutor mLookupExecutor;
+
+    /**
+     * The maximum number of batches of requests looked up at once, set by
+     * {@code R.integer.config_call_log_lookup_workers}.
+     */
+    private final int mLookupWorkerCount;
+
+    /**
+     * The number of runs of {@link #mLookupTask} started or queued and not finished yet. Only
+     * accessed while synchronized on the adapter.
+     */
+    private int mScheduledLookupWorkers;
+
+    /**
+     * Held for reading while a batch of requests is looked up and delivered, and for writing
+     * while the cached contact info affected by changes to the contacts is expired, so that the
+     * expiry is neither overtaken by a lookup started before it nor overwritten by its result.
+     */
+    private final ReadWriteLock mLookupLock = new ReentrantReadWriteLock();
+
+    /**
+     * Delivers the results of the batches in the order they were taken from {@link #mRequests},
+     * closest to the visible rows first, whichever lookup finishes first.
+     */
+    private final OrderedDelivery mLookupDelivery = new OrderedDelivery();
+
+    /** Held while a batch is taken from {@link #mRequests} and given its delivery ticket. */
+    private final Object mPollLock = new Object();
+
+    /** Accumulates the updated contact info to write back to the call log. */
+    private final CallLogCacheUpdater mCallLogCacheUpdater;
+
+    /**
+     * The contact info last written back, or about to be, to the call log for each number. The
+     * rows already loaded keep the values they were read with, since writing back the contact
+     * info adds, removes or reads no call and so does not reload them: these values take
+     * precedence, so that the rows are not found out of date again and again. The cached models
+     * of the rows are replaced with these values when next used, see {@link #getRowModel}.
+     */
+    private final LruCache<NumberWithCountryIso, ContactInfo> mWrittenCallLogInfo =
+            new LruCache<NumberWithCountryIso, ContactInfo>(CONTACT_INFO_CACHE_SIZE);
+
+    /** Keeps the looked up contact info across restarts of the process. */
+    private final PersistentContactInfoCache mPersistentContactInfoCache;
+
+    /** Finds the contacts changed since the cached contact info was last checked. */
+    private final ContactsChangeTracker mContactsChangeTracker;
+
+    /**
+     * Whether the contacts may have changed since the cached contact info was last checked.
+     * Initially true, to catch up with the changes made while the process was not running.
+     */
+    private final AtomicBoolean mContactsChanged = new AtomicBoolean(true);
+
+    /** Whether the list is not scrolling; updates are written back to the call log when idle. */
+    private volatile boolean mListIdle = true;
+
+    /** Resolves the values of the rows which are not stored in the call log. */
+    private final CallLogRowModel.Resolver mRowModelResolver;
+
+    /**
+     * The models of the rows, by row id, read on the worker thread of the query handler along
+     * with the pages of calls, or when first bound otherwise. Only used on the UI thread.
+     */
+    private final LruCache<Long, CallLogRowModel> mRowModels =
+            new LruCache<Long, CallLogRowModel>(ROW_MODEL_CACHE_SIZE);
 
-    private QueryThread mCallerIdThread;
+    /**
+     * Whether the cursor is being changed to a cursor over pages of calls, whose row models are
+     * given with the pages, see {@link #putRowModels}. Any other new cursor may have changed rows.
+     */
+    private boolean mChangingToPages;
 
     /** Instance of helper class for managing views. */
     private final CallLogListItemHelper mCallLogViewsHelper;
@@ -261,6 +428,25 @@ public class CallLogAdapter extends GroupingListAdapter
     protected final PhoneNumberUtilsWrapper mPhoneNumberUtilsWrapper;
     /** Helper to group call log entries. */
     private final CallLogGroupBuilder mCallLogGroupBuilder;
+    /**
+     * While {@link #changeCursorWithNewHead} runs, the number of calls at the start of the new
+     * cursor which are new or changed, and the number of calls of the previous cursor they
+     * replace. The head count is -1 otherwise.
+     */
+    private int mNewHeadCount = -1;
+    private int mReplacedHeadCount;
+    /**
+     * While {@link #changeCursor(Cursor, CallLogGroupLayout)} runs, the groups of the new cursor,
+     * found on a background thread.
+     */
+    private CallLogGroupLayout mNewGroupLayout;
+    /**
+     * The groups of the calls of the cursor, and the day group of each call. As call log entries
+     * are put into the primary call groups in {@link CallLogGroupBuilder}, they are also assigned
+     * a secondary "day group", used to display a day group header above the call log entry at
+     * the start of a day group.
+     */
+    private CallLogGroupLayout mGroupLayout;
 
     private CallItemExpandedListener mCallItemExpandedListener;
 
@@ -331,7 +517,7 @@ public class CallLogAdapter extends GroupingListAdapter
 
         // Only schedule a thread-creation message if the thread hasn't been
         // created yet. This is purely an optimization, to queue fewer messages.
-        if (mCallerIdThread == null) {
+        if (mLookupExecutor == null) {
             mHandler.sendEmptyMessageDelayed(START_THREAD, START_PROCESSING_REQUESTS_DELAY_MILLIS);
         }
 
@@ -343,11 +529,14 @@ public class CallLogAdapter extends GroupingListAdapter
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case REDRAW:
-                    notifyDataSetChanged();
+                    scheduleRedraw();
                     break;
                 case START_THREAD:
                     startRequestProcessing();
                     break;
+                case FLUSH_CALL_LOG_UPDATES:
+                    flushCallLogUpdatesInBackground();
+                    break;
             }
         }
     };
@@ -360,6 +549,7 @@ public class CallLogAdapter extends GroupingListAdapter
         mContext = context;
         mCallFetcher = callFetcher;
         mContactInfoHelper = contactInfoHelper;
+        mContactInfoResolver = ContactInfoResolver.getInstance(context);
         mIsCallLog = isCallLog;
         mCallItemExpandedListener = callItemExpandedListener;
 
@@ -367,10 +557,21 @@ public class CallLogAdapter extends GroupingListAdapter
         mReportedToast = Toast.makeText(mContext, R.string.toast_caller_id_reported,
                 Toast.LENGTH_SHORT);
 
-        mContactInfoCache = ExpirableCache.create(CONTACT_INFO_CACHE_SIZE);
-        mRequests = new LinkedList<ContactInfoRequest>();
+        mContactInfoCache = new ExpirableCache.Builder<NumberWithCountryIso, ContactInfo>()
+                .setName("contactInfoCache")
+                .setMaxSize(CONTACT_INFO_CACHE_SIZE)
+                .setConcurrencyLevel(CONTACT_INFO_CACHE_CONCURRENCY)
+                .build();
+        mRequests = new ViewportRequestQueue<ContactInfoRequest>(STALE_REQUEST_DISTANCE);
+        mCallLogCacheUpdater = new CallLogCacheUpdater(mContext.getContentResolver());
+        final DialerDatabaseHelper dbHelper = DialerDatabaseHelper.getInstance(mContext);
+        mPersistentContactInfoCache = new PersistentContactInfoCache(dbHelper);
+        mContactsChangeTracker =
+                new ContactsChangeTracker(mContext.getContentResolver(), dbHelper);
 
         Resources resources = mContext.getResources();
+        mLookupWorkerCount =
+                Math.max(1, resources.getInteger(R.integer.config_call_log_lookup_workers));
         CallTypeHelper callTypeHelper = new CallTypeHelper(resources);
         mCallLogBackgroundColor = resources.getColor(R.color.background_dialer_list_items);
         mExpandedBackgroundColor = resources.getColor(R.color.call_log_expanded_background_color);
@@ -380,6 +581,8 @@ public class CallLogAdapter extends GroupingListAdapter
         mContactPhotoManager = ContactPhotoManager.getInstance(mContext);
         mPhoneNumberHelper = new PhoneNumberDisplayHelper(mContext, resources);
         mPhoneNumberUtilsWrapper = new PhoneNumberUtilsWrapper(mContext);
+        mRowModelResolver = new TelephonyRowModelResolver(mContext, resources,
+                mPhoneNumberUtilsWrapper);
         PhoneCallDetailsHelper phoneCallDetailsHelper =
                 new PhoneCallDetailsHelper(mContext, resources, mPhoneNumberUtilsWrapper);
         mCallLogViewsHelper =
@@ -411,19 +614,31 @@ public class CallLogAdapter extends GroupingListAdapter
     }
 
     /**
-     * Starts a background thread to process contact-lookup requests, unless one
-     * has already been started.
+     * Starts the background threads to process contact-lookup requests, unless they
+     * have already been started.
      */
     private synchronized void startRequestProcessing() {
         // For unit-testing.
         if (mRequestProcessingDisabled) return;
 
         // Idempotence... if a thread is already started, don't start another.
-        if (mCallerIdThread != null) return;
-
-        mCallerIdThread = new QueryThread();
-        mCallerIdThread.setPriority(Thread.MIN_PRIORITY);
-        mCallerIdThread.start();
+        if (mLookupExecutor != null) return;
+
+        // The runs of the task are bounded by scheduleRequestProcessing(), not by the queue.
+        mLookupExecutor = new ThreadPoolExecutor(mLookupWorkerCount, mLookupWorkerCount,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread =
+                                new Thread(runnable, "CallLogAdapter.Lookup #" + ++mCount);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        scheduleRequestProcessing();
     }
 
     /**
@@ -433,12 +648,189 @@ public class CallLogAdapter extends GroupingListAdapter
     public synchronized void stopRequestProcessing() {
         // Remove any pending requests to start the processing thread.
         mHandler.removeMessages(START_THREAD);
-        if (mCallerIdThread != null) {
-            // Stop the thread; we are finished with it.
-            mCallerIdThread.stopProcessing();
-            mCallerIdThread.interrupt();
-            mCallerIdThread = null;
+        if (mLookupExecutor != null) {
+            // Stop the threads; we are finished with them. The runs of the task still queued
+            // will never finish.
+            mScheduledLookupWorkers -= mLookupExecutor.shutdownNow().size();
+            mLookupExecutor = null;
+        }
+        // Do not hold on to the updates accumulated so far.
+        flushCallLogUpdatesInBackground();
+    }
+
+    /**
+     * Notifies the adapter of a change in the scroll state of the list. Updated contact info is
+     * written back to the call log once the list is idle.
+     *
+     * @param scrollState one of the {@link android.widget.AbsListView.OnScrollListener} scroll
+     *        states
+     */
+    public void onScrollStateChanged(int scrollState) {
+        mListIdle = scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE;
+        if (mListIdle) {
+            mPrefetchWindow.onScrollStopped();
+            flushCallLogUpdatesInBackground();
+        }
+    }
+
+    /**
+     * Writes back the pending contact info updates to the call log, on a background thread.
+     */
+    private void flushCallLogUpdatesInBackground() {
+        mHandler.removeMessages(FLUSH_CALL_LOG_UPDATES);
+        if (mCallLogCacheUpdater.hasPendingUpdates()) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(mFlushCallLogUpdatesTask);
+        }
+    }
+
+    private final Runnable mFlushCallLogUpdatesTask = new Runnable() {
+        @Override
+        public void run() {
+            mCallLogCacheUpdater.flush();
+        }
+    };
+
+    /**
+     * Schedules processing of the pending requests, if the background threads have been started:
+     * up to one run of the lookup task for each batch of pending requests, within the number of
+     * lookup workers. The runs take the requests added from now on as well.
+     */
+    private synchronized void scheduleRequestProcessing() {
+        if (mLookupExecutor == null) {
+            return;
+        }
+        final int pendingBatches =
+                (mRequests.size() + LOOKUP_BATCH_SIZE - 1) / LOOKUP_BATCH_SIZE;
+        final int wantedWorkers = Math.min(mLookupWorkerCount,
+                Math.max(pendingBatches, mContactsChanged.get() ? 1 : 0));
+        while (mScheduledLookupWorkers < wantedWorkers) {
+            mScheduledLookupWorkers++;
+            mLookupExecutor.execute(mLookupTask);
+        }
+    }
+
+    /**
+     * Called by each run of the lookup task when it finishes, schedules another run if requests
+     * were added after it last found the queue empty.
+     */
+    private synchronized void onLookupWorkerFinished() {
+        mScheduledLookupWorkers--;
+        scheduleRequestProcessing();
+    }
+
+    /**
+     * Updates the range of rows currently visible in the list, so that the pending requests for
+     * these rows are processed first. Requests for rows which are now far away are dropped.
+     * <p>
+     * The contact info of the rows about to scroll into view is then requested ahead of time,
+     * see {@link #prefetchContactInfo()}.
+     *
+     * @param firstVisible the list position of the first visible row
+     * @param lastVisible the list position of the last visible row
+     */
+    public void onViewportChanged(int firstVisible, int lastVisible) {
+        for (ContactInfoRequest request : mRequests.setViewport(firstVisible, lastVisible)) {
+            // Remove the placeholder put in the cache when the request was made, so that the
+            // request is made again if the row is scrolled back into view.
+            final NumberWithCountryIso numberCountryIso =
+                    new NumberWithCountryIso(request.number, request.countryIso);
+            if (mContactInfoCache.getPossiblyExpired(numberCountryIso) == ContactInfo.EMPTY) {
+                mContactInfoCache.remove(numberCountryIso);
+            }
+        }
+        mPrefetchWindow.onViewportChanged(firstVisible, lastVisible, SystemClock.uptimeMillis());
+        prefetchContactInfo();
+    }
+
+    /**
+     * Requests at a low priority the contact info of the rows in the prefetch window which are
+     * not visible yet, reading their numbers from the cursor, so that it is already cached when
+     * they scroll into view. Rows already checked for the current window are skipped.
+     * <p>
+     * Prefetching stops while every lookup worker has a full batch of requests pending, so that
+     * it does not hold up the requests of the rows being bound; the remaining rows are checked
+     * when the viewport next changes.
+     */
+    private void prefetchContactInfo() {
+        final int first = Math.max(0, mPrefetchWindow.getFirst());
+        int last = Math.min(getCount() - 1, mPrefetchWindow.getLast());
+        final int maxPendingRequests = mLookupWorkerCount * LOOKUP_BATCH_SIZE;
+        for (int position = first; position <= last; position++) {
+            if (position >= mPrefetchedFirst && position <= mPrefetchedLast) {
+                continue;
+            }
+            if (mRequests.size() >= maxPendingRequests) {
+                CallLogStats.getInstance().onPrefetchDeferred();
+                last = position - 1;
+                break;
+            }
+            final Cursor c = (Cursor) getItem(position);
+            if (c != null) {
+                prefetchContactInfo(c, position);
+            }
+        }
+        mPrefetchedFirst = first;
+        mPrefetchedLast = last;
+    }
+
+    /**
+     * Requests at a low priority the contact info of the row the cursor points to, unless it is
+     * already cached and up to date.
+     */
+    private void prefetchContactInfo(Cursor c, int position) {
+        // The model of the row, if already read, saves querying the telephony services.
+        CallLogRowModel row = mRowModels.get(c.getLong(CallLogQuery.ID));
+        if (row != null) {
+            row = withWrittenCallLogInfo(row);
+        }
+        final String number = c.getString(CallLogQuery.NUMBER);
+        final int numberPresentation = c.getInt(CallLogQuery.NUMBER_PRESENTATION);
+        if (!PhoneNumberUtilsWrapper.canPlaceCallsTo(number, numberPresentation)) {
+            return;
+        }
+        final boolean isVoicemailNumber;
+        if (row != null) {
+            isVoicemailNumber = row.isVoicemailNumber;
+        } else {
+            final PhoneAccountHandle accountHandle = PhoneAccountUtils.getAccount(
+                    c.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME),
+                    c.getString(CallLogQuery.ACCOUNT_ID));
+            isVoicemailNumber = mPhoneNumberUtilsWrapper.isVoicemailNumber(accountHandle, number);
+        }
+        if (isVoicemailNumber) {
+            return;
+        }
+        final String countryIso = c.getString(CallLogQuery.COUNTRY_ISO);
+        final NumberWithCountryIso numberCountryIso = new NumberWithCountryIso(number, countryIso);
+        final ExpirableCache.CachedValue<ContactInfo> cachedInfo =
+                mContactInfoCache.getCachedValue(numberCountryIso);
+        if (cachedInfo != null && !cachedInfo.isExpired()) {
+            // Either up to date, or already requested.
+            return;
+        }
+        if (cachedInfo == null) {
+            // Binding the row will not request it again.
+            mContactInfoCache.put(numberCountryIso, ContactInfo.EMPTY);
         }
+        final ContactInfoRequest request = new ContactInfoRequest(number, countryIso,
+                row != null ? row.callLogInfo
+                        : getCallLogInfo(numberCountryIso, getContactInfoFromCallLog(c)));
+        if (mRequests.addPrefetch(request, position)) {
+            CallLogStats.getInstance().onPrefetchRequested();
+            scheduleRequestProcessing();
+        }
+    }
+
+    /**
+     * Forgets which rows were prefetched, so that they are checked again: after the list
+     * changes, or the cached contact info is expired. The scroll speed is forgotten as well,
+     * since the positions it was measured with may have shifted; the window follows the
+     * viewport again once it next changes.
+     */
+    private void resetPrefetch() {
+        mPrefetchedFirst = 0;
+        mPrefetchedLast = -1;
+        mPrefetchWindow.reset();
     }
 
     /**
@@ -451,14 +843,87 @@ public class CallLogAdapter extends GroupingListAdapter
         mViewTreeObserver = null;
     }
 
+    /**
+     * Marks the cached contact info which may be out of date as expired, so that it is looked up
+     * again once shown.
+     * <p>
+     * Only the contact info from remote sources is expired right away, along with the
+     * placeholders of the numbers whose lookup failed, which are requested again. The contact
+     * info affected by changes to the contacts is expired by the background thread, once
+     * restarted.
+     */
     public void invalidateCache() {
-        mContactInfoCache.expireAll();
+        for (Map.Entry<NumberWithCountryIso, ContactInfo> entry
+                : mContactInfoCache.snapshot().entrySet()) {
+            final ContactInfo info = entry.getValue();
+            if (info == ContactInfo.EMPTY || info.sourceType != 0) {
+                mContactInfoCache.expire(entry.getKey());
+            }
+        }
+        // Otherwise the lookups would get the same contact info back from the resolver.
+        mContactInfoResolver.expireRemoteSources();
+        mContactsChanged.set(true);
+        resetPrefetch();
 
         // Restart the request-processing thread after the next draw.
         stopRequestProcessing();
         unregisterPreDrawListener();
     }
 
+    /**
+     * Notifies the adapter that the contacts have changed. The cached contact info they affect is
+     * expired, and the rows showing it are looked up again.
+     */
+    public void onContactsChanged() {
+        mContactsChanged.set(true);
+        scheduleRequestProcessing();
+    }
+
+    /**
+     * Expires the cached contact info affected by the changes to the contacts since they were
+     * last checked, and schedules a redraw of the rows showing it so that they request it again.
+     * <p>
+     * Runs on a background thread, holding {@link #mLookupLock} for writing, so that the changes
+     * cannot be overwritten by the result of a lookup started before them.
+     */
+    private void expireChangedContactInfo() {
+        final ContactsChangeTracker.Changes changes = mContactsChangeTracker.queryChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        mPersistentContactInfoCache.removeAffected(changes);
+        mContactsChangeTracker.markPersistentCacheHandled(changes);
+        // The resolver is told about the changes by its own observer too, maybe too late for
+        // the lookups made from now on.
+        mContactInfoResolver.onContactsChanged();
+
+        int expiredCount = 0;
+        int keptCount = 0;
+        for (Map.Entry<NumberWithCountryIso, ContactInfo> entry
+                : mContactInfoCache.snapshot().entrySet()) {
+            final ContactInfo info = entry.getValue();
+            if (info == ContactInfo.EMPTY) {
+                // Already being looked up.
+                continue;
+            }
+            if (changes.affects(info)) {
+                mContactInfoCache.expire(entry.getKey());
+                synchronized (mUpdatedNumbers) {
+                    mUpdatedNumbers.add(entry.getKey().number);
+                }
+                expiredCount++;
+            } else {
+                keptCount++;
+            }
+        }
+        mContactsChangeTracker.markHandled(changes);
+        CallLogStats.getInstance().onContactsChangesHandled(changes.all, expiredCount,
+                keptCount);
+        if (expiredCount > 0) {
+            mHandler.sendEmptyMessage(REDRAW);
+        }
+    }
+
     /**
      * Enqueues a request to look up the contact details for the given phone number.
      * <p>
@@ -471,29 +936,91 @@ public class CallLogAdapter extends GroupingListAdapter
     protected void enqueueRequest(String number, String countryIso, ContactInfo callLogInfo,
             boolean immediate) {
         ContactInfoRequest request = new ContactInfoRequest(number, countryIso, callLogInfo);
-        synchronized (mRequests) {
-            if (!mRequests.contains(request)) {
-                mRequests.add(request);
-                mRequests.notifyAll();
-            }
+        if (mRequests.add(request, mBindPosition)) {
+            scheduleRequestProcessing();
         }
         if (immediate) startRequestProcessing();
     }
 
     /**
-     * Queries the appropriate content provider for the contact associated with the number.
+     * Queries the contact info for several requests at once, so that most of the numbers can be
+     * resolved with a single provider query.
      * <p>
-     * Upon completion it also updates the cache in the call log, if it is different from
-     * {@code callLogInfo}.
+     * The numbers are first looked up in the persistent cache, which still holds the results of
+     * earlier lookups if the contacts have not changed since, even after the process was killed.
+     * Only the others are resolved with the contacts provider, through the resolver shared with
+     * the other parts of the dialer.
+     * <p>
+     * The contact info found is delivered to the cache by {@link #deliverContactInfo}.
+     * <p>
+     * The numbers might be either SIP addresses or phone numbers.
+     *
+     * @return the contact info found for each number
+     */
+    private Map<NumberWithCountryIso, ContactInfo> queryContactInfo(
+            List<ContactInfoRequest> requests) {
+        final Set<NumberWithCountryIso> numbers = Sets.newLinkedHashSet();
+        for (ContactInfoRequest request : requests) {
+            numbers.add(new NumberWithCountryIso(request.number, request.countryIso));
+        }
+        final long lookupStartMillis = System.currentTimeMillis();
+        final Map<NumberWithCountryIso, ContactInfo> infos =
+                mPersistentContactInfoCache.getAll(numbers);
+        CallLogStats.getInstance().onPersistentCacheRead(infos.size(),
+                numbers.size() - infos.size());
+        numbers.removeAll(infos.keySet());
+        if (!numbers.isEmpty()) {
+            final Map<NumberWithCountryIso, ContactInfo> lookedUpInfos =
+                    mContactInfoResolver.resolveAll(mContactInfoHelper, numbers,
+                            ContactInfoResolver.Caller.CALL_LOG);
+            mPersistentContactInfoCache.putAll(lookedUpInfos, lookupStartMillis);
+            infos.putAll(lookedUpInfos);
+        }
+        return infos;
+    }
+
+    /**
+     * Stores the contact info found by {@link #queryContactInfo} in the cache, and updates the
+     * cache in the call log for the requests whose {@code callLogInfo} is different.
      * <p>
-     * The number might be either a SIP address or a phone number.
+     * It returns true if it updated the content of the cache for any of the requests.
+     *
+     * @param loadNanos the time it took to look up each number
+     * @param interrupted whether the lookup was interrupted, so that the numbers without contact
+     *        info may not have been looked up at all
+     */
+    private boolean deliverContactInfo(List<ContactInfoRequest> requests,
+            Map<NumberWithCountryIso, ContactInfo> infos, long loadNanos, boolean interrupted) {
+        boolean updated = false;
+        for (ContactInfoRequest request : requests) {
+            final NumberWithCountryIso numberCountryIso =
+                    new NumberWithCountryIso(request.number, request.countryIso);
+            final ContactInfo info = infos.get(numberCountryIso);
+            if (info == null && interrupted
+                    && mContactInfoCache.getPossiblyExpired(numberCountryIso)
+                            == ContactInfo.EMPTY) {
+                // Binding or prefetching the row would take the placeholder for a request still
+                // pending: remove it so that the number is requested again.
+                mContactInfoCache.remove(numberCountryIso);
+                continue;
+            }
+            updated |= updateContactInfo(request.number, request.countryIso, info,
+                    request.callLogInfo, loadNanos);
+        }
+        return updated;
+    }
+
+    /**
+     * Stores the result of a lookup in the cache, and in the call log if it is different from
+     * {@code callLogInfo}.
      * <p>
      * It returns true if it updated the content of the cache and we should therefore tell the
      * view to update its content.
+     *
+     * @param loadNanos the time it took to look up the contact info
      */
-    private boolean queryContactInfo(String number, String countryIso, ContactInfo callLogInfo) {
-        final ContactInfo info = mContactInfoHelper.lookupNumber(number, countryIso);
-
+    private boolean updateContactInfo(String number, String countryIso, ContactInfo info,
+            ContactInfo callLogInfo, long loadNanos) {
         if (info == null) {
             // The lookup failed, just return without requesting to update the view.
             return false;
@@ -512,78 +1039,248 @@ public class CallLogAdapter extends GroupingListAdapter
 
         // Exception: Photo uris for contacts from remote sources are not cached in the call log
         // cache, so we have to force a redraw for these contacts regardless.
-        boolean updated = (existingInfo != ContactInfo.EMPTY || isRemoteSource) &&
-                !info.equals(existingInfo);
+        // Also redraw if the row is showing contact info from the call log which does not match:
+        // the write-back to the call log does not reload it.
+        boolean updated = (existingInfo != ContactInfo.EMPTY || isRemoteSource
+                || !callLogInfoMatches(callLogInfo, info)) && !info.equals(existingInfo);
 
         // Store the data in the cache so that the UI thread can use to display it. Store it
         // even if it has not changed so that it is marked as not expired.
-        mContactInfoCache.put(numberCountryIso, info);
+        mContactInfoCache.put(numberCountryIso, info, loadNanos);
+        if (updated) {
+            synchronized (mUpdatedNumbers) {
+                mUpdatedNumbers.add(number);
+            }
+        }
         // Update the call log even if the cache it is up-to-date: it is possible that the cache
         // contains the value from a different call log entry.
         updateCallLogContactInfoCache(number, countryIso, info, callLogInfo);
         return updated;
     }
 
-    /*
-     * Handles requests for contact name and number type.
+    /**
+     * Handles requests for contact name and number type, until there are no more pending
+     * requests or the background threads are stopped. Several runs of the task may handle the
+     * requests at once, see {@link #scheduleRequestProcessing}.
      */
-    private class QueryThread extends Thread {
-        private volatile boolean mDone = false;
-
-        public QueryThread() {
-            super("CallLogAdapter.QueryThread");
-        }
-
-        public void stopProcessing() {
-            mDone = true;
-        }
-
+    private final Runnable mLookupTask = new Runnable() {
         @Override
         public void run() {
-            boolean needRedraw = false;
-            while (true) {
-                // Check if thread is finished, and if so return immediately.
-                if (mDone) return;
-
-                // Obtain next request, if any is available.
-                // Keep synchronized section small.
-                ContactInfoRequest req = null;
-                synchronized (mRequests) {
-                    if (!mRequests.isEmpty()) {
-                        req = mRequests.removeFirst();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (mContactsChanged.getAndSet(false)) {
+                        mLookupLock.writeLock().lock();
+                        try {
+                            expireChangedContactInfo();
+                        } finally {
+                            mLookupLock.writeLock().unlock();
+                        }
+                    }
+                    if (!lookUpNextBatch()) {
+                        break;
                     }
                 }
 
-                if (req != null) {
-                    // Process the request. If the lookup succeeds, schedule a
-                    // redraw.
-                    needRedraw |= queryContactInfo(req.number, req.countryIso, req.callLogInfo);
-                } else {
-                    // Throttle redraw rate by only sending them when there are
-                    // more requests.
-                    if (needRedraw) {
-                        needRedraw = false;
-                        mHandler.sendEmptyMessage(REDRAW);
-                    }
+                // All the visible rows are resolved: unless the user is still scrolling, now is
+                // a good time to write the updated contact info back to the call log.
+                if (mListIdle) {
+                    mCallLogCacheUpdater.flush();
+                }
+            } finally {
+                onLookupWorkerFinished();
+            }
+        }
+    };
 
-                    // Wait until another request is available, or until this
-                    // thread is no longer needed (as indicated by being
-                    // interrupted).
-                    try {
-                        synchronized (mRequests) {
-                            mRequests.wait(1000);
+    /**
+     * Looks up the contact info of the next batch of pending requests, and delivers it once the
+     * batches taken before are delivered.
+     *
+     * @return false if there were no pending requests
+     */
+    private boolean lookUpNextBatch() {
+        mLookupLock.readLock().lock();
+        try {
+            final ArrayList<ContactInfoRequest> requests;
+            final long ticket;
+            synchronized (mPollLock) {
+                requests = mRequests.poll(LOOKUP_BATCH_SIZE);
+                if (requests.isEmpty()) {
+                    return false;
+                }
+                ticket = mLookupDelivery.start();
+            }
+
+            final long startNanos = System.nanoTime();
+            Runnable delivery = null;
+            try {
+                final Map<NumberWithCountryIso, ContactInfo> infos = queryContactInfo(requests);
+                // Stopping the request processing interrupts the workers, and the resolver then
+                // returns without the numbers it has not resolved yet.
+                final boolean interrupted = Thread.currentThread().isInterrupted();
+                // The requests are resolved together: each of them is accounted an equal share.
+                final long loadNanos = (System.nanoTime() - startNanos) / requests.size();
+                delivery = new Runnable() {
+                    @Override
+                    public void run() {
+                        // If any lookup succeeds, schedule a redraw: redraws are coalesced to
+                        // one per frame, so there is no need to wait for the queue to drain.
+                        if (deliverContactInfo(requests, infos, loadNanos, interrupted)) {
+                            mHandler.sendEmptyMessage(REDRAW);
                         }
-                    } catch (InterruptedException ie) {
-                        // Ignore, and attempt to continue processing requests.
                     }
-                }
+                };
+            } finally {
+                mLookupDelivery.finish(ticket, delivery);
             }
+            CallLogStats.getInstance().onLookupBatchFinished(requests.size(),
+                    System.nanoTime() - startNanos);
+            return true;
+        } finally {
+            mLookupLock.readLock().unlock();
         }
     }
 
     @Override
     protected void addGroups(Cursor cursor) {
-        mCallLogGroupBuilder.addGroups(cursor);
+        resetPrefetch();
+        if (mNewGroupLayout != null && mNewGroupLayout.getCount() == cursor.getCount()) {
+            // Only the groups need to be created.
+            CallLogStats.getInstance().onGroupLayoutAdopted();
+            mCallLogGroupBuilder.setLayout(mNewGroupLayout);
+            mNewGroupLayout.addGroups(this);
+        } else {
+            CallLogStats.getInstance().onGroupedOnUiThread();
+            if (mNewHeadCount >= 0) {
+                mCallLogGroupBuilder.addGroups(cursor, mNewHeadCount, mReplacedHeadCount);
+            } else {
+                mCallLogGroupBuilder.addGroups(cursor);
+            }
+        }
+        mGroupLayout = mCallLogGroupBuilder.getLayout();
+    }
+
+    /**
+     * Changes the cursor to one whose groups have already been found, on a background thread,
+     * so that they do not need to be found again.
+     *
+     * @param layout the groups of the calls of the cursor, or null if they are not known
+     */
+    public void changeCursor(Cursor cursor, CallLogGroupLayout layout) {
+        mNewGroupLayout = layout;
+        mChangingToPages = true;
+        try {
+            changeCursor(cursor);
+        } finally {
+            mNewGroupLayout = null;
+            mChangingToPages = false;
+        }
+    }
+
+    /**
+     * Changes the cursor to one whose rows may have changed since they were bound, so that their
+     * models are read again.
+     */
+    @Override
+    public void changeCursor(Cursor cursor) {
+        if (!mChangingToPages) {
+            mRowModels.evictAll();
+            mWrittenCallLogInfo.evictAll();
+        }
+        super.changeCursor(cursor);
+    }
+
+    /**
+     * Returns the groups of the calls of the cursor, or null if there is no cursor.
+     */
+    public CallLogGroupLayout getGroupLayout() {
+        return getCursor() == null ? null : mGroupLayout;
+    }
+
+    /**
+     * Changes the cursor to one made of the previous cursor whose first {@code replacedCount}
+     * calls have been replaced with {@code headCount} calls, so that only the calls at the start
+     * need to be grouped again.
+     */
+    public void changeCursorWithNewHead(Cursor cursor, int headCount, int replacedCount) {
+        mNewHeadCount = headCount;
+        mReplacedHeadCount = replacedCount;
+        mChangingToPages = true;
+        try {
+            changeCursor(cursor);
+        } finally {
+            mNewHeadCount = -1;
+            mChangingToPages = false;
+        }
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        mBindPosition = position;
+        if (mListView == null || mListView.get() != parent) {
+            mListView = new WeakReference<ViewGroup>(parent);
+        }
+        return super.getView(position, convertView, parent);
+    }
+
+    /**
+     * Schedules a redraw of the rows whose contact info has been updated, at the next frame.
+     * Any further updates before that frame are handled by the same redraw.
+     */
+    private void scheduleRedraw() {
+        if (!mRedrawScheduled) {
+            mRedrawScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mRedrawFrameCallback);
+        }
+    }
+
+    private final Choreographer.FrameCallback mRedrawFrameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mRedrawScheduled = false;
+            final HashSet<String> numbers;
+            synchronized (mUpdatedNumbers) {
+                numbers = new HashSet<String>(mUpdatedNumbers);
+                mUpdatedNumbers.clear();
+            }
+            if (!numbers.isEmpty() && !rebindVisibleRows(numbers)) {
+                CallLogStats.getInstance().onFullRebind();
+                notifyDataSetChanged();
+            }
+        }
+    };
+
+    /**
+     * Rebinds, in place, the visible rows of the call log for any of the given numbers.
+     *
+     * @return false if the rows could not be found, in which case the whole list must be rebound
+     */
+    private boolean rebindVisibleRows(Set<String> numbers) {
+        final ViewGroup parent = mListView == null ? null : mListView.get();
+        // Elsewhere, the rows may be wrapped in other views.
+        if (!mIsCallLog || !(parent instanceof ListView)) {
+            return false;
+        }
+        final ListView listView = (ListView) parent;
+        final int headerCount = listView.getHeaderViewsCount();
+        final int count = getCount();
+        int rebound = 0;
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            final View child = listView.getChildAt(i);
+            final Object tag = child.getTag();
+            if (!(tag instanceof CallLogListItemViews)
+                    || !numbers.contains(((CallLogListItemViews) tag).number)) {
+                continue;
+            }
+            final int position = listView.getPositionForView(child) - headerCount;
+            if (position >= 0 && position < count) {
+                getView(position, child, listView);
+                rebound++;
+            }
+        }
+        CallLogStats.getInstance().onPartialRebind(rebound);
+        return true;
     }
 
     @Override
@@ -639,30 +1336,30 @@ public class CallLogAdapter extends GroupingListAdapter
      * @param count the number of entries in the current item, greater than 1 if it is a group
      */
     private void bindView(View callLogItemView, Cursor c, int count) {
+        final long startNanos = System.nanoTime();
         callLogItemView.setAccessibilityDelegate(mAccessibilityDelegate);
         final CallLogListItemViews views = (CallLogListItemViews) callLogItemView.getTag();
 
         // Default case: an item in the call log.
         views.primaryActionView.setVisibility(View.VISIBLE);
 
-        final String number = c.getString(CallLogQuery.NUMBER);
-        final int numberPresentation = c.getInt(CallLogQuery.NUMBER_PRESENTATION);
-        final long date = c.getLong(CallLogQuery.DATE);
-        final long duration = c.getLong(CallLogQuery.DURATION);
-        final int callType = c.getInt(CallLogQuery.CALL_TYPE);
-        final PhoneAccountHandle accountHandle = PhoneAccountUtils.getAccount(
-                c.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME),
-                c.getString(CallLogQuery.ACCOUNT_ID));
-        final String countryIso = c.getString(CallLogQuery.COUNTRY_ISO);
-
         final long rowId = c.getLong(CallLogQuery.ID);
+        final CallLogRowModel row = getRowModel(c, rowId);
+        final String number = row.number;
+        final int numberPresentation = row.numberPresentation;
+        final int callType = row.callType;
+        final PhoneAccountHandle accountHandle = row.accountHandle;
+        final String countryIso = row.countryIso;
+
         views.rowId = rowId;
 
         // For entries in the call log, check if the day group has changed and display a header
         // if necessary.
         if (mIsCallLog) {
-            int currentGroup = getDayGroupForCall(rowId);
-            int previousGroup = getPreviousDayGroup(c);
+            final int position = c.getPosition();
+            int currentGroup = mGroupLayout.getDayGroup(position);
+            // The day group of the previous call, or DAY_GROUP_NONE if this is the first call.
+            int previousGroup = mGroupLayout.getDayGroup(position - 1);
             if (currentGroup != previousGroup) {
                 views.dayGroupHeader.setVisibility(View.VISIBLE);
                 views.dayGroupHeader.setText(getGroupDescription(currentGroup));
@@ -679,14 +1376,13 @@ public class CallLogAdapter extends GroupingListAdapter
         views.numberPresentation = numberPresentation;
         views.callType = callType;
         views.accountHandle = accountHandle;
-        views.voicemailUri = c.getString(CallLogQuery.VOICEMAIL_URI);
+        views.voicemailUri = row.voicemailUri;
         // Stash away the Ids of the calls so that we can support deleting a row in the call log.
         views.callIds = getCallIds(c, count);
 
-        final ContactInfo cachedContactInfo = getContactInfoFromCallLog(c);
+        final ContactInfo cachedContactInfo = row.callLogInfo;
 
-        final boolean isVoicemailNumber =
-                mPhoneNumberUtilsWrapper.isVoicemailNumber(accountHandle, number);
+        final boolean isVoicemailNumber = row.isVoicemailNumber;
 
         // Where binding and not in the call log, use default behaviour of invoking a call when
         // tapping the primary view.
@@ -694,7 +1390,7 @@ public class CallLogAdapter extends GroupingListAdapter
             views.primaryActionView.setOnClickListener(this.mActionListener);
 
             // Set return call intent, otherwise null.
-            if (PhoneNumberUtilsWrapper.canPlaceCallsTo(number, numberPresentation)) {
+            if (row.canPlaceCalls) {
                 // Sets the primary action to call the number.
                 if (isVoicemailNumber) {
                     views.primaryActionView.setTag(
@@ -721,13 +1417,13 @@ public class CallLogAdapter extends GroupingListAdapter
         ExpirableCache.CachedValue<ContactInfo> cachedInfo =
                 mContactInfoCache.getCachedValue(numberCountryIso);
         ContactInfo info = cachedInfo == null ? null : cachedInfo.getValue();
-        if (!PhoneNumberUtilsWrapper.canPlaceCallsTo(number, numberPresentation)
-                || isVoicemailNumber) {
+        if (!row.canPlaceCalls || isVoicemailNumber) {
             // If this is a number that cannot be dialed, there is no point in looking up a contact
             // for it.
             info = ContactInfo.EMPTY;
         } else if (cachedInfo == null) {
             mContactInfoCache.put(numberCountryIso, ContactInfo.EMPTY);
+            CallLogStats.getInstance().onUnresolvedRowBound();
             // Use the cached contact info from the call log.
             info = cachedContactInfo;
             // The db request should happen on a non-UI thread.
@@ -748,7 +1444,9 @@ public class CallLogAdapter extends GroupingListAdapter
             }
 
             if (info == ContactInfo.EMPTY) {
-                // Use the cached contact info from the call log.
+                // Still being looked up, possibly ahead of time: use the cached contact info from
+                // the call log.
+                CallLogStats.getInstance().onUnresolvedRowBound();
                 info = cachedContactInfo;
             }
         }
@@ -762,14 +1460,8 @@ public class CallLogAdapter extends GroupingListAdapter
         CharSequence formattedNumber = info.formattedNumber == null
                 ? null : PhoneNumberUtils.ttsSpanAsPhoneNumber(info.formattedNumber);
         final int[] callTypes = getCallTypes(c, count);
-        final String geocode = c.getString(CallLogQuery.GEOCODED_LOCATION);
         final int sourceType = info.sourceType;
         final int features = getCallFeatures(c, count);
-        final String transcription = c.getString(CallLogQuery.TRANSCRIPTION);
-        Long dataUsage = null;
-        if (!c.isNull(CallLogQuery.DATA_USAGE)) {
-            dataUsage = c.getLong(CallLogQuery.DATA_USAGE);
-        }
 
         final PhoneCallDetails details;
 
@@ -786,15 +1478,16 @@ public class CallLogAdapter extends GroupingListAdapter
 
         if (TextUtils.isEmpty(name)) {
             details = new PhoneCallDetails(number, numberPresentation, formattedNumber, countryIso,
-                    geocode, callTypes, date, duration, accountHandle, features, dataUsage,
-                    transcription);
+                    row.geocode, callTypes, row.date, row.duration, accountHandle, features,
+                    row.dataUsage, row.transcription);
         } else {
             details = new PhoneCallDetails(number, numberPresentation, formattedNumber, countryIso,
-                    geocode, callTypes, date, duration, name, ntype, label, lookupUri, photoUri,
-                    sourceType, accountHandle, features, dataUsage, transcription);
+                    row.geocode, callTypes, row.date, row.duration, name, ntype, label, lookupUri,
+                    photoUri, sourceType, accountHandle, features, row.dataUsage,
+                    row.transcription);
         }
 
-        mCallLogViewsHelper.setPhoneCallDetails(mContext, views, details);
+        mCallLogViewsHelper.setPhoneCallDetails(mContext, views, details, row);
 
         int contactType = ContactPhotoManager.TYPE_DEFAULT;
 
@@ -809,8 +1502,8 @@ public class CallLogAdapter extends GroupingListAdapter
 
         String nameForDefaultImage = null;
         if (TextUtils.isEmpty(name)) {
-            nameForDefaultImage = mPhoneNumberHelper.getDisplayNumber(details.accountHandle,
-                    details.number, details.numberPresentation, details.formattedNumber).toString();
+            nameForDefaultImage = PhoneNumberDisplayHelper.getDisplayNumber(row.displayName,
+                    details.number, details.formattedNumber).toString();
         } else {
             nameForDefaultImage = name;
         }
@@ -828,40 +1521,70 @@ public class CallLogAdapter extends GroupingListAdapter
         }
 
         bindBadge(callLogItemView, info, details, callType);
+        CallLogStats.getInstance().onRowBound(System.nanoTime() - startNanos);
     }
 
     /**
-     * Retrieves the day group of the previous call in the call log.  Used to determine if the day
-     * group has changed and to trigger display of the day group text.
-     *
-     * @param cursor The call log cursor.
-     * @return The previous day group, or DAY_GROUP_NONE if this is the first call.
+     * Returns the model of the row the cursor points to, reading it now if it was not read
+     * ahead of time, with the contact info written back to the call log since it was read.
      */
-    private int getPreviousDayGroup(Cursor cursor) {
-        // We want to restore the position in the cursor at the end.
-        int startingPosition = cursor.getPosition();
-        int dayGroup = CallLogGroupBuilder.DAY_GROUP_NONE;
-        if (cursor.moveToPrevious()) {
-            long previousRowId = cursor.getLong(CallLogQuery.ID);
-            dayGroup = getDayGroupForCall(previousRowId);
+    private CallLogRowModel getRowModel(Cursor c, long rowId) {
+        CallLogRowModel row = mRowModels.get(rowId);
+        if (row != null) {
+            CallLogStats.getInstance().onRowModelHit();
+            return withWrittenCallLogInfo(row);
         }
-        cursor.moveToPosition(startingPosition);
-        return dayGroup;
+        CallLogStats.getInstance().onRowModelMiss();
+        row = CallLogRowModel.read(c, mRowModelResolver);
+        mRowModels.put(rowId, row);
+        return withWrittenCallLogInfo(row);
     }
 
     /**
-     * Given a call Id, look up the day group that the call belongs to.  The day group data is
-     * populated in {@link com.android.dialer.calllog.CallLogGroupBuilder}.
+     * Returns the given model, or a copy of it replacing it in the cache if contact info was
+     * written back to the call log for its number since it was read.
+     */
+    private CallLogRowModel withWrittenCallLogInfo(CallLogRowModel row) {
+        final ContactInfo writtenInfo =
+                mWrittenCallLogInfo.get(new NumberWithCountryIso(row.number, row.countryIso));
+        if (writtenInfo == null || writtenInfo == row.callLogInfo) {
+            return row;
+        }
+        final CallLogRowModel updatedRow = row.withCallLogInfo(writtenInfo);
+        mRowModels.put(row.rowId, updatedRow);
+        return updatedRow;
+    }
+
+    /**
+     * Returns the object resolving the values of the rows which are not stored in the call log,
+     * which the query handler uses to read the models of the rows it fetches. Can be used from
+     * any thread.
+     */
+    public CallLogRowModel.Resolver getRowModelResolver() {
+        return mRowModelResolver;
+    }
+
+    /**
+     * Keeps the models of the rows of the given page, read on the worker thread of the query
+     * handler, for when they are bound.
      *
-     * @param callId The call to retrieve the day group for.
-     * @return The day group for the call.
+     * @param replaceAll whether the calls have been reloaded, so that the models of the rows of
+     *        the other pages may be out of date
      */
-    private int getDayGroupForCall(long callId) {
-        if (mDayGroups.containsKey(callId)) {
-            return mDayGroups.get(callId);
+    public void putRowModels(CallLogPages.Page page, boolean replaceAll) {
+        if (replaceAll) {
+            mRowModels.evictAll();
+            mWrittenCallLogInfo.evictAll();
+        }
+        for (int position = 0; position < page.getCount(); position++) {
+            final CallLogRowModel row = page.getRowModel(position);
+            if (row == null) {
+                return;
+            }
+            mRowModels.put(row.rowId, row);
         }
-        return CallLogGroupBuilder.DAY_GROUP_NONE;
     }
+
     /**
      * Determines if a call log row with the given Id is expanded.
      * @param rowId The row Id of the call.
@@ -1128,7 +1851,11 @@ public class CallLogAdapter extends GroupingListAdapter
                 && TextUtils.equals(callLogInfo.label, info.label);
     }
 
-    /** Stores the updated contact info in the call log if it is different from the current one. */
+    /**
+     * Stores the updated contact info in the call log if it is different from the current one.
+     * <p>
+     * The call log is not written immediately, see {@link CallLogCacheUpdater}.
+     */
     private void updateCallLogContactInfoCache(String number, String countryIso,
             ContactInfo updatedInfo, ContactInfo callLogInfo) {
         final ContentValues values = new ContentValues();
@@ -1186,46 +1913,55 @@ public class CallLogAdapter extends GroupingListAdapter
 
         if (!needsUpdate) return;
 
-        try {
-            if (countryIso == null) {
-                mContext.getContentResolver().update(Calls.CONTENT_URI_WITH_VOICEMAIL, values,
-                        Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " IS NULL",
-                        new String[]{ number });
-            } else {
-                mContext.getContentResolver().update(Calls.CONTENT_URI_WITH_VOICEMAIL, values,
-                        Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " = ?",
-                        new String[]{ number, countryIso });
-            }
-        } catch (SQLiteFullException e) {
-            Log.e(TAG, "Unable to update contact info in call log db", e);
+        // The update is written together with the other pending ones, when the list is idle or
+        // after a delay at most.
+        mCallLogCacheUpdater.add(number, countryIso, values);
+        mWrittenCallLogInfo.put(new NumberWithCountryIso(number, countryIso), updatedInfo);
+        if (!mHandler.hasMessages(FLUSH_CALL_LOG_UPDATES)) {
+            mHandler.sendEmptyMessageDelayed(FLUSH_CALL_LOG_UPDATES,
+                    CALL_LOG_UPDATE_DELAY_MILLIS);
         }
     }
 
     /** Returns the contact information as stored in the call log. */
     private ContactInfo getContactInfoFromCallLog(Cursor c) {
-        ContactInfo info = new ContactInfo();
-        info.lookupUri = UriUtils.parseUriOrNull(c.getString(CallLogQuery.CACHED_LOOKUP_URI));
-        info.name = c.getString(CallLogQuery.CACHED_NAME);
-        info.type = c.getInt(CallLogQuery.CACHED_NUMBER_TYPE);
-        info.label = c.getString(CallLogQuery.CACHED_NUMBER_LABEL);
-        String matchedNumber = c.getString(CallLogQuery.CACHED_MATCHED_NUMBER);
-        info.number = matchedNumber == null ? c.getString(CallLogQuery.NUMBER) : matchedNumber;
-        info.normalizedNumber = c.getString(CallLogQuery.CACHED_NORMALIZED_NUMBER);
-        info.photoId = c.getLong(CallLogQuery.CACHED_PHOTO_ID);
-        info.photoUri = null;  // We do not cache the photo URI.
-        info.formattedNumber = c.getString(CallLogQuery.CACHED_FORMATTED_NUMBER);
-        return info;
+        return CallLogRowModel.readCallLogInfo(c);
+    }
+
+    /**
+     * Returns the contact info stored in the call log for the number, given the one a row was
+     * read with: the one written back since then, if any.
+     */
+    private ContactInfo getCallLogInfo(NumberWithCountryIso numberCountryIso,
+            ContactInfo readInfo) {
+        final ContactInfo writtenInfo = mWrittenCallLogInfo.get(numberCountryIso);
+        return writtenInfo != null ? writtenInfo : readInfo;
+    }
+
+    /**
+     * Returns whether the {@code count} calls from the position of the cursor are a group of the
+     * current layout, whose values were computed along with it. There is no layout when the
+     * rows are bound without the cursor of the adapter, as in tests.
+     */
+    private boolean isGroupInLayout(Cursor cursor, int count) {
+        final int position = cursor.getPosition();
+        return mGroupLayout != null && position < mGroupLayout.getCount()
+                && mGroupLayout.getGroupSize(position) == count;
     }
 
     /**
      * Returns the call types for the given number of items in the cursor.
      * <p>
-     * It uses the next {@code count} rows in the cursor to extract the types.
+     * They are taken from the layout for a group of it, and otherwise it uses the next
+     * {@code count} rows in the cursor to extract the types.
      * <p>
      * It position in the cursor is unchanged by this function.
      */
     private int[] getCallTypes(Cursor cursor, int count) {
         int position = cursor.getPosition();
+        if (isGroupInLayout(cursor, count)) {
+            return mGroupLayout.getCallTypes(position);
+        }
         int[] callTypes = new int[count];
         for (int index = 0; index < count; ++index) {
             callTypes[index] = cursor.getInt(CallLogQuery.CALL_TYPE);
@@ -1244,8 +1980,11 @@ public class CallLogAdapter extends GroupingListAdapter
      * @return The features.
      */
     private int getCallFeatures(Cursor cursor, int count) {
-        int features = 0;
         int position = cursor.getPosition();
+        if (isGroupInLayout(cursor, count)) {
+            return mGroupLayout.getCallFeatures(position);
+        }
+        int features = 0;
         for (int index = 0; index < count; ++index) {
             features |= cursor.getInt(CallLogQuery.FEATURES);
             cursor.moveToNext();
@@ -1310,27 +2049,6 @@ public class CallLogAdapter extends GroupingListAdapter
         super.addGroup(cursorPosition, size, expanded);
     }
 
-    /**
-     * Stores the day group associated with a call in the call log.
-     *
-     * @param rowId The row Id of the current call.
-     * @param dayGroup The day group the call belongs in.
-     */
-    @Override
-    public void setDayGroup(long rowId, int dayGroup) {
-        if (!mDayGroups.containsKey(rowId)) {
-            mDayGroups.put(rowId, dayGroup);
-        }
-    }
-
-    /**
-     * Clears the day group associations on re-bind of the call log.
-     */
-    @Override
-    public void clearDayGroups() {
-        mDayGroups.clear();
-    }
-
     /*
      * Get the number from the Contacts, if available, since sometimes
      * the number provided by caller id may not be formatted properly
@@ -1374,7 +2092,8 @@ public class CallLogAdapter extends GroupingListAdapter
     }
 
     /**
-     * Retrieves the call Ids represented by the current call log row.
+     * Retrieves the call Ids represented by the current call log row, from the layout for a
+     * group of it.
      *
      * @param cursor Call log cursor to retrieve call Ids from.
      * @param groupSize Number of calls associated with the current call log row.
@@ -1383,6 +2102,9 @@ public class CallLogAdapter extends GroupingListAdapter
     private long[] getCallIds(final Cursor cursor, final int groupSize) {
         // We want to restore the position in the cursor at the end.
         int startingPosition = cursor.getPosition();
+        if (isGroupInLayout(cursor, groupSize)) {
+            return mGroupLayout.getCallIds(startingPosition);
+        }
         long[] ids = new long[groupSize];
         // Copy the ids of the rows in the group.
         for (int index = 0; index < groupSize; ++index) {
@@ -1409,8 +2131,32 @@ public class CallLogAdapter extends GroupingListAdapter
        }
     }
 
+    /**
+     * Prints the statistics of the contact info cache, and resets them afterwards if asked to.
+     */
+    public void dumpContactInfoCache(String prefix, PrintWriter writer, boolean reset) {
+        mContactInfoCache.dump(prefix, writer);
+        if (reset) {
+            mContactInfoCache.resetStats();
+        }
+    }
+
     public void onBadDataReported(String number) {
-        mContactInfoCache.expireAll();
+        // Only the contact info of the reported number needs to be looked up again.
+        mContactInfoResolver.invalidate(number);
+        boolean expired = false;
+        for (NumberWithCountryIso numberCountryIso : mContactInfoCache.snapshot().keySet()) {
+            if (TextUtils.equals(numberCountryIso.number, number)) {
+                mContactInfoCache.expire(numberCountryIso);
+                expired = true;
+            }
+        }
+        if (expired) {
+            synchronized (mUpdatedNumbers) {
+                mUpdatedNumbers.add(number);
+            }
+            scheduleRedraw();
+        }
         mReportedToast.show();
     }
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.sqlite.SQLiteFullException;
+import android.os.RemoteException;
+import android.provider.CallLog;
+import android.provider.CallLog.Calls;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Accumulates updates to the contact info cached in the call log, so that they can be written
+ * with a single batch operation instead of one provider update per number.
+ * <p>
+ * The writes notify the observers of the call log like any other change. Their incremental
+ * refresh finds that no call was added, removed or read, which costs a single query.
+ */
+@ThreadSafe
+class CallLogCacheUpdater {
+    private static final String TAG = "CallLogCacheUpdater";
+
+    private final ContentResolver mContentResolver;
+
+    /** The values to write for each number, in the order the numbers were first updated. */
+    @GuardedBy("this")
+    private LinkedHashMap<NumberWithCountryIso, ContentValues> mPendingUpdates =
+            Maps.newLinkedHashMap();
+
+    public CallLogCacheUpdater(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Adds the values to write to the call log entries of the given number. They are merged with
+     * any values already pending for the same number.
+     */
+    public synchronized void add(String number, String countryIso, ContentValues values) {
+        final NumberWithCountryIso key = new NumberWithCountryIso(number, countryIso);
+        final ContentValues pending = mPendingUpdates.get(key);
+        if (pending == null) {
+            mPendingUpdates.put(key, new ContentValues(values));
+        } else {
+            pending.putAll(values);
+        }
+    }
+
+    public synchronized boolean hasPendingUpdates() {
+        return !mPendingUpdates.isEmpty();
+    }
+
+    /**
+     * Writes all the pending updates to the call log, as a single batch.
+     * <p>
+     * This must not be called on the UI thread.
+     *
+     * @return the number of numbers whose call log entries were updated
+     */
+    public int flush() {
+        final Map<NumberWithCountryIso, ContentValues> updates;
+        synchronized (this) {
+            if (mPendingUpdates.isEmpty()) {
+                return 0;
+            }
+            updates = mPendingUpdates;
+            mPendingUpdates = Maps.newLinkedHashMap();
+        }
+
+        final long startNanos = System.nanoTime();
+        try {
+            mContentResolver.applyBatch(CallLog.AUTHORITY, buildOperations(updates));
+        } catch (RemoteException e) {
+            Log.e(TAG, "Unable to update contact info in call log db", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Unable to update contact info in call log db", e);
+        } catch (SQLiteFullException e) {
+            Log.e(TAG, "Unable to update contact info in call log db", e);
+        }
+        CallLogStats.getInstance().onWriteBackFlushed(updates.size(),
+                System.nanoTime() - startNanos);
+        return updates.size();
+    }
+
+    /**
+     * Builds one update operation for each number with pending updates.
+     */
+    @VisibleForTesting
+    static ArrayList<ContentProviderOperation> buildOperations(
+            Map<NumberWithCountryIso, ContentValues> updates) {
+        final ArrayList<ContentProviderOperation> operations =
+                Lists.newArrayListWithCapacity(updates.size());
+        for (Map.Entry<NumberWithCountryIso, ContentValues> update : updates.entrySet()) {
+            final NumberWithCountryIso key = update.getKey();
+            final ContentProviderOperation.Builder builder =
+                    ContentProviderOperation.newUpdate(Calls.CONTENT_URI_WITH_VOICEMAIL)
+                            .withValues(update.getValue());
+            if (key.countryIso == null) {
+                builder.withSelection(Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " IS NULL",
+                        new String[]{ key.number });
+            } else {
+                builder.withSelection(Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " = ?",
+                        new String[]{ key.number, key.countryIso });
+            }
+            operations.add(builder.build());
+        }
+        return operations;
+    }
+}
@@ -40,6 +40,8 @@ import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup.LayoutParams;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 import android.widget.TextView;
 
@@ -54,6 +56,9 @@ import com.android.dialer.voicemail.VoicemailStatusHelper.StatusMessage;
 import com.android.dialer.voicemail.VoicemailStatusHelperImpl;
 import com.android.dialerbind.ObjectFactory;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -61,7 +66,7 @@ import java.util.List;
  * (all, missed or voicemails), specify it in the constructor.
  */
 public class CallLogFragment extends ListFragment
-        implements CallLogQueryHandler.Listener, CallLogAdapter.OnReportButtonClickListener,
+        implements CallLogQueryHandler.PageListener, CallLogAdapter.OnReportButtonClickListener,
         CallLogAdapter.CallFetcher,
         CallLogAdapter.CallItemExpandedListener {
     private static final String TAG = "CallLogFragment";
@@ -82,8 +87,16 @@ public class CallLogFragment extends ListFragment
     private static final String KEY_IS_REPORT_DIALOG_SHOWING = "is_report_dialog_showing";
     private static final String KEY_REPORT_DIALOG_NUMBER = "report_dialog_number";
 
+    /**
+     * The number of rows left below the visible ones when the next page of calls is requested,
+     * so that it is usually loaded before the end of the list is reached.
+     */
+    private static final int NEXT_PAGE_THRESHOLD_ROWS = 20;
+
     private CallLogAdapter mAdapter;
     private CallLogQueryHandler mCallLogQueryHandler;
+    /** The pages of calls shown by the adapter. */
+    private final CallLogPages mPages = new CallLogPages();
     private boolean mScrollToTop;
 
     /** Whether there is at least one voicemail source installed. */
@@ -120,7 +133,16 @@ public class CallLogFragment extends ListFragment
 
     // See issue 6363009
     private final ContentObserver mCallLogObserver = new CustomContentObserver();
-    private final ContentObserver mContactsObserver = new CustomContentObserver();
+    private final ContentObserver mContactsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // The call log itself is not affected: only the contact info shown for the numbers
+            // it contains, which the adapter expires for the changed contacts only.
+            if (mAdapter != null) {
+                mAdapter.onContactsChanged();
+            }
+        }
+    };
     private final ContentObserver mVoicemailStatusObserver = new CustomContentObserver();
     private boolean mRefreshDataRequired = true;
 
@@ -196,6 +218,7 @@ public class CallLogFragment extends ListFragment
         setListAdapter(mAdapter);
         mCallLogQueryHandler = new CallLogQueryHandler(getActivity().getContentResolver(),
                 this, mLogLimit);
+        mCallLogQueryHandler.setRowModelResolver(mAdapter.getRowModelResolver());
         mKeyguardManager =
                 (KeyguardManager) getActivity().getSystemService(Context.KEYGUARD_SERVICE);
         getActivity().getContentResolver().registerContentObserver(CallLog.CONTENT_URI, true,
@@ -224,15 +247,92 @@ public class CallLogFragment extends ListFragment
         }
     }
 
-    /** Called by the CallLogQueryHandler when the list of calls has been fetched or updated. */
+    /**
+     * Called by the CallLogQueryHandler when the list of calls has been fetched or updated. Not
+     * called for this fragment, a {@link CallLogQueryHandler.PageListener}.
+     */
     @Override
     public boolean onCallsFetched(Cursor cursor) {
+        return onFirstPageFetched(CallLogPages.Page.read(cursor, Integer.MAX_VALUE), null);
+    }
+
+    /** Called by the CallLogQueryHandler when the most recent calls have been fetched. */
+    @Override
+    public boolean onFirstPageFetched(CallLogPages.Page page, CallLogGroupLayout layout) {
         if (getActivity() == null || getActivity().isFinishing()) {
             // Return false; we did not take ownership of the cursor
             return false;
         }
         mAdapter.setLoading(false);
-        mAdapter.changeCursor(cursor);
+        mAdapter.putRowModels(page, true /* replaceAll */);
+        mAdapter.changeCursor(mPages.setFirstPage(page), layout);
+        onCallsShown();
+        return true;
+    }
+
+    /**
+     * Called by the CallLogQueryHandler when the calls after the ones already shown have been
+     * fetched.
+     */
+    @Override
+    public boolean onCallsPageFetched(CallLogPages.Page page, CallLogPages.Snapshot loaded,
+            CallLogGroupLayout layout) {
+        if (getActivity() == null || getActivity().isFinishing()) {
+            return false;
+        }
+        final int last = loaded.getCount() - 1;
+        if (!mPages.isNextPage(loaded.getDate(last), loaded.getId(last))) {
+            // The calls have been reloaded since the page was requested.
+            return false;
+        }
+        // The groups were found with the calls loaded then: if their head has been replaced
+        // since, the adapter groups the calls itself.
+        final boolean current = mPages.isCurrent(loaded);
+        mAdapter.putRowModels(page, false /* replaceAll */);
+        mAdapter.changeCursor(mPages.addPage(page), current ? layout : null);
+        return true;
+    }
+
+    /**
+     * Called by the CallLogQueryHandler when the changes to the call log since the calls shown
+     * were loaded have been fetched.
+     */
+    @Override
+    public boolean onCallsRefreshed(CallLogQueryHandler.RefreshResult result) {
+        if (getActivity() == null || getActivity().isFinishing()) {
+            return false;
+        }
+        if (result.reloadRequired) {
+            // Calls were deleted, or inserted among the ones shown.
+            CallLogStats.getInstance().onFullReload();
+            fetchFirstPage(mCallTypeFilter, mDateLimit, mPages.getCount());
+            return false;
+        }
+        boolean owned = false;
+        if (result.head != null) {
+            final boolean current = mPages.isCurrent(result.snapshot);
+            final Cursor cursor = mPages.replaceHead(result.snapshot.generation, result.head,
+                    result.replacedCount);
+            if (cursor != null) {
+                CallLogStats.getInstance().onIncrementalRefresh(result.head.getCount());
+                mAdapter.putRowModels(result.head, false /* replaceAll */);
+                if (current) {
+                    mAdapter.changeCursor(cursor, result.layout);
+                } else {
+                    // A page was added since the refresh started: the groups of the head are
+                    // found by the adapter.
+                    mAdapter.changeCursorWithNewHead(cursor, result.head.getCount(),
+                            result.replacedCount);
+                }
+                owned = true;
+            }
+        }
+        onCallsShown();
+        return owned;
+    }
+
+    /** Called once the calls fetched or refreshed are shown. */
+    private void onCallsShown() {
         // This will update the state of the "Clear call log" menu item.
         getActivity().invalidateOptionsMenu();
         if (mScrollToTop) {
@@ -262,7 +362,20 @@ public class CallLogFragment extends ListFragment
         }
         mCallLogFetched = true;
         destroyEmptyLoaderIfAllDataFetched();
-        return true;
+    }
+
+    /**
+     * Requests the next page of calls if the last visible row is close to the end of the loaded
+     * ones.
+     */
+    private void maybeFetchNextPage(int lastVisibleItem, int totalItemCount) {
+        if (!mCallLogQueryHandler.isPaged() || !mPages.shouldFetchNextPage()
+                || lastVisibleItem < totalItemCount - NEXT_PAGE_THRESHOLD_ROWS) {
+            return;
+        }
+        mPages.onFetchingNextPage();
+        mCallLogQueryHandler.fetchCallsPage(mCallTypeFilter, mDateLimit,
+                mPages.getSnapshot(mAdapter.getGroupLayout()));
     }
 
     /**
@@ -315,6 +428,21 @@ public class CallLogFragment extends ListFragment
         super.onViewCreated(view, savedInstanceState);
         getListView().setEmptyView(view.findViewById(R.id.empty_list_view));
         getListView().setItemsCanFocus(true);
+        getListView().setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                mAdapter.onScrollStateChanged(scrollState);
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                // Look up the contact info of the visible rows first.
+                mAdapter.onViewportChanged(firstVisibleItem,
+                        firstVisibleItem + visibleItemCount - 1);
+                maybeFetchNextPage(firstVisibleItem + visibleItemCount - 1, totalItemCount);
+            }
+        });
         maybeAddFooterView();
 
         updateEmptyMessage(mCallTypeFilter);
@@ -397,11 +525,22 @@ public class CallLogFragment extends ListFragment
         super.onDestroy();
         mAdapter.stopRequestProcessing();
         mAdapter.changeCursor(null);
+        mPages.close();
         getActivity().getContentResolver().unregisterContentObserver(mCallLogObserver);
         getActivity().getContentResolver().unregisterContentObserver(mContactsObserver);
         getActivity().getContentResolver().unregisterContentObserver(mVoicemailStatusObserver);
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (mAdapter != null) {
+            final boolean reset = args != null
+                    && Arrays.asList(args).contains(CallLogStats.RESET_ARG);
+            mAdapter.dumpContactInfoCache(prefix, writer, reset);
+        }
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -415,12 +554,38 @@ public class CallLogFragment extends ListFragment
 
     @Override
     public void fetchCalls() {
-        mCallLogQueryHandler.fetchCalls(mCallTypeFilter, mDateLimit);
+        refreshCalls(false);
     }
 
     public void startCallsQuery() {
-        mAdapter.setLoading(true);
-        mCallLogQueryHandler.fetchCalls(mCallTypeFilter, mDateLimit);
+        refreshCalls(true);
+    }
+
+    /**
+     * Updates the calls shown with the changes to the call log. Only the new calls and the ones
+     * whose state changed are fetched, unless calls were deleted or the number of calls shown is
+     * limited: the new calls would add to the ones shown, so the limited calls are fetched again.
+     *
+     * @param showLoading whether to show that the calls are loading if none are shown yet
+     */
+    private void refreshCalls(boolean showLoading) {
+        if (mPages.getCount() == 0 || !mCallLogQueryHandler.isPaged()) {
+            if (showLoading && mPages.getCount() == 0) {
+                mAdapter.setLoading(true);
+            }
+            fetchFirstPage(mCallTypeFilter, mDateLimit, 0);
+            return;
+        }
+        mCallLogQueryHandler.refreshCalls(mCallTypeFilter, mDateLimit,
+                mPages.getSnapshot(mAdapter.getGroupLayout()));
+    }
+
+    /**
+     * Fetches the most recent calls, including at least {@code minCount} calls if there are as
+     * many. They replace all the calls shown once fetched.
+     */
+    private void fetchFirstPage(int filterType, long dateLimit, int minCount) {
+        mCallLogQueryHandler.fetchCalls(filterType, dateLimit, minCount);
     }
 
     private void startVoicemailStatusQuery() {
@@ -428,7 +593,7 @@ public class CallLogFragment extends ListFragment
     }
 
     private void updateCallList(int filterType, long dateLimit) {
-        mCallLogQueryHandler.fetchCalls(filterType, dateLimit);
+        fetchFirstPage(filterType, dateLimit, 0);
     }
 
     private void updateEmptyMessage(int filterType) {
@@ -472,8 +637,8 @@ public class CallLogFragment extends ListFragment
     private void refreshData() {
         // Prevent unnecessary refresh.
         if (mRefreshDataRequired) {
-            // Mark all entries in the contact info cache as out of date, so they will be looked up
-            // again once being shown.
+            // Mark the entries in the contact info cache which may be out of date, so they will be
+            // looked up again once being shown.
             mAdapter.invalidateCache();
             startCallsQuery();
             startVoicemailStatusQuery();
@@ -19,15 +19,19 @@ package com.android.dialer.calllog;
 import android.database.Cursor;
 import android.provider.CallLog.Calls;
 import android.telephony.PhoneNumberUtils;
-import android.text.format.Time;
 
-import com.android.common.widget.GroupingListAdapter;
-import com.android.contacts.common.util.DateUtils;
 import com.android.contacts.common.util.PhoneNumberHelper;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TimeZone;
+
+import javax.annotation.concurrent.Immutable;
 
 /**
  * Groups together calls in the call log.  The primary grouping attempts to group together calls
@@ -36,7 +40,13 @@ import java.util.Objects;
  * groups provide a means of identifying the calls which occurred "Today", "Yesterday", "Last week",
  * or "Other".
  * <p>
- * This class is meant to be used in conjunction with {@link GroupingListAdapter}.
+ * This class is meant to be used in conjunction with
+ * {@link com.android.common.widget.GroupingListAdapter}.
+ * <p>
+ * Each pass also records the groups it found in a {@link CallLogGroupLayout}. A grouping pass
+ * only uses the state of its builder, so it can run on any thread, but a builder must only be
+ * used by one thread at a time: the query handler groups new calls on its worker thread, and the
+ * adapter only creates the groups of the layout.
  */
 public class CallLogGroupBuilder {
     public interface GroupCreator {
@@ -50,21 +60,81 @@ public class CallLogGroupBuilder {
          * @param expanded Whether the group is expanded; always false for the call log.
          */
         public void addGroup(int cursorPosition, int size, boolean expanded);
+    }
 
-        /**
-         * Defines the interface for tracking the day group each call belongs to.  Calls in a call
-         * group are assigned the same day group as the first call in the group.  The day group
-         * assigns calls to the buckets: Today, Yesterday, Last week, and Other
-         *
-         * @param rowId The row Id of the current call.
-         * @param dayGroup The day group the call belongs in.
-         */
-        public void setDayGroup(long rowId, int dayGroup);
+    /** The group creator of the builders which only compute layouts. */
+    private static final GroupCreator NO_GROUP_CREATOR = new GroupCreator() {
+        @Override
+        public void addGroup(int cursorPosition, int size, boolean expanded) {
+        }
+    };
+
+    /**
+     * The number of a call, in the form compared with the numbers of the adjacent calls.
+     * <p>
+     * Numbers which are the same in E.164 form share the same canonical key, and so do SIP
+     * addresses which only differ by the case of their host. Other numbers, such as short codes
+     * or empty numbers, are compared with {@link CallLogGroupBuilder#equalNumbers}.
+     */
+    private static final class NumberKey {
+        /** The first number seen with this key. */
+        public final String number;
+        /** Whether the key is shared by all the numbers equal to this one. */
+        public final boolean canonical;
+
+        public NumberKey(String number, boolean canonical) {
+            this.number = number;
+            this.canonical = canonical;
+        }
+    }
+
+    /**
+     * The keys of the numbers of the calls, computed once per distinct number during a pass.
+     */
+    private static final class NumberKeys {
+        private final Map<NumberWithCountryIso, NumberKey> mKeys = Maps.newHashMap();
+        private final Map<String, NumberKey> mCanonicalKeys = Maps.newHashMap();
+
+        public NumberKey get(String number, String countryIso) {
+            final NumberWithCountryIso numberCountryIso =
+                    new NumberWithCountryIso(number, countryIso);
+            NumberKey key = mKeys.get(numberCountryIso);
+            if (key == null) {
+                final String canonicalNumber = getCanonicalNumber(number, countryIso);
+                if (canonicalNumber == null) {
+                    key = new NumberKey(number, false);
+                } else {
+                    key = mCanonicalKeys.get(canonicalNumber);
+                    if (key == null) {
+                        key = new NumberKey(number, true);
+                        mCanonicalKeys.put(canonicalNumber, key);
+                    }
+                }
+                mKeys.put(numberCountryIso, key);
+            }
+            return key;
+        }
 
         /**
-         * Defines the interface for clearing the day groupings information on rebind/regroup.
+         * Returns the form shared by the numbers equal to the given one, or null if there is
+         * none.
          */
-        public void clearDayGroups();
+        private static String getCanonicalNumber(String number, String countryIso) {
+            if (number == null) {
+                return null;
+            }
+            if (PhoneNumberHelper.isUriNumber(number)) {
+                // The same as compareSipAddresses: the user info is case sensitive, the rest is
+                // not.
+                final int index = number.indexOf('@');
+                if (index == -1) {
+                    return "sip:" + number;
+                }
+                return "sip:" + number.substring(0, index)
+                        + number.substring(index).toLowerCase(Locale.US);
+            }
+            return PhoneNumberFormatCache.getInstance().getE164Number(number, countryIso);
+        }
     }
 
     /**
@@ -83,16 +153,103 @@ public class CallLogGroupBuilder {
     /** Day grouping for calls which occurred before last week. */
     public static final int DAY_GROUP_OTHER = 2;
 
-    /** Instance of the time object used for time calculations. */
-    private static final Time TIME = new Time();
+    /**
+     * The start of the days around a given time, in a given time zone, so that the day group of
+     * a call only takes comparisons to find.
+     * <p>
+     * Like the difference of their Julian days, the day group does not depend on whether the
+     * call is before or after the given time: a call tomorrow, because of a clock change, is in
+     * the same day group as a call yesterday.
+     */
+    @Immutable
+    @VisibleForTesting
+    static final class DayBoundaries {
+        private final TimeZone mTimeZone;
+        private final long mYesterdayStart;
+        private final long mTodayStart;
+        private final long mTomorrowStart;
+        private final long mDayAfterTomorrowStart;
+
+        public DayBoundaries(long now, TimeZone timeZone) {
+            mTimeZone = (TimeZone) timeZone.clone();
+            final Calendar calendar = Calendar.getInstance(timeZone);
+            calendar.setTimeInMillis(now);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            mTodayStart = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, -1);
+            mYesterdayStart = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 2);
+            mTomorrowStart = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            mDayAfterTomorrowStart = calendar.getTimeInMillis();
+        }
+
+        /** Returns whether the given time is on the same day as the time of the boundaries. */
+        public boolean isToday(long time) {
+            return time >= mTodayStart && time < mTomorrowStart;
+        }
+
+        /**
+         * Returns whether the boundaries are the ones of the given time in the given time zone:
+         * neither the day nor the rules of the time zone changed since they were computed.
+         */
+        public boolean isCurrent(long now, TimeZone timeZone) {
+            return isToday(now) && mTimeZone.hasSameRules(timeZone);
+        }
+
+        /**
+         * Given a call date, determine which date group the call belongs in.
+         *
+         * @param date The call date.
+         * @return The date group the call belongs in.
+         */
+        public int getDayGroup(long date) {
+            if (isToday(date)) {
+                return DAY_GROUP_TODAY;
+            } else if ((date >= mYesterdayStart && date < mTodayStart)
+                    || (date >= mTomorrowStart && date < mDayAfterTomorrowStart)) {
+                return DAY_GROUP_YESTERDAY;
+            } else {
+                return DAY_GROUP_OTHER;
+            }
+        }
+    }
 
     /** The object on which the groups are created. */
     private final GroupCreator mGroupCreator;
 
+    /** The layout found by the last pass, which an incremental pass starts from. */
+    private CallLogGroupLayout mLayout;
+
+    /**
+     * Creates a builder which only computes layouts, see {@link #getLayout()}.
+     */
+    public CallLogGroupBuilder() {
+        this(NO_GROUP_CREATOR);
+    }
+
     public CallLogGroupBuilder(GroupCreator groupCreator) {
         mGroupCreator = groupCreator;
     }
 
+    /**
+     * Returns the layout found by the last pass, or null if there was none.
+     */
+    public CallLogGroupLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Sets the layout of the calls last grouped, found by another builder, so that the next
+     * incremental pass starts from it.
+     */
+    public void setLayout(CallLogGroupLayout layout) {
+        mLayout = layout;
+    }
+
     /**
      * Finds all groups of adjacent entries in the call log which should be grouped together and
      * calls {@link GroupCreator#addGroup(int, int, boolean)} on {@link #mGroupCreator} for each of
@@ -102,24 +259,81 @@ public class CallLogGroupBuilder {
      * <p>
      * It assumes that the cursor will not change during its execution.
      *
-     * @see GroupingListAdapter#addGroups(Cursor)
+     * @see com.android.common.widget.GroupingListAdapter#addGroups(Cursor)
      */
     public void addGroups(Cursor cursor) {
+        // The days around the current time, used for calculating which day group calls belong
+        // to.
+        final DayBoundaries dayBoundaries =
+                new DayBoundaries(System.currentTimeMillis(), TimeZone.getDefault());
+        final CallLogGroupLayout.Values values =
+                new CallLogGroupLayout.Values(cursor.getCount());
+        addGroupsUntilSynchronized(cursor, dayBoundaries, cursor.getCount(), 0, values);
+        mLayout = values.toLayout(dayBoundaries);
+    }
+
+    /**
+     * Finds the groups of the given cursor like {@link #addGroups(Cursor)}, given that it is the
+     * cursor of the last pass whose first {@code replacedCount} calls have been replaced with
+     * {@code headCount} calls, for instance new calls and calls whose state changed.
+     * <p>
+     * Only the head is grouped again, along with the following calls until a group starts at the
+     * same call as in the last pass: the groups and day groups after it are taken from the
+     * layout of the last pass.
+     * <p>
+     * All the calls are grouped again if the cursor does not match the last pass, or if the day
+     * or the time zone changed since, so that the day groups are found with new boundaries.
+     */
+    public void addGroups(Cursor cursor, int headCount, int replacedCount) {
         final int count = cursor.getCount();
-        if (count == 0) {
+        final int delta = headCount - replacedCount;
+        final CallLogGroupLayout previous = mLayout;
+        if (headCount < 0 || replacedCount < 0 || headCount > count || previous == null
+                || count - delta != previous.getCount()
+                || !previous.dayBoundaries.isCurrent(System.currentTimeMillis(),
+                        TimeZone.getDefault())) {
+            addGroups(cursor);
             return;
         }
 
-        // Clear any previous day grouping information.
-        mGroupCreator.clearDayGroups();
+        final CallLogGroupLayout.Values values = new CallLogGroupLayout.Values(count);
+        final int synchronizedPosition = addGroupsUntilSynchronized(cursor,
+                previous.dayBoundaries, headCount, delta, values);
+        // The calls from there on are grouped as in the last pass.
+        values.copyTail(previous, synchronizedPosition - delta, synchronizedPosition);
+        for (int position = synchronizedPosition; position < count; position++) {
+            if (values.groupSizes[position] > 1) {
+                addGroup(position, values.groupSizes[position]);
+            }
+        }
+        mLayout = values.toLayout(previous.dayBoundaries);
+    }
 
-        // Get current system time, used for calculating which day group calls belong to.
-        long currentTime = System.currentTimeMillis();
+    /**
+     * Groups the calls of the cursor from its start, until a group starts at a call after the
+     * first {@code headCount} calls which also started a group in the last pass, or until the
+     * end of the cursor.
+     *
+     * @param delta the difference between the position of a call after the head in the cursor
+     *        and in the cursor of the last pass
+     * @param values receives the size of the group starting at each position, and the values of
+     *        the calls grouped
+     * @return the position at which the grouping synchronized with the last pass, or the size of
+     *         the cursor
+     */
+    private int addGroupsUntilSynchronized(Cursor cursor, DayBoundaries dayBoundaries,
+            int headCount, int delta, CallLogGroupLayout.Values values) {
+        final int count = cursor.getCount();
+        if (count == 0) {
+            return 0;
+        }
 
+        final NumberKeys numberKeys = new NumberKeys();
         int currentGroupSize = 1;
         cursor.moveToFirst();
         // The number of the first entry in the group.
-        String firstNumber = cursor.getString(CallLogQuery.NUMBER);
+        NumberKey firstNumber = numberKeys.get(cursor.getString(CallLogQuery.NUMBER),
+                cursor.getString(CallLogQuery.COUNTRY_ISO));
         // This is the type of the first call in the group.
         int firstCallType = cursor.getInt(CallLogQuery.CALL_TYPE);
 
@@ -129,13 +343,14 @@ public class CallLogGroupBuilder {
 
         // Determine the day group for the first call in the cursor.
         final long firstDate = cursor.getLong(CallLogQuery.DATE);
-        final long firstRowId = cursor.getLong(CallLogQuery.ID);
-        int currentGroupDayGroup = getDayGroup(firstDate, currentTime);
-        mGroupCreator.setDayGroup(firstRowId, currentGroupDayGroup);
+        int currentGroupDayGroup = dayBoundaries.getDayGroup(firstDate);
+        values.setCall(0, currentGroupDayGroup, firstCallType, cursor.getLong(CallLogQuery.ID),
+                cursor.getInt(CallLogQuery.FEATURES));
 
         while (cursor.moveToNext()) {
             // The number of the current row in the cursor.
-            final String currentNumber = cursor.getString(CallLogQuery.NUMBER);
+            final NumberKey currentNumber = numberKeys.get(cursor.getString(CallLogQuery.NUMBER),
+                    cursor.getString(CallLogQuery.COUNTRY_ISO));
             final int callType = cursor.getInt(CallLogQuery.CALL_TYPE);
             final String currentAccountComponentName = cursor.getString(
                     CallLogQuery.ACCOUNT_COMPONENT_NAME);
@@ -151,7 +366,7 @@ public class CallLogGroupBuilder {
             final boolean sameAccount = sameAccountComponentName && sameAccountId;
 
             final boolean shouldGroup;
-            final long currentCallId = cursor.getLong(CallLogQuery.ID);
+            final int position = cursor.getPosition();
             final long date = cursor.getLong(CallLogQuery.DATE);
 
             if (!sameNumber || !sameAccount) {
@@ -170,16 +385,21 @@ public class CallLogGroupBuilder {
                 // the group until we find a call that does not match.
                 currentGroupSize++;
             } else {
+                // Create a group for the previous set of calls, excluding the current one, but do
+                // not create a group for a single call.
+                addGroup(position - currentGroupSize, currentGroupSize, values);
+
+                // A group starting at a call which already started one in the last pass is the
+                // same, and so are all the following ones.
+                if (position >= headCount && mLayout.getGroupSize(position - delta) != 0) {
+                    return position;
+                }
+
                 // The call group has changed, so determine the day group for the new call group.
                 // This ensures all calls grouped together in the call log are assigned the same
                 // day group.
-                currentGroupDayGroup = getDayGroup(date, currentTime);
+                currentGroupDayGroup = dayBoundaries.getDayGroup(date);
 
-                // Create a group for the previous set of calls, excluding the current one, but do
-                // not create a group for a single call.
-                if (currentGroupSize > 1) {
-                    addGroup(cursor.getPosition() - currentGroupSize, currentGroupSize);
-                }
                 // Start a new group; it will include at least the current call.
                 currentGroupSize = 1;
                 // The current entry is now the first in the group.
@@ -189,12 +409,23 @@ public class CallLogGroupBuilder {
                 firstAccountId = currentAccountId;
             }
 
-            // Save the day group associated with the current call.
-            mGroupCreator.setDayGroup(currentCallId, currentGroupDayGroup);
+            // Save the day group associated with the current call, along with the values shown
+            // for its group.
+            values.setCall(position, currentGroupDayGroup, callType,
+                    cursor.getLong(CallLogQuery.ID), cursor.getInt(CallLogQuery.FEATURES));
         }
         // If the last set of calls at the end of the call log was itself a group, create it now.
-        if (currentGroupSize > 1) {
-            addGroup(count - currentGroupSize, currentGroupSize);
+        addGroup(count - currentGroupSize, currentGroupSize, values);
+        return count;
+    }
+
+    /**
+     * Records a group of calls, and creates it unless it is a single call.
+     */
+    private void addGroup(int cursorPosition, int size, CallLogGroupLayout.Values values) {
+        values.setGroup(cursorPosition, size);
+        if (size > 1) {
+            addGroup(cursorPosition, size);
         }
     }
 
@@ -209,6 +440,13 @@ public class CallLogGroupBuilder {
         mGroupCreator.addGroup(cursorPosition, size, false);
     }
 
+    private boolean equalNumbers(NumberKey number1, NumberKey number2) {
+        if (number1.canonical && number2.canonical) {
+            return number1 == number2;
+        }
+        return equalNumbers(number1.number, number2.number);
+    }
+
     @VisibleForTesting
     boolean equalNumbers(String number1, String number2) {
         if (PhoneNumberHelper.isUriNumber(number1) || PhoneNumberHelper.isUriNumber(number2)) {
@@ -246,23 +484,4 @@ public class CallLogGroupBuilder {
 
         return userinfo1.equals(userinfo2) && rest1.equalsIgnoreCase(rest2);
     }
-
-    /**
-     * Given a call date and the current date, determine which date group the call belongs in.
-     *
-     * @param date The call date.
-     * @param now The current date.
-     * @return The date group the call belongs in.
-     */
-    private int getDayGroup(long date, long now) {
-        int days = DateUtils.getDayDifference(TIME, date, now);
-
-        if (days == 0) {
-            return DAY_GROUP_TODAY;
-        } else if (days == 1) {
-            return DAY_GROUP_YESTERDAY;
-        } else {
-            return DAY_GROUP_OTHER;
-        }
-    }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The groups of the calls of a cursor, found by a pass of {@link CallLogGroupBuilder}, along
+ * with the values of the calls needed to show the groups.
+ * <p>
+ * A layout can be computed on a background thread, along with the cursor it describes, and
+ * given to the adapter, which then only has to create the groups it lists.
+ */
+@Immutable
+public final class CallLogGroupLayout {
+    /** The days around the time of the pass, which determined the day groups. */
+    final CallLogGroupBuilder.DayBoundaries dayBoundaries;
+    /**
+     * The size of the group starting at each position, or 0 for the positions within a group.
+     * Single calls are groups of size one.
+     */
+    private final int[] mGroupSizes;
+    /** The day group of each call, the same for all the calls of a group. */
+    private final int[] mDayGroups;
+    /**
+     * The types, ids and features of the calls of the group starting at each position, and
+     * null or 0 within a group. The arrays are shared with the views showing the groups, so
+     * that binding a group does not read its calls again.
+     */
+    private final int[][] mCallTypes;
+    private final long[][] mCallIds;
+    private final int[] mCallFeatures;
+
+    private CallLogGroupLayout(CallLogGroupBuilder.DayBoundaries dayBoundaries, Values values) {
+        this.dayBoundaries = dayBoundaries;
+        mGroupSizes = values.groupSizes;
+        mDayGroups = values.dayGroups;
+        mCallTypes = values.callTypes;
+        mCallIds = values.callIds;
+        mCallFeatures = values.callFeatures;
+    }
+
+    /** Returns the number of calls of the cursor. */
+    public int getCount() {
+        return mGroupSizes.length;
+    }
+
+    /**
+     * Returns the size of the group starting at the given position, or 0 if the position is
+     * within a group.
+     */
+    public int getGroupSize(int position) {
+        return mGroupSizes[position];
+    }
+
+    /**
+     * Returns the day group of the call at the given position, or
+     * {@link CallLogGroupBuilder#DAY_GROUP_NONE} if there is none, before the first call.
+     */
+    public int getDayGroup(int position) {
+        if (position < 0 || position >= mDayGroups.length) {
+            return CallLogGroupBuilder.DAY_GROUP_NONE;
+        }
+        return mDayGroups[position];
+    }
+
+    /**
+     * Returns the types of the calls of the group starting at the given position, in order.
+     * The array must not be modified.
+     */
+    public int[] getCallTypes(int position) {
+        return mCallTypes[position];
+    }
+
+    /**
+     * Returns the ids of the calls of the group starting at the given position, in order.
+     * The array must not be modified.
+     */
+    public long[] getCallIds(int position) {
+        return mCallIds[position];
+    }
+
+    /**
+     * Returns the features enabled for any of the calls of the group starting at the given
+     * position.
+     */
+    public int getCallFeatures(int position) {
+        return mCallFeatures[position];
+    }
+
+    /**
+     * Creates the groups of more than one call on the given {@link
+     * CallLogGroupBuilder.GroupCreator}, as the pass which computed the layout did.
+     */
+    public void addGroups(CallLogGroupBuilder.GroupCreator groupCreator) {
+        for (int position = 0; position < mGroupSizes.length; position++) {
+            if (mGroupSizes[position] > 1) {
+                groupCreator.addGroup(position, mGroupSizes[position], false);
+            }
+        }
+    }
+
+    /**
+     * The values of a layout being computed, see {@link CallLogGroupBuilder}. The values of each
+     * call are recorded as it is read, and those of a group are packed once it is complete.
+     */
+    static final class Values {
+        public final int[] groupSizes;
+        public final int[] dayGroups;
+        public final int[][] callTypes;
+        public final long[][] callIds;
+        public final int[] callFeatures;
+        private final int[] mRowCallTypes;
+        private final long[] mRowCallIds;
+        private final int[] mRowFeatures;
+
+        public Values(int count) {
+            groupSizes = new int[count];
+            dayGroups = new int[count];
+            callTypes = new int[count][];
+            callIds = new long[count][];
+            callFeatures = new int[count];
+            mRowCallTypes = new int[count];
+            mRowCallIds = new long[count];
+            mRowFeatures = new int[count];
+        }
+
+        /** Records the values of the call at the given position. */
+        public void setCall(int position, int dayGroup, int callType, long callId, int features) {
+            dayGroups[position] = dayGroup;
+            mRowCallTypes[position] = callType;
+            mRowCallIds[position] = callId;
+            mRowFeatures[position] = features;
+        }
+
+        /** Records a group of calls whose values have been recorded. */
+        public void setGroup(int position, int size) {
+            groupSizes[position] = size;
+            final int end = position + size;
+            callTypes[position] = Arrays.copyOfRange(mRowCallTypes, position, end);
+            callIds[position] = Arrays.copyOfRange(mRowCallIds, position, end);
+            int features = 0;
+            for (int i = position; i < end; i++) {
+                features |= mRowFeatures[i];
+            }
+            callFeatures[position] = features;
+        }
+
+        /**
+         * Copies the groups of the given layout from {@code start}, which are at
+         * {@code position} in this one, to the end.
+         */
+        public void copyTail(CallLogGroupLayout layout, int start, int position) {
+            final int count = groupSizes.length - position;
+            System.arraycopy(layout.mGroupSizes, start, groupSizes, position, count);
+            System.arraycopy(layout.mDayGroups, start, dayGroups, position, count);
+            System.arraycopy(layout.mCallTypes, start, callTypes, position, count);
+            System.arraycopy(layout.mCallIds, start, callIds, position, count);
+            System.arraycopy(layout.mCallFeatures, start, callFeatures, position, count);
+        }
+
+        public CallLogGroupLayout toLayout(CallLogGroupBuilder.DayBoundaries dayBoundaries) {
+            return new CallLogGroupLayout(dayBoundaries, this);
+        }
+    }
+}
@@ -63,17 +63,26 @@ import com.android.dialer.R;
      */
     public void setPhoneCallDetails(
             Context context, CallLogListItemViews views, PhoneCallDetails details) {
-        mPhoneCallDetailsHelper.setPhoneCallDetails(views.phoneCallDetailsViews, details);
+        setPhoneCallDetails(context, views, details, null);
+    }
+
+    /**
+     * Sets the name, label, and number for a contact, taking the values which do not depend on
+     * the contact from the given row of the call log, resolved ahead of time, if not null.
+     */
+    public void setPhoneCallDetails(Context context, CallLogListItemViews views,
+            PhoneCallDetails details, CallLogRowModel row) {
+        mPhoneCallDetailsHelper.setPhoneCallDetails(views.phoneCallDetailsViews, details, row);
 
         // Set the accessibility text for the contact badge
-        views.quickContactView.setContentDescription(getContactBadgeDescription(details));
+        views.quickContactView.setContentDescription(getContactBadgeDescription(details, row));
 
         // Set the primary action accessibility description
-        views.primaryActionView.setContentDescription(getCallDescription(context, details));
+        views.primaryActionView.setContentDescription(getCallDescription(context, details, row));
 
         // Cache name or number of caller.  Used when setting the content descriptions of buttons
         // when the actions ViewStub is inflated.
-        views.nameOrNumber = this.getNameOrNumber(details);
+        views.nameOrNumber = this.getNameOrNumber(details, row);
     }
 
     /**
@@ -114,8 +123,10 @@ import com.android.dialer.R;
      * @param details Details of call.
      * @return Accessibility description.
      */
-    private CharSequence getContactBadgeDescription(PhoneCallDetails details) {
-        return mResources.getString(R.string.description_contact_details, getNameOrNumber(details));
+    private CharSequence getContactBadgeDescription(PhoneCallDetails details,
+            CallLogRowModel row) {
+        return mResources.getString(R.string.description_contact_details,
+                getNameOrNumber(details, row));
     }
 
     /**
@@ -154,14 +165,25 @@ import com.android.dialer.R;
      * @return Return call action description.
      */
     public CharSequence getCallDescription(Context context, PhoneCallDetails details) {
+        return getCallDescription(context, details, null);
+    }
+
+    /**
+     * Returns the accessibility description of the "return call/call" action for a call log
+     * entry, taking the values which do not depend on the contact from the given row of the call
+     * log, if not null.
+     */
+    private CharSequence getCallDescription(Context context, PhoneCallDetails details,
+            CallLogRowModel row) {
         int lastCallType = getLastCallType(details.callTypes);
         boolean isVoiceMail = lastCallType == Calls.VOICEMAIL_TYPE;
 
         // Get the name or number of the caller.
-        final CharSequence nameOrNumber = getNameOrNumber(details);
+        final CharSequence nameOrNumber = getNameOrNumber(details, row);
 
         // Get the call type or location of the caller; null if not applicable
-        final CharSequence typeOrLocation = mPhoneCallDetailsHelper.getCallTypeOrLocation(details);
+        final CharSequence typeOrLocation =
+                mPhoneCallDetailsHelper.getCallTypeOrLocation(details, row);
 
         // Get the time/date of the call
         final CharSequence timeOfCall = mPhoneCallDetailsHelper.getCallDate(details);
@@ -186,7 +208,8 @@ import com.android.dialer.R;
         }
 
         int stringID = getCallDescriptionStringID(details);
-        String accountLabel = PhoneAccountUtils.getAccountLabel(context, details.accountHandle);
+        String accountLabel = row != null ? row.accountLabel
+                : PhoneAccountUtils.getAccountLabel(context, details.accountHandle);
 
         // Use chosen string resource to build up the message.
         CharSequence onAccountLabel = accountLabel == null
@@ -247,12 +270,16 @@ import com.android.dialer.R;
     /**
      * Return the name or number of the caller specified by the details.
      * @param details Call details
+     * @param row The row of the call log of the call, or null if it is not known.
      * @return the name (if known) of the caller, otherwise the formatted number.
      */
-    private CharSequence getNameOrNumber(PhoneCallDetails details) {
+    private CharSequence getNameOrNumber(PhoneCallDetails details, CallLogRowModel row) {
         final CharSequence recipient;
         if (!TextUtils.isEmpty(details.name)) {
             recipient = details.name;
+        } else if (row != null) {
+            recipient = PhoneNumberDisplayHelper.getDisplayNumber(row.displayName,
+                    details.number, details.formattedNumber);
         } else {
             recipient = mPhoneNumberHelper.getDisplayNumber(details.accountHandle,
                     details.number, details.numberPresentation, details.formattedNumber);
@@ -0,0 +1,588 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.provider.CallLog.Calls;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The pages of the call log loaded so far, most recent calls first, and the cursor over all of
+ * them shown by the adapter.
+ * <p>
+ * The calls are ordered by date then id, both descending, so that the next page is made of the
+ * calls which come after the last one loaded in that order: see {@link #getNextPageDate()} and
+ * {@link #getNextPageId()}. Unlike an offset, this is not affected by calls added at the top of
+ * the call log in the meantime.
+ * <p>
+ * The first calls can also be replaced by a more recent version of the head of the call log, see
+ * {@link #replaceHead}, to show new calls without reloading all the others.
+ * <p>
+ * The pages are owned by this object. Closing a cursor returned by {@link #getCursor()}, as the
+ * adapter does when it is given a new one, only closes the pages which have been dropped since.
+ */
+@NotThreadSafe
+final class CallLogPages {
+    /**
+     * A page of calls, with the columns of its rows, and possibly their models, read on the
+     * background thread which fetched it.
+     */
+    @Immutable
+    public static final class Page {
+        public final Cursor cursor;
+        /** The number of calls requested: if fewer were returned, there are no more calls. */
+        public final int requestedCount;
+        public final CallLogRows rows;
+        /** The models of the rows, or null if they were not read. */
+        private final CallLogRowModel[] mRowModels;
+
+        private Page(Cursor cursor, int requestedCount, CallLogRows rows,
+                CallLogRowModel[] rowModels) {
+            this.cursor = cursor;
+            this.requestedCount = requestedCount;
+            this.rows = rows;
+            mRowModels = rowModels;
+        }
+
+        /**
+         * Reads the columns of the calls of the given cursor, which must have the projection of
+         * {@link CallLogQuery}. Must not be called on the UI thread.
+         */
+        public static Page read(Cursor cursor, int requestedCount) {
+            return read(cursor, requestedCount, null);
+        }
+
+        /**
+         * Reads the columns of the calls of the given cursor like {@link #read(Cursor, int)},
+         * and the models of its rows if a resolver is given.
+         */
+        public static Page read(Cursor cursor, int requestedCount,
+                CallLogRowModel.Resolver resolver) {
+            final CallLogRows rows = CallLogRows.read(cursor);
+            CallLogRowModel[] rowModels = null;
+            if (resolver != null) {
+                rowModels = new CallLogRowModel[rows.getCount()];
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    rowModels[cursor.getPosition()] = CallLogRowModel.read(cursor, resolver);
+                }
+            }
+            return new Page(cursor, requestedCount, rows, rowModels);
+        }
+
+        public int getCount() {
+            return rows.getCount();
+        }
+
+        /** Returns the model of the row at the given position, or null if it was not read. */
+        public CallLogRowModel getRowModel(int position) {
+            return mRowModels == null ? null : mRowModels[position];
+        }
+    }
+
+    /**
+     * The columns of all the loaded calls, in order, along with their groups, given to the
+     * background thread checking which of them changed or grouping them with the next page.
+     */
+    @Immutable
+    public static final class Snapshot {
+        /** Identifies the loaded calls, which change when reloaded or replaced. */
+        public final int generation;
+        /** Identifies the loaded pages, which change when a page is added as well. */
+        public final int version;
+        public final CallLogRows rows;
+        /** The groups of the calls shown, or null if they are not known. */
+        public final CallLogGroupLayout layout;
+
+        private Snapshot(int generation, int version, CallLogRows rows,
+                CallLogGroupLayout layout) {
+            this.generation = generation;
+            this.version = version;
+            this.rows = rows;
+            this.layout = layout;
+        }
+
+        public int getCount() {
+            return rows.getCount();
+        }
+
+        public long getId(int position) {
+            return rows.getId(position);
+        }
+
+        public long getDate(int position) {
+            return rows.getDate(position);
+        }
+
+        public byte getReadState(int position) {
+            return rows.getReadState(position);
+        }
+
+        public int getContentHash(int position) {
+            return rows.getContentHash(position);
+        }
+    }
+
+    /** A loaded page, whose first calls may have been replaced by a more recent head. */
+    private static final class LoadedPage {
+        public final Page page;
+        /** The number of calls at the start of the page which are no longer shown. */
+        public final int skipped;
+
+        public LoadedPage(Page page, int skipped) {
+            this.page = page;
+            this.skipped = skipped;
+        }
+
+        public int getCount() {
+            return page.getCount() - skipped;
+        }
+
+        public Cursor getCursor() {
+            return skipped == 0 ? page.cursor : new TailCursor(page.cursor, skipped);
+        }
+    }
+
+    /**
+     * The calls of a cursor after the first ones. Closing it does not close the cursor.
+     */
+    private static final class TailCursor extends CursorWrapper {
+        private final int mOffset;
+        private int mPosition = -1;
+
+        public TailCursor(Cursor cursor, int offset) {
+            super(cursor);
+            mOffset = offset;
+        }
+
+        @Override
+        public int getCount() {
+            return super.getCount() - mOffset;
+        }
+
+        @Override
+        public int getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            final int count = getCount();
+            if (position >= count) {
+                mPosition = count;
+                super.moveToPosition(super.getCount());
+                return false;
+            }
+            if (position < 0) {
+                mPosition = -1;
+                super.moveToPosition(-1);
+                return false;
+            }
+            mPosition = position;
+            return super.moveToPosition(position + mOffset);
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moveToPosition(mPosition + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(getCount() - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(mPosition + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(mPosition - 1);
+        }
+
+        @Override
+        public boolean isFirst() {
+            return mPosition == 0 && getCount() != 0;
+        }
+
+        @Override
+        public boolean isLast() {
+            final int count = getCount();
+            return mPosition == count - 1 && count != 0;
+        }
+
+        @Override
+        public boolean isBeforeFirst() {
+            return getCount() == 0 || mPosition == -1;
+        }
+
+        @Override
+        public boolean isAfterLast() {
+            return getCount() == 0 || mPosition == getCount();
+        }
+
+        @Override
+        public void close() {
+            // The cursor is owned by the pages.
+        }
+    }
+
+    /**
+     * The cursor over the pages loaded when it was created, which leaves the pages still loaded
+     * open when closed.
+     * <p>
+     * Unlike a {@link android.database.MergeCursor}, it registers no observer of its own on the
+     * cursors of the pages, which outlive it while they are loaded, and unregisters the content
+     * observers registered through it from them when closed.
+     */
+    private final class PagesCursor extends AbstractCursor {
+        private final ArrayList<LoadedPage> mCursorPages;
+        private final Cursor[] mCursors;
+        /** The position of the first call of each page. */
+        private final int[] mStarts;
+        private final int mCount;
+        private final Set<ContentObserver> mContentObservers = Sets.newIdentityHashSet();
+        /** The cursor of the page of the current call. */
+        private Cursor mCursor;
+
+        public PagesCursor(ArrayList<LoadedPage> pages) {
+            mCursorPages = pages;
+            mCursors = getCursors(pages);
+            mStarts = new int[mCursors.length];
+            int count = 0;
+            for (int i = 0; i < mCursors.length; i++) {
+                mStarts[i] = count;
+                count += mCursors[i].getCount();
+            }
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return CallLogQuery._PROJECTION;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            int page = mCursors.length - 1;
+            while (mStarts[page] > newPosition) {
+                page--;
+            }
+            mCursor = mCursors[page];
+            return mCursor.moveToPosition(newPosition - mStarts[page]);
+        }
+
+        @Override
+        public String getString(int column) {
+            return mCursor.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return mCursor.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return mCursor.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mCursor.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return mCursor.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mCursor.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return mCursor.getBlob(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            return mCursor.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mCursor.isNull(column);
+        }
+
+        /** Notifies the observer of the changes to the calls of the pages, as they are queried. */
+        @Override
+        public void registerContentObserver(ContentObserver observer) {
+            if (mContentObservers.add(observer)) {
+                for (Cursor cursor : mCursors) {
+                    cursor.registerContentObserver(observer);
+                }
+            }
+        }
+
+        @Override
+        public void unregisterContentObserver(ContentObserver observer) {
+            if (mContentObservers.remove(observer)) {
+                for (Cursor cursor : mCursors) {
+                    cursor.unregisterContentObserver(observer);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            final Set<Cursor> loaded = Sets.newIdentityHashSet();
+            for (LoadedPage page : mPages) {
+                loaded.add(page.page.cursor);
+            }
+            for (int i = 0; i < mCursors.length; i++) {
+                if (loaded.contains(mCursorPages.get(i).page.cursor)) {
+                    for (ContentObserver observer : mContentObservers) {
+                        mCursors[i].unregisterContentObserver(observer);
+                    }
+                } else {
+                    mCursorPages.get(i).page.cursor.close();
+                }
+            }
+            mContentObservers.clear();
+            super.close();
+        }
+    }
+
+    private static Cursor[] getCursors(ArrayList<LoadedPage> pages) {
+        final Cursor[] cursors = new Cursor[pages.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = pages.get(i).getCursor();
+        }
+        return cursors;
+    }
+
+    /**
+     * Returns the read state of the call the cursor points to, from its {@link Calls#NEW} and
+     * {@link Calls#IS_READ} columns.
+     */
+    public static byte getReadState(Cursor cursor, int newColumn, int isReadColumn) {
+        int state = cursor.getInt(newColumn) != 0 ? 1 : 0;
+        if (cursor.isNull(isReadColumn)) {
+            state |= 4;
+        } else if (cursor.getInt(isReadColumn) != 0) {
+            state |= 2;
+        }
+        return (byte) state;
+    }
+
+    private ArrayList<LoadedPage> mPages = Lists.newArrayList();
+    private int mGeneration;
+    private int mVersion;
+    private boolean mHasMore;
+    /** Whether the next page has been requested, and not received yet. */
+    private boolean mFetchingNextPage;
+
+    /**
+     * Replaces all the pages with the given one, the most recent calls.
+     *
+     * @return the cursor over all the pages, to give to the adapter
+     */
+    public Cursor setFirstPage(Page page) {
+        // The previous pages are closed with the previous cursor.
+        mPages = Lists.newArrayList();
+        mGeneration++;
+        return addPage(page);
+    }
+
+    /**
+     * Adds the given page after the ones already loaded.
+     *
+     * @return the cursor over all the pages, to give to the adapter
+     */
+    public Cursor addPage(Page page) {
+        mVersion++;
+        mFetchingNextPage = false;
+        mPages.add(new LoadedPage(page, 0));
+        mHasMore = page.getCount() >= page.requestedCount;
+        return getCursor();
+    }
+
+    /**
+     * Replaces the first calls with the given head, the most recent version of the start of the
+     * call log, unless the calls have been reloaded since the given snapshot was taken.
+     *
+     * @param replacedCount the number of loaded calls which are part of the head
+     * @return the cursor over all the pages, to give to the adapter, or null if the calls have
+     *         been reloaded since the snapshot
+     */
+    public Cursor replaceHead(int generation, Page head, int replacedCount) {
+        if (generation != mGeneration || getCount() == 0 || replacedCount > getCount()) {
+            return null;
+        }
+        final long nextPageDate = getNextPageDate();
+        final long nextPageId = getNextPageId();
+        final ArrayList<LoadedPage> pages = Lists.newArrayListWithCapacity(mPages.size() + 1);
+        pages.add(new LoadedPage(head, 0));
+        int toSkip = replacedCount;
+        for (LoadedPage page : mPages) {
+            if (toSkip >= page.getCount()) {
+                // Entirely replaced: closed with the previous cursor.
+                toSkip -= page.getCount();
+            } else {
+                pages.add(toSkip == 0 ? page : new LoadedPage(page.page, page.skipped + toSkip));
+                toSkip = 0;
+            }
+        }
+        mPages = pages;
+        mGeneration++;
+        mVersion++;
+        if (getCount() == 0 || getNextPageDate() != nextPageDate
+                || getNextPageId() != nextPageId) {
+            // All the calls were replaced: a page requested after the last one is not the next.
+            mFetchingNextPage = false;
+        }
+        return getCursor();
+    }
+
+    /**
+     * Returns the columns of all the loaded calls.
+     *
+     * @param layout the groups of the calls shown by the adapter, if known
+     */
+    public Snapshot getSnapshot(CallLogGroupLayout layout) {
+        final int count = getCount();
+        final CallLogRows.Builder rows = new CallLogRows.Builder(count);
+        for (LoadedPage page : mPages) {
+            rows.add(page.page.rows, page.skipped, page.page.getCount());
+        }
+        if (layout != null && layout.getCount() != count) {
+            layout = null;
+        }
+        return new Snapshot(mGeneration, mVersion, rows.build(), layout);
+    }
+
+    /**
+     * Returns whether the given snapshot is of the pages currently loaded, so that what was
+     * computed from it on a background thread, such as the groups of the calls, still applies.
+     */
+    public boolean isCurrent(Snapshot snapshot) {
+        return snapshot.version == mVersion;
+    }
+
+    /**
+     * Returns a new cursor over all the pages.
+     */
+    public Cursor getCursor() {
+        return new PagesCursor(Lists.newArrayList(mPages));
+    }
+
+    /** Returns the total number of calls in the loaded pages. */
+    public int getCount() {
+        int count = 0;
+        for (LoadedPage page : mPages) {
+            count += page.getCount();
+        }
+        return count;
+    }
+
+    /** Returns whether the call log may contain calls after the loaded ones. */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Returns whether the next page should be requested: there may be more calls, and the next
+     * page has not been requested already.
+     */
+    public boolean shouldFetchNextPage() {
+        return mHasMore && !mFetchingNextPage && getCount() > 0;
+    }
+
+    /** Records that the next page has been requested. */
+    public void onFetchingNextPage() {
+        mFetchingNextPage = true;
+    }
+
+    /**
+     * Returns whether a page requested after the call with the given date and id is the next
+     * one, rather than the result of a request made before the pages were reloaded.
+     */
+    public boolean isNextPage(long afterDate, long afterId) {
+        return mFetchingNextPage && getCount() > 0
+                && afterDate == getNextPageDate() && afterId == getNextPageId();
+    }
+
+    /** Returns the date of the last loaded call: the next page starts after it. */
+    public long getNextPageDate() {
+        final Page last = getLastPage();
+        return last.rows.getDate(last.getCount() - 1);
+    }
+
+    /** Returns the id of the last loaded call: the next page starts after it. */
+    public long getNextPageId() {
+        final Page last = getLastPage();
+        return last.rows.getId(last.getCount() - 1);
+    }
+
+    /** Returns the last page which is not empty. */
+    private Page getLastPage() {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (mPages.get(i).getCount() > 0) {
+                return mPages.get(i).page;
+            }
+        }
+        throw new IllegalStateException("No calls loaded");
+    }
+
+    /** Closes all the pages, once the adapter no longer uses them. */
+    public void close() {
+        for (LoadedPage page : mPages) {
+            page.page.cursor.close();
+        }
+        mPages = Lists.newArrayList();
+        mGeneration++;
+        mVersion++;
+        mHasMore = false;
+        mFetchingNextPage = false;
+    }
+}
@@ -47,7 +47,22 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
     private static final String TAG = "CallLogQueryHandler";
-    private static final int NUM_LOGS_TO_DISPLAY = 1000;
+
+    /**
+     * The number of calls fetched by {@link #fetchCalls(int, long)} without a log limit: enough
+     * to fill the screen, so that it can be displayed quickly. Further calls are fetched page by
+     * page with {@link #fetchCallsPage}.
+     */
+    public static final int FIRST_PAGE_SIZE = 50;
+
+    /** The number of calls fetched by {@link #fetchCallsPage}. */
+    public static final int PAGE_SIZE = 200;
+
+    /**
+     * The order of the calls. The id breaks ties between calls with the same date, so that pages
+     * can start right after the last call of the previous page.
+     */
+    private static final String SORT_ORDER = Calls.DATE + " DESC, " + Calls._ID + " DESC";
 
     /** The token for the query to fetch the old entries from the call log. */
     private static final int QUERY_CALLLOG_TOKEN = 54;
@@ -59,6 +74,8 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
     private static final int UPDATE_MARK_MISSED_CALL_AS_READ_TOKEN = 57;
     /** The token for the query to fetch voicemail status messages. */
     private static final int QUERY_VOICEMAIL_STATUS_TOKEN = 58;
+    /** The token for the query to fetch the calls after the ones already fetched. */
+    private static final int QUERY_CALLLOG_PAGE_TOKEN = 59;
 
     private final int mLogLimit;
 
@@ -69,6 +86,24 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
     public static final int CALL_TYPE_ALL = -1;
 
     private final WeakReference<Listener> mListener;
+    private final ContentResolver mContentResolver;
+    /**
+     * The handler of the worker thread, which runs the queries of {@link PageListener}s. It is
+     * set by {@link #createHandler}, called by the constructor of the superclass, so it must not
+     * have an initializer.
+     */
+    private Handler mWorkerHandler;
+    /**
+     * Incremented by each fetch or refresh of the first calls, and of the next page, so that
+     * only the result of the last one is delivered. Only used on the main thread.
+     */
+    private int mCallsSequence;
+    private int mPageSequence;
+    /**
+     * Reads the models of the rows of the pages of calls on the worker thread, if set, see
+     * {@link #setRowModelResolver}.
+     */
+    private volatile CallLogRowModel.Resolver mRowModelResolver;
 
     /**
      * Simple handler that wraps background calls to catch
@@ -82,8 +117,13 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
         @Override
         public void handleMessage(Message msg) {
             try {
-                // Perform same query while catching any exceptions
-                super.handleMessage(msg);
+                if (msg.obj instanceof Runnable) {
+                    // Started with startOnWorkerThread(), it reads the calls as well.
+                    ((Runnable) msg.obj).run();
+                } else {
+                    // Perform same query while catching any exceptions
+                    super.handleMessage(msg);
+                }
             } catch (SQLiteDiskIOException e) {
                 Log.w(TAG, "Exception on background worker thread", e);
             } catch (SQLiteFullException e) {
@@ -99,7 +139,8 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
     @Override
     protected Handler createHandler(Looper looper) {
         // Provide our special handler that catches exceptions
-        return new CatchingWorkerHandler(looper);
+        mWorkerHandler = new CatchingWorkerHandler(looper);
+        return mWorkerHandler;
     }
 
     public CallLogQueryHandler(ContentResolver contentResolver, Listener listener) {
@@ -109,37 +150,180 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
     public CallLogQueryHandler(ContentResolver contentResolver, Listener listener, int limit) {
         super(contentResolver);
         mListener = new WeakReference<Listener>(listener);
+        mContentResolver = contentResolver;
         mLogLimit = limit;
     }
 
+    /**
+     * Sets the resolver used to read the models of the rows of the pages of calls given to a
+     * {@link PageListener}, along with the pages, so that the rows are ready to be bound.
+     */
+    public void setRowModelResolver(CallLogRowModel.Resolver resolver) {
+        mRowModelResolver = resolver;
+    }
+
     /**
      * Fetches the list of calls from the call log for a given type.
      * This call ignores the new or old state.
      * <p>
+     * Unless the handler was created with a log limit, only the most recent calls are fetched,
+     * see {@link #FIRST_PAGE_SIZE}.
+     * <p>
      * It will asynchronously update the content of the list view when the fetch completes.
      */
     public void fetchCalls(int callType, long newerThan) {
+        fetchCalls(callType, newerThan, 0);
+    }
+
+    /**
+     * Fetches the list of calls from the call log for a given type, including at least
+     * {@code minCount} calls if there are as many, for instance to reload all the calls already
+     * displayed.
+     */
+    public void fetchCalls(int callType, long newerThan, int minCount) {
         cancelFetch();
-        fetchCalls(QUERY_CALLLOG_TOKEN, callType, false /* newOnly */, newerThan);
+        mCallsSequence++;
+        mPageSequence++;
+        fetchCalls(QUERY_CALLLOG_TOKEN, callType, false /* newOnly */, newerThan,
+                getFetchLimit(minCount), null);
+    }
+
+    /**
+     * Returns the number of calls requested by {@link #fetchCalls(int, long, int)}: if fewer are
+     * returned, there are no more calls.
+     */
+    private int getFetchLimit(int minCount) {
+        return mLogLimit == -1 ? Math.max(FIRST_PAGE_SIZE, minCount) : mLogLimit;
+    }
+
+    /** Returns whether further calls can be fetched with {@link #fetchCallsPage}. */
+    public boolean isPaged() {
+        return mLogLimit == -1;
     }
 
     public void fetchCalls(int callType) {
         fetchCalls(callType, 0);
     }
 
+    /**
+     * Fetches the next {@link #PAGE_SIZE} calls of the given type after the given loaded calls,
+     * in the order of the call log, and groups them along with the loaded calls.
+     * <p>
+     * The listener must implement {@link PageListener}, which is notified when the fetch
+     * completes.
+     */
+    public void fetchCallsPage(int callType, long newerThan, CallLogPages.Snapshot loaded) {
+        cancelOperation(QUERY_CALLLOG_PAGE_TOKEN);
+        mPageSequence++;
+        fetchCalls(QUERY_CALLLOG_PAGE_TOKEN, callType, false /* newOnly */, newerThan, PAGE_SIZE,
+                loaded);
+    }
+
+    /**
+     * Finds what changed in the call log since the given calls were loaded, without fetching
+     * them all again: only the calls more recent than the loaded ones, and the loaded calls down
+     * to the oldest one whose read state or other shown columns changed, are fetched.
+     * <p>
+     * The listener must implement {@link PageListener}, which is notified when the refresh
+     * completes, see {@link PageListener#onCallsRefreshed}. If calls were removed or inserted
+     * among the loaded ones, the result only tells that they must be reloaded. Otherwise, the
+     * calls are grouped again as well, starting from the groups of the snapshot if it has them.
+     */
+    public void refreshCalls(int callType, long newerThan, final CallLogPages.Snapshot snapshot) {
+        cancelOperation(QUERY_CALLLOG_TOKEN);
+        final int sequence = ++mCallsSequence;
+        final StringBuilder where = new StringBuilder();
+        final List<String> selectionArgs = Lists.newArrayList();
+        appendFilter(where, selectionArgs, callType, false /* newOnly */, newerThan);
+        final String filter = where.toString();
+        startOnWorkerThread(QUERY_CALLLOG_TOKEN, new Runnable() {
+            @Override
+            public void run() {
+                final RefreshResult result = refreshInBackground(filter, selectionArgs, snapshot);
+                if (result == null) {
+                    return;
+                }
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCallsRefreshed(sequence, result);
+                    }
+                });
+            }
+        });
+    }
+
     public void fetchVoicemailStatus() {
         startQuery(QUERY_VOICEMAIL_STATUS_TOKEN, null, Status.CONTENT_URI,
                 VoicemailStatusHelperImpl.PROJECTION, null, null, null);
     }
 
-    /** Fetches the list of calls in the call log. */
-    private void fetchCalls(int token, int callType, boolean newOnly, long newerThan) {
+    /**
+     * Fetches the list of calls in the call log.
+     *
+     * @param loaded if not null, the calls after which to start
+     */
+    private void fetchCalls(final int token, int callType, boolean newOnly, long newerThan,
+            final int limit, final CallLogPages.Snapshot loaded) {
+        StringBuilder where = new StringBuilder();
+        final List<String> selectionArgs = Lists.newArrayList();
+        appendFilter(where, selectionArgs, callType, newOnly, newerThan);
+        if (loaded != null) {
+            final int last = loaded.getCount() - 1;
+            appendKeyCondition(where, selectionArgs, true /* older */, false /* inclusive */,
+                    loaded.getDate(last), loaded.getId(last));
+        }
+
+        final String selection = where.length() > 0 ? where.toString() : null;
+        final Uri uri = Calls.CONTENT_URI_WITH_VOICEMAIL.buildUpon()
+                .appendQueryParameter(Calls.LIMIT_PARAM_KEY, Integer.toString(limit))
+                .build();
+        if (!(mListener.get() instanceof PageListener)) {
+            startQuery(token, null, uri, CallLogQuery._PROJECTION, selection,
+                    selectionArgs.toArray(EMPTY_STRING_ARRAY), SORT_ORDER);
+            return;
+        }
+
+        // The calls are read and grouped on the worker thread as well.
+        final int sequence = token == QUERY_CALLLOG_TOKEN ? mCallsSequence : mPageSequence;
+        startOnWorkerThread(token, new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = queryCalls(uri, CallLogQuery._PROJECTION, selection,
+                        selectionArgs);
+                if (cursor == null) {
+                    cursor = new MatrixCursor(CallLogQuery._PROJECTION);
+                }
+                final CallLogPages.Page page =
+                        CallLogPages.Page.read(cursor, limit, mRowModelResolver);
+                final CallLogRows rows;
+                if (loaded == null) {
+                    rows = page.rows;
+                } else {
+                    // Groups can continue from the loaded calls into the page.
+                    rows = new CallLogRows.Builder(loaded.getCount() + page.getCount())
+                            .add(loaded.rows)
+                            .add(page.rows)
+                            .build();
+                }
+                final CallLogGroupBuilder groupBuilder = new CallLogGroupBuilder();
+                groupBuilder.addGroups(rows.newCursor());
+                final CallLogGroupLayout layout = groupBuilder.getLayout();
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageFetched(token, sequence, page, loaded, layout);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void appendFilter(StringBuilder where, List<String> selectionArgs,
+            int callType, boolean newOnly, long newerThan) {
         // We need to check for NULL explicitly otherwise entries with where READ is NULL
         // may not match either the query or its negation.
         // We consider the calls that are not yet consumed (i.e. IS_READ = 0) as "new".
-        StringBuilder where = new StringBuilder();
-        List<String> selectionArgs = Lists.newArrayList();
-
         if (newOnly) {
             where.append(Calls.NEW);
             where.append(" = 1");
@@ -162,20 +346,165 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
             where.append(String.format("(%s > ?)", Calls.DATE));
             selectionArgs.add(Long.toString(newerThan));
         }
+    }
 
-        final int limit = (mLogLimit == -1) ? NUM_LOGS_TO_DISPLAY : mLogLimit;
-        final String selection = where.length() > 0 ? where.toString() : null;
-        Uri uri = Calls.CONTENT_URI_WITH_VOICEMAIL.buildUpon()
-                .appendQueryParameter(Calls.LIMIT_PARAM_KEY, Integer.toString(limit))
+    /**
+     * Restricts the selection to the calls before or after the call with the given date and id,
+     * in the order of the call log.
+     *
+     * @param older whether to select the calls after the given one, which are older
+     * @param inclusive whether to select the given call as well
+     */
+    private static void appendKeyCondition(StringBuilder where, List<String> selectionArgs,
+            boolean older, boolean inclusive, long date, long id) {
+        if (where.length() > 0) {
+            where.append(" AND ");
+        }
+        final String dateOperator = older ? "<" : ">";
+        final String idOperator = inclusive ? dateOperator + "=" : dateOperator;
+        where.append(String.format("(%s %s ? OR (%s = ? AND %s %s ?))",
+                Calls.DATE, dateOperator, Calls.DATE, Calls._ID, idOperator));
+        selectionArgs.add(Long.toString(date));
+        selectionArgs.add(Long.toString(date));
+        selectionArgs.add(Long.toString(id));
+    }
+
+    /**
+     * Runs the given query of the call log on the worker thread. Like the queries started with
+     * {@link #startQuery}, it is canceled by {@link #cancelOperation} with the given token, and
+     * the exceptions it throws are caught by {@link CatchingWorkerHandler}: the query is not the
+     * callback of the message, which would not go through its {@code handleMessage}.
+     */
+    private void startOnWorkerThread(int token, Runnable query) {
+        mWorkerHandler.sendMessage(Message.obtain(mWorkerHandler, token, query));
+    }
+
+    /**
+     * Queries the call log on the worker thread, returning null if the query failed.
+     */
+    private Cursor queryCalls(Uri uri, String[] projection, String selection,
+            List<String> selectionArgs) {
+        try {
+            return mContentResolver.query(uri, projection, selection,
+                    selectionArgs.toArray(EMPTY_STRING_ARRAY), SORT_ORDER);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Exception on background worker thread", e);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "ContactsProvider not present on device", e);
+        }
+        return null;
+    }
+
+    /**
+     * Compares the given loaded calls with the call log, on the worker thread. Returns null if
+     * the call log could not be queried.
+     */
+    private RefreshResult refreshInBackground(String filter, List<String> filterArgs,
+            CallLogPages.Snapshot snapshot) {
+        final int count = snapshot.getCount();
+
+        // Reads the calls between the first and the last loaded ones, only keeping their ids,
+        // read states and the hashes of their other columns.
+        StringBuilder where = new StringBuilder(filter);
+        List<String> selectionArgs = Lists.newArrayList(filterArgs);
+        appendKeyCondition(where, selectionArgs, true /* older */, true /* inclusive */,
+                snapshot.getDate(0), snapshot.getId(0));
+        appendKeyCondition(where, selectionArgs, false /* older */, true /* inclusive */,
+                snapshot.getDate(count - 1), snapshot.getId(count - 1));
+        final Cursor keys = queryCalls(Calls.CONTENT_URI_WITH_VOICEMAIL,
+                CallLogQuery._PROJECTION, where.toString(), selectionArgs);
+        if (keys == null) {
+            return null;
+        }
+        int lastChanged = -1;
+        try {
+            if (keys.getCount() != count) {
+                return new RefreshResult(snapshot, true, null, 0, null);
+            }
+            for (int i = 0; keys.moveToNext(); i++) {
+                if (keys.getLong(CallLogQuery.ID) != snapshot.getId(i)) {
+                    return new RefreshResult(snapshot, true, null, 0, null);
+                }
+                if (CallLogPages.getReadState(keys, CallLogQuery.NEW, CallLogQuery.IS_READ)
+                        != snapshot.getReadState(i)
+                        || CallLogRows.hashContent(keys) != snapshot.getContentHash(i)) {
+                    lastChanged = i;
+                }
+            }
+        } finally {
+            keys.close();
+        }
+
+        // Fetches the calls more recent than the loaded ones, and the loaded calls down to the
+        // oldest one which changed.
+        where = new StringBuilder(filter);
+        selectionArgs = Lists.newArrayList(filterArgs);
+        if (lastChanged >= 0) {
+            appendKeyCondition(where, selectionArgs, false /* older */, true /* inclusive */,
+                    snapshot.getDate(lastChanged), snapshot.getId(lastChanged));
+        } else {
+            appendKeyCondition(where, selectionArgs, false /* older */, false /* inclusive */,
+                    snapshot.getDate(0), snapshot.getId(0));
+        }
+        final Cursor head = queryCalls(Calls.CONTENT_URI_WITH_VOICEMAIL,
+                CallLogQuery._PROJECTION, where.toString(), selectionArgs);
+        if (head == null) {
+            return null;
+        }
+        if (head.getCount() == 0 && lastChanged < 0) {
+            head.close();
+            return new RefreshResult(snapshot, false, null, 0, null);
+        }
+        // The head is not limited: it says nothing about the calls after the loaded ones.
+        final CallLogPages.Page page =
+                CallLogPages.Page.read(head, Integer.MAX_VALUE, mRowModelResolver);
+        final int replacedCount = lastChanged + 1;
+
+        // Only the head, and the loaded calls up to the first group which did not change, are
+        // grouped again if the groups of the loaded calls are known.
+        final CallLogRows rows = new CallLogRows.Builder(page.getCount() + count - replacedCount)
+                .add(page.rows)
+                .add(snapshot.rows, replacedCount, count)
                 .build();
-        startQuery(token, null, uri,
-                CallLogQuery._PROJECTION, selection, selectionArgs.toArray(EMPTY_STRING_ARRAY),
-                Calls.DEFAULT_SORT_ORDER);
+        final CallLogGroupBuilder groupBuilder = new CallLogGroupBuilder();
+        groupBuilder.setLayout(snapshot.layout);
+        groupBuilder.addGroups(rows.newCursor(), page.getCount(), replacedCount);
+        return new RefreshResult(snapshot, false, page, replacedCount, groupBuilder.getLayout());
+    }
+
+    /** The result of {@link #refreshCalls}. */
+    public static final class RefreshResult {
+        /** The snapshot of the loaded calls which were compared. */
+        public final CallLogPages.Snapshot snapshot;
+        /** Whether calls were removed or inserted among the loaded ones. */
+        public final boolean reloadRequired;
+        /**
+         * The calls more recent than the loaded ones, followed by the loaded calls down to the
+         * oldest one which changed, or null if there are none.
+         */
+        public final CallLogPages.Page head;
+        /** The number of loaded calls which are part of the head. */
+        public final int replacedCount;
+        /**
+         * The groups of the loaded calls once their head is replaced, or null if there is no
+         * head.
+         */
+        public final CallLogGroupLayout layout;
+
+        public RefreshResult(CallLogPages.Snapshot snapshot, boolean reloadRequired,
+                CallLogPages.Page head, int replacedCount, CallLogGroupLayout layout) {
+            this.snapshot = snapshot;
+            this.reloadRequired = reloadRequired;
+            this.head = head;
+            this.replacedCount = replacedCount;
+            this.layout = layout;
+        }
     }
 
     /** Cancel any pending fetch request. */
     private void cancelFetch() {
         cancelOperation(QUERY_CALLLOG_TOKEN);
+        cancelOperation(QUERY_CALLLOG_PAGE_TOKEN);
     }
 
     /** Updates all new calls to mark them as old. */
@@ -258,6 +587,51 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
 
     }
 
+    /**
+     * Gives a page of calls to the call log fragment, unless it has been requested again since.
+     * Closes the page unless the listener took ownership of it.
+     */
+    private void onPageFetched(int token, int sequence, CallLogPages.Page page,
+            CallLogPages.Snapshot loaded, CallLogGroupLayout layout) {
+        boolean owned = false;
+        try {
+            final Listener listener = mListener.get();
+            if (!(listener instanceof PageListener)) {
+                return;
+            }
+            final PageListener pageListener = (PageListener) listener;
+            if (token == QUERY_CALLLOG_TOKEN) {
+                if (sequence == mCallsSequence) {
+                    owned = pageListener.onFirstPageFetched(page, layout);
+                }
+            } else if (sequence == mPageSequence) {
+                owned = pageListener.onCallsPageFetched(page, loaded, layout);
+            }
+        } finally {
+            if (!owned) {
+                page.cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Gives the result of a refresh to the call log fragment, unless the calls have been
+     * requested again since. Closes the head unless the listener took ownership of it.
+     */
+    private void onCallsRefreshed(int sequence, RefreshResult result) {
+        boolean owned = false;
+        try {
+            final Listener listener = mListener.get();
+            if (listener instanceof PageListener && sequence == mCallsSequence) {
+                owned = ((PageListener) listener).onCallsRefreshed(result);
+            }
+        } finally {
+            if (!owned && result.head != null) {
+                result.head.cursor.close();
+            }
+        }
+    }
+
     private void updateVoicemailStatus(Cursor statusCursor) {
         final Listener listener = mListener.get();
         if (listener != null) {
@@ -276,4 +650,35 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
          */
         boolean onCallsFetched(Cursor combinedCursor);
     }
+
+    /**
+     * Listener to the completion of the queries of the calls as pages, along with their keys and
+     * groups, computed on the worker thread. The calls are only given to
+     * {@link #onFirstPageFetched}, not {@link #onCallsFetched}.
+     */
+    public interface PageListener extends Listener {
+        /**
+         * Called when {@link CallLogQueryHandler#fetchCalls(int, long, int)} completes.
+         * Returns true if takes ownership of the cursor of the page.
+         *
+         * @param layout the groups of the calls of the page
+         */
+        boolean onFirstPageFetched(CallLogPages.Page page, CallLogGroupLayout layout);
+
+        /**
+         * Called when {@link CallLogQueryHandler#fetchCallsPage} completes.
+         * Returns true if takes ownership of the cursor of the page.
+         *
+         * @param loaded the loaded calls after which the page starts
+         * @param layout the groups of the loaded calls followed by the calls of the page
+         */
+        boolean onCallsPageFetched(CallLogPages.Page page, CallLogPages.Snapshot loaded,
+                CallLogGroupLayout layout);
+
+        /**
+         * Called when {@link CallLogQueryHandler#refreshCalls} completes.
+         * Returns true if takes ownership of the cursor of the head of the result.
+         */
+        boolean onCallsRefreshed(RefreshResult result);
+    }
 }
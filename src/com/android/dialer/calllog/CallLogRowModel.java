@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.database.Cursor;
+import android.telecom.PhoneAccountHandle;
+
+import com.android.contacts.common.util.UriUtils;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The values shown for a row of the call log which do not depend on the contact of its number,
+ * read from the cursor and resolved with the telephony services once, so that binding the row
+ * does neither.
+ * <p>
+ * Models are created by the query handler, on its worker thread, for the calls of each page it
+ * fetches, and cached by the adapter by row id. The contact info, which changes as it is looked
+ * up, is still taken from the contact info cache when the row is bound. The adapter replaces the
+ * cached models of the rows whose contact info it writes back, see {@link #withCallLogInfo}.
+ */
+@Immutable
+public final class CallLogRowModel {
+    /**
+     * Resolves the values of a row which are not stored in the call log. Its methods can be
+     * called from any thread.
+     */
+    public interface Resolver {
+        /** See {@link PhoneNumberUtilsWrapper#isVoicemailNumber}. */
+        boolean isVoicemailNumber(PhoneAccountHandle accountHandle, CharSequence number);
+
+        /**
+         * Returns the text shown instead of the number when it cannot be shown, for instance for
+         * a private number, or the empty string. See {@link PhoneNumberDisplayHelper}.
+         */
+        CharSequence getDisplayName(CharSequence number, int presentation,
+                boolean isVoicemailNumber);
+
+        /** See {@link PhoneAccountUtils#getAccountLabel}. */
+        String getAccountLabel(PhoneAccountHandle accountHandle);
+
+        /** See {@link PhoneAccountUtils#getAccountColor}. */
+        int getAccountColor(PhoneAccountHandle accountHandle);
+    }
+
+    public final long rowId;
+    public final String number;
+    public final int numberPresentation;
+    public final long date;
+    public final long duration;
+    public final int callType;
+    public final String countryIso;
+    public final PhoneAccountHandle accountHandle;
+    public final String voicemailUri;
+    public final String geocode;
+    public final String transcription;
+    /** The data usage of the call, or null if it is not known. */
+    public final Long dataUsage;
+    /**
+     * The contact information stored in the call log. It must not be modified.
+     */
+    public final ContactInfo callLogInfo;
+    /** Whether calls can be placed to the number, see {@link PhoneNumberUtilsWrapper}. */
+    public final boolean canPlaceCalls;
+    public final boolean isVoicemailNumber;
+    /** See {@link Resolver#getDisplayName}. */
+    public final CharSequence displayName;
+    /** The label of the account of the call, or null if there is none. */
+    public final String accountLabel;
+    /** The highlight color of the account of the call, if it has a label. */
+    public final int accountColor;
+
+    private CallLogRowModel(Cursor c, Resolver resolver) {
+        rowId = c.getLong(CallLogQuery.ID);
+        number = c.getString(CallLogQuery.NUMBER);
+        numberPresentation = c.getInt(CallLogQuery.NUMBER_PRESENTATION);
+        date = c.getLong(CallLogQuery.DATE);
+        duration = c.getLong(CallLogQuery.DURATION);
+        callType = c.getInt(CallLogQuery.CALL_TYPE);
+        countryIso = c.getString(CallLogQuery.COUNTRY_ISO);
+        accountHandle = PhoneAccountUtils.getAccount(
+                c.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME),
+                c.getString(CallLogQuery.ACCOUNT_ID));
+        voicemailUri = c.getString(CallLogQuery.VOICEMAIL_URI);
+        geocode = c.getString(CallLogQuery.GEOCODED_LOCATION);
+        transcription = c.getString(CallLogQuery.TRANSCRIPTION);
+        dataUsage = c.isNull(CallLogQuery.DATA_USAGE) ? null : c.getLong(CallLogQuery.DATA_USAGE);
+        callLogInfo = readCallLogInfo(c);
+
+        canPlaceCalls = PhoneNumberUtilsWrapper.canPlaceCallsTo(number, numberPresentation);
+        isVoicemailNumber = resolver.isVoicemailNumber(accountHandle, number);
+        displayName = resolver.getDisplayName(number, numberPresentation, isVoicemailNumber);
+        accountLabel = resolver.getAccountLabel(accountHandle);
+        accountColor = accountLabel == null ? 0 : resolver.getAccountColor(accountHandle);
+    }
+
+    private CallLogRowModel(CallLogRowModel model, ContactInfo callLogInfo) {
+        rowId = model.rowId;
+        number = model.number;
+        numberPresentation = model.numberPresentation;
+        date = model.date;
+        duration = model.duration;
+        callType = model.callType;
+        countryIso = model.countryIso;
+        accountHandle = model.accountHandle;
+        voicemailUri = model.voicemailUri;
+        geocode = model.geocode;
+        transcription = model.transcription;
+        dataUsage = model.dataUsage;
+        this.callLogInfo = callLogInfo;
+
+        canPlaceCalls = model.canPlaceCalls;
+        isVoicemailNumber = model.isVoicemailNumber;
+        displayName = model.displayName;
+        accountLabel = model.accountLabel;
+        accountColor = model.accountColor;
+    }
+
+    /**
+     * Reads the model of the row the cursor points to, which must have the projection of
+     * {@link CallLogQuery}. May query the telephony services: it should not be called on the UI
+     * thread, unless the row has to be shown right away.
+     */
+    public static CallLogRowModel read(Cursor c, Resolver resolver) {
+        return new CallLogRowModel(c, resolver);
+    }
+
+    /**
+     * Returns a copy of this model with the given contact information stored in the call log,
+     * once it has been written back. It must not be modified afterwards.
+     */
+    public CallLogRowModel withCallLogInfo(ContactInfo callLogInfo) {
+        return new CallLogRowModel(this, callLogInfo);
+    }
+
+    /** Returns the contact information stored in the call log for the row of the cursor. */
+    public static ContactInfo readCallLogInfo(Cursor c) {
+        ContactInfo info = new ContactInfo();
+        info.lookupUri = UriUtils.parseUriOrNull(c.getString(CallLogQuery.CACHED_LOOKUP_URI));
+        info.name = c.getString(CallLogQuery.CACHED_NAME);
+        info.type = c.getInt(CallLogQuery.CACHED_NUMBER_TYPE);
+        info.label = c.getString(CallLogQuery.CACHED_NUMBER_LABEL);
+        String matchedNumber = c.getString(CallLogQuery.CACHED_MATCHED_NUMBER);
+        info.number = matchedNumber == null ? c.getString(CallLogQuery.NUMBER) : matchedNumber;
+        info.normalizedNumber = c.getString(CallLogQuery.CACHED_NORMALIZED_NUMBER);
+        info.photoId = c.getLong(CallLogQuery.CACHED_PHOTO_ID);
+        info.photoUri = null;  // We do not cache the photo URI.
+        info.formattedNumber = c.getString(CallLogQuery.CACHED_FORMATTED_NUMBER);
+        return info;
+    }
+}
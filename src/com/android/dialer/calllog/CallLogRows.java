@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The columns of a list of calls which identify them and determine how they are grouped, read
+ * once from a cursor with the projection of {@link CallLogQuery}.
+ * <p>
+ * Unlike the cursor, they can be read from any thread, so that the calls already shown can be
+ * compared with the call log and grouped again on a background thread.
+ */
+@Immutable
+final class CallLogRows {
+    public static final CallLogRows EMPTY = new Builder(0).build();
+
+    private final long[] mIds;
+    private final long[] mDates;
+    private final byte[] mReadStates;
+    private final String[] mNumbers;
+    private final String[] mCountryIsos;
+    private final int[] mCallTypes;
+    private final String[] mAccountComponentNames;
+    private final String[] mAccountIds;
+    private final int[] mFeatures;
+    private final int[] mContentHashes;
+
+    private CallLogRows(Builder builder) {
+        mIds = builder.mIds;
+        mDates = builder.mDates;
+        mReadStates = builder.mReadStates;
+        mNumbers = builder.mNumbers;
+        mCountryIsos = builder.mCountryIsos;
+        mCallTypes = builder.mCallTypes;
+        mAccountComponentNames = builder.mAccountComponentNames;
+        mAccountIds = builder.mAccountIds;
+        mFeatures = builder.mFeatures;
+        mContentHashes = builder.mContentHashes;
+    }
+
+    /**
+     * Reads the columns of all the calls of the given cursor. Must not be called on the UI
+     * thread.
+     */
+    public static CallLogRows read(Cursor cursor) {
+        final Builder builder = new Builder(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            builder.add(cursor);
+        }
+        return builder.build();
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    /**
+     * Returns the read state of the call, see {@link CallLogPages#getReadState}.
+     */
+    public byte getReadState(int position) {
+        return mReadStates[position];
+    }
+
+    /**
+     * Returns the hash of the other columns of the call, see {@link #hashContent}.
+     */
+    public int getContentHash(int position) {
+        return mContentHashes[position];
+    }
+
+    /**
+     * Returns a hash of the columns of the call the cursor points to, other than its id and read
+     * state, so that a change to any of the columns shown, such as the transcription or the
+     * cached contact info, can be found without keeping them all.
+     */
+    public static int hashContent(Cursor cursor) {
+        int hash = 1;
+        for (int column = 0; column < CallLogQuery._PROJECTION.length; column++) {
+            if (column == CallLogQuery.ID || column == CallLogQuery.NEW
+                    || column == CallLogQuery.IS_READ) {
+                continue;
+            }
+            final String value = cursor.getString(column);
+            hash = 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a new cursor over the calls, for {@link CallLogGroupBuilder}. Only the columns
+     * read by this class can be read from it.
+     */
+    public Cursor newCursor() {
+        return new RowsCursor();
+    }
+
+    /**
+     * Builds the columns of a list of calls, made of calls read from cursors and of calls of
+     * other lists.
+     */
+    public static final class Builder {
+        private final long[] mIds;
+        private final long[] mDates;
+        private final byte[] mReadStates;
+        private final String[] mNumbers;
+        private final String[] mCountryIsos;
+        private final int[] mCallTypes;
+        private final String[] mAccountComponentNames;
+        private final String[] mAccountIds;
+        private final int[] mFeatures;
+        private final int[] mContentHashes;
+        private int mCount;
+
+        public Builder(int count) {
+            mIds = new long[count];
+            mDates = new long[count];
+            mReadStates = new byte[count];
+            mNumbers = new String[count];
+            mCountryIsos = new String[count];
+            mCallTypes = new int[count];
+            mAccountComponentNames = new String[count];
+            mAccountIds = new String[count];
+            mFeatures = new int[count];
+            mContentHashes = new int[count];
+        }
+
+        /** Adds the call the cursor points to. */
+        public Builder add(Cursor cursor) {
+            mIds[mCount] = cursor.getLong(CallLogQuery.ID);
+            mDates[mCount] = cursor.getLong(CallLogQuery.DATE);
+            mReadStates[mCount] =
+                    CallLogPages.getReadState(cursor, CallLogQuery.NEW, CallLogQuery.IS_READ);
+            mNumbers[mCount] = cursor.getString(CallLogQuery.NUMBER);
+            mCountryIsos[mCount] = cursor.getString(CallLogQuery.COUNTRY_ISO);
+            mCallTypes[mCount] = cursor.getInt(CallLogQuery.CALL_TYPE);
+            mAccountComponentNames[mCount] =
+                    cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME);
+            mAccountIds[mCount] = cursor.getString(CallLogQuery.ACCOUNT_ID);
+            mFeatures[mCount] = cursor.getInt(CallLogQuery.FEATURES);
+            mContentHashes[mCount] = hashContent(cursor);
+            mCount++;
+            return this;
+        }
+
+        /** Adds the calls of the given list from {@code start}, inclusive, to {@code end}. */
+        public Builder add(CallLogRows rows, int start, int end) {
+            final int count = end - start;
+            System.arraycopy(rows.mIds, start, mIds, mCount, count);
+            System.arraycopy(rows.mDates, start, mDates, mCount, count);
+            System.arraycopy(rows.mReadStates, start, mReadStates, mCount, count);
+            System.arraycopy(rows.mNumbers, start, mNumbers, mCount, count);
+            System.arraycopy(rows.mCountryIsos, start, mCountryIsos, mCount, count);
+            System.arraycopy(rows.mCallTypes, start, mCallTypes, mCount, count);
+            System.arraycopy(rows.mAccountComponentNames, start, mAccountComponentNames, mCount,
+                    count);
+            System.arraycopy(rows.mAccountIds, start, mAccountIds, mCount, count);
+            System.arraycopy(rows.mFeatures, start, mFeatures, mCount, count);
+            System.arraycopy(rows.mContentHashes, start, mContentHashes, mCount, count);
+            mCount += count;
+            return this;
+        }
+
+        /** Adds all the calls of the given list. */
+        public Builder add(CallLogRows rows) {
+            return add(rows, 0, rows.getCount());
+        }
+
+        /**
+         * Returns the calls added, which must be as many as the count given to the constructor.
+         */
+        public CallLogRows build() {
+            if (mCount != mIds.length) {
+                throw new IllegalStateException("Added " + mCount + " calls, expected "
+                        + mIds.length);
+            }
+            return new CallLogRows(this);
+        }
+    }
+
+    /**
+     * A cursor over the columns of the calls read by {@link CallLogRows}, the others being null.
+     */
+    private final class RowsCursor extends AbstractCursor {
+        @Override
+        public int getCount() {
+            return mIds.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return CallLogQuery._PROJECTION;
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (column) {
+                case CallLogQuery.NUMBER:
+                    return mNumbers[mPos];
+                case CallLogQuery.COUNTRY_ISO:
+                    return mCountryIsos[mPos];
+                case CallLogQuery.ACCOUNT_COMPONENT_NAME:
+                    return mAccountComponentNames[mPos];
+                case CallLogQuery.ACCOUNT_ID:
+                    return mAccountIds[mPos];
+                case CallLogQuery.ID:
+                case CallLogQuery.DATE:
+                case CallLogQuery.CALL_TYPE:
+                case CallLogQuery.FEATURES:
+                case CallLogQuery.NEW:
+                case CallLogQuery.IS_READ:
+                    return isNull(column) ? null : Long.toString(getLong(column));
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (column) {
+                case CallLogQuery.ID:
+                    return mIds[mPos];
+                case CallLogQuery.DATE:
+                    return mDates[mPos];
+                case CallLogQuery.CALL_TYPE:
+                    return mCallTypes[mPos];
+                case CallLogQuery.FEATURES:
+                    return mFeatures[mPos];
+                case CallLogQuery.NEW:
+                    return mReadStates[mPos] & 1;
+                case CallLogQuery.IS_READ:
+                    return (mReadStates[mPos] & 2) >> 1;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            switch (column) {
+                case CallLogQuery.ID:
+                case CallLogQuery.DATE:
+                case CallLogQuery.CALL_TYPE:
+                case CallLogQuery.FEATURES:
+                case CallLogQuery.NEW:
+                    return false;
+                case CallLogQuery.IS_READ:
+                    // See CallLogPages#getReadState.
+                    return (mReadStates[mPos] & 4) != 0;
+                default:
+                    return getString(column) == null;
+            }
+        }
+    }
+}
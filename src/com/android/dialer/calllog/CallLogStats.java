@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.os.SystemClock;
+
+import com.android.dialer.util.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on counters and latency histograms for the call log. Covers the contact info lookups
+ * made for the rows of the list, the write-back of their results and the rebinding of rows
+ * they cause. Printed by
+ * {@code adb shell dumpsys activity com.android.dialer/.DialtactsActivity}, and reset when that
+ * command is given the {@link #RESET_ARG} argument.
+ */
+public final class CallLogStats {
+    /** dumpsys argument which resets all call log statistics after printing them. */
+    public static final String RESET_ARG = "--reset-calllog-stats";
+
+    private static final CallLogStats sInstance = new CallLogStats();
+
+    /** Time a contact info request spent in the queue before being looked up. */
+    public final LatencyHistogram lookupQueueWait = new LatencyHistogram("lookup.queueWait");
+    /** Looking up a batch of contact info requests, including updating the call log. */
+    public final LatencyHistogram lookupBatch = new LatencyHistogram("lookup.batch");
+    /** Writing a batch of updated contact info back to the call log. */
+    public final LatencyHistogram writeBackFlush = new LatencyHistogram("writeBack.flush");
+    /** Binding a call log row, on the UI thread. */
+    public final LatencyHistogram rowBind = new LatencyHistogram("row.bind");
+
+    private final AtomicLong mLookupRequests = new AtomicLong();
+    private final AtomicLong mLookupBatches = new AtomicLong();
+    private final AtomicLong mDroppedStaleRequests = new AtomicLong();
+    private final AtomicLong mPrefetchRequests = new AtomicLong();
+    private final AtomicLong mDeferredPrefetches = new AtomicLong();
+    private final AtomicLong mUnresolvedRowBinds = new AtomicLong();
+    private final AtomicLong mPersistentCacheHits = new AtomicLong();
+    private final AtomicLong mPersistentCacheMisses = new AtomicLong();
+    private final AtomicLong mContactsChanges = new AtomicLong();
+    private final AtomicLong mFullInvalidations = new AtomicLong();
+    private final AtomicLong mExpiredOnContactsChange = new AtomicLong();
+    private final AtomicLong mReLookupsAvoided = new AtomicLong();
+    private final AtomicLong mWriteBackFlushes = new AtomicLong();
+    private final AtomicLong mWriteBackNumbers = new AtomicLong();
+    private final AtomicLong mRowBinds = new AtomicLong();
+    private final AtomicLong mPartialRebinds = new AtomicLong();
+    private final AtomicLong mPartialRebindRows = new AtomicLong();
+    private final AtomicLong mFullRebinds = new AtomicLong();
+    private final AtomicLong mIncrementalRefreshes = new AtomicLong();
+    private final AtomicLong mRefreshedRows = new AtomicLong();
+    private final AtomicLong mFullReloads = new AtomicLong();
+    private final AtomicLong mGroupLayoutsAdopted = new AtomicLong();
+    private final AtomicLong mUiThreadGroupings = new AtomicLong();
+    private final AtomicLong mRowModelHits = new AtomicLong();
+    private final AtomicLong mRowModelMisses = new AtomicLong();
+    /** When the counters were last reset, used to report rates. */
+    private volatile long mSinceMillis = SystemClock.elapsedRealtime();
+
+    private CallLogStats() {
+    }
+
+    public static CallLogStats getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records a batch of contact info requests which was looked up.
+     */
+    public void onLookupBatchFinished(int requestCount, long nanos) {
+        mLookupBatches.incrementAndGet();
+        mLookupRequests.addAndGet(requestCount);
+        lookupBatch.recordNanos(nanos);
+    }
+
+    /**
+     * Records pending requests which were cancelled because their rows scrolled far away.
+     */
+    public void onStaleRequestsDropped(int requestCount) {
+        mDroppedStaleRequests.addAndGet(requestCount);
+    }
+
+    /**
+     * Records a contact info request made ahead of time for a row about to scroll into view.
+     */
+    public void onPrefetchRequested() {
+        mPrefetchRequests.incrementAndGet();
+    }
+
+    /**
+     * Records that prefetching stopped because all the lookup workers had a full batch pending.
+     */
+    public void onPrefetchDeferred() {
+        mDeferredPrefetches.incrementAndGet();
+    }
+
+    /**
+     * Records the binding of a row whose contact info was not looked up yet, which shows the
+     * contact info stored in the call log until it is.
+     */
+    public void onUnresolvedRowBound() {
+        mUnresolvedRowBinds.incrementAndGet();
+    }
+
+    /**
+     * Records a read of the persistent contact info cache for a batch of numbers.
+     */
+    public void onPersistentCacheRead(int hitCount, int missCount) {
+        mPersistentCacheHits.addAndGet(hitCount);
+        mPersistentCacheMisses.addAndGet(missCount);
+    }
+
+    /**
+     * Records the handling of changes to the contacts, which expired the cached contact info of
+     * {@code expiredCount} numbers and kept that of the other {@code keptCount} numbers, which
+     * would previously have been looked up again.
+     *
+     * @param all whether the changes could not be handled one by one, expiring everything
+     */
+    public void onContactsChangesHandled(boolean all, int expiredCount, int keptCount) {
+        mContactsChanges.incrementAndGet();
+        if (all) {
+            mFullInvalidations.incrementAndGet();
+        }
+        mExpiredOnContactsChange.addAndGet(expiredCount);
+        mReLookupsAvoided.addAndGet(keptCount);
+    }
+
+    /**
+     * Records a batch write of updated contact info to the call log.
+     */
+    public void onWriteBackFlushed(int numberCount, long nanos) {
+        mWriteBackFlushes.incrementAndGet();
+        mWriteBackNumbers.addAndGet(numberCount);
+        writeBackFlush.recordNanos(nanos);
+    }
+
+    /**
+     * Records the binding of a call log row, for any reason.
+     *
+     * @param nanos the time it took to bind the row
+     */
+    public void onRowBound(long nanos) {
+        mRowBinds.incrementAndGet();
+        rowBind.recordNanos(nanos);
+    }
+
+    /**
+     * Records a row bound with its model, read ahead of time on a background thread.
+     */
+    public void onRowModelHit() {
+        mRowModelHits.incrementAndGet();
+    }
+
+    /**
+     * Records a row whose model had to be read on the UI thread to bind it.
+     */
+    public void onRowModelMiss() {
+        mRowModelMisses.incrementAndGet();
+    }
+
+    /**
+     * Records a redraw after contact info updates which only rebound the affected visible rows.
+     */
+    public void onPartialRebind(int rowCount) {
+        mPartialRebinds.incrementAndGet();
+        mPartialRebindRows.addAndGet(rowCount);
+    }
+
+    /**
+     * Records a redraw after contact info updates which rebound the whole list.
+     */
+    public void onFullRebind() {
+        mFullRebinds.incrementAndGet();
+    }
+
+    /**
+     * Records a refresh of the call log which only fetched and replaced its first rows.
+     */
+    public void onIncrementalRefresh(int rowCount) {
+        mIncrementalRefreshes.incrementAndGet();
+        mRefreshedRows.addAndGet(rowCount);
+    }
+
+    /**
+     * Records a refresh of the call log which had to reload all the rows shown, because calls
+     * were removed or inserted among them.
+     */
+    public void onFullReload() {
+        mFullReloads.incrementAndGet();
+    }
+
+    /**
+     * Records new calls given to the adapter with their groups, found on a background thread.
+     */
+    public void onGroupLayoutAdopted() {
+        mGroupLayoutsAdopted.incrementAndGet();
+    }
+
+    /**
+     * Records new calls given to the adapter without their groups, which it found on the UI
+     * thread.
+     */
+    public void onGroupedOnUiThread() {
+        mUiThreadGroupings.incrementAndGet();
+    }
+
+    public long getDroppedStaleRequestCount() {
+        return mDroppedStaleRequests.get();
+    }
+
+    private LatencyHistogram[] getHistograms() {
+        return new LatencyHistogram[] { lookupQueueWait, lookupBatch, writeBackFlush, rowBind };
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+        mLookupRequests.set(0);
+        mLookupBatches.set(0);
+        mDroppedStaleRequests.set(0);
+        mPrefetchRequests.set(0);
+        mDeferredPrefetches.set(0);
+        mUnresolvedRowBinds.set(0);
+        mPersistentCacheHits.set(0);
+        mPersistentCacheMisses.set(0);
+        mContactsChanges.set(0);
+        mFullInvalidations.set(0);
+        mExpiredOnContactsChange.set(0);
+        mReLookupsAvoided.set(0);
+        mWriteBackFlushes.set(0);
+        mWriteBackNumbers.set(0);
+        mRowBinds.set(0);
+        mPartialRebinds.set(0);
+        mPartialRebindRows.set(0);
+        mFullRebinds.set(0);
+        mIncrementalRefreshes.set(0);
+        mRefreshedRows.set(0);
+        mFullReloads.set(0);
+        mGroupLayoutsAdopted.set(0);
+        mUiThreadGroupings.set(0);
+        mRowModelHits.set(0);
+        mRowModelMisses.set(0);
+        PhoneNumberFormatCache.getInstance().resetStats();
+        mSinceMillis = SystemClock.elapsedRealtime();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("CallLog statistics:");
+        final String innerPrefix = prefix + "  ";
+        writer.print(innerPrefix);
+        writer.print("lookupRequests=");
+        writer.print(mLookupRequests.get());
+        writer.print(" lookupBatches=");
+        writer.print(mLookupBatches.get());
+        writer.print(" droppedStaleRequests=");
+        writer.println(mDroppedStaleRequests.get());
+        writer.print(innerPrefix);
+        writer.print("prefetchRequests=");
+        writer.print(mPrefetchRequests.get());
+        writer.print(" deferredPrefetches=");
+        writer.print(mDeferredPrefetches.get());
+        writer.print(" unresolvedRowBinds=");
+        writer.println(mUnresolvedRowBinds.get());
+        writer.print(innerPrefix);
+        writer.print("persistentCacheHits=");
+        writer.print(mPersistentCacheHits.get());
+        writer.print(" persistentCacheMisses=");
+        writer.println(mPersistentCacheMisses.get());
+        writer.print(innerPrefix);
+        writer.print("contactsChanges=");
+        writer.print(mContactsChanges.get());
+        writer.print(" fullInvalidations=");
+        writer.print(mFullInvalidations.get());
+        writer.print(" expiredOnContactsChange=");
+        writer.print(mExpiredOnContactsChange.get());
+        writer.print(" reLookupsAvoided=");
+        writer.println(mReLookupsAvoided.get());
+        writer.print(innerPrefix);
+        writer.print("writeBackFlushes=");
+        writer.print(mWriteBackFlushes.get());
+        writer.print(" writeBackNumbers=");
+        writer.println(mWriteBackNumbers.get());
+        final long seconds = Math.max(1, (SystemClock.elapsedRealtime() - mSinceMillis) / 1000);
+        writer.print(innerPrefix);
+        writer.print("rowBinds=");
+        writer.print(mRowBinds.get());
+        writer.print(" (");
+        writer.print(mRowBinds.get() / seconds);
+        writer.print("/s over ");
+        writer.print(seconds);
+        writer.print("s) partialRebinds=");
+        writer.print(mPartialRebinds.get());
+        writer.print(" partialRebindRows=");
+        writer.print(mPartialRebindRows.get());
+        writer.print(" fullRebinds=");
+        writer.println(mFullRebinds.get());
+        writer.print(innerPrefix);
+        writer.print("incrementalRefreshes=");
+        writer.print(mIncrementalRefreshes.get());
+        writer.print(" refreshedRows=");
+        writer.print(mRefreshedRows.get());
+        writer.print(" fullReloads=");
+        writer.println(mFullReloads.get());
+        writer.print(innerPrefix);
+        writer.print("groupLayoutsAdopted=");
+        writer.print(mGroupLayoutsAdopted.get());
+        writer.print(" uiThreadGroupings=");
+        writer.println(mUiThreadGroupings.get());
+        writer.print(innerPrefix);
+        writer.print("rowModelHits=");
+        writer.print(mRowModelHits.get());
+        writer.print(" rowModelMisses=");
+        writer.println(mRowModelMisses.get());
+        PhoneNumberFormatCache.getInstance().dump(innerPrefix, writer);
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.dump(innerPrefix, writer);
+        }
+    }
+}
@@ -32,10 +32,16 @@ import com.android.dialer.service.CachedNumberLookupService;
 import com.android.dialer.service.CachedNumberLookupService.CachedContactInfo;
 import com.android.dialerbind.ObjectFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class to look up the contact information for a given number.
@@ -43,13 +49,29 @@ import java.util.List;
 public class ContactInfoHelper {
     private final Context mContext;
     private final String mCurrentCountryIso;
+    private final UnknownNumberCache mUnknownNumbers;
 
     private static final CachedNumberLookupService mCachedNumberLookupService =
             ObjectFactory.newCachedNumberLookupService();
 
+    /**
+     * The order of the phones matched by {@link #queryContactInfoForE164Numbers}, so that the
+     * same phone is picked for a number shared by several contacts: the default number of its
+     * contact first, then the phone added first.
+     */
+    private static final String BATCH_SORT_ORDER =
+            Phone.IS_SUPER_PRIMARY + " DESC, " + Phone._ID;
+
     public ContactInfoHelper(Context context, String currentCountryIso) {
+        this(context, currentCountryIso, UnknownNumberCache.getInstance(context));
+    }
+
+    @VisibleForTesting
+    ContactInfoHelper(Context context, String currentCountryIso,
+            UnknownNumberCache unknownNumbers) {
         mContext = context;
         mCurrentCountryIso = currentCountryIso;
+        mUnknownNumbers = unknownNumbers;
     }
 
     /**
@@ -59,11 +81,85 @@ public class ContactInfoHelper {
      * and the formatted number.
      * <p>
      * If an error occurs during the lookup, it returns null.
+     * <p>
+     * Numbers which matched no contact a moment ago are not looked up again, see
+     * {@link UnknownNumberCache}.
      *
      * @param number the number to look up
      * @param countryIso the country associated with this number
      */
     public ContactInfo lookupNumber(String number, String countryIso) {
+        final String unknownNumberKey = getUnknownNumberKey(number, countryIso);
+        final ContactInfo info;
+        if (unknownNumberKey != null && mUnknownNumbers.isUnknown(unknownNumberKey)) {
+            info = ContactInfo.EMPTY;
+        } else {
+            final int contactsChangeCount = mUnknownNumbers.getContactsChangeCount();
+            info = queryContactInfo(number, countryIso);
+            if (info == ContactInfo.EMPTY && unknownNumberKey != null) {
+                mUnknownNumbers.addUnknown(unknownNumberKey, contactsChangeCount);
+            }
+        }
+
+        return completeContactInfo(number, countryIso, info);
+    }
+
+    /**
+     * Looks up a phone number like {@link #lookupNumber(String, String)}, given that its E164 form
+     * matched no phone in {@link #queryContactInfoForE164Numbers}: only the fallbacks of the
+     * regular lookup, the cached number lookup service and the SIP addresses, are queried.
+     *
+     * @param contactsChangeCount the count of contacts changes before the phones were queried
+     */
+    private ContactInfo lookupUnmatchedNumber(String number, String countryIso, String numberE164,
+            int contactsChangeCount) {
+        ContactInfo info = mCachedNumberLookupService != null
+                ? queryCachedContactInfo(number) : ContactInfo.EMPTY;
+        if (info == null || info == ContactInfo.EMPTY) {
+            // Check whether the phone number has been saved as an "Internet call" number.
+            info = queryContactInfoForSipAddress(number);
+        }
+        if (info == ContactInfo.EMPTY) {
+            mUnknownNumbers.addUnknown(numberE164, contactsChangeCount);
+        }
+        return completeContactInfo(number, countryIso, info);
+    }
+
+    /**
+     * Returns the contact info to return for the given number from the result of its queries:
+     * null if they failed, and a contact info for the number alone if they matched no contact.
+     */
+    private ContactInfo completeContactInfo(String number, String countryIso, ContactInfo info) {
+        final ContactInfo updatedInfo;
+        if (info == null) {
+            // The lookup failed.
+            updatedInfo = null;
+        } else {
+            // If we did not find a matching contact, generate an empty contact info for the number.
+            if (info == ContactInfo.EMPTY) {
+                // Did not find a matching contact.
+                updatedInfo = new ContactInfo();
+                updatedInfo.number = number;
+                updatedInfo.formattedNumber = formatPhoneNumber(number, null, countryIso);
+                updatedInfo.normalizedNumber =
+                        PhoneNumberFormatCache.getInstance().getE164Number(number, countryIso);
+                updatedInfo.lookupUri = createTemporaryContactUri(updatedInfo.formattedNumber);
+            } else {
+                updatedInfo = info;
+            }
+        }
+        return updatedInfo;
+    }
+
+    /**
+     * Queries the contacts provider, and the cached number lookup service, for the contact
+     * information of the given number.
+     * <p>
+     * Returns {@link ContactInfo#EMPTY} if the number matches no contact, or null if the lookup
+     * failed.
+     */
+    @VisibleForTesting
+    ContactInfo queryContactInfo(String number, String countryIso) {
         final ContactInfo info;
 
         // Determine the contact info.
@@ -89,26 +185,96 @@ public class ContactInfoHelper {
             }
             info = phoneInfo;
         }
+        return info;
+    }
 
-        final ContactInfo updatedInfo;
-        if (info == null) {
-            // The lookup failed.
-            updatedInfo = null;
-        } else {
-            // If we did not find a matching contact, generate an empty contact info for the number.
-            if (info == ContactInfo.EMPTY) {
-                // Did not find a matching contact.
-                updatedInfo = new ContactInfo();
-                updatedInfo.number = number;
-                updatedInfo.formattedNumber = formatPhoneNumber(number, null, countryIso);
-                updatedInfo.normalizedNumber = PhoneNumberUtils.formatNumberToE164(
-                        number, countryIso);
-                updatedInfo.lookupUri = createTemporaryContactUri(updatedInfo.formattedNumber);
-            } else {
-                updatedInfo = info;
+    /**
+     * Returns the key of the given number in the {@link UnknownNumberCache}: its E.164 form if
+     * it has one, or the number itself. Returns null for an empty number.
+     */
+    private static String getUnknownNumberKey(String number, String countryIso) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        if (!TextUtils.isEmpty(countryIso) && !PhoneNumberHelper.isUriNumber(number)) {
+            final String numberE164 =
+                    PhoneNumberFormatCache.getInstance().getE164Number(number, countryIso);
+            if (!TextUtils.isEmpty(numberE164)) {
+                return numberE164;
             }
         }
-        return updatedInfo;
+        return number;
+    }
+
+    /**
+     * Returns the contact information for each of the given numbers, as
+     * {@link #lookupNumber(String, String)} would.
+     * <p>
+     * Phone numbers which can be normalized to E164 are first resolved together with a single
+     * query of the phone data table. The numbers which that query cannot match exactly are not
+     * looked up again with {@link PhoneLookup}: only the cached number lookup service and the SIP
+     * addresses are queried for them. SIP addresses and numbers without a country fall back to a
+     * lookup of their own.
+     * <p>
+     * Unlike {@link PhoneLookup}, the query only matches the phones whose normalized number is
+     * the same, which leaves out the phones saved in a form which could not be normalized.
+     * <p>
+     * Numbers whose lookup failed are not included in the returned map.
+     *
+     * @param numbers the numbers to look up, with the country associated with each of them
+     */
+    public Map<NumberWithCountryIso, ContactInfo> lookupNumbers(
+            Collection<NumberWithCountryIso> numbers) {
+        final Map<NumberWithCountryIso, ContactInfo> result = Maps.newHashMap();
+
+        final Map<String, List<NumberWithCountryIso>> numbersByE164 = Maps.newHashMap();
+        for (NumberWithCountryIso number : numbers) {
+            if (TextUtils.isEmpty(number.number) || TextUtils.isEmpty(number.countryIso)
+                    || PhoneNumberHelper.isUriNumber(number.number)) {
+                continue;
+            }
+            final String numberE164 = PhoneNumberFormatCache.getInstance().getE164Number(
+                    number.number, number.countryIso);
+            // Numbers known to match no contact are not looked up.
+            if (TextUtils.isEmpty(numberE164) || mUnknownNumbers.isUnknown(numberE164)) {
+                continue;
+            }
+            List<NumberWithCountryIso> sameNumbers = numbersByE164.get(numberE164);
+            if (sameNumbers == null) {
+                sameNumbers = Lists.newArrayListWithCapacity(1);
+                numbersByE164.put(numberE164, sameNumbers);
+            }
+            sameNumbers.add(number);
+        }
+
+        final int contactsChangeCount = mUnknownNumbers.getContactsChangeCount();
+        // A single number is resolved just as quickly by the regular lookup.
+        if (numbersByE164.size() > 1
+                && queryContactInfoForE164Numbers(numbersByE164, result)) {
+            for (Map.Entry<String, List<NumberWithCountryIso>> entry : numbersByE164.entrySet()) {
+                for (NumberWithCountryIso number : entry.getValue()) {
+                    if (result.containsKey(number)) {
+                        continue;
+                    }
+                    final ContactInfo info = lookupUnmatchedNumber(number.number,
+                            number.countryIso, entry.getKey(), contactsChangeCount);
+                    if (info != null) {
+                        result.put(number, info);
+                    }
+                }
+            }
+        }
+
+        for (NumberWithCountryIso number : numbers) {
+            if (result.containsKey(number)) {
+                continue;
+            }
+            final ContactInfo info = lookupNumber(number.number, number.countryIso);
+            if (info != null) {
+                result.put(number, info);
+            }
+        }
+        return result;
     }
 
     /**
@@ -156,20 +322,7 @@ public class ContactInfoHelper {
         if (phonesCursor != null) {
             try {
                 if (phonesCursor.moveToFirst()) {
-                    info = new ContactInfo();
-                    long contactId = phonesCursor.getLong(PhoneQuery.PERSON_ID);
-                    String lookupKey = phonesCursor.getString(PhoneQuery.LOOKUP_KEY);
-                    info.lookupKey = lookupKey;
-                    info.lookupUri = Contacts.getLookupUri(contactId, lookupKey);
-                    info.name = phonesCursor.getString(PhoneQuery.NAME);
-                    info.type = phonesCursor.getInt(PhoneQuery.PHONE_TYPE);
-                    info.label = phonesCursor.getString(PhoneQuery.LABEL);
-                    info.number = phonesCursor.getString(PhoneQuery.MATCHED_NUMBER);
-                    info.normalizedNumber = phonesCursor.getString(PhoneQuery.NORMALIZED_NUMBER);
-                    info.photoId = phonesCursor.getLong(PhoneQuery.PHOTO_ID);
-                    info.photoUri =
-                            UriUtils.parseUriOrNull(phonesCursor.getString(PhoneQuery.PHOTO_URI));
-                    info.formattedNumber = null;
+                    info = createContactInfo(phonesCursor);
                 } else {
                     info = ContactInfo.EMPTY;
                 }
@@ -183,6 +336,78 @@ public class ContactInfoHelper {
         return info;
     }
 
+    /**
+     * Creates a {@link ContactInfo} from the current row of a cursor using either
+     * {@link PhoneQuery#_PROJECTION} or {@link PhoneQuery#BATCH_PROJECTION}.
+     * <p>
+     * The {@link ContactInfo#formattedNumber} field is always set to {@code null}.
+     */
+    private static ContactInfo createContactInfo(Cursor cursor) {
+        ContactInfo info = new ContactInfo();
+        long contactId = cursor.getLong(PhoneQuery.PERSON_ID);
+        String lookupKey = cursor.getString(PhoneQuery.LOOKUP_KEY);
+        info.lookupKey = lookupKey;
+        info.lookupUri = Contacts.getLookupUri(contactId, lookupKey);
+        info.name = cursor.getString(PhoneQuery.NAME);
+        info.type = cursor.getInt(PhoneQuery.PHONE_TYPE);
+        info.label = cursor.getString(PhoneQuery.LABEL);
+        info.number = cursor.getString(PhoneQuery.MATCHED_NUMBER);
+        info.normalizedNumber = cursor.getString(PhoneQuery.NORMALIZED_NUMBER);
+        info.photoId = cursor.getLong(PhoneQuery.PHOTO_ID);
+        info.photoUri = UriUtils.parseUriOrNull(cursor.getString(PhoneQuery.PHOTO_URI));
+        info.formattedNumber = null;
+        return info;
+    }
+
+    /**
+     * Resolves the numbers in {@code numbersByE164} with a single query on the phone data
+     * table, matching rows on their normalized number. Matches are stored in {@code result};
+     * numbers without an exact match are left out.
+     *
+     * @return false if the query failed, in which case none of the numbers are matched
+     */
+    private boolean queryContactInfoForE164Numbers(
+            Map<String, List<NumberWithCountryIso>> numbersByE164,
+            Map<NumberWithCountryIso, ContactInfo> result) {
+        final String[] selectionArgs = numbersByE164.keySet().toArray(
+                new String[numbersByE164.size()]);
+        final StringBuilder selection = new StringBuilder(Phone.NORMALIZED_NUMBER);
+        selection.append(" IN (");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+
+        final Cursor cursor = mContext.getContentResolver().query(Phone.CONTENT_URI,
+                PhoneQuery.BATCH_PROJECTION, selection.toString(), selectionArgs,
+                BATCH_SORT_ORDER);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final List<NumberWithCountryIso> numbers =
+                        numbersByE164.get(cursor.getString(PhoneQuery.NORMALIZED_NUMBER));
+                if (numbers == null) {
+                    continue;
+                }
+                for (NumberWithCountryIso number : numbers) {
+                    // The first matching row wins, see BATCH_SORT_ORDER.
+                    if (result.containsKey(number)) {
+                        continue;
+                    }
+                    final ContactInfo info = createContactInfo(cursor);
+                    info.formattedNumber =
+                            formatPhoneNumber(number.number, null, number.countryIso);
+                    result.put(number, info);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+
     /**
      * Determines the contact information for the given SIP address.
      * <p>
@@ -216,7 +441,8 @@ public class ContactInfoHelper {
         if (!TextUtils.isEmpty(countryIso)) {
             // Normalize the number: this is needed because the PhoneLookup query below does not
             // accept a country code as an input.
-            String numberE164 = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+            String numberE164 =
+                    PhoneNumberFormatCache.getInstance().getE164Number(number, countryIso);
             if (!TextUtils.isEmpty(numberE164)) {
                 // Only use it if the number could be formatted to E164.
                 contactNumber = numberE164;
@@ -229,17 +455,25 @@ public class ContactInfoHelper {
         if (info != null && info != ContactInfo.EMPTY) {
             info.formattedNumber = formatPhoneNumber(number, null, countryIso);
         } else if (mCachedNumberLookupService != null) {
-            CachedContactInfo cacheInfo =
-                    mCachedNumberLookupService.lookupCachedContactFromNumber(mContext, number);
-            if (cacheInfo != null) {
-                info = cacheInfo.getContactInfo().isBadData ? null : cacheInfo.getContactInfo();
-            } else {
-                info = null;
-            }
+            info = queryCachedContactInfo(number);
         }
         return info;
     }
 
+    /**
+     * Looks up the given phone number, which matched no contact, in the cached number lookup
+     * service, which must be present. Returns null if it has no usable contact info for it.
+     */
+    private ContactInfo queryCachedContactInfo(String number) {
+        CachedContactInfo cacheInfo =
+                mCachedNumberLookupService.lookupCachedContactFromNumber(mContext, number);
+        if (cacheInfo != null) {
+            return cacheInfo.getContactInfo().isBadData ? null : cacheInfo.getContactInfo();
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Format the given phone number
      *
@@ -261,6 +495,9 @@ public class ContactInfoHelper {
         if (TextUtils.isEmpty(countryIso)) {
             countryIso = mCurrentCountryIso;
         }
+        if (normalizedNumber == null) {
+            return PhoneNumberFormatCache.getInstance().getFormattedNumber(number, countryIso);
+        }
         return PhoneNumberUtils.formatNumber(number, normalizedNumber, countryIso);
     }
 
@@ -282,6 +519,27 @@ public class ContactInfoHelper {
         }
     }
 
+    /**
+     * Returns the id of the contact of a lookup uri created by
+     * {@link Contacts#getLookupUri(long, String)}, or -1 for other uris, such as the encoded
+     * uris of numbers which are not contacts.
+     */
+    public static long getContactIdFromUri(Uri lookupUri) {
+        if (lookupUri == null || UriUtils.isEncodedContactUri(lookupUri)) {
+            return -1;
+        }
+        final List<String> segments = lookupUri.getPathSegments();
+        // The contact id is the fourth path segment, after the lookup key.
+        if (segments.size() < 4) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segments.get(3));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Given a contact's sourceType, return true if the contact is a business
      *
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract.Contacts;
+import android.text.TextUtils;
+
+import com.android.dialer.util.ExpirableCache;
+import com.android.dialer.util.LatencyHistogram;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Resolves the contact info of numbers for all the parts of the dialer, so that a number wanted
+ * by several of them at once, such as the caller of a new voicemail shown both in the call log
+ * and in the notification, is only looked up once.
+ * <p>
+ * A number being looked up for one caller is not looked up again for another: the second caller
+ * waits for the result of the first lookup. Results are then kept for
+ * {@link #MAX_AGE_SECONDS}, or until the contacts change. The lookups themselves are made with
+ * the {@link ContactInfoHelper} of the caller which started them, on a pool of at most
+ * {@link #MAX_THREADS} threads, which bounds the number of concurrent provider queries.
+ * <p>
+ * The time each kind of caller waits for its contact info is recorded, see {@link Caller}.
+ * <p>
+ * The methods block until the contact info is resolved and must not be called on the UI thread.
+ * A single instance is shared by the whole process, see {@link #getInstance}.
+ */
+@ThreadSafe
+public final class ContactInfoResolver {
+    /** The parts of the dialer resolving contact info, whose latencies are tracked apart. */
+    public enum Caller {
+        CALL_LOG("callLog"),
+        CALL_DETAILS("callDetails"),
+        VOICEMAIL_NOTIFIER("voicemailNotifier"),
+        UNDEMOTE("undemote");
+
+        private final String mName;
+
+        private Caller(String name) {
+            mName = name;
+        }
+    }
+
+    /** How long resolved contact info is shared, unless the contacts change first. */
+    @VisibleForTesting
+    static final long MAX_AGE_SECONDS = 60;
+
+    /** The maximum number of numbers whose contact info is kept. */
+    private static final int MAX_SIZE = 200;
+
+    /** The maximum number of lookups made at once. */
+    private static final int MAX_THREADS = 4;
+
+    /** How long an idle thread of the pool is kept. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ContactInfoResolver sInstance;
+
+    /** The statistics of a {@link Caller}. */
+    private static final class CallerStats {
+        public final LatencyHistogram latency;
+        public final AtomicLong requests = new AtomicLong();
+        public final AtomicLong cacheHits = new AtomicLong();
+        public final AtomicLong sharedLookups = new AtomicLong();
+
+        public CallerStats(Caller caller) {
+            latency = new LatencyHistogram("resolver." + caller.mName);
+        }
+
+        public void reset() {
+            latency.reset();
+            requests.set(0);
+            cacheHits.set(0);
+            sharedLookups.set(0);
+        }
+    }
+
+    private final Executor mExecutor;
+    /** The contact info resolved lately, successfully. */
+    private final ExpirableCache<NumberWithCountryIso, ContactInfo> mCache;
+    /** The results of the lookups in progress, which can be waited for by other callers. */
+    private final ConcurrentMap<NumberWithCountryIso, SettableFuture<ContactInfo>> mInFlight =
+            new ConcurrentHashMap<NumberWithCountryIso, SettableFuture<ContactInfo>>();
+    /** The number of changes to the contacts so far, see {@link #complete}. */
+    private final AtomicInteger mContactsChanges = new AtomicInteger();
+    private final CallerStats[] mCallerStats = new CallerStats[Caller.values().length];
+
+    @VisibleForTesting
+    ContactInfoResolver(Executor executor, ExpirableCache.Clock clock) {
+        mExecutor = executor;
+        final ExpirableCache.Builder<NumberWithCountryIso, ContactInfo> builder =
+                new ExpirableCache.Builder<NumberWithCountryIso, ContactInfo>()
+                .setName("resolvedContactInfo")
+                .setMaxSize(MAX_SIZE)
+                .setMaxAge(MAX_AGE_SECONDS, TimeUnit.SECONDS)
+                .setConcurrencyLevel(MAX_THREADS);
+        if (clock != null) {
+            builder.setClock(clock);
+        }
+        mCache = builder.build();
+        for (Caller caller : Caller.values()) {
+            mCallerStats[caller.ordinal()] = new CallerStats(caller);
+        }
+    }
+
+    /**
+     * Returns the instance shared by the process, which is told about changes to the contacts
+     * from the first call on.
+     */
+    public static synchronized ContactInfoResolver getInstance(Context context) {
+        if (sInstance == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            final Thread thread = new Thread(runnable,
+                                    "ContactInfoResolver #" + mCount.incrementAndGet());
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            final ContactInfoResolver instance = new ContactInfoResolver(executor, null);
+            // As for UnknownNumberCache, the observer lives as long as the process.
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    Contacts.CONTENT_URI, true, new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            instance.onContactsChanged();
+                        }
+                    });
+            sInstance = instance;
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the contact info of the given number, as {@link ContactInfoHelper#lookupNumber}
+     * would, or null if the lookup failed.
+     *
+     * @param helper the helper looking up the number, unless it is already being looked up
+     */
+    public ContactInfo resolve(ContactInfoHelper helper, String number, String countryIso,
+            Caller caller) {
+        final NumberWithCountryIso key = new NumberWithCountryIso(number, countryIso);
+        return resolveAll(helper, Collections.singletonList(key), caller).get(key);
+    }
+
+    /**
+     * Returns the contact info of each of the given numbers, as
+     * {@link ContactInfoHelper#lookupNumbers} would. The numbers which are neither cached nor
+     * already being looked up are looked up together.
+     * <p>
+     * Numbers whose lookup failed are not included in the returned map, nor are the numbers not
+     * resolved yet if the calling thread is interrupted.
+     *
+     * @param helper the helper looking up the numbers, unless they are already being looked up
+     */
+    public Map<NumberWithCountryIso, ContactInfo> resolveAll(ContactInfoHelper helper,
+            Collection<NumberWithCountryIso> numbers, Caller caller) {
+        final long startNanos = System.nanoTime();
+        final CallerStats stats = mCallerStats[caller.ordinal()];
+        stats.requests.addAndGet(numbers.size());
+
+        final Map<NumberWithCountryIso, ContactInfo> result = Maps.newHashMap();
+        final Map<NumberWithCountryIso, SettableFuture<ContactInfo>> pending =
+                Maps.newLinkedHashMap();
+        final Map<NumberWithCountryIso, SettableFuture<ContactInfo>> started =
+                Maps.newLinkedHashMap();
+        for (NumberWithCountryIso number : numbers) {
+            final ExpirableCache.CachedValue<ContactInfo> cachedValue =
+                    mCache.getCachedValue(number);
+            if (cachedValue != null && !cachedValue.isExpired()) {
+                stats.cacheHits.incrementAndGet();
+                result.put(number, cachedValue.getValue());
+                continue;
+            }
+            final SettableFuture<ContactInfo> future = SettableFuture.create();
+            final SettableFuture<ContactInfo> inFlight = mInFlight.putIfAbsent(number, future);
+            if (inFlight != null) {
+                stats.sharedLookups.incrementAndGet();
+                pending.put(number, inFlight);
+            } else {
+                started.put(number, future);
+                pending.put(number, future);
+            }
+        }
+        if (!started.isEmpty()) {
+            startLookup(helper, started);
+        }
+
+        try {
+            for (Map.Entry<NumberWithCountryIso, SettableFuture<ContactInfo>> entry
+                    : pending.entrySet()) {
+                final ContactInfo info = entry.getValue().get();
+                if (info != null) {
+                    result.put(entry.getKey(), info);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The lookups go on for the other callers.
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Never thrown: the futures are only set with values.
+            throw new IllegalStateException(e);
+        }
+        stats.latency.recordNanos(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    /** Looks up the given numbers on the pool, and gives their contact info to the futures. */
+    private void startLookup(final ContactInfoHelper helper,
+            final Map<NumberWithCountryIso, SettableFuture<ContactInfo>> futures) {
+        final int contactsChangeCount = mContactsChanges.get();
+        final List<NumberWithCountryIso> numbers = Lists.newArrayList(futures.keySet());
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<NumberWithCountryIso, ContactInfo> infos = null;
+                try {
+                    infos = helper.lookupNumbers(numbers);
+                } finally {
+                    complete(futures, infos, contactsChangeCount);
+                }
+            }
+        });
+    }
+
+    /**
+     * Caches the contact info found by a lookup and gives it to the callers waiting for it.
+     *
+     * @param infos the contact info found, or null if the lookup threw
+     * @param contactsChangeCount the number of changes to the contacts when the lookup started:
+     *        if they changed since, the contact info found may be out of date and is not cached
+     */
+    private void complete(Map<NumberWithCountryIso, SettableFuture<ContactInfo>> futures,
+            Map<NumberWithCountryIso, ContactInfo> infos, int contactsChangeCount) {
+        for (Map.Entry<NumberWithCountryIso, SettableFuture<ContactInfo>> entry
+                : futures.entrySet()) {
+            final NumberWithCountryIso number = entry.getKey();
+            final ContactInfo info = infos == null ? null : infos.get(number);
+            if (info != null) {
+                mCache.put(number, info);
+                // See UnknownNumberCache#addUnknown.
+                if (mContactsChanges.get() != contactsChangeCount) {
+                    mCache.remove(number);
+                }
+            }
+            mInFlight.remove(number, entry.getValue());
+            entry.getValue().set(info);
+        }
+    }
+
+    /** Forgets all the contact info resolved so far, which may be out of date. */
+    public void onContactsChanged() {
+        mContactsChanges.incrementAndGet();
+        mCache.expireAll();
+    }
+
+    /**
+     * Forgets the contact info resolved for the given number, in any country, for instance once
+     * it has been reported wrong.
+     */
+    public void invalidate(String number) {
+        for (NumberWithCountryIso key : mCache.snapshot().keySet()) {
+            if (TextUtils.equals(key.number, number)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Forgets the contact info resolved from remote sources, such as directories, which is not
+     * updated along with the contacts.
+     */
+    public void expireRemoteSources() {
+        for (Map.Entry<NumberWithCountryIso, ContactInfo> entry
+                : mCache.snapshot().entrySet()) {
+            if (entry.getValue().sourceType != 0) {
+                mCache.expire(entry.getKey());
+            }
+        }
+    }
+
+    public void resetStats() {
+        mCache.resetStats();
+        for (CallerStats stats : mCallerStats) {
+            stats.reset();
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        mCache.dump(prefix, writer);
+        writer.print(prefix);
+        writer.print("inFlight=");
+        writer.println(mInFlight.size());
+        for (Caller caller : Caller.values()) {
+            final CallerStats stats = mCallerStats[caller.ordinal()];
+            writer.print(prefix);
+            writer.print(caller.mName);
+            writer.print(": requests=");
+            writer.print(stats.requests.get());
+            writer.print(" cacheHits=");
+            writer.print(stats.cacheHits.get());
+            writer.print(" sharedLookups=");
+            writer.println(stats.sharedLookups.get());
+            stats.latency.dump(prefix, writer);
+        }
+    }
+}
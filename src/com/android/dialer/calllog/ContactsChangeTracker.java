@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.dialer.database.DialerDatabaseHelper;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Finds the contacts which changed since the contact info cached for the call log was last
+ * checked, using the last updated timestamps of the contacts provider and
+ * {@link DeletedContacts}. Only the cached contact info affected by these changes needs to be
+ * looked up again.
+ * <p>
+ * Each tracker keeps the timestamp up to which its owner handled the changes in memory, since
+ * several adapters with caches of their own track the changes at once. The timestamp up to which
+ * the shared {@link PersistentContactInfoCache} handled them is stored in the dialer database,
+ * so that changes made while the process was not running are found as well: a tracker starts
+ * from it.
+ * <p>
+ * The methods query the contacts provider and must not be called on the UI thread.
+ */
+class ContactsChangeTracker {
+    /**
+     * The dialer database property storing the timestamp up to which changes were handled by the
+     * persistent cache.
+     */
+    private static final String LAST_HANDLED_PROPERTY = "contact_info_last_handled_change";
+
+    /**
+     * The maximum number of changed contacts handled one by one. Beyond that, for instance after
+     * an account is synced for the first time, all the cached contact info is out of date.
+     */
+    @VisibleForTesting
+    static final int MAX_CHANGED_CONTACTS = 100;
+
+    private static final String[] UPDATED_CONTACTS_PROJECTION = new String[] {
+            Contacts._ID,
+            Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+    };
+
+    private static final String[] DELETED_CONTACTS_PROJECTION = new String[] {
+            DeletedContacts.CONTACT_ID,
+            DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+    };
+
+    private static final String[] PHONE_NUMBERS_PROJECTION = new String[] {
+            Phone.NUMBER,
+            Phone.NORMALIZED_NUMBER,
+    };
+
+    /**
+     * The changes to the contacts since the last ones handled.
+     */
+    @Immutable
+    public static final class Changes {
+        /** Whether all the cached contact info must be considered out of date. */
+        public final boolean all;
+        /** The ids of the updated or deleted contacts. */
+        public final Set<Long> contactIds;
+        /** The phone numbers of the updated contacts, as entered and normalized. */
+        public final Set<String> numbers;
+        /** The timestamp of the latest change. */
+        public final long lastChangeMillis;
+        /** The keys of {@link #numbers}, see {@link #getNumberKey}. */
+        private final Set<String> mNumberKeys;
+
+        @VisibleForTesting
+        Changes(boolean all, Set<Long> contactIds, Set<String> numbers, long lastChangeMillis) {
+            this.all = all;
+            this.contactIds = Collections.unmodifiableSet(contactIds);
+            this.numbers = Collections.unmodifiableSet(numbers);
+            this.lastChangeMillis = lastChangeMillis;
+            mNumberKeys = Sets.newHashSetWithExpectedSize(numbers.size());
+            for (String number : numbers) {
+                final String key = getNumberKey(number);
+                if (!TextUtils.isEmpty(key)) {
+                    mNumberKeys.add(key);
+                }
+            }
+        }
+
+        public boolean isEmpty() {
+            return !all && contactIds.isEmpty();
+        }
+
+        /**
+         * Returns whether the given cached contact info may be out of date: either its contact
+         * changed, or one of the changed contacts now has its number.
+         */
+        public boolean affects(ContactInfo info) {
+            if (all) {
+                return true;
+            }
+            if (contactIds.contains(ContactInfoHelper.getContactIdFromUri(info.lookupUri))) {
+                return true;
+            }
+            if (!TextUtils.isEmpty(info.normalizedNumber)
+                    && numbers.contains(info.normalizedNumber)) {
+                return true;
+            }
+            if (!TextUtils.isEmpty(info.number)) {
+                final String key = getNumberKey(info.number);
+                if (!TextUtils.isEmpty(key) && mNumberKeys.contains(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the form shared by the numbers which may be equal to the given one, so that
+         * they are compared once each with a set lookup. For phone numbers, it is the minimal
+         * match the contacts provider looks numbers up with: their last digits, which the numbers
+         * {@link PhoneNumberUtils#compare} finds equal share. SIP addresses are compared as in
+         * {@link CallLogGroupBuilder}: the user info is case sensitive, the rest is not.
+         */
+        private static String getNumberKey(String number) {
+            if (PhoneNumberHelper.isUriNumber(number)) {
+                final int index = number.indexOf('@');
+                if (index == -1) {
+                    return "sip:" + number;
+                }
+                return "sip:" + number.substring(0, index)
+                        + number.substring(index).toLowerCase(Locale.US);
+            }
+            return PhoneNumberUtils.toCallerIDMinMatch(number);
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final DialerDatabaseHelper mDbHelper;
+
+    /**
+     * The timestamp up to which the owner of the tracker handled changes, or -1 until read from
+     * the database by the first query.
+     */
+    @GuardedBy("this")
+    private long mLastHandledMillis = -1;
+
+    public ContactsChangeTracker(ContentResolver contentResolver, DialerDatabaseHelper dbHelper) {
+        mContentResolver = contentResolver;
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Queries the changes to the contacts made since the last ones handled. If they cannot be
+     * determined, all the cached contact info is considered out of date.
+     */
+    public Changes queryChanges() {
+        final long lastHandledMillis = getLastHandledMillis();
+        final Set<Long> contactIds = Sets.newHashSet();
+        long lastChangeMillis = lastHandledMillis;
+
+        // The most recent changes come first, so the first row has the latest timestamp.
+        final Cursor updated = queryLatest(Contacts.CONTENT_URI, UPDATED_CONTACTS_PROJECTION,
+                Contacts.CONTACT_LAST_UPDATED_TIMESTAMP, lastHandledMillis);
+        final Cursor deleted = queryLatest(DeletedContacts.CONTENT_URI,
+                DELETED_CONTACTS_PROJECTION, DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+                lastHandledMillis);
+        final Set<Long> updatedContactIds = Sets.newHashSet();
+        try {
+            if (updated == null || deleted == null
+                    || updated.getCount() + deleted.getCount() > MAX_CHANGED_CONTACTS) {
+                if (updated != null && updated.moveToFirst()) {
+                    lastChangeMillis = Math.max(lastChangeMillis, updated.getLong(1));
+                }
+                if (deleted != null && deleted.moveToFirst()) {
+                    lastChangeMillis = Math.max(lastChangeMillis, deleted.getLong(1));
+                }
+                return new Changes(true, contactIds, Collections.<String>emptySet(),
+                        lastChangeMillis);
+            }
+            while (updated.moveToNext()) {
+                updatedContactIds.add(updated.getLong(0));
+                lastChangeMillis = Math.max(lastChangeMillis, updated.getLong(1));
+            }
+            while (deleted.moveToNext()) {
+                contactIds.add(deleted.getLong(0));
+                lastChangeMillis = Math.max(lastChangeMillis, deleted.getLong(1));
+            }
+        } finally {
+            if (updated != null) {
+                updated.close();
+            }
+            if (deleted != null) {
+                deleted.close();
+            }
+        }
+        contactIds.addAll(updatedContactIds);
+
+        final Set<String> numbers = Sets.newHashSet();
+        if (!updatedContactIds.isEmpty() && !queryPhoneNumbers(updatedContactIds, numbers)) {
+            return new Changes(true, contactIds, numbers, lastChangeMillis);
+        }
+        return new Changes(false, contactIds, numbers, lastChangeMillis);
+    }
+
+    /**
+     * Records that the given changes have been applied to the contact info cached by the owner
+     * of the tracker, so that the next call to {@link #queryChanges()} only returns the ones made
+     * since. The other trackers still return them.
+     */
+    public synchronized void markHandled(Changes changes) {
+        mLastHandledMillis = Math.max(mLastHandledMillis, changes.lastChangeMillis);
+    }
+
+    /**
+     * Records that the given changes have been applied to the {@link PersistentContactInfoCache},
+     * so that the trackers created from now on, in this process or the next ones, start after
+     * them.
+     */
+    public void markPersistentCacheHandled(Changes changes) {
+        if (changes.lastChangeMillis > getPersistedLastHandledMillis()) {
+            mDbHelper.setProperty(LAST_HANDLED_PROPERTY,
+                    String.valueOf(changes.lastChangeMillis));
+        }
+    }
+
+    private synchronized long getLastHandledMillis() {
+        if (mLastHandledMillis < 0) {
+            mLastHandledMillis = getPersistedLastHandledMillis();
+        }
+        return mLastHandledMillis;
+    }
+
+    private long getPersistedLastHandledMillis() {
+        try {
+            return Long.parseLong(mDbHelper.getProperty(LAST_HANDLED_PROPERTY, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Queries the rows changed after the given timestamp, most recent first. At most one more
+     * row than {@link #MAX_CHANGED_CONTACTS} is returned.
+     */
+    private Cursor queryLatest(Uri uri, String[] projection, String timestampColumn,
+            long afterMillis) {
+        final Uri limitedUri = uri.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY,
+                        String.valueOf(MAX_CHANGED_CONTACTS + 1))
+                .build();
+        return mContentResolver.query(limitedUri, projection, timestampColumn + " > ?",
+                new String[] { String.valueOf(afterMillis) }, timestampColumn + " DESC");
+    }
+
+    /**
+     * Adds the phone numbers of the given contacts to {@code numbers}.
+     *
+     * @return false if the query failed
+     */
+    private boolean queryPhoneNumbers(Set<Long> contactIds, Set<String> numbers) {
+        final StringBuilder selection = new StringBuilder();
+        selection.append(Phone.CONTACT_ID).append(" IN (");
+        boolean first = true;
+        for (Long contactId : contactIds) {
+            if (!first) {
+                selection.append(",");
+            }
+            selection.append(contactId);
+            first = false;
+        }
+        selection.append(")");
+
+        final Cursor cursor = mContentResolver.query(Phone.CONTENT_URI, PHONE_NUMBERS_PROJECTION,
+                selection.toString(), null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final String number = cursor.getString(0);
+                final String normalizedNumber = cursor.getString(1);
+                if (!TextUtils.isEmpty(number)) {
+                    numbers.add(number);
+                }
+                if (!TextUtils.isEmpty(normalizedNumber)) {
+                    numbers.add(normalizedNumber);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return true;
+    }
+}
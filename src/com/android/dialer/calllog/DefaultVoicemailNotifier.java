@@ -27,12 +27,12 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.CallLog.Calls;
-import android.provider.ContactsContract.PhoneLookup;
 import android.telecom.PhoneAccountHandle;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.common.io.MoreCloseables;
+import com.android.contacts.common.GeoUtil;
 import com.android.dialer.CallDetailActivity;
 import com.android.dialer.R;
 import com.android.dialer.calllog.PhoneAccountUtils;
@@ -69,7 +69,7 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
             ContentResolver contentResolver = context.getContentResolver();
             sInstance = new DefaultVoicemailNotifier(context, notificationManager,
                     createNewCallsQuery(contentResolver),
-                    createNameLookupQuery(contentResolver),
+                    createNameLookupQuery(context),
                     createPhoneNumberHelper(context));
         }
         return sInstance;
@@ -315,38 +315,31 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
     }
 
     /** Create a new instance of {@link NameLookupQuery}. */
-    public static NameLookupQuery createNameLookupQuery(ContentResolver contentResolver) {
-        return new DefaultNameLookupQuery(contentResolver);
+    public static NameLookupQuery createNameLookupQuery(Context context) {
+        return new DefaultNameLookupQuery(context);
     }
 
     /**
-     * Default implementation of {@link NameLookupQuery} that looks up the name of a contact in the
-     * contacts database.
+     * Default implementation of {@link NameLookupQuery} that looks up the name of a contact
+     * through the {@link ContactInfoResolver}, which shares the lookup with the call log when it
+     * shows the same number.
      */
     private static final class DefaultNameLookupQuery implements NameLookupQuery {
-        private static final String[] PROJECTION = { PhoneLookup.DISPLAY_NAME };
-        private static final int DISPLAY_NAME_COLUMN_INDEX = 0;
-
-        private final ContentResolver mContentResolver;
-
-        private DefaultNameLookupQuery(ContentResolver contentResolver) {
-            mContentResolver = contentResolver;
+        private final ContactInfoHelper mContactInfoHelper;
+        private final ContactInfoResolver mContactInfoResolver;
+        private final String mCountryIso;
+
+        private DefaultNameLookupQuery(Context context) {
+            mCountryIso = GeoUtil.getCurrentCountryIso(context);
+            mContactInfoHelper = new ContactInfoHelper(context, mCountryIso);
+            mContactInfoResolver = ContactInfoResolver.getInstance(context);
         }
 
         @Override
         public String query(String number) {
-            Cursor cursor = null;
-            try {
-                cursor = mContentResolver.query(
-                        Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number)),
-                        PROJECTION, null, null, null);
-                if (cursor == null || !cursor.moveToFirst()) return null;
-                return cursor.getString(DISPLAY_NAME_COLUMN_INDEX);
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
+            final ContactInfo info = mContactInfoResolver.resolve(mContactInfoHelper, number,
+                    mCountryIso, ContactInfoResolver.Caller.VOICEMAIL_NOTIFIER);
+            return info == null ? null : info.name;
         }
     }
 
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.android.contacts.common.util.UriUtils;
+import com.android.dialer.database.DialerDatabaseHelper;
+import com.android.dialer.database.DialerDatabaseHelper.ContactInfoCacheColumns;
+import com.android.dialer.database.DialerDatabaseHelper.Tables;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A second-level cache of the contact info looked up for the numbers in the call log, stored in
+ * the dialer database so that it survives the process being killed.
+ * <p>
+ * Entries stay valid until removed by {@link #removeAffected}, which must be called with the
+ * changes to the contacts as they happen, including those made while the process was not
+ * running: see {@link ContactsChangeTracker}. Contact info from remote sources is never stored,
+ * since their changes are not reflected in the contacts provider.
+ * <p>
+ * All the methods access the database, and must not be called on the UI thread.
+ */
+@ThreadSafe
+class PersistentContactInfoCache {
+    private static final String TAG = "PersistentContactInfoCache";
+
+    /** The maximum number of entries kept, roughly the maximum size of the call log. */
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 1000;
+
+    /** The number of entries written between two removals of the oldest entries. */
+    private static final int TRIM_INTERVAL = 100;
+
+    private static final String[] PROJECTION = new String[] {
+            ContactInfoCacheColumns.NUMBER,             // 0
+            ContactInfoCacheColumns.COUNTRY_ISO,        // 1
+            ContactInfoCacheColumns.LOOKUP_URI,         // 2
+            ContactInfoCacheColumns.LOOKUP_KEY,         // 3
+            ContactInfoCacheColumns.NAME,               // 4
+            ContactInfoCacheColumns.TYPE,               // 5
+            ContactInfoCacheColumns.LABEL,              // 6
+            ContactInfoCacheColumns.MATCHED_NUMBER,     // 7
+            ContactInfoCacheColumns.FORMATTED_NUMBER,   // 8
+            ContactInfoCacheColumns.NORMALIZED_NUMBER,  // 9
+            ContactInfoCacheColumns.PHOTO_ID,           // 10
+            ContactInfoCacheColumns.PHOTO_URI,          // 11
+    };
+
+    private static final int NUMBER = 0;
+    private static final int COUNTRY_ISO = 1;
+    private static final int LOOKUP_URI = 2;
+    private static final int LOOKUP_KEY = 3;
+    private static final int NAME = 4;
+    private static final int TYPE = 5;
+    private static final int LABEL = 6;
+    private static final int MATCHED_NUMBER = 7;
+    private static final int FORMATTED_NUMBER = 8;
+    private static final int NORMALIZED_NUMBER = 9;
+    private static final int PHOTO_ID = 10;
+    private static final int PHOTO_URI = 11;
+
+    private final DialerDatabaseHelper mDbHelper;
+
+    private final AtomicInteger mWritesSinceTrim = new AtomicInteger();
+
+    public PersistentContactInfoCache(DialerDatabaseHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the stored contact info of the given numbers. Numbers without stored contact info
+     * are not included in the returned map.
+     */
+    public Map<NumberWithCountryIso, ContactInfo> getAll(
+            Collection<NumberWithCountryIso> numbers) {
+        final Map<NumberWithCountryIso, ContactInfo> result = Maps.newHashMap();
+        if (numbers.isEmpty()) {
+            return result;
+        }
+        final Set<String> distinctNumbers = Sets.newHashSet();
+        for (NumberWithCountryIso number : numbers) {
+            distinctNumbers.add(number.number);
+        }
+        final String[] selectionArgs = new String[distinctNumbers.size()];
+        final StringBuilder selection = new StringBuilder();
+        selection.append(ContactInfoCacheColumns.NUMBER).append(" IN (");
+        int i = 0;
+        for (String number : distinctNumbers) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i++] = number;
+        }
+        selection.append(")");
+
+        Cursor cursor = null;
+        try {
+            cursor = mDbHelper.getReadableDatabase().query(Tables.CONTACT_INFO_CACHE, PROJECTION,
+                    selection.toString(), selectionArgs, null, null, null);
+            while (cursor.moveToNext()) {
+                final NumberWithCountryIso key = new NumberWithCountryIso(cursor.getString(NUMBER),
+                        Strings.emptyToNull(cursor.getString(COUNTRY_ISO)));
+                if (numbers.contains(key)) {
+                    result.put(key, createContactInfo(cursor));
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Unable to read the contact info cache", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return result;
+    }
+
+    private static ContactInfo createContactInfo(Cursor cursor) {
+        final ContactInfo info = new ContactInfo();
+        info.lookupUri = UriUtils.parseUriOrNull(cursor.getString(LOOKUP_URI));
+        info.lookupKey = cursor.getString(LOOKUP_KEY);
+        info.name = cursor.getString(NAME);
+        info.type = cursor.getInt(TYPE);
+        info.label = cursor.getString(LABEL);
+        info.number = cursor.getString(MATCHED_NUMBER);
+        info.formattedNumber = cursor.getString(FORMATTED_NUMBER);
+        info.normalizedNumber = cursor.getString(NORMALIZED_NUMBER);
+        info.photoId = cursor.getLong(PHOTO_ID);
+        info.photoUri = UriUtils.parseUriOrNull(cursor.getString(PHOTO_URI));
+        return info;
+    }
+
+    /**
+     * Stores the result of lookups, replacing any previous contact info of the same numbers.
+     *
+     * @param lookupStartMillis the time at which the lookups started, used to remove the
+     *        oldest entries first
+     */
+    public void putAll(Map<NumberWithCountryIso, ContactInfo> infos, long lookupStartMillis) {
+        int written = 0;
+        try {
+            final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<NumberWithCountryIso, ContactInfo> entry : infos.entrySet()) {
+                    final ContactInfo info = entry.getValue();
+                    if (info == null || info == ContactInfo.EMPTY || info.sourceType != 0
+                            || info.isBadData) {
+                        continue;
+                    }
+                    db.insertWithOnConflict(Tables.CONTACT_INFO_CACHE, null,
+                            createValues(entry.getKey(), info, lookupStartMillis),
+                            SQLiteDatabase.CONFLICT_REPLACE);
+                    written++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (written > 0 && mWritesSinceTrim.addAndGet(written) >= TRIM_INTERVAL) {
+                mWritesSinceTrim.set(0);
+                trim(db);
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Unable to update the contact info cache", e);
+        }
+    }
+
+    private static ContentValues createValues(NumberWithCountryIso key, ContactInfo info,
+            long lookupStartMillis) {
+        final ContentValues values = new ContentValues();
+        values.put(ContactInfoCacheColumns.NUMBER, key.number);
+        values.put(ContactInfoCacheColumns.COUNTRY_ISO, Strings.nullToEmpty(key.countryIso));
+        values.put(ContactInfoCacheColumns.LOOKUP_URI, UriUtils.uriToString(info.lookupUri));
+        values.put(ContactInfoCacheColumns.LOOKUP_KEY, info.lookupKey);
+        values.put(ContactInfoCacheColumns.NAME, info.name);
+        values.put(ContactInfoCacheColumns.TYPE, info.type);
+        values.put(ContactInfoCacheColumns.LABEL, info.label);
+        values.put(ContactInfoCacheColumns.MATCHED_NUMBER, info.number);
+        values.put(ContactInfoCacheColumns.FORMATTED_NUMBER, info.formattedNumber);
+        values.put(ContactInfoCacheColumns.NORMALIZED_NUMBER, info.normalizedNumber);
+        values.put(ContactInfoCacheColumns.PHOTO_ID, info.photoId);
+        values.put(ContactInfoCacheColumns.PHOTO_URI, UriUtils.uriToString(info.photoUri));
+        values.put(ContactInfoCacheColumns.LAST_UPDATED, lookupStartMillis);
+        return values;
+    }
+
+    /**
+     * Removes the least recently looked up entries beyond {@link #MAX_ENTRIES}.
+     */
+    private static void trim(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + Tables.CONTACT_INFO_CACHE + " WHERE rowid NOT IN ("
+                + "SELECT rowid FROM " + Tables.CONTACT_INFO_CACHE
+                + " ORDER BY " + ContactInfoCacheColumns.LAST_UPDATED + " DESC"
+                + " LIMIT " + MAX_ENTRIES + ")");
+    }
+
+    /**
+     * Removes the entries affected by the given changes to the contacts.
+     *
+     * @return the number of removed entries
+     */
+    public int removeAffected(ContactsChangeTracker.Changes changes) {
+        try {
+            final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            if (changes.all) {
+                return db.delete(Tables.CONTACT_INFO_CACHE, null, null);
+            }
+            final List<String[]> affectedKeys = Lists.newArrayList();
+            final Cursor cursor = db.query(Tables.CONTACT_INFO_CACHE, PROJECTION, null, null,
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    if (changes.affects(createContactInfo(cursor))) {
+                        affectedKeys.add(new String[] {
+                                cursor.getString(NUMBER), cursor.getString(COUNTRY_ISO) });
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            int removed = 0;
+            db.beginTransaction();
+            try {
+                for (String[] key : affectedKeys) {
+                    removed += db.delete(Tables.CONTACT_INFO_CACHE,
+                            ContactInfoCacheColumns.NUMBER + " = ? AND "
+                                    + ContactInfoCacheColumns.COUNTRY_ISO + " = ?", key);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return removed;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Unable to update the contact info cache", e);
+            return 0;
+        }
+    }
+}
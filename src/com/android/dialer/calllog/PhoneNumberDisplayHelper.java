@@ -48,6 +48,20 @@ public class PhoneNumberDisplayHelper {
 
     /* package */ CharSequence getDisplayName(PhoneAccountHandle accountHandle, CharSequence number,
             int presentation) {
+        // The voicemail number is only checked for the numbers which are shown.
+        final boolean isVoicemailNumber = presentation != Calls.PRESENTATION_UNKNOWN
+                && presentation != Calls.PRESENTATION_RESTRICTED
+                && presentation != Calls.PRESENTATION_PAYPHONE
+                && mPhoneNumberUtilsWrapper.isVoicemailNumber(accountHandle, number);
+        return getDisplayName(number, presentation, isVoicemailNumber);
+    }
+
+    /**
+     * Returns the text to display instead of the given number, or the empty string, given
+     * whether it is the number of the voicemail.
+     */
+    /* package */ CharSequence getDisplayName(CharSequence number, int presentation,
+            boolean isVoicemailNumber) {
         if (presentation == Calls.PRESENTATION_UNKNOWN) {
             return mResources.getString(R.string.unknown);
         }
@@ -57,7 +71,7 @@ public class PhoneNumberDisplayHelper {
         if (presentation == Calls.PRESENTATION_PAYPHONE) {
             return mResources.getString(R.string.payphone);
         }
-        if (mPhoneNumberUtilsWrapper.isVoicemailNumber(accountHandle, number)) {
+        if (isVoicemailNumber) {
             return mResources.getString(R.string.voicemail);
         }
         if (PhoneNumberUtilsWrapper.isLegacyUnknownNumbers(number)) {
@@ -75,8 +89,16 @@ public class PhoneNumberDisplayHelper {
      */
     public CharSequence getDisplayNumber(PhoneAccountHandle accountHandle, CharSequence number,
             int presentation, CharSequence formattedNumber) {
+        return getDisplayNumber(getDisplayName(accountHandle, number, presentation), number,
+                formattedNumber);
+    }
 
-        final CharSequence displayName = getDisplayName(accountHandle, number, presentation);
+    /**
+     * Returns the string to display for the given phone number, given the text to display
+     * instead of it, see {@link #getDisplayName}.
+     */
+    public static CharSequence getDisplayNumber(CharSequence displayName, CharSequence number,
+            CharSequence formattedNumber) {
         if (!TextUtils.isEmpty(displayName)) {
             return displayName;
         }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.telephony.PhoneNumberUtils;
+
+import com.android.dialer.util.StripedLruCache;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The formatted and E.164 forms of the phone numbers shown by the dialer, kept for the whole
+ * process, so that the call log and the call details parse each number with libphonenumber once
+ * rather than every time they group, look up or show it.
+ * <p>
+ * The forms of a number are keyed by the number and the country it is interpreted in, so a
+ * change of the current country only makes the callers ask for other keys. Each form is only
+ * computed when first asked for. The cache is cleared when the locale changes.
+ */
+@ThreadSafe
+public final class PhoneNumberFormatCache {
+    /** The call log keeps at most 500 calls, so this is enough for all of their numbers. */
+    private static final int MAX_SIZE = 500;
+
+    /** The number of threads expected to use the cache at once. */
+    private static final int CONCURRENCY_LEVEL = 4;
+
+    private static final PhoneNumberFormatCache sInstance =
+            new PhoneNumberFormatCache(MAX_SIZE);
+
+    /** The forms of a number computed so far. */
+    private static final class Forms {
+        // Each value is written before the flag telling that it was computed.
+        private volatile String mFormattedNumber;
+        private volatile boolean mHasFormattedNumber;
+        private volatile String mE164Number;
+        private volatile boolean mHasE164Number;
+    }
+
+    private final int mMaxSize;
+    /** Replaced by an empty cache to clear it. */
+    private volatile StripedLruCache<NumberWithCountryIso, Forms> mForms;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mClears = new AtomicLong();
+    @GuardedBy("this")
+    private Locale mLocale;
+
+    @VisibleForTesting
+    PhoneNumberFormatCache(int maxSize) {
+        mMaxSize = maxSize;
+        mForms = newCache();
+        mLocale = Locale.getDefault();
+    }
+
+    public static PhoneNumberFormatCache getInstance() {
+        return sInstance;
+    }
+
+    private StripedLruCache<NumberWithCountryIso, Forms> newCache() {
+        return new StripedLruCache<NumberWithCountryIso, Forms>(mMaxSize, CONCURRENCY_LEVEL);
+    }
+
+    private Forms getForms(String number, String countryIso) {
+        final StripedLruCache<NumberWithCountryIso, Forms> cache = mForms;
+        final NumberWithCountryIso key = new NumberWithCountryIso(number, countryIso);
+        Forms forms = cache.get(key);
+        if (forms == null) {
+            // Another thread may add the same number: either set of forms is as good.
+            forms = new Forms();
+            cache.put(key, forms);
+        }
+        return forms;
+    }
+
+    /**
+     * Returns the number formatted with the conventions of the given country, as
+     * {@link PhoneNumberUtils#formatNumber(String, String, String)} does without a normalized
+     * number, or null if the number is null.
+     */
+    public String getFormattedNumber(String number, String countryIso) {
+        if (number == null) {
+            return null;
+        }
+        final Forms forms = getForms(number, countryIso);
+        if (forms.mHasFormattedNumber) {
+            mHits.incrementAndGet();
+            return forms.mFormattedNumber;
+        }
+        mMisses.incrementAndGet();
+        final String formattedNumber = PhoneNumberUtils.formatNumber(number, null, countryIso);
+        forms.mFormattedNumber = formattedNumber;
+        forms.mHasFormattedNumber = true;
+        return formattedNumber;
+    }
+
+    /**
+     * Returns the number in E.164 form, as {@link PhoneNumberUtils#formatNumberToE164} does, or
+     * null if it cannot be parsed in the given country.
+     */
+    public String getE164Number(String number, String countryIso) {
+        if (number == null) {
+            return null;
+        }
+        final Forms forms = getForms(number, countryIso);
+        if (forms.mHasE164Number) {
+            mHits.incrementAndGet();
+            return forms.mE164Number;
+        }
+        mMisses.incrementAndGet();
+        final String e164Number = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+        forms.mE164Number = e164Number;
+        forms.mHasE164Number = true;
+        return e164Number;
+    }
+
+    /**
+     * Clears the cache if the locale is not the one the forms were computed in. Called whenever
+     * the configuration of the process changes.
+     */
+    public void onLocaleChanged(Locale locale) {
+        synchronized (this) {
+            if (locale == null || locale.equals(mLocale)) {
+                return;
+            }
+            mLocale = locale;
+        }
+        clear();
+    }
+
+    /** Removes all the forms computed so far. */
+    public void clear() {
+        mForms = newCache();
+        mClears.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Resets the statistics of the cache, not its contents. */
+    public void resetStats() {
+        mHits.set(0);
+        mMisses.set(0);
+        mClears.set(0);
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("numberFormatHits=");
+        writer.print(mHits.get());
+        writer.print(" numberFormatMisses=");
+        writer.print(mMisses.get());
+        writer.print(" numberFormatClears=");
+        writer.print(mClears.get());
+        writer.print(" numberFormatSize=");
+        writer.println(mForms.size());
+    }
+}
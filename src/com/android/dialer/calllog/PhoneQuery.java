@@ -16,6 +16,7 @@
 
 package com.android.dialer.calllog;
 
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 
 /**
@@ -33,6 +34,21 @@ final class PhoneQuery {
             PhoneLookup.LOOKUP_KEY,
             PhoneLookup.PHOTO_URI};
 
+    /**
+     * Projection used to resolve several numbers at once against {@link Phone#CONTENT_URI}. The
+     * columns are in the same order as in {@link #_PROJECTION}, so the same indices apply.
+     */
+    public static final String[] BATCH_PROJECTION = new String[] {
+            Phone.CONTACT_ID,
+            Phone.DISPLAY_NAME,
+            Phone.TYPE,
+            Phone.LABEL,
+            Phone.NUMBER,
+            Phone.NORMALIZED_NUMBER,
+            Phone.PHOTO_ID,
+            Phone.LOOKUP_KEY,
+            Phone.PHOTO_URI};
+
     public static final int PERSON_ID = 0;
     public static final int NAME = 1;
     public static final int PHONE_TYPE = 2;
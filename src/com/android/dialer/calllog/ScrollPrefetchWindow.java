@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Computes the rows of a list worth preparing before they scroll into view, from the visible
+ * rows and the speed at which they change.
+ * <p>
+ * The window extends further in the direction of the scroll the faster the list scrolls, so
+ * that the rows which will be visible once the preparation completes are included. A few rows
+ * are also included in the opposite direction, in case the scroll is reversed.
+ */
+@NotThreadSafe
+final class ScrollPrefetchWindow {
+    /** The weight of the latest measure of the scroll speed in the smoothed speed. */
+    private static final float SMOOTHING = 0.5f;
+
+    private final int mMinAhead;
+    private final int mMaxAhead;
+    private final int mBehind;
+    private final long mLeadTimeMillis;
+
+    private int mFirstVisible = -1;
+    private int mLastVisible = -1;
+    private long mLastUpdateMillis;
+    /** The smoothed scroll speed, in rows per milli, positive when scrolling down. */
+    private float mRowsPerMilli;
+    private boolean mScrollingUp;
+
+    /**
+     * @param minAhead the number of rows included in the direction of the scroll, even when the
+     *        list does not move
+     * @param maxAhead the maximum number of rows included in the direction of the scroll
+     * @param behind the number of rows included in the opposite direction
+     * @param leadTimeMillis the time it takes to prepare rows: rows which will scroll into view
+     *        within that time at the current speed are included
+     */
+    public ScrollPrefetchWindow(int minAhead, int maxAhead, int behind, long leadTimeMillis) {
+        mMinAhead = minAhead;
+        mMaxAhead = maxAhead;
+        mBehind = behind;
+        mLeadTimeMillis = leadTimeMillis;
+    }
+
+    /**
+     * Updates the visible rows.
+     *
+     * @param nowMillis the time of the update, in the time base of
+     *        {@link android.os.SystemClock#uptimeMillis()}
+     */
+    public void onViewportChanged(int firstVisible, int lastVisible, long nowMillis) {
+        if (mFirstVisible >= 0 && nowMillis > mLastUpdateMillis) {
+            final float rowsPerMilli =
+                    (float) (firstVisible - mFirstVisible) / (nowMillis - mLastUpdateMillis);
+            mRowsPerMilli = SMOOTHING * rowsPerMilli + (1 - SMOOTHING) * mRowsPerMilli;
+        }
+        if (firstVisible != mFirstVisible && mFirstVisible >= 0) {
+            mScrollingUp = firstVisible < mFirstVisible;
+        }
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+        mLastUpdateMillis = nowMillis;
+    }
+
+    /** Records that the list stopped scrolling. */
+    public void onScrollStopped() {
+        mRowsPerMilli = 0;
+    }
+
+    /** Forgets the visible rows and the scroll speed, for instance when the list changes. */
+    public void reset() {
+        mFirstVisible = -1;
+        mLastVisible = -1;
+        mRowsPerMilli = 0;
+        mScrollingUp = false;
+    }
+
+    /** Returns the number of rows included in the direction of the scroll. */
+    private int getAhead() {
+        final int ahead = mMinAhead + Math.round(Math.abs(mRowsPerMilli) * mLeadTimeMillis);
+        return Math.min(mMaxAhead, ahead);
+    }
+
+    /** Returns the first row of the window, which may be negative. */
+    public int getFirst() {
+        return mFirstVisible - (mScrollingUp ? getAhead() : mBehind);
+    }
+
+    /** Returns the last row of the window, which may be beyond the end of the list. */
+    public int getLast() {
+        return mLastVisible + (mScrollingUp ? mBehind : getAhead());
+    }
+}
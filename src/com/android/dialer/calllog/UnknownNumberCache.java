@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract.Contacts;
+
+import com.android.dialer.util.ExpirableCache;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The numbers which matched no contact when last looked up by {@link ContactInfoHelper}, so that
+ * looking them up again within a few minutes skips the contacts provider and the cached number
+ * lookup service. Unknown callers make up most of the numbers of the call log which are looked
+ * up, and each of their lookups takes several queries.
+ * <p>
+ * The numbers are keyed by their E.164 form when they have one. They are forgotten after
+ * {@link #MAX_AGE_MINUTES}, when the cached number lookup service may know them, and as soon as
+ * the contacts change, since a contact may have been given one of them.
+ * <p>
+ * A single instance is shared by the whole process, see {@link #getInstance}.
+ */
+@ThreadSafe
+public final class UnknownNumberCache {
+    /** How long a number is known to match no contact. */
+    @VisibleForTesting
+    static final long MAX_AGE_MINUTES = 10;
+
+    /** The call log keeps at most 500 calls, so this is enough for all of their numbers. */
+    private static final int MAX_SIZE = 500;
+
+    /** The number of threads expected to use the cache at once. */
+    private static final int CONCURRENCY_LEVEL = 4;
+
+    private static UnknownNumberCache sInstance;
+
+    private final ExpirableCache<String, Boolean> mNumbers;
+    /** The number of changes to the contacts so far, see {@link #addUnknown}. */
+    private final AtomicInteger mContactsChanges = new AtomicInteger();
+
+    @VisibleForTesting
+    UnknownNumberCache(ExpirableCache.Clock clock) {
+        final ExpirableCache.Builder<String, Boolean> builder =
+                new ExpirableCache.Builder<String, Boolean>()
+                .setName("unknownNumbers")
+                .setMaxSize(MAX_SIZE)
+                .setMaxAge(MAX_AGE_MINUTES, TimeUnit.MINUTES)
+                .setConcurrencyLevel(CONCURRENCY_LEVEL);
+        if (clock != null) {
+            builder.setClock(clock);
+        }
+        mNumbers = builder.build();
+    }
+
+    /**
+     * Returns the instance shared by the process, which is told about changes to the contacts
+     * from the first call on.
+     */
+    public static synchronized UnknownNumberCache getInstance(Context context) {
+        if (sInstance == null) {
+            final UnknownNumberCache instance = new UnknownNumberCache(null);
+            // The changes are delivered on a binder thread, which is fine for a thread-safe
+            // cache. The observer is never unregistered: it lives as long as the process.
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    Contacts.CONTENT_URI, true, new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            instance.onContactsChanged();
+                        }
+                    });
+            sInstance = instance;
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns whether the given number matched no contact when it was last looked up, and may
+     * not be looked up again yet.
+     *
+     * @param key the E.164 form of the number, or the number itself if it has none
+     */
+    public boolean isUnknown(String key) {
+        final ExpirableCache.CachedValue<Boolean> cachedValue = mNumbers.getCachedValue(key);
+        return cachedValue != null && !cachedValue.isExpired();
+    }
+
+    /**
+     * Returns a value which changes whenever the contacts change, to be read before looking up
+     * a number and given to {@link #addUnknown}.
+     */
+    public int getContactsChangeCount() {
+        return mContactsChanges.get();
+    }
+
+    /**
+     * Records that the given number matched no contact, unless the contacts changed since it
+     * was looked up.
+     *
+     * @param key the E.164 form of the number, or the number itself if it has none
+     * @param contactsChangeCount the value of {@link #getContactsChangeCount()} before the
+     *        lookup started
+     */
+    public void addUnknown(String key, int contactsChangeCount) {
+        mNumbers.put(key, Boolean.TRUE);
+        // A change made during the lookup may have given the number to a contact. A change made
+        // from now on expires the number along with the others.
+        if (mContactsChanges.get() != contactsChangeCount) {
+            mNumbers.remove(key);
+        }
+    }
+
+    /** Forgets all the numbers, any of which may now match a contact. */
+    public void onContactsChanged() {
+        mContactsChanges.incrementAndGet();
+        mNumbers.expireAll();
+    }
+
+    public void resetStats() {
+        mNumbers.resetStats();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        mNumbers.dump(prefix, writer);
+    }
+}
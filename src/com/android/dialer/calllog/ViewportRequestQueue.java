@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A queue of requests made for rows of a list, ordered by how far each row is from the part of
+ * the list currently visible. Requests for visible rows come first, in the order they were
+ * added. Requests whose rows end up further than the stale distance from the visible rows are
+ * dropped when the list scrolls.
+ * <p>
+ * Requests can also be added at a low priority with {@link #addPrefetch(Object, int)}, for rows
+ * which are not visible yet: they come after all the other requests, unless their row becomes
+ * visible.
+ * <p>
+ * Until {@link #setViewport(int, int)} is first called, all rows are considered visible and the
+ * queue behaves as a FIFO queue.
+ *
+ * @param <T> the type of the requests, which must implement equals and hashCode: equal requests
+ *        are only queued once
+ */
+@ThreadSafe
+final class ViewportRequestQueue<T> {
+    private static final class Entry<T> {
+        public final T request;
+        public final long sequence;
+        public final long enqueueNanos;
+        public int position;
+        public boolean prefetch;
+
+        public Entry(T request, int position, boolean prefetch, long sequence) {
+            this.request = request;
+            this.position = position;
+            this.prefetch = prefetch;
+            this.sequence = sequence;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    private final Comparator<Entry<T>> mComparator = new Comparator<Entry<T>>() {
+        @Override
+        public int compare(Entry<T> lhs, Entry<T> rhs) {
+            final int lhsDistance = getDistance(lhs.position);
+            final int rhsDistance = getDistance(rhs.position);
+            if ((lhsDistance == 0) != (rhsDistance == 0)) {
+                return lhsDistance == 0 ? -1 : 1;
+            }
+            if (lhs.prefetch != rhs.prefetch) {
+                return lhs.prefetch ? 1 : -1;
+            }
+            if (lhsDistance != rhsDistance) {
+                return lhsDistance < rhsDistance ? -1 : 1;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    /** The distance from the visible rows beyond which requests are dropped. */
+    private final int mStaleDistance;
+    /** The queued requests, used to find duplicates. */
+    private final HashMap<T, Entry<T>> mEntries = Maps.newHashMap();
+    /** The queued requests, in priority order given the current viewport. */
+    private PriorityQueue<Entry<T>> mQueue = new PriorityQueue<Entry<T>>(11, mComparator);
+    private int mFirstVisible = 0;
+    private int mLastVisible = Integer.MAX_VALUE;
+    private long mNextSequence = 0;
+
+    /**
+     * @param staleDistance the number of rows away from the visible rows beyond which requests
+     *        are dropped
+     */
+    public ViewportRequestQueue(int staleDistance) {
+        mStaleDistance = staleDistance;
+    }
+
+    /**
+     * Returns the number of rows between the given position and the visible rows.
+     */
+    private int getDistance(int position) {
+        if (position < mFirstVisible) {
+            return mFirstVisible - position;
+        } else if (position > mLastVisible) {
+            return position - mLastVisible;
+        }
+        return 0;
+    }
+
+    /**
+     * Adds a request made for the row at the given position.
+     * <p>
+     * If an equal request is already queued, it is moved to the given position instead, and no
+     * longer has a low priority.
+     *
+     * @return true if the request was not already queued
+     */
+    public synchronized boolean add(T request, int position) {
+        Entry<T> entry = mEntries.get(request);
+        if (entry != null) {
+            if (entry.position != position || entry.prefetch) {
+                mQueue.remove(entry);
+                entry.position = position;
+                entry.prefetch = false;
+                mQueue.add(entry);
+            }
+            return false;
+        }
+        entry = new Entry<T>(request, position, false, mNextSequence++);
+        mEntries.put(request, entry);
+        mQueue.add(entry);
+        return true;
+    }
+
+    /**
+     * Adds a low priority request made ahead of time for the row at the given position. It comes
+     * after all the other requests while its row is not visible.
+     * <p>
+     * Does nothing if an equal request is already queued.
+     *
+     * @return true if the request was not already queued
+     */
+    public synchronized boolean addPrefetch(T request, int position) {
+        if (mEntries.containsKey(request)) {
+            return false;
+        }
+        final Entry<T> entry = new Entry<T>(request, position, true, mNextSequence++);
+        mEntries.put(request, entry);
+        mQueue.add(entry);
+        return true;
+    }
+
+    /**
+     * Removes and returns up to {@code maxCount} requests, closest to the visible rows first.
+     */
+    public synchronized ArrayList<T> poll(int maxCount) {
+        final ArrayList<T> result = Lists.newArrayListWithCapacity(
+                Math.min(maxCount, mQueue.size()));
+        final long now = System.nanoTime();
+        while (result.size() < maxCount && !mQueue.isEmpty()) {
+            final Entry<T> entry = mQueue.poll();
+            mEntries.remove(entry.request);
+            CallLogStats.getInstance().lookupQueueWait.recordNanos(now - entry.enqueueNanos);
+            result.add(entry.request);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the range of visible rows, reorders the queued requests accordingly and drops the
+     * ones which are now too far away.
+     *
+     * @return the dropped requests
+     */
+    public synchronized ArrayList<T> setViewport(int firstVisible, int lastVisible) {
+        final ArrayList<T> dropped = Lists.newArrayList();
+        if (firstVisible == mFirstVisible && lastVisible == mLastVisible) {
+            return dropped;
+        }
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+
+        // The priorities of all the entries have changed, so the heap has to be rebuilt.
+        final PriorityQueue<Entry<T>> queue =
+                new PriorityQueue<Entry<T>>(Math.max(11, mQueue.size()), mComparator);
+        for (Entry<T> entry : mQueue) {
+            if (getDistance(entry.position) > mStaleDistance) {
+                mEntries.remove(entry.request);
+                dropped.add(entry.request);
+            } else {
+                queue.add(entry);
+            }
+        }
+        mQueue = queue;
+        if (!dropped.isEmpty()) {
+            CallLogStats.getInstance().onStaleRequestsDropped(dropped.size());
+        }
+        return dropped;
+    }
+
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    public synchronized void clear() {
+        mQueue.clear();
+        mEntries.clear();
+    }
+}
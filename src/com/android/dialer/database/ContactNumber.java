@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import com.google.common.base.Objects;
+
+/**
+ * Simple data format for a contact, containing only information needed for showing up in
+ * smart dial interface.
+ */
+public class ContactNumber {
+    public final long id;
+    public final long dataId;
+    public final String displayName;
+    public final String phoneNumber;
+    public final String lookupKey;
+    public final long photoId;
+
+    public ContactNumber(long id, long dataID, String displayName, String phoneNumber,
+            String lookupKey, long photoId) {
+        this.dataId = dataID;
+        this.id = id;
+        this.displayName = displayName;
+        this.phoneNumber = phoneNumber;
+        this.lookupKey = lookupKey;
+        this.photoId = photoId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id, dataId, displayName, phoneNumber, lookupKey, photoId);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object instanceof ContactNumber) {
+            final ContactNumber that = (ContactNumber) object;
+            return Objects.equal(this.id, that.id)
+                    && Objects.equal(this.dataId, that.dataId)
+                    && Objects.equal(this.displayName, that.displayName)
+                    && Objects.equal(this.phoneNumber, that.phoneNumber)
+                    && Objects.equal(this.lookupKey, that.lookupKey)
+                    && Objects.equal(this.photoId, that.photoId);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("dataId", dataId)
+                .add("displayName", displayName)
+                .add("phoneNumber", phoneNumber)
+                .toString();
+    }
+}
@@ -36,7 +36,6 @@ import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.android.contacts.common.util.StopWatch;
 import com.android.dialer.R;
 import com.android.dialer.dialpad.SmartDialNameMatcher;
 import com.android.dialer.dialpad.SmartDialPrefix;
@@ -47,6 +46,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -72,7 +72,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
      *   0-98   KitKat
      * </pre>
      */
-    public static final int DATABASE_VERSION = 4;
+    public static final int DATABASE_VERSION = 5;
     public static final String DATABASE_NAME = "dialer.db";
 
     /**
@@ -91,6 +91,8 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         static final String PREFIX_TABLE = "prefix_table";
         /** Database properties for internal use */
         static final String PROPERTIES = "properties";
+        /** Saves the contact info looked up for the numbers in the call log. */
+        static final String CONTACT_INFO_CACHE = "contact_info_cache";
     }
 
     public interface SmartDialDbColumns {
@@ -120,6 +122,25 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         String PROPERTY_VALUE = "property_value";
     }
 
+    public interface ContactInfoCacheColumns {
+        /** The number as stored in the call log. */
+        static final String NUMBER = "number";
+        /** The country of the call log entry, or an empty string if it has none. */
+        static final String COUNTRY_ISO = "country_iso";
+        static final String LOOKUP_URI = "lookup_uri";
+        static final String LOOKUP_KEY = "lookup_key";
+        static final String NAME = "name";
+        static final String TYPE = "type";
+        static final String LABEL = "label";
+        static final String MATCHED_NUMBER = "matched_number";
+        static final String FORMATTED_NUMBER = "formatted_number";
+        static final String NORMALIZED_NUMBER = "normalized_number";
+        static final String PHOTO_ID = "photo_id";
+        static final String PHOTO_URI = "photo_uri";
+        /** The time in millis at which the lookup of the contact info started. */
+        static final String LAST_UPDATED = "last_updated";
+    }
+
     /** Query options for querying the contact database.*/
     public static interface PhoneQuery {
        static final Uri URI = Phone.CONTENT_URI.buildUpon().
@@ -232,51 +253,6 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
                 + Tables.SMARTDIAL_TABLE + "." + SmartDialDbColumns.IS_PRIMARY + " DESC";
     }
 
-    /**
-     * Simple data format for a contact, containing only information needed for showing up in
-     * smart dial interface.
-     */
-    public static class ContactNumber {
-        public final long id;
-        public final long dataId;
-        public final String displayName;
-        public final String phoneNumber;
-        public final String lookupKey;
-        public final long photoId;
-
-        public ContactNumber(long id, long dataID, String displayName, String phoneNumber,
-                String lookupKey, long photoId) {
-            this.dataId = dataID;
-            this.id = id;
-            this.displayName = displayName;
-            this.phoneNumber = phoneNumber;
-            this.lookupKey = lookupKey;
-            this.photoId = photoId;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hashCode(id, dataId, displayName, phoneNumber, lookupKey, photoId);
-        }
-
-        @Override
-        public boolean equals(Object object) {
-            if (this == object) {
-                return true;
-            }
-            if (object instanceof ContactNumber) {
-                final ContactNumber that = (ContactNumber) object;
-                return Objects.equal(this.id, that.id)
-                        && Objects.equal(this.dataId, that.dataId)
-                        && Objects.equal(this.displayName, that.displayName)
-                        && Objects.equal(this.phoneNumber, that.phoneNumber)
-                        && Objects.equal(this.lookupKey, that.lookupKey)
-                        && Objects.equal(this.photoId, that.photoId);
-            }
-            return false;
-        }
-    }
-
     /**
      * Data format for finding duplicated contacts.
      */
@@ -382,6 +358,8 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
                 PropertiesColumns.PROPERTY_VALUE + " TEXT " +
                 ");");
 
+        createContactInfoCacheTable(db);
+
         setProperty(db, DATABASE_VERSION_PROPERTY, String.valueOf(DATABASE_VERSION));
         resetSmartDialLastUpdatedTime();
     }
@@ -390,6 +368,27 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.PREFIX_TABLE);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.SMARTDIAL_TABLE);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.PROPERTIES);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.CONTACT_INFO_CACHE);
+    }
+
+    private void createContactInfoCacheTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tables.CONTACT_INFO_CACHE + " (" +
+                ContactInfoCacheColumns.NUMBER + " TEXT NOT NULL, " +
+                ContactInfoCacheColumns.COUNTRY_ISO + " TEXT NOT NULL DEFAULT '', " +
+                ContactInfoCacheColumns.LOOKUP_URI + " TEXT, " +
+                ContactInfoCacheColumns.LOOKUP_KEY + " TEXT, " +
+                ContactInfoCacheColumns.NAME + " TEXT, " +
+                ContactInfoCacheColumns.TYPE + " INTEGER, " +
+                ContactInfoCacheColumns.LABEL + " TEXT, " +
+                ContactInfoCacheColumns.MATCHED_NUMBER + " TEXT, " +
+                ContactInfoCacheColumns.FORMATTED_NUMBER + " TEXT, " +
+                ContactInfoCacheColumns.NORMALIZED_NUMBER + " TEXT, " +
+                ContactInfoCacheColumns.PHOTO_ID + " INTEGER, " +
+                ContactInfoCacheColumns.PHOTO_URI + " TEXT, " +
+                ContactInfoCacheColumns.LAST_UPDATED + " LONG, " +
+                "PRIMARY KEY (" + ContactInfoCacheColumns.NUMBER + ", " +
+                        ContactInfoCacheColumns.COUNTRY_ISO + ")" +
+                ");");
     }
 
     @Override
@@ -410,6 +409,11 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             return;
         }
 
+        if (oldVersion < 5) {
+            createContactInfoCacheTable(db);
+            oldVersion = 5;
+        }
+
         if (oldVersion != DATABASE_VERSION) {
             throw new IllegalStateException(
                     "error upgrading the database to version " + DATABASE_VERSION);
@@ -533,10 +537,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             while (deletedContactCursor.moveToNext()) {
                 final Long deleteContactId =
                         deletedContactCursor.getLong(DeleteContactQuery.DELETED_CONTACT_ID);
-                db.delete(Tables.SMARTDIAL_TABLE,
-                        SmartDialDbColumns.CONTACT_ID + "=" + deleteContactId, null);
-                db.delete(Tables.PREFIX_TABLE,
-                        PrefixColumns.CONTACT_ID + "=" + deleteContactId, null);
+                removeContact(db, deleteContactId);
             }
 
             db.setTransactionSuccessful();
@@ -546,6 +547,32 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Removes all rows of a contact from both the smartdial and the prefix table.
+     */
+    private void removeContact(SQLiteDatabase db, long contactId) {
+        db.delete(Tables.SMARTDIAL_TABLE, SmartDialDbColumns.CONTACT_ID + "=" + contactId, null);
+        db.delete(Tables.PREFIX_TABLE, PrefixColumns.CONTACT_ID + "=" + contactId, null);
+    }
+
+    /**
+     * Removes all rows of the given contacts in a single transaction.
+     *
+     * @param db Database pointer to the smartdial database.
+     * @param contactIds Ids of the contacts to remove.
+     */
+    private void removeContacts(SQLiteDatabase db, Collection<Long> contactIds) {
+        db.beginTransaction();
+        try {
+            for (Long contactId : contactIds) {
+                removeContact(db, contactId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * Removes potentially corrupted entries in the database. These contacts may be added before
      * the previous instance of the dialer was destroyed for some reason. For data integrity, we
@@ -594,11 +621,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         try {
             while (updatedContactCursor.moveToNext()) {
                 final Long contactId = updatedContactCursor.getLong(PhoneQuery.PHONE_CONTACT_ID);
-
-                db.delete(Tables.SMARTDIAL_TABLE, SmartDialDbColumns.CONTACT_ID + "=" +
-                        contactId, null);
-                db.delete(Tables.PREFIX_TABLE, PrefixColumns.CONTACT_ID + "=" +
-                        contactId, null);
+                removeContact(db, contactId);
             }
 
             db.setTransactionSuccessful();
@@ -750,12 +773,13 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
      */
     public void updateSmartDialDatabase() {
         final SQLiteDatabase db = getWritableDatabase();
+        final SmartDialStats stats = SmartDialStats.getInstance();
 
         synchronized(mLock) {
             if (DEBUG) {
                 Log.v(TAG, "Starting to update database");
             }
-            final StopWatch stopWatch = DEBUG ? StopWatch.start("Updating databases") : null;
+            final long startNanos = System.nanoTime();
 
             /** Gets the last update time on the database. */
             final SharedPreferences databaseLastUpdateSharedPref = mContext.getSharedPreferences(
@@ -781,11 +805,14 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
 
             /** Sets the time after querying the database as the current update time. */
             final Long currentMillis = System.currentTimeMillis();
+            final int updatedRows;
 
+            long phaseStartNanos;
             try {
-                if (DEBUG) {
-                    stopWatch.lap("Queried the Contacts database");
-                }
+                /** The delta query only runs once the cursor is first filled. */
+                updatedRows = updatedContactCursor.getCount();
+                stats.updateDeltaQuery.recordNanos(System.nanoTime() - startNanos);
+                phaseStartNanos = System.nanoTime();
 
                 /** Prevents the app from reading the dialer database when updating. */
                 sInUpdate.getAndSet(true);
@@ -794,10 +821,6 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
                 removeDeletedContacts(db, lastUpdateMillis);
                 removePotentiallyCorruptedContacts(db, lastUpdateMillis);
 
-                if (DEBUG) {
-                    stopWatch.lap("Finished deleting deleted entries");
-                }
-
                 /** If the database did not exist before, jump through deletion as there is nothing
                  * to delete.
                  */
@@ -806,16 +829,13 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
                      * inserted later.
                      */
                     removeUpdatedContacts(db, updatedContactCursor);
-                    if (DEBUG) {
-                        stopWatch.lap("Finished deleting updated entries");
-                    }
                 }
+                stats.updateDelete.recordNanos(System.nanoTime() - phaseStartNanos);
+                phaseStartNanos = System.nanoTime();
 
                 /** Inserts recently updated contacts to the smartdial database.*/
                 insertUpdatedContactsAndNumberPrefix(db, updatedContactCursor, currentMillis);
-                if (DEBUG) {
-                    stopWatch.lap("Finished building the smart dial table");
-                }
+                stats.updateInsertNumbers.recordNanos(System.nanoTime() - phaseStartNanos);
             } finally {
                 /** Inserts prefixes of phone numbers into the prefix table.*/
                 updatedContactCursor.close();
@@ -824,75 +844,131 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             /** Gets a list of distinct contacts which have been updated, and adds the name prefixes
              * of these contacts to the prefix table.
              */
-            final Cursor nameCursor = db.rawQuery(
-                    "SELECT DISTINCT " +
-                    SmartDialDbColumns.DISPLAY_NAME_PRIMARY + ", " + SmartDialDbColumns.CONTACT_ID +
-                    " FROM " + Tables.SMARTDIAL_TABLE +
-                    " WHERE " + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME +
-                    " = " + Long.toString(currentMillis),
-                    new String[] {});
-            if (nameCursor != null) {
-                try {
-                    if (DEBUG) {
-                        stopWatch.lap("Queried the smart dial table for contact names");
-                    }
+            phaseStartNanos = System.nanoTime();
+            insertNamePrefixesUpdatedAt(db, currentMillis);
+            stats.updateInsertNames.recordNanos(System.nanoTime() - phaseStartNanos);
 
-                    /** Inserts prefixes of names into the prefix table.*/
-                    insertNamePrefixes(db, nameCursor);
-                    if (DEBUG) {
-                        stopWatch.lap("Finished building the name prefix table");
-                    }
-                } finally {
-                    nameCursor.close();
-                }
-            }
+            phaseStartNanos = System.nanoTime();
+            updateIndices(db);
+            stats.updateIndex.recordNanos(System.nanoTime() - phaseStartNanos);
 
-            /** Creates index on contact_id for fast JOIN operation. */
-            db.execSQL("CREATE INDEX IF NOT EXISTS smartdial_contact_id_index ON " +
-                    Tables.SMARTDIAL_TABLE + " (" + SmartDialDbColumns.CONTACT_ID  + ");");
-            /** Creates index on last_smartdial_update_time for fast SELECT operation. */
-            db.execSQL("CREATE INDEX IF NOT EXISTS smartdial_last_update_index ON " +
-                    Tables.SMARTDIAL_TABLE + " (" +
-                    SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME + ");");
-            /** Creates index on sorting fields for fast sort operation. */
-            db.execSQL("CREATE INDEX IF NOT EXISTS smartdial_sort_index ON " +
-                    Tables.SMARTDIAL_TABLE + " (" +
-                    SmartDialDbColumns.STARRED + ", " +
-                    SmartDialDbColumns.IS_SUPER_PRIMARY + ", " +
-                    SmartDialDbColumns.LAST_TIME_USED + ", " +
-                    SmartDialDbColumns.TIMES_USED + ", " +
-                    SmartDialDbColumns.IN_VISIBLE_GROUP +  ", " +
-                    SmartDialDbColumns.DISPLAY_NAME_PRIMARY + ", " +
-                    SmartDialDbColumns.CONTACT_ID + ", " +
-                    SmartDialDbColumns.IS_PRIMARY +
-                    ");");
-            /** Creates index on prefix for fast SELECT operation. */
-            db.execSQL("CREATE INDEX IF NOT EXISTS nameprefix_index ON " +
-                    Tables.PREFIX_TABLE + " (" + PrefixColumns.PREFIX + ");");
-            /** Creates index on contact_id for fast JOIN operation. */
-            db.execSQL("CREATE INDEX IF NOT EXISTS nameprefix_contact_id_index ON " +
-                    Tables.PREFIX_TABLE + " (" + PrefixColumns.CONTACT_ID + ");");
+            sInUpdate.getAndSet(false);
+
+            final SharedPreferences.Editor editor = databaseLastUpdateSharedPref.edit();
+            editor.putLong(LAST_UPDATED_MILLIS, currentMillis);
+            editor.commit();
 
+            stats.updateTotal.recordNanos(System.nanoTime() - startNanos);
+            stats.onUpdateFinished(updatedRows);
             if (DEBUG) {
-                stopWatch.lap(TAG + "Finished recreating index");
+                Log.v(TAG, "Finished updating " + updatedRows + " rows");
             }
+        }
+    }
 
-            /** Updates the database index statistics.*/
-            db.execSQL("ANALYZE " + Tables.SMARTDIAL_TABLE);
-            db.execSQL("ANALYZE " + Tables.PREFIX_TABLE);
-            db.execSQL("ANALYZE smartdial_contact_id_index");
-            db.execSQL("ANALYZE smartdial_last_update_index");
-            db.execSQL("ANALYZE nameprefix_index");
-            db.execSQL("ANALYZE nameprefix_contact_id_index");
-            if (DEBUG) {
-                stopWatch.stopAndLog(TAG + "Finished updating index stats", 0);
+    /**
+     * Inserts the name prefixes of all distinct contacts whose rows were written with the given
+     * update time stamp.
+     *
+     * @param db Database pointer to the smartdial database.
+     * @param currentMillis Update time stamp the contacts were inserted with.
+     */
+    private void insertNamePrefixesUpdatedAt(SQLiteDatabase db, Long currentMillis) {
+        final Cursor nameCursor = db.rawQuery(
+                "SELECT DISTINCT " +
+                SmartDialDbColumns.DISPLAY_NAME_PRIMARY + ", " + SmartDialDbColumns.CONTACT_ID +
+                " FROM " + Tables.SMARTDIAL_TABLE +
+                " WHERE " + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME +
+                " = " + Long.toString(currentMillis),
+                new String[] {});
+        if (nameCursor != null) {
+            try {
+                /** Inserts prefixes of names into the prefix table.*/
+                insertNamePrefixes(db, nameCursor);
+            } finally {
+                nameCursor.close();
             }
+        }
+    }
 
-            sInUpdate.getAndSet(false);
+    /**
+     * Creates the indices used by {@link #getLooseMatches} if needed, and refreshes the index
+     * statistics.
+     */
+    private void updateIndices(SQLiteDatabase db) {
+        /** Creates index on contact_id for fast JOIN operation. */
+        db.execSQL("CREATE INDEX IF NOT EXISTS smartdial_contact_id_index ON " +
+                Tables.SMARTDIAL_TABLE + " (" + SmartDialDbColumns.CONTACT_ID  + ");");
+        /** Creates index on last_smartdial_update_time for fast SELECT operation. */
+        db.execSQL("CREATE INDEX IF NOT EXISTS smartdial_last_update_index ON " +
+                Tables.SMARTDIAL_TABLE + " (" +
+                SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME + ");");
+        /** Creates index on sorting fields for fast sort operation. */
+        db.execSQL("CREATE INDEX IF NOT EXISTS smartdial_sort_index ON " +
+                Tables.SMARTDIAL_TABLE + " (" +
+                SmartDialDbColumns.STARRED + ", " +
+                SmartDialDbColumns.IS_SUPER_PRIMARY + ", " +
+                SmartDialDbColumns.LAST_TIME_USED + ", " +
+                SmartDialDbColumns.TIMES_USED + ", " +
+                SmartDialDbColumns.IN_VISIBLE_GROUP +  ", " +
+                SmartDialDbColumns.DISPLAY_NAME_PRIMARY + ", " +
+                SmartDialDbColumns.CONTACT_ID + ", " +
+                SmartDialDbColumns.IS_PRIMARY +
+                ");");
+        /** Creates index on prefix for fast SELECT operation. */
+        db.execSQL("CREATE INDEX IF NOT EXISTS nameprefix_index ON " +
+                Tables.PREFIX_TABLE + " (" + PrefixColumns.PREFIX + ");");
+        /** Creates index on contact_id for fast JOIN operation. */
+        db.execSQL("CREATE INDEX IF NOT EXISTS nameprefix_contact_id_index ON " +
+                Tables.PREFIX_TABLE + " (" + PrefixColumns.CONTACT_ID + ");");
+
+        /** Updates the database index statistics.*/
+        db.execSQL("ANALYZE " + Tables.SMARTDIAL_TABLE);
+        db.execSQL("ANALYZE " + Tables.PREFIX_TABLE);
+        db.execSQL("ANALYZE smartdial_contact_id_index");
+        db.execSQL("ANALYZE smartdial_last_update_index");
+        db.execSQL("ANALYZE nameprefix_index");
+        db.execSQL("ANALYZE nameprefix_contact_id_index");
+    }
 
-            final SharedPreferences.Editor editor = databaseLastUpdateSharedPref.edit();
-            editor.putLong(LAST_UPDATED_MILLIS, currentMillis);
-            editor.commit();
+    /**
+     * Writes a set of phone rows into the smart dial tables, replacing all rows previously stored
+     * for the same contacts, or the whole table if {@code replaceAll} is set. Unlike
+     * {@link #updateSmartDialDatabase()} this does not consult the contacts provider, which lets
+     * {@link SqliteSmartDialIndex} feed the database from an arbitrary source.
+     *
+     * @param contactCursor Cursor with the columns of {@link PhoneQuery#PROJECTION}.
+     * @param replaceAll Whether to drop all existing rows first.
+     */
+    void writeContactRows(Cursor contactCursor, boolean replaceAll) {
+        final SQLiteDatabase db = getWritableDatabase();
+
+        synchronized(mLock) {
+            sInUpdate.getAndSet(true);
+            try {
+                if (replaceAll) {
+                    removeAllContacts(db);
+                } else {
+                    removeUpdatedContacts(db, contactCursor);
+                }
+                final Long currentMillis = System.currentTimeMillis();
+                insertUpdatedContactsAndNumberPrefix(db, contactCursor, currentMillis);
+                insertNamePrefixesUpdatedAt(db, currentMillis);
+                updateIndices(db);
+            } finally {
+                sInUpdate.getAndSet(false);
+            }
+        }
+    }
+
+    /**
+     * Removes the given contacts from the smart dial tables.
+     */
+    void deleteContactRows(Collection<Long> contactIds) {
+        final SQLiteDatabase db = getWritableDatabase();
+
+        synchronized(mLock) {
+            removeContacts(db, contactIds);
         }
     }
 
@@ -905,8 +981,23 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
      */
     public ArrayList<ContactNumber>  getLooseMatches(String query,
             SmartDialNameMatcher nameMatcher) {
+        return getLooseMatches(query, nameMatcher, MAX_ENTRIES);
+    }
+
+    /**
+     * Returns a list of candidate contacts where the query is a prefix of the dialpad index of
+     * the contact's name or phone number.
+     *
+     * @param query The prefix of a contact's dialpad index.
+     * @param maxEntries Maximum number of candidates to return.
+     * @return A list of top candidate contacts that will be suggested to user to match their input.
+     */
+    public ArrayList<ContactNumber> getLooseMatches(String query,
+            SmartDialNameMatcher nameMatcher, int maxEntries) {
+        final SmartDialStats stats = SmartDialStats.getInstance();
         final boolean inUpdate = sInUpdate.get();
         if (inUpdate) {
+            stats.onQuerySkippedDuringUpdate();
             return Lists.newArrayList();
         }
 
@@ -917,7 +1008,8 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
 
         final ArrayList<ContactNumber> result = Lists.newArrayList();
 
-        final StopWatch stopWatch = DEBUG ? StopWatch.start(":Name Prefix query") : null;
+        final long startNanos = System.nanoTime();
+        long matcherNanos = 0;
 
         final String currentTimeStamp = Long.toString(System.currentTimeMillis());
 
@@ -941,10 +1033,6 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             return result;
         }
         try {
-            if (DEBUG) {
-                stopWatch.lap("Prefix query completed");
-            }
-
             /** Gets the column ID from the cursor.*/
             final int columnDataId = 0;
             final int columnDisplayNamePrimary = 1;
@@ -952,17 +1040,11 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             final int columnNumber = 3;
             final int columnId = 4;
             final int columnLookupKey = 5;
-            if (DEBUG) {
-                stopWatch.lap("Found column IDs");
-            }
 
             final Set<ContactMatch> duplicates = new HashSet<ContactMatch>();
             int counter = 0;
-            if (DEBUG) {
-                stopWatch.lap("Moved cursor to start");
-            }
             /** Iterates the cursor to find top contact suggestions without duplication.*/
-            while ((cursor.moveToNext()) && (counter < MAX_ENTRIES)) {
+            while ((cursor.moveToNext()) && (counter < maxEntries)) {
                 final long dataID = cursor.getLong(columnDataId);
                 final String displayName = cursor.getString(columnDisplayNamePrimary);
                 final String phoneNumber = cursor.getString(columnNumber);
@@ -982,27 +1064,30 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
                  * If the contact has either the name or number that matches the query, add to the
                  * result.
                  */
+                final long matcherStartNanos = System.nanoTime();
                 final boolean nameMatches = nameMatcher.matches(displayName);
                 final boolean numberMatches =
                         (nameMatcher.matchesNumber(phoneNumber, query) != null);
+                matcherNanos += System.nanoTime() - matcherStartNanos;
                 if (nameMatches || numberMatches) {
                     /** If a contact has not been added, add it to the result and the hash set.*/
                     duplicates.add(contactMatch);
                     result.add(new ContactNumber(id, dataID, displayName, phoneNumber, lookupKey,
                             photoId));
                     counter++;
-                    if (DEBUG) {
-                        stopWatch.lap("Added one result: Name: " + displayName);
-                    }
                 }
             }
-
-            if (DEBUG) {
-                stopWatch.stopAndLog(TAG + "Finished loading cursor", 0);
-            }
         } finally {
             cursor.close();
         }
+
+        /** The cursor is filled lazily, so SQL time is everything not spent in the matcher. */
+        stats.querySql.recordNanos(System.nanoTime() - startNanos - matcherNanos);
+        stats.queryMatcher.recordNanos(matcherNanos);
+        stats.onQueryFinished(result.size());
+        if (DEBUG) {
+            Log.v(TAG, "Found " + result.size() + " matches for " + query);
+        }
         return result;
     }
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+import com.android.dialer.dialpad.SmartDialPrefix;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Pure Java {@link SmartDialIndex} keeping all rows and prefixes in memory. It has no dependency
+ * on SQLite or the contacts provider, so it can be exercised and benchmarked off-device. Its
+ * results are ranked the same way as {@link SqliteSmartDialIndex}.
+ */
+public class InMemorySmartDialIndex implements SmartDialIndex {
+    /** Current contacts - those contacted within the last 3 days (in milliseconds) */
+    private static final long LAST_TIME_USED_CURRENT_MS = 3L * 24 * 60 * 60 * 1000;
+    /** Recent contacts - those contacted within the last 30 days (in milliseconds) */
+    private static final long LAST_TIME_USED_RECENT_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private final Object mLock = new Object();
+
+    /** Display name used for rows without one. */
+    private final String mMissingName;
+
+    /** Phone rows keyed by contact id, in insertion order. */
+    private final HashMap<Long, ArrayList<SmartDialContact>> mRowsByContact = Maps.newHashMap();
+
+    /** Name and number prefixes, mapped to the contact ids they refer to. */
+    private final TreeMap<String, Set<Long>> mPrefixes = new TreeMap<String, Set<Long>>();
+
+    /** Prefixes stored for each contact id, so that they can be removed again. */
+    private final HashMap<Long, Set<String>> mPrefixesByContact = Maps.newHashMap();
+
+    public InMemorySmartDialIndex() {
+        this("");
+    }
+
+    /**
+     * @param missingName Display name to store for rows which do not have one.
+     */
+    public InMemorySmartDialIndex(String missingName) {
+        mMissingName = missingName;
+    }
+
+    @Override
+    public void build(Iterator<SmartDialContact> contacts) {
+        synchronized (mLock) {
+            mRowsByContact.clear();
+            mPrefixes.clear();
+            mPrefixesByContact.clear();
+            insertRows(contacts);
+        }
+    }
+
+    @Override
+    public void applyDelta(Iterator<SmartDialContact> updatedContacts) {
+        final ArrayList<SmartDialContact> rows = Lists.newArrayList(updatedContacts);
+        synchronized (mLock) {
+            for (SmartDialContact row : rows) {
+                removeContact(row.contactId);
+            }
+            insertRows(rows.iterator());
+        }
+    }
+
+    @Override
+    public void delete(Collection<Long> contactIds) {
+        synchronized (mLock) {
+            for (Long contactId : contactIds) {
+                removeContact(contactId);
+            }
+        }
+    }
+
+    @Override
+    public ArrayList<ContactNumber> query(String query, SmartDialNameMatcher nameMatcher,
+            int maxResults) {
+        final ArrayList<SmartDialContact> candidates = Lists.newArrayList();
+        synchronized (mLock) {
+            final Set<Long> contactIds = new HashSet<Long>();
+            for (Set<Long> ids : mPrefixes.subMap(query, query + Character.MAX_VALUE).values()) {
+                contactIds.addAll(ids);
+            }
+            for (Long contactId : contactIds) {
+                candidates.addAll(mRowsByContact.get(contactId));
+            }
+        }
+
+        Collections.sort(candidates, new RankingComparator(System.currentTimeMillis()));
+
+        final ArrayList<ContactNumber> result = Lists.newArrayList();
+        final Set<Long> duplicates = new HashSet<Long>();
+        for (SmartDialContact candidate : candidates) {
+            if (result.size() >= maxResults) {
+                break;
+            }
+            /** Only the highest ranked phone number of a contact is returned. */
+            if (duplicates.contains(candidate.contactId)) {
+                continue;
+            }
+            final boolean nameMatches = nameMatcher.matches(candidate.displayName);
+            final boolean numberMatches =
+                    (nameMatcher.matchesNumber(candidate.phoneNumber, query) != null);
+            if (nameMatches || numberMatches) {
+                duplicates.add(candidate.contactId);
+                result.add(candidate.toContactNumber());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of distinct prefixes held by the index.
+     */
+    public int getPrefixCount() {
+        synchronized (mLock) {
+            return mPrefixes.size();
+        }
+    }
+
+    private void insertRows(Iterator<SmartDialContact> contacts) {
+        /** Name prefixes only need to be generated once per distinct name of a contact. */
+        final LinkedHashMap<Long, Set<String>> names = new LinkedHashMap<Long, Set<String>>();
+        while (contacts.hasNext()) {
+            SmartDialContact row = contacts.next();
+            /** Rows without number or lookup key are skipped, as in the SQLite index. */
+            if (isEmpty(row.phoneNumber) || isEmpty(row.lookupKey)) {
+                continue;
+            }
+            if (row.displayName == null) {
+                row = new SmartDialContact(row.dataId, row.phoneNumber, row.contactId,
+                        row.lookupKey, mMissingName, row.photoId, row.lastTimeUsed,
+                        row.timesUsed, row.starred, row.isSuperPrimary, row.inVisibleGroup,
+                        row.isPrimary);
+            }
+
+            ArrayList<SmartDialContact> rows = mRowsByContact.get(row.contactId);
+            if (rows == null) {
+                rows = Lists.newArrayList();
+                mRowsByContact.put(row.contactId, rows);
+            }
+            rows.add(row);
+
+            for (String numberPrefix : SmartDialPrefix.parseToNumberTokens(row.phoneNumber)) {
+                addPrefix(numberPrefix, row.contactId);
+            }
+
+            Set<String> contactNames = names.get(row.contactId);
+            if (contactNames == null) {
+                contactNames = Sets.newHashSet();
+                names.put(row.contactId, contactNames);
+            }
+            contactNames.add(row.displayName);
+        }
+
+        for (Map.Entry<Long, Set<String>> entry : names.entrySet()) {
+            for (String name : entry.getValue()) {
+                for (String namePrefix : SmartDialPrefix.generateNamePrefixes(name)) {
+                    addPrefix(namePrefix, entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void addPrefix(String prefix, long contactId) {
+        Set<Long> contactIds = mPrefixes.get(prefix);
+        if (contactIds == null) {
+            contactIds = new HashSet<Long>(2);
+            mPrefixes.put(prefix, contactIds);
+        }
+        contactIds.add(contactId);
+
+        Set<String> prefixes = mPrefixesByContact.get(contactId);
+        if (prefixes == null) {
+            prefixes = Sets.newHashSet();
+            mPrefixesByContact.put(contactId, prefixes);
+        }
+        prefixes.add(prefix);
+    }
+
+    private void removeContact(long contactId) {
+        mRowsByContact.remove(contactId);
+        final Set<String> prefixes = mPrefixesByContact.remove(contactId);
+        if (prefixes == null) {
+            return;
+        }
+        for (String prefix : prefixes) {
+            final Set<Long> contactIds = mPrefixes.get(prefix);
+            if (contactIds != null) {
+                contactIds.remove(contactId);
+                if (contactIds.isEmpty()) {
+                    mPrefixes.remove(prefix);
+                }
+            }
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    private static int recencyBucket(long now, long lastTimeUsed) {
+        final long timeSinceLastUsed = now - lastTimeUsed;
+        if (timeSinceLastUsed < LAST_TIME_USED_CURRENT_MS) {
+            return 0;
+        } else if (timeSinceLastUsed < LAST_TIME_USED_RECENT_MS) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * Orders rows like the SORT_ORDER clause used by {@link DialerDatabaseHelper}.
+     */
+    private static class RankingComparator implements Comparator<SmartDialContact> {
+        private final long mNow;
+
+        public RankingComparator(long now) {
+            mNow = now;
+        }
+
+        @Override
+        public int compare(SmartDialContact lhs, SmartDialContact rhs) {
+            if (lhs.starred != rhs.starred) {
+                return lhs.starred ? -1 : 1;
+            }
+            if (lhs.isSuperPrimary != rhs.isSuperPrimary) {
+                return lhs.isSuperPrimary ? -1 : 1;
+            }
+            final int lhsBucket = recencyBucket(mNow, lhs.lastTimeUsed);
+            final int rhsBucket = recencyBucket(mNow, rhs.lastTimeUsed);
+            if (lhsBucket != rhsBucket) {
+                return lhsBucket < rhsBucket ? -1 : 1;
+            }
+            if (lhs.timesUsed != rhs.timesUsed) {
+                return lhs.timesUsed > rhs.timesUsed ? -1 : 1;
+            }
+            if (lhs.inVisibleGroup != rhs.inVisibleGroup) {
+                return lhs.inVisibleGroup ? -1 : 1;
+            }
+            final int nameOrder = lhs.displayName.compareTo(rhs.displayName);
+            if (nameOrder != 0) {
+                return nameOrder;
+            }
+            if (lhs.contactId != rhs.contactId) {
+                return lhs.contactId < rhs.contactId ? -1 : 1;
+            }
+            if (lhs.isPrimary != rhs.isPrimary) {
+                return lhs.isPrimary ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+/**
+ * A single phone number row as fed into a {@link SmartDialIndex}. Mirrors the columns read from
+ * {@link DialerDatabaseHelper.PhoneQuery}, including the fields used to rank results.
+ */
+public class SmartDialContact {
+    public final long dataId;
+    public final String phoneNumber;
+    public final long contactId;
+    public final String lookupKey;
+    public final String displayName;
+    public final long photoId;
+    public final long lastTimeUsed;
+    public final int timesUsed;
+    public final boolean starred;
+    public final boolean isSuperPrimary;
+    public final boolean inVisibleGroup;
+    public final boolean isPrimary;
+
+    public SmartDialContact(long dataId, String phoneNumber, long contactId, String lookupKey,
+            String displayName, long photoId, long lastTimeUsed, int timesUsed, boolean starred,
+            boolean isSuperPrimary, boolean inVisibleGroup, boolean isPrimary) {
+        this.dataId = dataId;
+        this.phoneNumber = phoneNumber;
+        this.contactId = contactId;
+        this.lookupKey = lookupKey;
+        this.displayName = displayName;
+        this.photoId = photoId;
+        this.lastTimeUsed = lastTimeUsed;
+        this.timesUsed = timesUsed;
+        this.starred = starred;
+        this.isSuperPrimary = isSuperPrimary;
+        this.inVisibleGroup = inVisibleGroup;
+        this.isPrimary = isPrimary;
+    }
+
+    /**
+     * Returns the result representation of this row as handed to the smart dial UI.
+     */
+    public ContactNumber toContactNumber() {
+        return new ContactNumber(contactId, dataId, displayName, phoneNumber, lookupKey, photoId);
+    }
+}
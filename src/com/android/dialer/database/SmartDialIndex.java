@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Storage and lookup engine for smart dial. An index holds the phone numbers of all contacts
+ * together with the dialpad prefixes of their names and numbers, and answers prefix queries with
+ * a ranked, de-duplicated list of candidates.
+ *
+ * Implementations must rank results identically: starred first, then super primary, then by
+ * recency bucket, times used, visibility, display name, contact id and primary flag.
+ */
+public interface SmartDialIndex {
+    /** Default number of results returned by {@link #query}. */
+    public static final int DEFAULT_MAX_RESULTS = 20;
+
+    /**
+     * Discards any existing content and builds the index from the given rows.
+     */
+    public void build(Iterator<SmartDialContact> contacts);
+
+    /**
+     * Applies a delta of updated rows. All rows previously stored for any contact id present in
+     * {@code updatedContacts} are replaced by the new rows.
+     */
+    public void applyDelta(Iterator<SmartDialContact> updatedContacts);
+
+    /**
+     * Removes all rows belonging to the given contact ids.
+     */
+    public void delete(Collection<Long> contactIds);
+
+    /**
+     * Returns at most {@code maxResults} contacts whose name or number matches the query,
+     * with at most one entry per contact.
+     *
+     * @param query Normalized dialpad query, containing only digits.
+     * @param nameMatcher Matcher configured with the same query.
+     * @param maxResults Maximum number of results to return.
+     */
+    public ArrayList<ContactNumber> query(String query, SmartDialNameMatcher nameMatcher,
+            int maxResults);
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import com.android.dialer.util.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on counters and latency histograms for smart dial. Covers the phases of a database
+ * update and every keystroke query. Printed by {@code adb shell dumpsys activity
+ * com.android.dialer/.DialtactsActivity}, and reset when that command is given the
+ * {@link #RESET_ARG} argument.
+ */
+public final class SmartDialStats {
+    /** dumpsys argument which resets all smart dial statistics after printing them. */
+    public static final String RESET_ARG = "--reset-smartdial-stats";
+
+    private static final SmartDialStats sInstance = new SmartDialStats();
+
+    /** Querying the contacts provider for changed contacts. */
+    public final LatencyHistogram updateDeltaQuery = new LatencyHistogram("update.deltaQuery");
+    /** Removing deleted, corrupted and updated contacts. */
+    public final LatencyHistogram updateDelete = new LatencyHistogram("update.delete");
+    /** Inserting the phone rows and number prefixes. */
+    public final LatencyHistogram updateInsertNumbers =
+            new LatencyHistogram("update.insertNumbers");
+    /** Inserting the name prefixes. */
+    public final LatencyHistogram updateInsertNames = new LatencyHistogram("update.insertNames");
+    /** Creating indices and refreshing index statistics. */
+    public final LatencyHistogram updateIndex = new LatencyHistogram("update.indexAndAnalyze");
+    /** A complete database update. */
+    public final LatencyHistogram updateTotal = new LatencyHistogram("update.total");
+
+    /** Time spent in SQLite for a keystroke query, including reading the cursor. */
+    public final LatencyHistogram querySql = new LatencyHistogram("query.sql");
+    /** Time spent in {@link com.android.dialer.dialpad.SmartDialNameMatcher} for a query. */
+    public final LatencyHistogram queryMatcher = new LatencyHistogram("query.matcher");
+    /** Complete load of a keystroke query, including building the result cursor. */
+    public final LatencyHistogram queryTotal = new LatencyHistogram("query.total");
+
+    private final AtomicLong mQueries = new AtomicLong();
+    private final AtomicLong mResults = new AtomicLong();
+    private final AtomicLong mEmptyQueries = new AtomicLong();
+    private final AtomicLong mEmptyDueToUpdate = new AtomicLong();
+    private final AtomicLong mUpdates = new AtomicLong();
+    private final AtomicLong mUpdatedRows = new AtomicLong();
+
+    private SmartDialStats() {
+    }
+
+    public static SmartDialStats getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records the outcome of a query which ran against the database.
+     */
+    public void onQueryFinished(int resultCount) {
+        mQueries.incrementAndGet();
+        mResults.addAndGet(resultCount);
+        if (resultCount == 0) {
+            mEmptyQueries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a query which returned no results because the database was being updated.
+     */
+    public void onQuerySkippedDuringUpdate() {
+        mQueries.incrementAndGet();
+        mEmptyQueries.incrementAndGet();
+        mEmptyDueToUpdate.incrementAndGet();
+    }
+
+    /**
+     * Records a finished database update.
+     */
+    public void onUpdateFinished(int updatedRows) {
+        mUpdates.incrementAndGet();
+        mUpdatedRows.addAndGet(updatedRows);
+    }
+
+    public long getQueryCount() {
+        return mQueries.get();
+    }
+
+    public long getEmptyDueToUpdateCount() {
+        return mEmptyDueToUpdate.get();
+    }
+
+    private LatencyHistogram[] getHistograms() {
+        return new LatencyHistogram[] {
+                updateDeltaQuery, updateDelete, updateInsertNumbers, updateInsertNames,
+                updateIndex, updateTotal, querySql, queryMatcher, queryTotal };
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+        mQueries.set(0);
+        mResults.set(0);
+        mEmptyQueries.set(0);
+        mEmptyDueToUpdate.set(0);
+        mUpdates.set(0);
+        mUpdatedRows.set(0);
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("SmartDial statistics:");
+        final String innerPrefix = prefix + "  ";
+        writer.print(innerPrefix);
+        writer.print("updates=");
+        writer.print(mUpdates.get());
+        writer.print(" updatedRows=");
+        writer.println(mUpdatedRows.get());
+        writer.print(innerPrefix);
+        writer.print("queries=");
+        writer.print(mQueries.get());
+        writer.print(" results=");
+        writer.print(mResults.get());
+        writer.print(" empty=");
+        writer.print(mEmptyQueries.get());
+        writer.print(" emptyDueToUpdate=");
+        writer.println(mEmptyDueToUpdate.get());
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.dump(innerPrefix, writer);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import android.database.MatrixCursor;
+
+import com.android.dialer.database.DialerDatabaseHelper.PhoneQuery;
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * {@link SmartDialIndex} backed by the smart dial tables of {@link DialerDatabaseHelper}.
+ * Rows are written through the same insertion code used when syncing with the contacts
+ * provider, so queries behave exactly as {@link DialerDatabaseHelper#getLooseMatches}.
+ */
+public class SqliteSmartDialIndex implements SmartDialIndex {
+    private final DialerDatabaseHelper mDatabaseHelper;
+
+    public SqliteSmartDialIndex(DialerDatabaseHelper databaseHelper) {
+        mDatabaseHelper = Preconditions.checkNotNull(databaseHelper);
+    }
+
+    @Override
+    public void build(Iterator<SmartDialContact> contacts) {
+        writeRows(contacts, true);
+    }
+
+    @Override
+    public void applyDelta(Iterator<SmartDialContact> updatedContacts) {
+        writeRows(updatedContacts, false);
+    }
+
+    @Override
+    public void delete(Collection<Long> contactIds) {
+        mDatabaseHelper.deleteContactRows(contactIds);
+    }
+
+    @Override
+    public ArrayList<ContactNumber> query(String query, SmartDialNameMatcher nameMatcher,
+            int maxResults) {
+        return mDatabaseHelper.getLooseMatches(query, nameMatcher, maxResults);
+    }
+
+    private void writeRows(Iterator<SmartDialContact> contacts, boolean replaceAll) {
+        final MatrixCursor cursor = new MatrixCursor(PhoneQuery.PROJECTION);
+        try {
+            final Object[] row = new Object[PhoneQuery.PROJECTION.length];
+            while (contacts.hasNext()) {
+                final SmartDialContact contact = contacts.next();
+                row[PhoneQuery.PHONE_ID] = contact.dataId;
+                row[PhoneQuery.PHONE_TYPE] = 0;
+                row[PhoneQuery.PHONE_LABEL] = null;
+                row[PhoneQuery.PHONE_NUMBER] = contact.phoneNumber;
+                row[PhoneQuery.PHONE_CONTACT_ID] = contact.contactId;
+                row[PhoneQuery.PHONE_LOOKUP_KEY] = contact.lookupKey;
+                row[PhoneQuery.PHONE_DISPLAY_NAME] = contact.displayName;
+                row[PhoneQuery.PHONE_PHOTO_ID] = contact.photoId;
+                row[PhoneQuery.PHONE_LAST_TIME_USED] = contact.lastTimeUsed;
+                row[PhoneQuery.PHONE_TIMES_USED] = contact.timesUsed;
+                row[PhoneQuery.PHONE_STARRED] = contact.starred ? 1 : 0;
+                row[PhoneQuery.PHONE_IS_SUPER_PRIMARY] = contact.isSuperPrimary ? 1 : 0;
+                row[PhoneQuery.PHONE_IN_VISIBLE_GROUP] = contact.inVisibleGroup ? 1 : 0;
+                row[PhoneQuery.PHONE_IS_PRIMARY] = contact.isPrimary ? 1 : 0;
+                cursor.addRow(row);
+            }
+            mDatabaseHelper.writeContactRows(cursor, replaceAll);
+        } finally {
+            cursor.close();
+        }
+    }
+}
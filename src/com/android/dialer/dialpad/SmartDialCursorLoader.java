@@ -23,8 +23,9 @@ import android.database.MatrixCursor;
 import android.util.Log;
 
 import com.android.contacts.common.list.PhoneNumberListAdapter.PhoneQuery;
+import com.android.dialer.database.ContactNumber;
 import com.android.dialer.database.DialerDatabaseHelper;
-import com.android.dialer.database.DialerDatabaseHelper.ContactNumber;
+import com.android.dialer.database.SmartDialStats;
 import com.android.dialerbind.DatabaseHelperManager;
 
 import java.util.ArrayList;
@@ -72,6 +73,7 @@ public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
         if (DEBUG) {
             Log.v(TAG, "Load in background " + mQuery);
         }
+        final long startNanos = System.nanoTime();
 
         /** Loads results from the database helper. */
         final DialerDatabaseHelper dialerDatabaseHelper = DatabaseHelperManager.getDatabaseHelper(
@@ -95,6 +97,7 @@ public class SmartDialCursorLoader extends AsyncTaskLoader<Cursor> {
             row[PhoneQuery.DISPLAY_NAME] = contact.displayName;
             cursor.addRow(row);
         }
+        SmartDialStats.getInstance().queryTotal.recordNanos(System.nanoTime() - startNanos);
         return cursor;
     }
 
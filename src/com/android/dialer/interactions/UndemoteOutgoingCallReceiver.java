@@ -20,13 +20,15 @@ import android.content.BroadcastReceiver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.provider.ContactsContract;
-import android.provider.ContactsContract.PhoneLookup;
 import android.provider.ContactsContract.PinnedPositions;
 import android.text.TextUtils;
 
+import com.android.contacts.common.GeoUtil;
+import com.android.dialer.calllog.ContactInfo;
+import com.android.dialer.calllog.ContactInfoHelper;
+import com.android.dialer.calllog.ContactInfoResolver;
+
 /**
  * This broadcast receiver is used to listen to outgoing calls and undemote formerly demoted
  * contacts if a phone call is made to a phone number belonging to that contact.
@@ -62,23 +64,20 @@ public class UndemoteOutgoingCallReceiver extends BroadcastReceiver {
         PinnedPositions.undemote(context.getContentResolver(), id);
     }
 
+    /**
+     * Looks up the contact of the number through the {@link ContactInfoResolver}, which shares
+     * the lookup with the call log and the call details when they show the same number.
+     */
     private long getContactIdFromPhoneNumber(Context context, String number) {
-        final Uri contactUri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI,
-                Uri.encode(number));
-        final Cursor cursor = context.getContentResolver().query(contactUri, new String[] {
-                PhoneLookup._ID}, null, null, null);
-        if (cursor == null) {
+        final String countryIso = GeoUtil.getCurrentCountryIso(context);
+        final ContactInfo info = ContactInfoResolver.getInstance(context).resolve(
+                new ContactInfoHelper(context, countryIso), number, countryIso,
+                ContactInfoResolver.Caller.UNDEMOTE);
+        // Only local contacts can be demoted.
+        if (info == null || info.sourceType != 0) {
             return NO_CONTACT_FOUND;
         }
-        try {
-            if (cursor.moveToFirst()) {
-                final long id = cursor.getLong(0);
-                return id;
-            } else {
-                return NO_CONTACT_FOUND;
-            }
-        } finally {
-            cursor.close();
-        }
+        final long id = ContactInfoHelper.getContactIdFromUri(info.lookupUri);
+        return id < 0 ? NO_CONTACT_FOUND : id;
     }
 }
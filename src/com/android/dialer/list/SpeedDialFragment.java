@@ -49,9 +49,9 @@ import com.android.contacts.common.list.ContactTileView;
 import com.android.contacts.common.list.OnPhoneNumberPickerActionListener;
 import com.android.dialer.R;
 import com.android.dialer.util.DialerUtils;
+import com.android.dialer.util.LongIntMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
  * This fragment displays the user's favorite/frequent contacts in a grid.
@@ -150,8 +150,8 @@ public class SpeedDialFragment extends Fragment implements OnItemClickListener,
 
     private View mContactTileFrame;
 
-    private final HashMap<Long, Integer> mItemIdTopMap = new HashMap<Long, Integer>();
-    private final HashMap<Long, Integer> mItemIdLeftMap = new HashMap<Long, Integer>();
+    private final LongIntMap mItemIdTopMap = new LongIntMap();
+    private final LongIntMap mItemIdLeftMap = new LongIntMap();
 
     /**
      * Layout used when there are no favorites.
@@ -367,14 +367,13 @@ public class SpeedDialFragment extends Fragment implements OnItemClickListener,
                                 child, "alpha", 0.0f, 1.0f));
                         break;
                     } else {
-                        Integer startTop = mItemIdTopMap.get(itemId);
-                        Integer startLeft = mItemIdLeftMap.get(itemId);
                         final int top = child.getTop();
                         final int left = child.getLeft();
                         int deltaX = 0;
                         int deltaY = 0;
 
-                        if (startLeft != null) {
+                        if (mItemIdLeftMap.containsKey(itemId)) {
+                            final int startLeft = mItemIdLeftMap.get(itemId, left);
                             if (startLeft != left) {
                                 deltaX = startLeft - left;
                                 animators.add(ObjectAnimator.ofFloat(
@@ -382,7 +381,8 @@ public class SpeedDialFragment extends Fragment implements OnItemClickListener,
                             }
                         }
 
-                        if (startTop != null) {
+                        if (mItemIdTopMap.containsKey(itemId)) {
+                            final int startTop = mItemIdTopMap.get(itemId, top);
                             if (startTop != top) {
                                 deltaY = startTop - top;
                                 animators.add(ObjectAnimator.ofFloat(
@@ -16,11 +16,19 @@
 
 package com.android.dialer.util;
 
+import android.os.SystemClock;
 import android.util.LruCache;
 
 import com.android.contacts.common.testing.NeededForTesting;
 
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -78,6 +86,14 @@ import javax.annotation.concurrent.ThreadSafe;
  * and which are not, allowing for an implementation that evicts expired items before non expired
  * ones.
  * <p>
+ * Caches created with a {@link Builder} can also expire items a given time after they were added,
+ * and bound their size by the weight of the items rather than their number, see {@link Weigher}.
+ * Caches used by several threads at once can be split in independently locked segments, see
+ * {@link Builder#setConcurrencyLevel(int)}.
+ * <p>
+ * Every cache keeps statistics about how it is used, available from {@link #getStats()} and
+ * printed by {@link #dump(String, PrintWriter)}.
+ * <p>
  * This class is thread-safe.
  *
  * @param <K> the type of the keys
@@ -105,6 +121,32 @@ public class ExpirableCache<K, V> {
         public boolean isExpired();
     }
 
+    /**
+     * Computes the weight of the items of a cache, in the unit of its maximum size.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     */
+    public interface Weigher<K, V> {
+        /** Returns the weight of the given item, which must not change while it is cached. */
+        public int weigh(K key, V value);
+    }
+
+    /**
+     * The source of time used for time-based expiry.
+     */
+    public interface Clock {
+        /** Returns the time in millis since some fixed point, which never goes backwards. */
+        public long elapsedRealtime();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
     /**
      * Cached values storing the generation at which they were added.
      */
@@ -116,16 +158,24 @@ public class ExpirableCache<K, V> {
         private final int mGeneration;
         /** The atomic integer storing the current generation of the cache it belongs to. */
         private final AtomicInteger mCacheGeneration;
+        /** The clock time at which the value expires, or {@link Long#MAX_VALUE}. */
+        private final long mDeadlineMillis;
+        private final Clock mClock;
 
         /**
          * @param cacheGeneration the atomic integer storing the generation of the cache in which
          *        this value will be stored
+         * @param generation the generation at which the value is considered added: values from
+         *        a previous generation are already expired
+         * @param deadlineMillis the time of {@code clock} at which the value expires
          */
-        public GenerationalCachedValue(V value, AtomicInteger cacheGeneration) {
+        public GenerationalCachedValue(V value, AtomicInteger cacheGeneration, int generation,
+                long deadlineMillis, Clock clock) {
             mValue = value;
             mCacheGeneration = cacheGeneration;
-            // Snapshot the current generation.
-            mGeneration = mCacheGeneration.get();
+            mGeneration = generation;
+            mDeadlineMillis = deadlineMillis;
+            mClock = clock;
         }
 
         @Override
@@ -135,12 +185,286 @@ public class ExpirableCache<K, V> {
 
         @Override
         public boolean isExpired() {
-            return mGeneration != mCacheGeneration.get();
+            return mGeneration != mCacheGeneration.get()
+                    || (mDeadlineMillis != Long.MAX_VALUE
+                            && mClock.elapsedRealtime() >= mDeadlineMillis);
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a cache.
+     */
+    @Immutable
+    public static final class Stats {
+        /** The number of lookups which found a value which was not expired. */
+        public final long hitCount;
+        /** The number of lookups which found an expired value. */
+        public final long expiredHitCount;
+        /** The number of lookups which did not find any value. */
+        public final long missCount;
+        /** The number of items evicted to keep the cache within its maximum size. */
+        public final long evictionCount;
+        /** The number of values put with the time it took to compute them. */
+        public final long loadCount;
+        /** The total time it took to compute these values. */
+        public final long totalLoadNanos;
+        /** The size of the cache, in number of items or in weight if it has a weigher. */
+        public final int size;
+        public final int maxSize;
+
+        public Stats(long hitCount, long expiredHitCount, long missCount, long evictionCount,
+                long loadCount, long totalLoadNanos, int size, int maxSize) {
+            this.hitCount = hitCount;
+            this.expiredHitCount = expiredHitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.loadCount = loadCount;
+            this.totalLoadNanos = totalLoadNanos;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        /** Returns the number of lookups. */
+        public long requestCount() {
+            return hitCount + expiredHitCount + missCount;
+        }
+
+        /** Returns the ratio of lookups which found a value which was not expired. */
+        public double hitRate() {
+            final long requestCount = requestCount();
+            return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+        }
+
+        /** Returns the average time it took to compute a value. */
+        public long averageLoadNanos() {
+            return loadCount == 0 ? 0 : totalLoadNanos / loadCount;
+        }
+    }
+
+    /**
+     * The map storing the cached values, either an {@link LruCache} or a {@link StripedLruCache}.
+     */
+    private interface Store<K, V> {
+        public CachedValue<V> get(K key);
+        public void put(K key, CachedValue<V> value);
+        public void remove(K key);
+        /** Replaces the value for {@code key} only if it is still {@code oldValue}. */
+        public boolean replace(K key, CachedValue<V> oldValue, CachedValue<V> newValue);
+        public Map<K, CachedValue<V>> snapshot();
+        public int size();
+        public int maxSize();
+        public int evictionCount();
+    }
+
+    private static final class LruCacheStore<K, V> implements Store<K, V> {
+        private final LruCache<K, CachedValue<V>> mCache;
+
+        public LruCacheStore(LruCache<K, CachedValue<V>> cache) {
+            mCache = cache;
+        }
+
+        @Override
+        public CachedValue<V> get(K key) {
+            return mCache.get(key);
+        }
+
+        @Override
+        public void put(K key, CachedValue<V> value) {
+            mCache.put(key, value);
+        }
+
+        @Override
+        public void remove(K key) {
+            mCache.remove(key);
+        }
+
+        @Override
+        public boolean replace(K key, CachedValue<V> oldValue, CachedValue<V> newValue) {
+            // LruCache synchronizes on itself: this makes sure a value put concurrently is not
+            // replaced.
+            synchronized (mCache) {
+                final CachedValue<V> current = mCache.get(key);
+                if (current == null || current != oldValue) {
+                    return false;
+                }
+                mCache.put(key, newValue);
+                return true;
+            }
+        }
+
+        @Override
+        public Map<K, CachedValue<V>> snapshot() {
+            return mCache.snapshot();
+        }
+
+        @Override
+        public int size() {
+            return mCache.size();
+        }
+
+        @Override
+        public int maxSize() {
+            return mCache.maxSize();
+        }
+
+        @Override
+        public int evictionCount() {
+            return mCache.evictionCount();
+        }
+    }
+
+    private static final class StripedStore<K, V> implements Store<K, V> {
+        private final StripedLruCache<K, CachedValue<V>> mCache;
+
+        public StripedStore(StripedLruCache<K, CachedValue<V>> cache) {
+            mCache = cache;
+        }
+
+        @Override
+        public CachedValue<V> get(K key) {
+            return mCache.get(key);
+        }
+
+        @Override
+        public void put(K key, CachedValue<V> value) {
+            mCache.put(key, value);
+        }
+
+        @Override
+        public void remove(K key) {
+            mCache.remove(key);
+        }
+
+        @Override
+        public boolean replace(K key, CachedValue<V> oldValue, CachedValue<V> newValue) {
+            return mCache.replace(key, oldValue, newValue);
+        }
+
+        @Override
+        public Map<K, CachedValue<V>> snapshot() {
+            return mCache.snapshot();
+        }
+
+        @Override
+        public int size() {
+            return mCache.size();
+        }
+
+        @Override
+        public int maxSize() {
+            return mCache.maxSize();
+        }
+
+        @Override
+        public int evictionCount() {
+            return mCache.evictionCount();
+        }
+    }
+
+    /**
+     * Builds an {@link ExpirableCache} with optional time-based expiry and weighing of items.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     */
+    public static final class Builder<K, V> {
+        private String mName = "ExpirableCache";
+        private int mMaxSize = -1;
+        private Weigher<? super K, ? super V> mWeigher;
+        private long mMaxAgeMillis = 0;
+        private int mConcurrencyLevel = 1;
+        private Clock mClock = SYSTEM_CLOCK;
+
+        /** Sets the name the cache is printed with by {@link ExpirableCache#dump}. */
+        public Builder<K, V> setName(String name) {
+            mName = name;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the cache: its maximum number of items, or their maximum total
+         * weight if a {@link Weigher} is set. Required.
+         */
+        public Builder<K, V> setMaxSize(int maxSize) {
+            mMaxSize = maxSize;
+            return this;
+        }
+
+        /** Sets the weigher which computes the weight of each item. */
+        public Builder<K, V> setWeigher(Weigher<? super K, ? super V> weigher) {
+            mWeigher = weigher;
+            return this;
+        }
+
+        /**
+         * Makes the items expire the given time after they were put in the cache, in addition to
+         * when {@link ExpirableCache#expireAll()} is called.
+         */
+        public Builder<K, V> setMaxAge(long duration, TimeUnit unit) {
+            mMaxAgeMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Sets the number of threads expected to use the cache at once. Above 1, the cache is
+         * split in segments which can be read and written concurrently, see
+         * {@link StripedLruCache}: items are then evicted in least recently used order within
+         * each segment only. Defaults to 1.
+         */
+        public Builder<K, V> setConcurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel <= 0) {
+                throw new IllegalArgumentException("concurrencyLevel <= 0");
+            }
+            mConcurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        @VisibleForTesting
+        public Builder<K, V> setClock(Clock clock) {
+            mClock = clock;
+            return this;
+        }
+
+        public ExpirableCache<K, V> build() {
+            if (mMaxSize <= 0) {
+                throw new IllegalStateException("maxSize must be set");
+            }
+            return new ExpirableCache<K, V>(
+                    mConcurrencyLevel > 1 ? buildStripedStore() : buildLruCacheStore(),
+                    mName, mMaxAgeMillis, mClock);
+        }
+
+        private Store<K, V> buildLruCacheStore() {
+            final Weigher<? super K, ? super V> weigher = mWeigher;
+            if (weigher == null) {
+                return new LruCacheStore<K, V>(new LruCache<K, CachedValue<V>>(mMaxSize));
+            }
+            return new LruCacheStore<K, V>(new LruCache<K, CachedValue<V>>(mMaxSize) {
+                @Override
+                protected int sizeOf(K key, CachedValue<V> value) {
+                    return weigher.weigh(key, value.getValue());
+                }
+            });
+        }
+
+        private Store<K, V> buildStripedStore() {
+            final Weigher<? super K, ? super V> weigher = mWeigher;
+            if (weigher == null) {
+                return new StripedStore<K, V>(new StripedLruCache<K, CachedValue<V>>(
+                        mMaxSize, mConcurrencyLevel));
+            }
+            return new StripedStore<K, V>(new StripedLruCache<K, CachedValue<V>>(
+                    mMaxSize, mConcurrencyLevel) {
+                @Override
+                protected int sizeOf(K key, CachedValue<V> value) {
+                    return weigher.weigh(key, value.getValue());
+                }
+            });
         }
     }
 
     /** The underlying cache used to stored the cached values. */
-    private LruCache<K, CachedValue<V>> mCache;
+    private final Store<K, V> mCache;
 
     /**
      * The current generation of items added to the cache.
@@ -152,9 +476,26 @@ public class ExpirableCache<K, V> {
      */
     private final AtomicInteger mGeneration;
 
-    private ExpirableCache(LruCache<K, CachedValue<V>> cache) {
+    /** The name of the cache, as printed by {@link #dump(String, PrintWriter)}. */
+    private final String mName;
+    /** The time after which items expire, or 0 if they only expire with {@link #expireAll()}. */
+    private final long mMaxAgeMillis;
+    private final Clock mClock;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mExpiredHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mLoadCount = new AtomicLong();
+    private final AtomicLong mTotalLoadNanos = new AtomicLong();
+    /** The eviction count of the underlying cache when the statistics were last reset. */
+    private volatile int mEvictionCountAtReset;
+
+    private ExpirableCache(Store<K, V> cache, String name, long maxAgeMillis, Clock clock) {
         mCache = cache;
         mGeneration = new AtomicInteger(0);
+        mName = name;
+        mMaxAgeMillis = maxAgeMillis;
+        mClock = clock;
     }
 
     /**
@@ -171,7 +512,15 @@ public class ExpirableCache<K, V> {
      * @param key the key to look up
      */
     public CachedValue<V> getCachedValue(K key) {
-        return mCache.get(key);
+        final CachedValue<V> cachedValue = mCache.get(key);
+        if (cachedValue == null) {
+            mMissCount.incrementAndGet();
+        } else if (cachedValue.isExpired()) {
+            mExpiredHitCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return cachedValue;
     }
 
     /**
@@ -209,7 +558,8 @@ public class ExpirableCache<K, V> {
     /**
      * Puts an item in the cache.
      * <p>
-     * Newly added item will not be expired until {@link #expireAll()} is next called.
+     * Newly added item will not be expired until {@link #expireAll()} is next called, or until its
+     * maximum age is reached if the cache has one.
      *
      * @param key the key to look up
      * @param value the value to associate with the key
@@ -218,6 +568,59 @@ public class ExpirableCache<K, V> {
         mCache.put(key, newCachedValue(value));
     }
 
+    /**
+     * Puts an item in the cache, recording the time it took to compute its value in the
+     * statistics of the cache.
+     *
+     * @param key the key to look up
+     * @param value the value to associate with the key
+     * @param loadNanos the time it took to compute the value
+     */
+    public void put(K key, V value, long loadNanos) {
+        put(key, value);
+        mLoadCount.incrementAndGet();
+        mTotalLoadNanos.addAndGet(loadNanos);
+    }
+
+    /**
+     * Removes the item for the given key from the cache, if present.
+     *
+     * @param key the key to remove
+     */
+    public void remove(K key) {
+        mCache.remove(key);
+    }
+
+    /**
+     * Marks the item for the given key as expired, if present.
+     * <p>
+     * The value is still available from the cache, as with {@link #expireAll()}.
+     *
+     * @param key the key of the item to expire
+     */
+    public void expire(K key) {
+        final CachedValue<V> cachedValue = mCache.get(key);
+        if (cachedValue != null && !cachedValue.isExpired()) {
+            // A value put concurrently is not replaced by the expired one.
+            mCache.replace(key, cachedValue, new GenerationalCachedValue<V>(
+                    cachedValue.getValue(), mGeneration, mGeneration.get() - 1, Long.MAX_VALUE,
+                    mClock));
+        }
+    }
+
+    /**
+     * Returns a copy of the items in the cache, expired or not, ordered from least recently
+     * to most recently used, within each segment if the cache has several.
+     */
+    public Map<K, V> snapshot() {
+        final Map<K, CachedValue<V>> snapshot = mCache.snapshot();
+        final Map<K, V> values = new LinkedHashMap<K, V>(snapshot.size());
+        for (Map.Entry<K, CachedValue<V>> entry : snapshot.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
     /**
      * Mark all items currently in the cache as expired.
      * <p>
@@ -235,7 +638,57 @@ public class ExpirableCache<K, V> {
      * Implementation of {@link LruCache#create(K)} can use this method to create a new entry.
      */
     public CachedValue<V> newCachedValue(V value) {
-        return new GenerationalCachedValue<V>(value, mGeneration);
+        final long deadlineMillis = mMaxAgeMillis > 0
+                ? mClock.elapsedRealtime() + mMaxAgeMillis : Long.MAX_VALUE;
+        return new GenerationalCachedValue<V>(value, mGeneration, mGeneration.get(),
+                deadlineMillis, mClock);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the cache since it was created, or since they were
+     * last reset.
+     */
+    public Stats getStats() {
+        return new Stats(mHitCount.get(), mExpiredHitCount.get(), mMissCount.get(),
+                mCache.evictionCount() - mEvictionCountAtReset, mLoadCount.get(),
+                mTotalLoadNanos.get(), mCache.size(), mCache.maxSize());
+    }
+
+    public void resetStats() {
+        mHitCount.set(0);
+        mExpiredHitCount.set(0);
+        mMissCount.set(0);
+        mLoadCount.set(0);
+        mTotalLoadNanos.set(0);
+        mEvictionCountAtReset = mCache.evictionCount();
+    }
+
+    /**
+     * Prints the statistics of the cache, in the format used by dumpsys.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        final Stats stats = getStats();
+        writer.print(prefix);
+        writer.print(mName);
+        writer.print(": size=");
+        writer.print(stats.size);
+        writer.print("/");
+        writer.print(stats.maxSize);
+        writer.print(" hits=");
+        writer.print(stats.hitCount);
+        writer.print(" expiredHits=");
+        writer.print(stats.expiredHitCount);
+        writer.print(" misses=");
+        writer.print(stats.missCount);
+        writer.print(" hitRate=");
+        writer.print(Math.round(stats.hitRate() * 100));
+        writer.print("% evictions=");
+        writer.print(stats.evictionCount);
+        writer.print(" loads=");
+        writer.print(stats.loadCount);
+        writer.print(" avgLoad=");
+        writer.print(TimeUnit.NANOSECONDS.toMicros(stats.averageLoadNanos()));
+        writer.println("us");
     }
 
     /**
@@ -250,7 +703,8 @@ public class ExpirableCache<K, V> {
      * @throws IllegalArgumentException if the cache is not empty
      */
     public static <K, V> ExpirableCache<K, V> create(LruCache<K, CachedValue<V>> cache) {
-        return new ExpirableCache<K, V>(cache);
+        return new ExpirableCache<K, V>(new LruCacheStore<K, V>(cache), "ExpirableCache", 0,
+                SYSTEM_CLOCK);
     }
 
     /**
@@ -261,6 +715,6 @@ public class ExpirableCache<K, V> {
      * @return the newly created expirable cache
      */
     public static <K, V> ExpirableCache<K, V> create(int maxSize) {
-        return create(new LruCache<K, CachedValue<V>>(maxSize));
+        return new Builder<K, V>().setMaxSize(maxSize).build();
     }
 }
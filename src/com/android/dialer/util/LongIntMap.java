@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A map from long keys, such as row ids, to int values which does not box them.
+ * <p>
+ * Entries are stored in arrays with open addressing and linear probing. Putting a value only
+ * allocates when the map grows, and {@link #clear()} keeps the arrays, so a map filled again
+ * with as many entries, for instance on every regrouping of a list, does not allocate at all.
+ */
+@NotThreadSafe
+public class LongIntMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private boolean[] mUsed;
+    private int mSize;
+
+    public LongIntMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize the number of entries the map can hold without growing
+     */
+    public LongIntMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize < 0");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    /** Returns the smallest power of two capacity which keeps the map at most half full. */
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mUsed = new boolean[capacity];
+    }
+
+    /** Returns the slot for the given key: either the one holding it, or the free one to use. */
+    private int slotOf(long key) {
+        final int mask = mKeys.length - 1;
+        int hash = (int) (key ^ (key >>> 32));
+        // Spreads the bits, since row ids are consecutive.
+        hash *= 0x9e3779b9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (mUsed[slot] && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the value for the given key, or {@code valueIfAbsent} if there is none.
+     */
+    public int get(long key, int valueIfAbsent) {
+        final int slot = slotOf(key);
+        return mUsed[slot] ? mValues[slot] : valueIfAbsent;
+    }
+
+    public boolean containsKey(long key) {
+        return mUsed[slotOf(key)];
+    }
+
+    /**
+     * Maps the given key to the given value, replacing any previous value.
+     */
+    public void put(long key, int value) {
+        int slot = slotOf(key);
+        if (!mUsed[slot]) {
+            if ((mSize + 1) * 2 > mKeys.length) {
+                grow();
+                slot = slotOf(key);
+            }
+            mUsed[slot] = true;
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mValues[slot] = value;
+    }
+
+    private void grow() {
+        final long[] keys = mKeys;
+        final int[] values = mValues;
+        final boolean[] used = mUsed;
+        allocate(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                final int slot = slotOf(keys[i]);
+                mUsed[slot] = true;
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Removes all the entries, keeping the memory allocated for them.
+     */
+    public void clear() {
+        if (mSize > 0) {
+            Arrays.fill(mUsed, false);
+            mSize = 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import com.google.common.collect.Maps;
+
+import java.util.HashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Delivers the results of tasks run in parallel in the order the tasks were started, whatever
+ * the order they finish in.
+ * <p>
+ * Each task takes a ticket with {@link #start()} and hands its delivery over with
+ * {@link #finish}. A delivery is run by the thread finishing the last of the tasks started
+ * before it, so no thread waits for another to finish. The deliveries never run concurrently.
+ */
+@ThreadSafe
+public final class OrderedDelivery {
+    /** Stands for the deliveries of the tasks which had nothing to deliver. */
+    private static final Runnable NO_DELIVERY = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @GuardedBy("this")
+    private long mNextTicket;
+    /** The ticket of the next task to deliver. */
+    @GuardedBy("this")
+    private long mNextDelivered;
+    /** The deliveries of the tasks which finished before some task started earlier. */
+    @GuardedBy("this")
+    private final HashMap<Long, Runnable> mPending = Maps.newHashMap();
+
+    /** Returns the ticket of a task starting now, to be given to {@link #finish}. */
+    public synchronized long start() {
+        return mNextTicket++;
+    }
+
+    /**
+     * Runs the delivery of the task with the given ticket once all the tasks started before it
+     * are delivered, along with the deliveries it was holding back. Must be called exactly once
+     * for each ticket, even if the task failed, or no later task is ever delivered.
+     *
+     * @param delivery the delivery of the task, or null if it has nothing to deliver
+     */
+    public synchronized void finish(long ticket, Runnable delivery) {
+        mPending.put(ticket, delivery != null ? delivery : NO_DELIVERY);
+        Runnable next;
+        while ((next = mPending.remove(mNextDelivered)) != null) {
+            mNextDelivered++;
+            next.run();
+        }
+    }
+
+    /** Returns the number of deliveries held back by tasks which have not finished yet. */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import android.util.LruCache;
+
+import com.google.common.collect.Lists;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An approximation of {@link LruCache} for caches used by several threads at once.
+ * <p>
+ * All the methods of {@link LruCache} hold the same lock, so a thread reading the cache waits for
+ * any other thread writing to it. This cache is split in segments, each with its own lock and
+ * its own share of the maximum size. A key always belongs to the same segment, chosen from its
+ * hash code, so threads using different keys rarely wait for each other.
+ * <p>
+ * The least recently used items are evicted within each segment: an item can be evicted to make
+ * room in its segment while older items remain in other segments.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@ThreadSafe
+public class StripedLruCache<K, V> {
+    private final class Segment {
+        @GuardedBy("this")
+        private final LinkedHashMap<K, V> mMap = new LinkedHashMap<K, V>(0, 0.75f, true);
+        private final int mMaxSize;
+        @GuardedBy("this")
+        private int mSize;
+        @GuardedBy("this")
+        private int mEvictionCount;
+
+        public Segment(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        public synchronized V get(K key) {
+            return mMap.get(key);
+        }
+
+        public synchronized V put(K key, V value) {
+            mSize += safeSizeOf(key, value);
+            final V previous = mMap.put(key, value);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+            }
+            trimToSize();
+            return previous;
+        }
+
+        public synchronized V remove(K key) {
+            final V previous = mMap.remove(key);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+            }
+            return previous;
+        }
+
+        public synchronized boolean replace(K key, V oldValue, V newValue) {
+            final V current = mMap.get(key);
+            if (current == null || current != oldValue) {
+                return false;
+            }
+            put(key, newValue);
+            return true;
+        }
+
+        @GuardedBy("this")
+        private void trimToSize() {
+            while (mSize > mMaxSize && !mMap.isEmpty()) {
+                final Map.Entry<K, V> eldest = mMap.entrySet().iterator().next();
+                mMap.remove(eldest.getKey());
+                mSize -= safeSizeOf(eldest.getKey(), eldest.getValue());
+                mEvictionCount++;
+            }
+        }
+
+        public synchronized void snapshot(Map<K, V> snapshot) {
+            snapshot.putAll(mMap);
+        }
+
+        public synchronized int size() {
+            return mSize;
+        }
+
+        public synchronized int evictionCount() {
+            return mEvictionCount;
+        }
+    }
+
+    private final List<Segment> mSegments;
+    private final int mMaxSize;
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, the maximum number of
+     *        items in the cache. For all other caches, the maximum sum of the sizes of the items
+     * @param concurrencyLevel the number of threads expected to use the cache at once, rounded
+     *        up to a power of two to give the number of segments
+     */
+    public StripedLruCache(int maxSize, int concurrencyLevel) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        int segmentCount = 1;
+        // Every segment must be able to hold at least one item.
+        while (segmentCount < concurrencyLevel && segmentCount * 2 <= maxSize) {
+            segmentCount *= 2;
+        }
+        mMaxSize = maxSize;
+        mSegments = Lists.newArrayListWithCapacity(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            mSegments.add(new Segment(
+                    maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0)));
+        }
+    }
+
+    private Segment segmentFor(K key) {
+        int hash = key.hashCode();
+        // Spreads the higher bits, which would otherwise never select the segment.
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return mSegments.get(hash & (mSegments.size() - 1));
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache, making it the most recently
+     * used item of its segment. Returns null otherwise.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Caches {@code value} for {@code key}, making it the most recently used item of its
+     * segment.
+     *
+     * @return the previous value mapped by {@code key}
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        return segmentFor(key).put(key, value);
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Replaces the value for {@code key} only if it is currently {@code oldValue}, compared by
+     * identity. Does nothing if there is no value for {@code key}.
+     *
+     * @return true if the value was replaced
+     */
+    public final boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || newValue == null) {
+            throw new NullPointerException("key == null || newValue == null");
+        }
+        return segmentFor(key).replace(key, oldValue, newValue);
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in user-defined units. The
+     * default implementation returns 1. An entry's size must not change while it is in the
+     * cache.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        final int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries in the cache. Not atomic: the segments are
+     * counted one after the other.
+     */
+    public final int size() {
+        int size = 0;
+        for (Segment segment : mSegments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final int evictionCount() {
+        int evictionCount = 0;
+        for (Segment segment : mSegments) {
+            evictionCount += segment.evictionCount();
+        }
+        return evictionCount;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least recently to most
+     * recently used within each segment.
+     */
+    public final Map<K, V> snapshot() {
+        final LinkedHashMap<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (Segment segment : mSegments) {
+            segment.snapshot(snapshot);
+        }
+        return snapshot;
+    }
+}
@@ -161,6 +161,24 @@ public class CallLogAdapterTest extends AndroidTestCase {
         assertFalse("should not be immediate", request.immediate);
     }
 
+    public void testBindView_FailedLookupAfterInvalidateCache_EnqueueRequest() {
+        mCursor.addRow(createCallLogEntry());
+        // The placeholder left by a lookup which failed.
+        mAdapter.injectContactInfoForTest(TEST_NUMBER, TEST_COUNTRY_ISO, ContactInfo.EMPTY);
+
+        // Bind the views of a single row.
+        mAdapter.bindStandAloneView(mView, getContext(), mCursor);
+
+        // The number is taken to be still being looked up.
+        assertEquals(0, mAdapter.requests.size());
+
+        mAdapter.invalidateCache();
+        mAdapter.bindStandAloneView(mView, getContext(), mCursor);
+
+        // There is one request for contact details.
+        assertEquals(1, mAdapter.requests.size());
+    }
+
     /** Returns a contact info with default values. */
     private ContactInfo createContactInfo() {
         ContactInfo info = new ContactInfo();
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.provider.CallLog;
+import android.provider.CallLog.Calls;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link CallLogCacheUpdater}.
+ */
+@SmallTest
+public class CallLogCacheUpdaterTest extends AndroidTestCase {
+    /** The batches received by the fake call log provider. */
+    private List<ArrayList<ContentProviderOperation>> mBatches;
+    /** The object under test. */
+    private CallLogCacheUpdater mUpdater;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBatches = Lists.newArrayList();
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CallLog.AUTHORITY, new MockContentProvider(getContext()) {
+            @Override
+            public ContentProviderResult[] applyBatch(
+                    ArrayList<ContentProviderOperation> operations) {
+                mBatches.add(operations);
+                final ContentProviderResult[] results =
+                        new ContentProviderResult[operations.size()];
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = new ContentProviderResult(1);
+                }
+                return results;
+            }
+        });
+        mUpdater = new CallLogCacheUpdater(resolver);
+    }
+
+    public void testFlush_NothingPending() {
+        assertFalse(mUpdater.hasPendingUpdates());
+        assertEquals(0, mUpdater.flush());
+        assertTrue(mBatches.isEmpty());
+    }
+
+    public void testFlush_SingleBatch() {
+        mUpdater.add("1", "US", createValues("Alice"));
+        mUpdater.add("2", null, createValues("Bob"));
+        mUpdater.add("1", "US", createValues("Alicia"));
+        assertTrue(mUpdater.hasPendingUpdates());
+
+        assertEquals(2, mUpdater.flush());
+        assertEquals(1, mBatches.size());
+        assertEquals(2, mBatches.get(0).size());
+        assertEquals(Calls.CONTENT_URI_WITH_VOICEMAIL, mBatches.get(0).get(0).getUri());
+        assertFalse(mUpdater.hasPendingUpdates());
+    }
+
+    public void testAdd_MergesValuesForSameNumber() {
+        final ContentValues name = createValues("Alice");
+        final ContentValues label = new ContentValues();
+        label.put(Calls.CACHED_NUMBER_LABEL, "Work");
+        mUpdater.add("1", "US", name);
+        mUpdater.add("1", "US", label);
+        mUpdater.flush();
+        assertEquals(1, mBatches.get(0).size());
+    }
+
+    private ContentValues createValues(String name) {
+        final ContentValues values = new ContentValues();
+        values.put(Calls.CACHED_NAME, name);
+        return values;
+    }
+}
@@ -23,7 +23,11 @@ import android.provider.CallLog.Calls;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
 
 /**
  * Unit tests for {@link CallLogGroupBuilder}
@@ -154,6 +158,222 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         assertGroupIs(8, 3, false, mFakeGroupCreator.groups.get(1));
     }
 
+    public void testAddGroups_SameNumberInOtherFormats() {
+        addCallLogEntry("6502530000", "US", Calls.INCOMING_TYPE);
+        addCallLogEntry("+16502530000", "US", Calls.MISSED_TYPE);
+        addCallLogEntry("(650) 253-0000", "US", Calls.OUTGOING_TYPE);
+        addCallLogEntry("6502531111", "US", Calls.OUTGOING_TYPE);
+        mBuilder.addGroups(mCursor);
+        assertEquals(1, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 3, false, mFakeGroupCreator.groups.get(0));
+    }
+
+    public void testAddGroups_SipAddressesWithHostInOtherCase() {
+        addCallLogEntry("alice@sip.example.com", "US", Calls.INCOMING_TYPE);
+        addCallLogEntry("alice@SIP.example.com", "US", Calls.INCOMING_TYPE);
+        addCallLogEntry("ALICE@sip.example.com", "US", Calls.INCOMING_TYPE);
+        mBuilder.addGroups(mCursor);
+        assertEquals(1, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 2, false, mFakeGroupCreator.groups.get(0));
+    }
+
+    public void testAddGroups_EmptyNumbersNotGrouped() {
+        // Private and unknown numbers are empty, and never grouped.
+        addCallLogEntry("", "US", Calls.INCOMING_TYPE);
+        addCallLogEntry("", "US", Calls.INCOMING_TYPE);
+        mBuilder.addGroups(mCursor);
+        assertEquals(0, mFakeGroupCreator.groups.size());
+    }
+
+    public void testAddGroups_Incremental_NewCallJoinsGroup() {
+        addMultipleCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.MISSED_TYPE);
+        addCallLogEntry(TEST_NUMBER2, Calls.INCOMING_TYPE);
+        addMultipleCallLogEntries(TEST_NUMBER1, Calls.OUTGOING_TYPE, Calls.OUTGOING_TYPE);
+        mBuilder.addGroups(mCursor);
+        assertEquals(2, mFakeGroupCreator.groups.size());
+
+        final MatrixCursor previous = mCursor;
+        createCursor();
+        addCallLogEntry(TEST_NUMBER1, Calls.INCOMING_TYPE);
+        for (previous.moveToPosition(-1); previous.moveToNext();) {
+            addCallLogEntry(previous.getString(CallLogQuery.NUMBER),
+                    previous.getInt(CallLogQuery.CALL_TYPE));
+        }
+        clearFakeGroupCreator();
+        mBuilder.addGroups(mCursor, 1, 0);
+        assertEquals(2, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 3, false, mFakeGroupCreator.groups.get(0));
+        assertGroupIs(4, 2, false, mFakeGroupCreator.groups.get(1));
+    }
+
+    public void testAddGroups_Incremental_PreviousCursorMismatch() {
+        addMultipleCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.MISSED_TYPE);
+        mBuilder.addGroups(mCursor);
+
+        createCursor();
+        addMultipleCallLogEntries(TEST_NUMBER2, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        addMultipleCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.MISSED_TYPE);
+        clearFakeGroupCreator();
+        // Claims one call was added where two were: all the calls are grouped again.
+        mBuilder.addGroups(mCursor, 1, 0);
+        assertEquals(2, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 2, false, mFakeGroupCreator.groups.get(0));
+        assertGroupIs(2, 2, false, mFakeGroupCreator.groups.get(1));
+    }
+
+    /**
+     * Checks that grouping only the head of random call logs gives the same groups and day
+     * groups as grouping all the calls again.
+     */
+    public void testAddGroups_Incremental_MatchesFullGrouping() {
+        final Random random = new Random(0x5eed);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            final long now = System.currentTimeMillis();
+            final int previousCount = random.nextInt(40);
+            final int replacedCount = random.nextInt(Math.min(previousCount, 5) + 1);
+            final int newCount = random.nextInt(6);
+
+            // The calls are ordered by decreasing id and date, over the last few days.
+            final List<Object[]> previousCalls = newArrayList();
+            long date = now - random.nextInt(1000);
+            for (int i = 0; i < previousCount; i++) {
+                date -= random.nextInt(6 * 60 * 60 * 1000);
+                previousCalls.add(createRandomCall(random, 1000 - i, date));
+            }
+            final List<Object[]> calls = newArrayList();
+            for (int i = 0; i < newCount; i++) {
+                calls.add(createRandomCall(random, 2000 - i, now - i));
+            }
+            calls.addAll(previousCalls.subList(0, replacedCount));
+            calls.addAll(previousCalls.subList(replacedCount, previousCount));
+
+            mBuilder.addGroups(createCursor(previousCalls));
+            clearFakeGroupCreator();
+            mBuilder.addGroups(createCursor(calls), newCount + replacedCount, replacedCount);
+
+            final FakeGroupCreator expected = new FakeGroupCreator();
+            final CallLogGroupBuilder expectedBuilder = new CallLogGroupBuilder(expected);
+            expectedBuilder.addGroups(createCursor(calls));
+            assertEquals(expected.groups.size(), mFakeGroupCreator.groups.size());
+            for (int i = 0; i < expected.groups.size(); i++) {
+                final GroupSpec group = expected.groups.get(i);
+                assertGroupIs(group.cursorPosition, group.size, group.expanded,
+                        mFakeGroupCreator.groups.get(i));
+            }
+            assertLayoutsEqual(expectedBuilder.getLayout(), mBuilder.getLayout());
+        }
+    }
+
+    public void testGetLayout() {
+        addMultipleCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.MISSED_TYPE);
+        addCallLogEntry(TEST_NUMBER2, Calls.VOICEMAIL_TYPE);
+        mBuilder.addGroups(mCursor);
+
+        final CallLogGroupLayout layout = mBuilder.getLayout();
+        assertEquals(3, layout.getCount());
+        assertEquals(2, layout.getGroupSize(0));
+        assertEquals(0, layout.getGroupSize(1));
+        assertEquals(1, layout.getGroupSize(2));
+        assertTrue(Arrays.equals(new int[] { Calls.INCOMING_TYPE, Calls.MISSED_TYPE },
+                layout.getCallTypes(0)));
+        assertTrue(Arrays.equals(new long[] { 0, 1 }, layout.getCallIds(0)));
+        assertTrue(Arrays.equals(new int[] { Calls.VOICEMAIL_TYPE }, layout.getCallTypes(2)));
+        assertTrue(Arrays.equals(new long[] { 2 }, layout.getCallIds(2)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_NONE, layout.getDayGroup(-1));
+
+        // The layout creates the same groups as the pass.
+        final FakeGroupCreator groupCreator = new FakeGroupCreator();
+        layout.addGroups(groupCreator);
+        assertEquals(1, groupCreator.groups.size());
+        assertGroupIs(0, 2, false, groupCreator.groups.get(0));
+    }
+
+    public void testGetLayout_CallFeatures() {
+        final List<Object[]> calls = newArrayList();
+        for (int features : new int[] { 0, Calls.FEATURES_VIDEO, 0 }) {
+            final Object[] values = CallLogQueryTestUtils.createTestValues();
+            values[CallLogQuery.NUMBER] = TEST_NUMBER1;
+            values[CallLogQuery.FEATURES] = features;
+            calls.add(values);
+        }
+        final Object[] values = CallLogQueryTestUtils.createTestValues();
+        values[CallLogQuery.NUMBER] = TEST_NUMBER2;
+        calls.add(values);
+        mBuilder.addGroups(createCursor(calls));
+
+        // The features of a group are those of any of its calls.
+        final CallLogGroupLayout layout = mBuilder.getLayout();
+        assertEquals(3, layout.getGroupSize(0));
+        assertEquals(Calls.FEATURES_VIDEO, layout.getCallFeatures(0));
+        assertEquals(0, layout.getCallFeatures(3));
+    }
+
+    /**
+     * Checks that grouping the calls through their {@link CallLogRows}, as done on the worker
+     * thread of the query handler, gives the same layout as grouping the cursor.
+     */
+    public void testAddGroups_CallLogRowsMatchCursor() {
+        final Random random = new Random(0x5eed);
+        final List<Object[]> calls = newArrayList();
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            calls.add(createRandomCall(random, 1000 - i, now - i * 60 * 60 * 1000L));
+        }
+        final MatrixCursor cursor = createCursor(calls);
+        mBuilder.addGroups(cursor);
+
+        final CallLogGroupBuilder builder = new CallLogGroupBuilder();
+        builder.addGroups(CallLogRows.read(cursor).newCursor());
+        assertLayoutsEqual(mBuilder.getLayout(), builder.getLayout());
+    }
+
+    public void testDayBoundaries() {
+        final TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        final CallLogGroupBuilder.DayBoundaries days = new CallLogGroupBuilder.DayBoundaries(
+                getTime(timeZone, 2014, Calendar.JUNE, 10, 9, 30), timeZone);
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_TODAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 10, 0, 0)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_TODAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 10, 23, 59)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_YESTERDAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 9, 23, 59)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_YESTERDAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 9, 0, 0)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_OTHER,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 8, 23, 59)));
+        // Like a difference of days, a call tomorrow counts as yesterday.
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_YESTERDAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 11, 12, 0)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_OTHER,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.JUNE, 12, 0, 0)));
+    }
+
+    public void testDayBoundaries_DaylightSavingTimeEnds() {
+        // On November 2, 2014, the day lasts 25 hours.
+        final TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        final CallLogGroupBuilder.DayBoundaries days = new CallLogGroupBuilder.DayBoundaries(
+                getTime(timeZone, 2014, Calendar.NOVEMBER, 3, 8, 0), timeZone);
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_YESTERDAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.NOVEMBER, 2, 0, 30)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_YESTERDAY,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.NOVEMBER, 2, 23, 30)));
+        assertEquals(CallLogGroupBuilder.DAY_GROUP_OTHER,
+                days.getDayGroup(getTime(timeZone, 2014, Calendar.NOVEMBER, 1, 23, 30)));
+        assertTrue(days.isToday(getTime(timeZone, 2014, Calendar.NOVEMBER, 3, 0, 0)));
+    }
+
+    public void testDayBoundaries_IsCurrent() {
+        final TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        final CallLogGroupBuilder.DayBoundaries days = new CallLogGroupBuilder.DayBoundaries(
+                getTime(timeZone, 2014, Calendar.JUNE, 10, 9, 30), timeZone);
+        assertTrue(days.isCurrent(getTime(timeZone, 2014, Calendar.JUNE, 10, 23, 59), timeZone));
+        // After midnight.
+        assertFalse(days.isCurrent(getTime(timeZone, 2014, Calendar.JUNE, 11, 0, 0), timeZone));
+        // The same time, now in another time zone.
+        assertFalse(days.isCurrent(getTime(timeZone, 2014, Calendar.JUNE, 10, 9, 30),
+                TimeZone.getTimeZone("Europe/Paris")));
+    }
+
     public void testEqualPhoneNumbers() {
         // Identical.
         assertTrue(mBuilder.equalNumbers("6505555555", "6505555555"));
@@ -216,6 +436,39 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         mCursor = new MatrixCursor(CallLogQuery._PROJECTION);
     }
 
+    /** Returns the time of the given minute in the given time zone. */
+    private long getTime(TimeZone timeZone, int year, int month, int day, int hour, int minute) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    /** Creates a cursor containing the given call log rows. */
+    private MatrixCursor createCursor(List<Object[]> calls) {
+        final MatrixCursor cursor = new MatrixCursor(CallLogQuery._PROJECTION);
+        for (Object[] values : calls) {
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /** Creates a call log row from a few numbers and accounts, with a random type. */
+    private Object[] createRandomCall(Random random, long id, long date) {
+        final String[] numbers = { TEST_NUMBER1, "+" + TEST_NUMBER1, TEST_NUMBER2,
+                "alice@sip.example.com", "alice@SIP.example.com" };
+        final int[] types = { Calls.INCOMING_TYPE, Calls.OUTGOING_TYPE, Calls.MISSED_TYPE,
+                Calls.VOICEMAIL_TYPE };
+        final Object[] values = CallLogQueryTestUtils.createTestValues();
+        values[CallLogQuery.ID] = id;
+        values[CallLogQuery.DATE] = date;
+        values[CallLogQuery.NUMBER] = numbers[random.nextInt(numbers.length)];
+        values[CallLogQuery.CALL_TYPE] = types[random.nextInt(types.length)];
+        values[CallLogQuery.ACCOUNT_ID] = random.nextInt(8) == 0 ? "account" : null;
+        values[CallLogQuery.FEATURES] = random.nextInt(4) == 0 ? Calls.FEATURES_VIDEO : 0;
+        return values;
+    }
+
     /** Clears the content of the {@link FakeGroupCreator} used in the tests. */
     private void clearFakeGroupCreator() {
         mFakeGroupCreator.groups.clear();
@@ -257,6 +510,17 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         mCursor.addRow(values);
     }
 
+    /** Adds a call log entry with the given number, country and type to the cursor. */
+    private void addCallLogEntry(String number, String countryIso, int type) {
+        mCursor.moveToNext();
+        Object[] values = CallLogQueryTestUtils.createTestValues();
+        values[CallLogQuery.ID] = mCursor.getPosition();
+        values[CallLogQuery.NUMBER] = number;
+        values[CallLogQuery.COUNTRY_ISO] = countryIso;
+        values[CallLogQuery.CALL_TYPE] = type;
+        mCursor.addRow(values);
+    }
+
     /** Adds a call log entry with a header to the cursor. */
     private void addCallLogHeader(int section) {
         mCursor.moveToNext();
@@ -272,6 +536,23 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         assertEquals(expanded, group.expanded);
     }
 
+    /** Asserts that the layouts have the same groups, day groups and calls. */
+    private void assertLayoutsEqual(CallLogGroupLayout expected, CallLogGroupLayout actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int position = 0; position < expected.getCount(); position++) {
+            assertEquals(expected.getGroupSize(position), actual.getGroupSize(position));
+            assertEquals(expected.getDayGroup(position), actual.getDayGroup(position));
+            if (expected.getGroupSize(position) != 0) {
+                assertTrue(Arrays.equals(expected.getCallTypes(position),
+                        actual.getCallTypes(position)));
+                assertTrue(Arrays.equals(expected.getCallIds(position),
+                        actual.getCallIds(position)));
+                assertEquals(expected.getCallFeatures(position),
+                        actual.getCallFeatures(position));
+            }
+        }
+    }
+
     /** Defines an added group. Used by the {@link FakeGroupCreator}. */
     private static class GroupSpec {
         /** The starting position of the group. */
@@ -297,15 +578,5 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         public void addGroup(int cursorPosition, int size, boolean expanded) {
             groups.add(new GroupSpec(cursorPosition, size, expanded));
         }
-
-        @Override
-        public void setDayGroup(long rowId, int dayGroup) {
-            //No-op
-        }
-
-        @Override
-        public void clearDayGroups() {
-            //No-op
-        }
     }
 }
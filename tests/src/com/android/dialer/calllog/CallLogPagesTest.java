@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link CallLogPages}.
+ */
+@SmallTest
+public class CallLogPagesTest extends AndroidTestCase {
+    /** The object under test. */
+    private CallLogPages mPages;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPages = new CallLogPages();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPages.close();
+        super.tearDown();
+    }
+
+    public void testSetFirstPage() {
+        final Cursor cursor = mPages.setFirstPage(createPage(10, 3, 3));
+        assertEquals(3, cursor.getCount());
+        assertEquals(3, mPages.getCount());
+        assertTrue(mPages.hasMore());
+        assertTrue(mPages.shouldFetchNextPage());
+        // The next page starts after the oldest call.
+        assertEquals(8000, mPages.getNextPageDate());
+        assertEquals(8, mPages.getNextPageId());
+    }
+
+    public void testSetFirstPage_NoMore() {
+        mPages.setFirstPage(createPage(10, 2, 3));
+        assertFalse(mPages.hasMore());
+        assertFalse(mPages.shouldFetchNextPage());
+    }
+
+    public void testAddPage() {
+        mPages.setFirstPage(createPage(10, 3, 3));
+        mPages.onFetchingNextPage();
+        assertFalse(mPages.shouldFetchNextPage());
+        assertTrue(mPages.isNextPage(8000, 8));
+
+        final Cursor cursor = mPages.addPage(createPage(7, 2, 3));
+        assertEquals(5, cursor.getCount());
+        assertEquals(5, mPages.getCount());
+        assertFalse(mPages.hasMore());
+        assertTrue(cursor.moveToPosition(3));
+        assertEquals(7, cursor.getLong(CallLogQuery.ID));
+    }
+
+    public void testIsNextPage_AfterReload() {
+        mPages.setFirstPage(createPage(10, 3, 3));
+        mPages.onFetchingNextPage();
+        mPages.setFirstPage(createPage(11, 3, 3));
+        assertFalse(mPages.isNextPage(8000, 8));
+    }
+
+    public void testClose_OnlyClosesReplacedPages() {
+        final CallLogPages.Page first = createPage(10, 3, 3);
+        final Cursor firstCursor = mPages.setFirstPage(first);
+        final CallLogPages.Page second = createPage(7, 3, 3);
+        final Cursor secondCursor = mPages.addPage(second);
+
+        // The adapter closes the previous cursor when given the new one.
+        firstCursor.close();
+        assertTrue(firstCursor.isClosed());
+        assertFalse(first.cursor.isClosed());
+
+        mPages.setFirstPage(createPage(11, 3, 3));
+        secondCursor.close();
+        assertTrue(first.cursor.isClosed());
+        assertTrue(second.cursor.isClosed());
+    }
+
+    public void testClose_UnregistersContentObserversFromLoadedPages() {
+        final CallLogPages.Page first = createPage(10, 3, 3);
+        final Cursor firstCursor = mPages.setFirstPage(first);
+        final ContentObserver observer = new ContentObserver(null) {};
+        firstCursor.registerContentObserver(observer);
+
+        firstCursor.close();
+        // Throws if the observer is still registered.
+        first.cursor.registerContentObserver(observer);
+        first.cursor.unregisterContentObserver(observer);
+    }
+
+    public void testGetSnapshot() {
+        mPages.setFirstPage(createPage(10, 2, 2));
+        final CallLogPages.Page second = createPage(8, 2, 2);
+        mPages.addPage(second);
+
+        final CallLogPages.Snapshot snapshot = mPages.getSnapshot(null);
+        assertEquals(4, snapshot.getCount());
+        assertEquals(10, snapshot.getId(0));
+        assertEquals(7, snapshot.getId(3));
+        assertEquals(7000, snapshot.getDate(3));
+    }
+
+    public void testGetSnapshot_ContentHash() {
+        final MatrixCursor cursor = new MatrixCursor(CallLogQuery._PROJECTION);
+        final Object[] values = CallLogQueryTestUtils.createTestValues();
+        cursor.addRow(values);
+        values[CallLogQuery.IS_READ] = 1;
+        cursor.addRow(values);
+        values[CallLogQuery.TRANSCRIPTION] = "transcription";
+        cursor.addRow(values);
+        values[CallLogQuery.TRANSCRIPTION] = null;
+        values[CallLogQuery.CACHED_NAME] = "name";
+        cursor.addRow(values);
+        mPages.setFirstPage(CallLogPages.Page.read(cursor, 4));
+
+        // Only the changes to the columns other than the read state change the hash.
+        final CallLogPages.Snapshot snapshot = mPages.getSnapshot(null);
+        assertEquals(snapshot.getContentHash(0), snapshot.getContentHash(1));
+        assertFalse(snapshot.getContentHash(1) == snapshot.getContentHash(2));
+        assertFalse(snapshot.getContentHash(1) == snapshot.getContentHash(3));
+    }
+
+    public void testIsCurrent() {
+        mPages.setFirstPage(createPage(10, 2, 2));
+        final CallLogPages.Snapshot snapshot = mPages.getSnapshot(null);
+        assertTrue(mPages.isCurrent(snapshot));
+
+        mPages.addPage(createPage(8, 2, 2));
+        assertFalse(mPages.isCurrent(snapshot));
+        final CallLogPages.Snapshot second = mPages.getSnapshot(null);
+        assertTrue(mPages.isCurrent(second));
+
+        mPages.replaceHead(second.generation, createPage(11, 1, Integer.MAX_VALUE), 0);
+        assertFalse(mPages.isCurrent(second));
+    }
+
+    public void testGetSnapshot_Layout() {
+        final Cursor cursor = mPages.setFirstPage(createPage(10, 3, 3));
+        final CallLogGroupBuilder builder = new CallLogGroupBuilder();
+        builder.addGroups(cursor);
+        final CallLogGroupLayout layout = builder.getLayout();
+        assertSame(layout, mPages.getSnapshot(layout).layout);
+
+        // The layout of other calls is not part of the snapshot.
+        mPages.addPage(createPage(7, 2, 2));
+        assertNull(mPages.getSnapshot(layout).layout);
+    }
+
+    public void testReplaceHead() {
+        final CallLogPages.Page first = createPage(10, 3, 3);
+        final Cursor firstCursor = mPages.setFirstPage(first);
+        final CallLogPages.Snapshot snapshot = mPages.getSnapshot(null);
+
+        // Two new calls, and the first loaded call whose state changed.
+        final CallLogPages.Page head = createPage(12, 3, Integer.MAX_VALUE);
+        final Cursor cursor = mPages.replaceHead(snapshot.generation, head, 1);
+        assertEquals(5, cursor.getCount());
+        assertEquals(5, mPages.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(12, cursor.getLong(CallLogQuery.ID));
+        assertTrue(cursor.moveToPosition(3));
+        assertEquals(9, cursor.getLong(CallLogQuery.ID));
+        assertTrue(cursor.moveToNext());
+        assertEquals(8, cursor.getLong(CallLogQuery.ID));
+        assertFalse(cursor.moveToNext());
+        // The page after the loaded calls is unchanged.
+        assertTrue(mPages.hasMore());
+        assertEquals(8, mPages.getNextPageId());
+
+        // The first page is still partly shown.
+        firstCursor.close();
+        assertFalse(first.cursor.isClosed());
+    }
+
+    public void testReplaceHead_AllReplaced() {
+        final CallLogPages.Page first = createPage(10, 3, 3);
+        final Cursor firstCursor = mPages.setFirstPage(first);
+        mPages.onFetchingNextPage();
+        final CallLogPages.Snapshot snapshot = mPages.getSnapshot(null);
+
+        final Cursor cursor = mPages.replaceHead(snapshot.generation,
+                createPage(11, 4, Integer.MAX_VALUE), 3);
+        assertEquals(4, cursor.getCount());
+        firstCursor.close();
+        assertTrue(first.cursor.isClosed());
+        // The head ends with the last loaded call, after which the next page starts.
+        assertTrue(mPages.isNextPage(8000, 8));
+    }
+
+    public void testReplaceHead_AfterReload() {
+        mPages.setFirstPage(createPage(10, 3, 3));
+        final CallLogPages.Snapshot snapshot = mPages.getSnapshot(null);
+        mPages.setFirstPage(createPage(11, 3, 3));
+
+        final CallLogPages.Page head = createPage(12, 1, Integer.MAX_VALUE);
+        assertNull(mPages.replaceHead(snapshot.generation, head, 0));
+        head.cursor.close();
+    }
+
+    /**
+     * Creates a page of calls with decreasing ids, starting at {@code firstId}, each at a date of
+     * a thousand times its id.
+     */
+    private CallLogPages.Page createPage(int firstId, int count, int requestedCount) {
+        final MatrixCursor cursor = new MatrixCursor(CallLogQuery._PROJECTION);
+        for (int id = firstId; id > firstId - count; id--) {
+            final Object[] values = CallLogQueryTestUtils.createTestValues();
+            values[CallLogQuery.ID] = id;
+            values[CallLogQuery.DATE] = id * 1000L;
+            cursor.addRow(values);
+        }
+        return CallLogPages.Page.read(cursor, requestedCount);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.database.MatrixCursor;
+import android.provider.CallLog.Calls;
+import android.telecom.PhoneAccountHandle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link CallLogRowModel}.
+ */
+@SmallTest
+public class CallLogRowModelTest extends AndroidTestCase {
+    private static final String TEST_NUMBER = "12345678";
+    private static final String TEST_VOICEMAIL_NUMBER = "123";
+
+    private MatrixCursor mCursor;
+    private FakeResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCursor = new MatrixCursor(CallLogQuery._PROJECTION);
+        mResolver = new FakeResolver();
+    }
+
+    public void testRead() {
+        final Object[] values = CallLogQueryTestUtils.createTestValues();
+        values[CallLogQuery.ID] = 42L;
+        values[CallLogQuery.NUMBER] = TEST_NUMBER;
+        values[CallLogQuery.DATE] = 1000L;
+        values[CallLogQuery.DURATION] = 60L;
+        values[CallLogQuery.CALL_TYPE] = Calls.OUTGOING_TYPE;
+        values[CallLogQuery.COUNTRY_ISO] = "US";
+        values[CallLogQuery.ACCOUNT_COMPONENT_NAME] = "com.example/.Service";
+        values[CallLogQuery.ACCOUNT_ID] = "sim1";
+        values[CallLogQuery.CACHED_NAME] = "name";
+        values[CallLogQuery.DATA_USAGE] = 100L;
+        mCursor.addRow(values);
+        mCursor.moveToFirst();
+
+        final CallLogRowModel row = CallLogRowModel.read(mCursor, mResolver);
+        assertEquals(42, row.rowId);
+        assertEquals(TEST_NUMBER, row.number);
+        assertEquals(1000, row.date);
+        assertEquals(60, row.duration);
+        assertEquals(Calls.OUTGOING_TYPE, row.callType);
+        assertEquals("US", row.countryIso);
+        assertNotNull(row.accountHandle);
+        assertEquals("name", row.callLogInfo.name);
+        assertEquals(TEST_NUMBER, row.callLogInfo.number);
+        assertEquals(Long.valueOf(100), row.dataUsage);
+        assertTrue(row.canPlaceCalls);
+        assertFalse(row.isVoicemailNumber);
+        assertEquals("", row.displayName);
+        assertEquals("sim1", row.accountLabel);
+        assertEquals(0xff0000, row.accountColor);
+    }
+
+    public void testRead_NoAccount() {
+        final Object[] values = CallLogQueryTestUtils.createTestValues();
+        values[CallLogQuery.NUMBER] = TEST_VOICEMAIL_NUMBER;
+        mCursor.addRow(values);
+        mCursor.moveToFirst();
+
+        final CallLogRowModel row = CallLogRowModel.read(mCursor, mResolver);
+        assertNull(row.accountHandle);
+        assertNull(row.accountLabel);
+        assertNull(row.dataUsage);
+        assertTrue(row.isVoicemailNumber);
+        assertEquals("voicemail", row.displayName);
+        // The color is only needed along with the label.
+        assertEquals(0, mResolver.accountColorCount);
+    }
+
+    public void testWithCallLogInfo() {
+        final Object[] values = CallLogQueryTestUtils.createTestValues();
+        values[CallLogQuery.ID] = 42L;
+        values[CallLogQuery.NUMBER] = TEST_NUMBER;
+        values[CallLogQuery.CACHED_NAME] = "name";
+        mCursor.addRow(values);
+        mCursor.moveToFirst();
+        final CallLogRowModel row = CallLogRowModel.read(mCursor, mResolver);
+
+        final ContactInfo info = new ContactInfo();
+        info.name = "new name";
+        final CallLogRowModel updatedRow = row.withCallLogInfo(info);
+        assertSame(info, updatedRow.callLogInfo);
+        assertEquals(42, updatedRow.rowId);
+        assertEquals(TEST_NUMBER, updatedRow.number);
+        assertEquals(row.displayName, updatedRow.displayName);
+        // The original model is unchanged.
+        assertEquals("name", row.callLogInfo.name);
+    }
+
+    public void testPageRead_RowModels() {
+        for (long id = 3; id > 0; id--) {
+            final Object[] values = CallLogQueryTestUtils.createTestValues();
+            values[CallLogQuery.ID] = id;
+            values[CallLogQuery.NUMBER] = TEST_NUMBER;
+            mCursor.addRow(values);
+        }
+
+        final CallLogPages.Page page = CallLogPages.Page.read(mCursor, 3, mResolver);
+        for (int position = 0; position < 3; position++) {
+            assertEquals(page.rows.getId(position), page.getRowModel(position).rowId);
+        }
+
+        // The models are only read if a resolver is given.
+        assertNull(CallLogPages.Page.read(mCursor, 3).getRowModel(0));
+    }
+
+    /** Resolves the accounts to labels named after their ids. */
+    private static final class FakeResolver implements CallLogRowModel.Resolver {
+        public int accountColorCount;
+
+        @Override
+        public boolean isVoicemailNumber(PhoneAccountHandle accountHandle, CharSequence number) {
+            return TEST_VOICEMAIL_NUMBER.equals(number);
+        }
+
+        @Override
+        public CharSequence getDisplayName(CharSequence number, int presentation,
+                boolean isVoicemailNumber) {
+            return isVoicemailNumber ? "voicemail" : "";
+        }
+
+        @Override
+        public String getAccountLabel(PhoneAccountHandle accountHandle) {
+            return accountHandle == null ? null : accountHandle.getId();
+        }
+
+        @Override
+        public int getAccountColor(PhoneAccountHandle accountHandle) {
+            accountColorCount++;
+            return 0xff0000;
+        }
+    }
+}
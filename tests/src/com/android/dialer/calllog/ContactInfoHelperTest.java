@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.content.ContentResolver;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.dialer.util.ExpirableCache;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ContactInfoHelper}.
+ */
+@SmallTest
+public class ContactInfoHelperTest extends AndroidTestCase {
+    private static final String TEST_COUNTRY_ISO = "US";
+
+    /** The numbers passed to {@link ContactInfoHelper#lookupNumber}. */
+    private List<String> mLookedUpNumbers;
+    /** The object under test. */
+    private ContactInfoHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLookedUpNumbers = Lists.newArrayList();
+        mHelper = new ContactInfoHelper(getContext(), TEST_COUNTRY_ISO) {
+            @Override
+            public ContactInfo lookupNumber(String number, String countryIso) {
+                mLookedUpNumbers.add(number);
+                if ("fail@example.com".equals(number)) {
+                    return null;
+                }
+                final ContactInfo info = new ContactInfo();
+                info.number = number;
+                return info;
+            }
+        };
+    }
+
+    public void testLookupNumbers_SingleNumberUsesRegularLookup() {
+        final NumberWithCountryIso number = new NumberWithCountryIso("6502530000", "US");
+        final Map<NumberWithCountryIso, ContactInfo> infos =
+                mHelper.lookupNumbers(Lists.newArrayList(number));
+        assertEquals(Lists.newArrayList("6502530000"), mLookedUpNumbers);
+        assertEquals("6502530000", infos.get(number).number);
+    }
+
+    public void testLookupNumbers_SipAndNoCountryFallBack() {
+        final NumberWithCountryIso sip = new NumberWithCountryIso("alice@example.com", "US");
+        final NumberWithCountryIso noCountry = new NumberWithCountryIso("6502530000", null);
+        final Map<NumberWithCountryIso, ContactInfo> infos =
+                mHelper.lookupNumbers(Lists.newArrayList(sip, noCountry));
+        assertEquals(Lists.newArrayList("alice@example.com", "6502530000"), mLookedUpNumbers);
+        assertEquals(2, infos.size());
+    }
+
+    public void testLookupNumbers_FailedLookupIsOmitted() {
+        final NumberWithCountryIso failed = new NumberWithCountryIso("fail@example.com", "US");
+        final NumberWithCountryIso sip = new NumberWithCountryIso("alice@example.com", "US");
+        final Map<NumberWithCountryIso, ContactInfo> infos =
+                mHelper.lookupNumbers(Lists.newArrayList(failed, sip));
+        assertFalse(infos.containsKey(failed));
+        assertTrue(infos.containsKey(sip));
+    }
+
+    public void testLookupNumbers_MatchesNumbersWithSingleQuery() {
+        final FakeContactsProvider provider = new FakeContactsProvider();
+        provider.addPhone(1, "Alice", "+16502530000");
+        provider.addPhone(2, "Bob", "+16502531111");
+        final ContactInfoHelper helper = new ContactInfoHelper(provider.newContext(),
+                TEST_COUNTRY_ISO, new UnknownNumberCache(new FakeClock()));
+
+        // The same number written in different ways, another contact and an unknown number.
+        final NumberWithCountryIso alice = new NumberWithCountryIso("6502530000", "US");
+        final NumberWithCountryIso aliceFormatted =
+                new NumberWithCountryIso("(650) 253-0000", "US");
+        final NumberWithCountryIso aliceE164 = new NumberWithCountryIso("+16502530000", "US");
+        final NumberWithCountryIso bob = new NumberWithCountryIso("650-253-1111", "US");
+        final NumberWithCountryIso unknown = new NumberWithCountryIso("6502539999", "US");
+        final Map<NumberWithCountryIso, ContactInfo> infos = helper.lookupNumbers(
+                Lists.newArrayList(alice, aliceFormatted, bob, aliceE164, unknown, alice));
+
+        assertEquals(5, infos.size());
+        assertEquals("Alice", infos.get(alice).name);
+        assertEquals("Alice", infos.get(aliceFormatted).name);
+        assertEquals("Alice", infos.get(aliceE164).name);
+        assertEquals("Bob", infos.get(bob).name);
+        assertNull(infos.get(unknown).name);
+        assertEquals("6502539999", infos.get(unknown).number);
+        assertEquals("+16502539999", infos.get(unknown).normalizedNumber);
+
+        // The phones are queried once, in a deterministic order. The number they did not match
+        // is not looked up again as a phone number, only as a SIP address.
+        assertEquals(1, provider.phoneQueryCount);
+        assertEquals(Phone.IS_SUPER_PRIMARY + " DESC, " + Phone._ID, provider.phoneSortOrder);
+        assertEquals(1, provider.lookupUris.size());
+        assertEquals("1", provider.lookupUris.get(0).getQueryParameter(
+                PhoneLookup.QUERY_PARAMETER_SIP_ADDRESS));
+    }
+
+    public void testLookupNumber_UnknownNumberNotQueriedAgain() {
+        final QueryCountingHelper helper = new QueryCountingHelper(ContactInfo.EMPTY);
+        final ContactInfo info = helper.lookupNumber("6502530000", TEST_COUNTRY_ISO);
+        assertEquals("6502530000", info.number);
+        assertEquals(1, helper.queryCount);
+
+        // The same number, written differently.
+        final ContactInfo cachedInfo = helper.lookupNumber("(650) 253-0000", TEST_COUNTRY_ISO);
+        assertEquals("(650) 253-0000", cachedInfo.number);
+        assertEquals(1, helper.queryCount);
+    }
+
+    public void testLookupNumber_UnknownNumberExpires() {
+        final QueryCountingHelper helper = new QueryCountingHelper(ContactInfo.EMPTY);
+        helper.lookupNumber("6502530000", TEST_COUNTRY_ISO);
+        helper.clock.nowMillis += TimeUnit.MINUTES.toMillis(UnknownNumberCache.MAX_AGE_MINUTES);
+        helper.lookupNumber("6502530000", TEST_COUNTRY_ISO);
+        assertEquals(2, helper.queryCount);
+    }
+
+    public void testLookupNumber_ContactsChangeForgetsUnknownNumbers() {
+        final QueryCountingHelper helper = new QueryCountingHelper(ContactInfo.EMPTY);
+        helper.lookupNumber("alice@example.com", TEST_COUNTRY_ISO);
+        helper.unknownNumbers.onContactsChanged();
+        helper.lookupNumber("alice@example.com", TEST_COUNTRY_ISO);
+        assertEquals(2, helper.queryCount);
+    }
+
+    public void testLookupNumber_ContactsChangeDuringLookup() {
+        final QueryCountingHelper helper = new QueryCountingHelper(ContactInfo.EMPTY) {
+            @Override
+            ContactInfo queryContactInfo(String number, String countryIso) {
+                unknownNumbers.onContactsChanged();
+                return super.queryContactInfo(number, countryIso);
+            }
+        };
+        helper.lookupNumber("6502530000", TEST_COUNTRY_ISO);
+        helper.lookupNumber("6502530000", TEST_COUNTRY_ISO);
+        assertEquals(2, helper.queryCount);
+    }
+
+    public void testLookupNumber_FailedLookupNotCached() {
+        final QueryCountingHelper helper = new QueryCountingHelper(null);
+        assertNull(helper.lookupNumber("6502530000", TEST_COUNTRY_ISO));
+        assertNull(helper.lookupNumber("6502530000", TEST_COUNTRY_ISO));
+        assertEquals(2, helper.queryCount);
+    }
+
+    private static class FakeClock implements ExpirableCache.Clock {
+        public long nowMillis = 1000;
+
+        @Override
+        public long elapsedRealtime() {
+            return nowMillis;
+        }
+    }
+
+    /** A contacts provider matching the phones added to it on their normalized number. */
+    private class FakeContactsProvider extends MockContentProvider {
+        private final MatrixCursor mPhones = new MatrixCursor(PhoneQuery.BATCH_PROJECTION);
+        public final List<Uri> lookupUris = Lists.newArrayList();
+        public int phoneQueryCount;
+        public String phoneSortOrder;
+
+        public FakeContactsProvider() {
+            super(getContext());
+        }
+
+        public void addPhone(long contactId, String name, String normalizedNumber) {
+            mPhones.addRow(new Object[] { contactId, name, Phone.TYPE_MOBILE, null,
+                    normalizedNumber, normalizedNumber, 0L, "key" + contactId, null });
+        }
+
+        /** Returns a context whose content resolver queries this provider. */
+        public ContextWrapper newContext() {
+            final MockContentResolver resolver = new MockContentResolver();
+            resolver.addProvider(ContactsContract.AUTHORITY, this);
+            return new ContextWrapper(getContext()) {
+                @Override
+                public ContentResolver getContentResolver() {
+                    return resolver;
+                }
+            };
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            final MatrixCursor cursor = new MatrixCursor(projection);
+            if (uri.getPath().startsWith(PhoneLookup.CONTENT_FILTER_URI.getPath())) {
+                lookupUris.add(uri);
+            } else if (uri.getPath().startsWith(Phone.CONTENT_URI.getPath())) {
+                phoneQueryCount++;
+                phoneSortOrder = sortOrder;
+                final List<String> numbers = Lists.newArrayList(selectionArgs);
+                mPhones.moveToPosition(-1);
+                while (mPhones.moveToNext()) {
+                    if (numbers.contains(mPhones.getString(PhoneQuery.NORMALIZED_NUMBER))) {
+                        final Object[] values = new Object[projection.length];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = mPhones.getString(i);
+                        }
+                        cursor.addRow(values);
+                    }
+                }
+            } else {
+                return null;
+            }
+            return cursor;
+        }
+    }
+
+    /** A helper whose queries all return the same result, with its own unknown numbers. */
+    private class QueryCountingHelper extends ContactInfoHelper {
+        public final FakeClock clock;
+        public final UnknownNumberCache unknownNumbers;
+        private final ContactInfo mResult;
+        public int queryCount;
+
+        public QueryCountingHelper(ContactInfo result) {
+            this(new FakeClock(), result);
+        }
+
+        private QueryCountingHelper(FakeClock clock, ContactInfo result) {
+            this(clock, new UnknownNumberCache(clock), result);
+        }
+
+        private QueryCountingHelper(FakeClock clock, UnknownNumberCache unknownNumbers,
+                ContactInfo result) {
+            super(getContext(), TEST_COUNTRY_ISO, unknownNumbers);
+            this.clock = clock;
+            this.unknownNumbers = unknownNumbers;
+            mResult = result;
+        }
+
+        @Override
+        ContactInfo queryContactInfo(String number, String countryIso) {
+            queryCount++;
+            return mResult;
+        }
+    }
+}
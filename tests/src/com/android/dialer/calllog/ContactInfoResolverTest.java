@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.dialer.util.ExpirableCache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ContactInfoResolver}.
+ */
+@SmallTest
+public class ContactInfoResolverTest extends AndroidTestCase {
+    private static final String TEST_NUMBER = "6502530000";
+    private static final String TEST_COUNTRY_ISO = "US";
+
+    /** Runs the lookups on the calling thread. */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Runs each lookup on a thread of its own. */
+    private static final Executor THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    private FakeClock mClock;
+    private LookupCountingHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock();
+        mHelper = new LookupCountingHelper();
+    }
+
+    public void testResolve_ResultShared() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        assertEquals(TEST_NUMBER, resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG).number);
+        assertEquals(TEST_NUMBER, resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.VOICEMAIL_NOTIFIER).number);
+        assertEquals(1, mHelper.getLookupCount());
+    }
+
+    public void testResolve_ResultExpires() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        mClock.nowMillis += TimeUnit.SECONDS.toMillis(ContactInfoResolver.MAX_AGE_SECONDS) + 1;
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        assertEquals(2, mHelper.getLookupCount());
+    }
+
+    public void testResolve_FailedLookupNotShared() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        mHelper.failLookups = true;
+        assertNull(resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_DETAILS));
+        assertNull(resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_DETAILS));
+        assertEquals(2, mHelper.getLookupCount());
+    }
+
+    public void testResolve_ContactsChangeForgetsResults() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.onContactsChanged();
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        assertEquals(2, mHelper.getLookupCount());
+    }
+
+    public void testInvalidate() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.resolve(mHelper, "6502531111", TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.invalidate(TEST_NUMBER);
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.resolve(mHelper, "6502531111", TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        assertEquals(3, mHelper.getLookupCount());
+    }
+
+    public void testExpireRemoteSources() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        mHelper.remoteNumber = TEST_NUMBER;
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.resolve(mHelper, "6502531111", TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.expireRemoteSources();
+        resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        resolver.resolve(mHelper, "6502531111", TEST_COUNTRY_ISO,
+                ContactInfoResolver.Caller.CALL_LOG);
+        assertEquals(3, mHelper.getLookupCount());
+    }
+
+    public void testResolveAll_OnlyLooksUpMissingNumbers() {
+        final ContactInfoResolver resolver = new ContactInfoResolver(DIRECT_EXECUTOR, mClock);
+        final NumberWithCountryIso first = new NumberWithCountryIso(TEST_NUMBER, "US");
+        final NumberWithCountryIso second = new NumberWithCountryIso("6502531111", "US");
+        resolver.resolveAll(mHelper, Lists.newArrayList(first),
+                ContactInfoResolver.Caller.CALL_LOG);
+
+        final Map<NumberWithCountryIso, ContactInfo> infos = resolver.resolveAll(mHelper,
+                Lists.newArrayList(first, second), ContactInfoResolver.Caller.CALL_LOG);
+        assertEquals(2, infos.size());
+        assertEquals(Lists.newArrayList(Lists.newArrayList(first), Lists.newArrayList(second)),
+                mHelper.lookups);
+    }
+
+    public void testResolve_JoinsLookupInProgress() throws Exception {
+        final ContactInfoResolver resolver = new ContactInfoResolver(THREAD_EXECUTOR, mClock);
+        mHelper.blockLookups = new CountDownLatch(1);
+        final Thread first = startResolve(resolver, ContactInfoResolver.Caller.CALL_LOG);
+        mHelper.lookupStarted.await();
+
+        // The number is either still being looked up or cached by the time it is asked for.
+        final Thread second = startResolve(resolver, ContactInfoResolver.Caller.UNDEMOTE);
+        mHelper.blockLookups.countDown();
+        first.join();
+        second.join();
+        assertEquals(1, mHelper.getLookupCount());
+    }
+
+    private Thread startResolve(final ContactInfoResolver resolver,
+            final ContactInfoResolver.Caller caller) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                resolver.resolve(mHelper, TEST_NUMBER, TEST_COUNTRY_ISO, caller);
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static class FakeClock implements ExpirableCache.Clock {
+        public long nowMillis = 1000;
+
+        @Override
+        public long elapsedRealtime() {
+            return nowMillis;
+        }
+    }
+
+    /**
+     * A helper which finds a contact for each number, from a remote source for
+     * {@code remoteNumber}, and records the numbers it looks up.
+     */
+    private class LookupCountingHelper extends ContactInfoHelper {
+        public final List<List<NumberWithCountryIso>> lookups = Lists.newArrayList();
+        public final CountDownLatch lookupStarted = new CountDownLatch(1);
+        public volatile CountDownLatch blockLookups;
+        public volatile boolean failLookups;
+        public volatile String remoteNumber;
+
+        public LookupCountingHelper() {
+            super(getContext(), TEST_COUNTRY_ISO);
+        }
+
+        public synchronized int getLookupCount() {
+            return lookups.size();
+        }
+
+        @Override
+        public Map<NumberWithCountryIso, ContactInfo> lookupNumbers(
+                Collection<NumberWithCountryIso> numbers) {
+            synchronized (this) {
+                lookups.add(Lists.newArrayList(numbers));
+            }
+            lookupStarted.countDown();
+            if (blockLookups != null) {
+                try {
+                    blockLookups.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final Map<NumberWithCountryIso, ContactInfo> result = Maps.newHashMap();
+            if (!failLookups) {
+                for (NumberWithCountryIso number : numbers) {
+                    final ContactInfo info = new ContactInfo();
+                    info.number = number.number;
+                    if (number.number.equals(remoteNumber)) {
+                        info.sourceType = 1;
+                    }
+                    result.put(number, info);
+                }
+            }
+            return result;
+        }
+    }
+}
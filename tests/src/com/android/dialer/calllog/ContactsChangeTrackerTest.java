@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.dialer.database.DialerDatabaseHelper;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Unit tests for {@link ContactsChangeTracker} and {@link ContactsChangeTracker.Changes}.
+ */
+@SmallTest
+public class ContactsChangeTrackerTest extends AndroidTestCase {
+    private static final long CHANGED_CONTACT_ID = 1;
+
+    /** The time the contact was last updated in the fake contacts provider. */
+    private long mContactUpdatedMillis;
+    private MockContentResolver mResolver;
+    private DialerDatabaseHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(ContactsContract.AUTHORITY, new FakeContactsProvider());
+        // Creates the database in memory.
+        mDbHelper = new DialerDatabaseHelper(getContext(), null) {};
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testQueryChanges_SeenByEachTracker() {
+        final ContactsChangeTracker first = new ContactsChangeTracker(mResolver, mDbHelper);
+        final ContactsChangeTracker second = new ContactsChangeTracker(mResolver, mDbHelper);
+        mContactUpdatedMillis = 100;
+
+        final ContactsChangeTracker.Changes firstChanges = first.queryChanges();
+        assertEquals(Sets.newHashSet(CHANGED_CONTACT_ID), firstChanges.contactIds);
+        first.markPersistentCacheHandled(firstChanges);
+        first.markHandled(firstChanges);
+        assertTrue(first.queryChanges().isEmpty());
+
+        // The change handled by the first tracker is still seen by the second one.
+        final ContactsChangeTracker.Changes secondChanges = second.queryChanges();
+        assertEquals(Sets.newHashSet(CHANGED_CONTACT_ID), secondChanges.contactIds);
+        second.markHandled(secondChanges);
+        assertTrue(second.queryChanges().isEmpty());
+
+        // A tracker created afterwards starts after the changes handled by the persistent cache.
+        assertTrue(new ContactsChangeTracker(mResolver, mDbHelper).queryChanges().isEmpty());
+    }
+
+    public void testMarkHandled_NotPersisted() {
+        final ContactsChangeTracker tracker = new ContactsChangeTracker(mResolver, mDbHelper);
+        mContactUpdatedMillis = 100;
+        tracker.markHandled(tracker.queryChanges());
+
+        assertFalse(new ContactsChangeTracker(mResolver, mDbHelper).queryChanges().isEmpty());
+    }
+
+    public void testIsEmpty() {
+        assertTrue(createChanges(false, new Long[0]).isEmpty());
+        assertFalse(createChanges(true, new Long[0]).isEmpty());
+        assertFalse(createChanges(false, 1L).isEmpty());
+    }
+
+    public void testAffects_All() {
+        assertTrue(createChanges(true, new Long[0]).affects(createContact(1, "+16502530000")));
+    }
+
+    public void testAffects_ChangedContact() {
+        final ContactsChangeTracker.Changes changes = createChanges(false, 1L);
+        assertTrue(changes.affects(createContact(1, "+16502530000")));
+        assertFalse(changes.affects(createContact(2, "+16502531111")));
+    }
+
+    public void testAffects_NumberAddedToContact() {
+        final ContactsChangeTracker.Changes changes = new ContactsChangeTracker.Changes(false,
+                Sets.newHashSet(1L), Sets.newHashSet("650-253-0000", "+16502530000"), 0);
+
+        // A number which was not a contact may now be one.
+        final ContactInfo unknown = new ContactInfo();
+        unknown.number = "6502530000";
+        unknown.normalizedNumber = "+16502530000";
+        unknown.lookupUri = Uri.parse("content://com.android.contacts/contacts/lookup/encoded");
+        assertTrue(changes.affects(unknown));
+
+        unknown.normalizedNumber = null;
+        assertTrue(changes.affects(unknown));
+
+        unknown.number = "6502531111";
+        assertFalse(changes.affects(unknown));
+    }
+
+    public void testAffects_SipAddressAddedToContact() {
+        final ContactsChangeTracker.Changes changes = new ContactsChangeTracker.Changes(false,
+                Sets.newHashSet(1L), Sets.newHashSet("alice@Example.com"), 0);
+
+        final ContactInfo unknown = new ContactInfo();
+        unknown.number = "alice@example.com";
+        unknown.lookupUri = Uri.parse("content://com.android.contacts/contacts/lookup/encoded");
+        assertTrue(changes.affects(unknown));
+
+        unknown.number = "Alice@example.com";
+        assertFalse(changes.affects(unknown));
+    }
+
+    private ContactsChangeTracker.Changes createChanges(boolean all, Long... contactIds) {
+        return new ContactsChangeTracker.Changes(all, Sets.newHashSet(contactIds),
+                Sets.<String>newHashSet(), 0);
+    }
+
+    /** A contacts provider with a single contact, updated at {@link #mContactUpdatedMillis}. */
+    private class FakeContactsProvider extends MockContentProvider {
+        public FakeContactsProvider() {
+            super(getContext());
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            final MatrixCursor cursor = new MatrixCursor(projection);
+            if (uri.getPath().startsWith(Contacts.CONTENT_URI.getPath())) {
+                if (mContactUpdatedMillis > Long.parseLong(selectionArgs[0])) {
+                    cursor.addRow(new Object[] { CHANGED_CONTACT_ID, mContactUpdatedMillis });
+                }
+            } else if (uri.getPath().startsWith(Phone.CONTENT_URI.getPath())) {
+                cursor.addRow(new Object[] { "650-253-0000", "+16502530000" });
+            } else if (!uri.getPath().startsWith(DeletedContacts.CONTENT_URI.getPath())) {
+                return null;
+            }
+            return cursor;
+        }
+    }
+
+    private ContactInfo createContact(long contactId, String number) {
+        final ContactInfo info = new ContactInfo();
+        info.number = number;
+        info.normalizedNumber = number;
+        info.lookupUri = Contacts.getLookupUri(contactId, "key" + contactId);
+        return info;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.dialer.database.DialerDatabaseHelper;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+
+/**
+ * Unit tests for {@link PersistentContactInfoCache}.
+ */
+@SmallTest
+public class PersistentContactInfoCacheTest extends AndroidTestCase {
+    private static final NumberWithCountryIso ALICE_NUMBER =
+            new NumberWithCountryIso("6502530000", "US");
+    private static final NumberWithCountryIso BOB_NUMBER =
+            new NumberWithCountryIso("6502531111", null);
+
+    private DialerDatabaseHelper mDbHelper;
+    /** The object under test. */
+    private PersistentContactInfoCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Creates the database in memory.
+        mDbHelper = new DialerDatabaseHelper(getContext(), null) {};
+        mCache = new PersistentContactInfoCache(mDbHelper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testGetAll_Empty() {
+        assertTrue(mCache.getAll(Lists.newArrayList(ALICE_NUMBER)).isEmpty());
+    }
+
+    public void testPutAll_GetAll() {
+        final ContactInfo alice = createContactInfo("Alice", 1);
+        final ContactInfo bob = createContactInfo("Bob", 2);
+        final Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+        infos.put(ALICE_NUMBER, alice);
+        infos.put(BOB_NUMBER, bob);
+        mCache.putAll(infos, 100);
+
+        final Map<NumberWithCountryIso, ContactInfo> result =
+                mCache.getAll(Lists.newArrayList(ALICE_NUMBER, BOB_NUMBER));
+        assertEquals(2, result.size());
+        assertEquals(alice, result.get(ALICE_NUMBER));
+        assertEquals(bob, result.get(BOB_NUMBER));
+    }
+
+    public void testGetAll_SameNumberOtherCountry() {
+        final Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+        infos.put(ALICE_NUMBER, createContactInfo("Alice", 1));
+        mCache.putAll(infos, 100);
+
+        assertTrue(mCache.getAll(Lists.newArrayList(
+                new NumberWithCountryIso(ALICE_NUMBER.number, "GB"))).isEmpty());
+    }
+
+    public void testRemoveAffected_ChangedContact() {
+        final Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+        infos.put(ALICE_NUMBER, createContactInfo("Alice", 1));
+        infos.put(BOB_NUMBER, createContactInfo("Bob", 2));
+        mCache.putAll(infos, 100);
+
+        assertEquals(1, mCache.removeAffected(createChanges(false, 2L)));
+        final Map<NumberWithCountryIso, ContactInfo> result =
+                mCache.getAll(Lists.newArrayList(ALICE_NUMBER, BOB_NUMBER));
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey(ALICE_NUMBER));
+    }
+
+    public void testRemoveAffected_All() {
+        final Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+        infos.put(ALICE_NUMBER, createContactInfo("Alice", 1));
+        infos.put(BOB_NUMBER, createContactInfo("Bob", 2));
+        mCache.putAll(infos, 100);
+
+        assertEquals(2, mCache.removeAffected(createChanges(true)));
+        assertTrue(mCache.getAll(Lists.newArrayList(ALICE_NUMBER, BOB_NUMBER)).isEmpty());
+    }
+
+    public void testPutAll_IgnoresRemoteSources() {
+        final ContactInfo remote = createContactInfo("Remote", 3);
+        remote.sourceType = 1;
+        final Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+        infos.put(ALICE_NUMBER, remote);
+        mCache.putAll(infos, 100);
+
+        assertTrue(mCache.getAll(Lists.newArrayList(ALICE_NUMBER)).isEmpty());
+    }
+
+    private ContactsChangeTracker.Changes createChanges(boolean all, Long... contactIds) {
+        return new ContactsChangeTracker.Changes(all, Sets.newHashSet(contactIds),
+                Sets.<String>newHashSet(), 0);
+    }
+
+    private ContactInfo createContactInfo(String name, long contactId) {
+        final ContactInfo info = new ContactInfo();
+        info.name = name;
+        info.type = 1;
+        info.label = "Label";
+        info.number = "+1650253000" + contactId;
+        info.formattedNumber = "(650) 253-000" + contactId;
+        info.normalizedNumber = "+1650253000" + contactId;
+        info.lookupUri = Uri.parse("content://com.android.contacts/contacts/lookup/key/"
+                + contactId);
+        info.lookupKey = "key";
+        info.photoId = 3;
+        return info;
+    }
+}
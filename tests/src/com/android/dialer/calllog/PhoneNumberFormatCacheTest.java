@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.telephony.PhoneNumberUtils;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Locale;
+
+/**
+ * Unit tests for {@link PhoneNumberFormatCache}.
+ */
+@SmallTest
+public class PhoneNumberFormatCacheTest extends AndroidTestCase {
+    private static final String TEST_NUMBER = "6502530000";
+    private static final String TEST_COUNTRY_ISO = "US";
+
+    private PhoneNumberFormatCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new PhoneNumberFormatCache(10);
+    }
+
+    public void testGetE164Number() {
+        final String expected = PhoneNumberUtils.formatNumberToE164(TEST_NUMBER, TEST_COUNTRY_ISO);
+        assertEquals(expected, mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO));
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+
+        assertEquals(expected, mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    public void testGetFormattedNumber() {
+        final String expected = PhoneNumberUtils.formatNumber(TEST_NUMBER, null, TEST_COUNTRY_ISO);
+        assertEquals(expected, mCache.getFormattedNumber(TEST_NUMBER, TEST_COUNTRY_ISO));
+        assertEquals(expected, mCache.getFormattedNumber(TEST_NUMBER, TEST_COUNTRY_ISO));
+        assertEquals(1, mCache.getHitCount());
+
+        // Each form is computed the first time it is asked for.
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testGetE164Number_KeyedByCountry() {
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+        mCache.getE164Number(TEST_NUMBER, "GB");
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testGetE164Number_Unparseable() {
+        assertNull(mCache.getE164Number("not a number", TEST_COUNTRY_ISO));
+        assertNull(mCache.getE164Number("not a number", TEST_COUNTRY_ISO));
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testNullNumber() {
+        assertNull(mCache.getE164Number(null, TEST_COUNTRY_ISO));
+        assertNull(mCache.getFormattedNumber(null, TEST_COUNTRY_ISO));
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    public void testOnLocaleChanged() {
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+
+        // The locale the cache was created in does not clear it.
+        mCache.onLocaleChanged(Locale.getDefault());
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+        assertEquals(1, mCache.getHitCount());
+
+        final Locale other =
+                Locale.getDefault().equals(Locale.FRANCE) ? Locale.GERMANY : Locale.FRANCE;
+        mCache.onLocaleChanged(other);
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testResetStats() {
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+        mCache.resetStats();
+        assertEquals(0, mCache.getMissCount());
+
+        // The forms are kept.
+        mCache.getE164Number(TEST_NUMBER, TEST_COUNTRY_ISO);
+        assertEquals(1, mCache.getHitCount());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link ScrollPrefetchWindow}.
+ */
+@SmallTest
+public class ScrollPrefetchWindowTest extends AndroidTestCase {
+    private static final int MIN_AHEAD = 5;
+    private static final int MAX_AHEAD = 30;
+    private static final int BEHIND = 2;
+    private static final long LEAD_TIME_MILLIS = 300;
+
+    /** The object under test. */
+    private ScrollPrefetchWindow mWindow;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mWindow = new ScrollPrefetchWindow(MIN_AHEAD, MAX_AHEAD, BEHIND, LEAD_TIME_MILLIS);
+    }
+
+    public void testInitial_PrefetchesBelow() {
+        mWindow.onViewportChanged(0, 9, 1000);
+        assertEquals(-BEHIND, mWindow.getFirst());
+        assertEquals(9 + MIN_AHEAD, mWindow.getLast());
+    }
+
+    public void testScrollingDown_ExtendsWithSpeed() {
+        mWindow.onViewportChanged(0, 9, 1000);
+        // 10 rows in 100ms: 30 rows within the lead time, smoothed to 15.
+        mWindow.onViewportChanged(10, 19, 1100);
+        assertEquals(10 - BEHIND, mWindow.getFirst());
+        assertEquals(19 + MIN_AHEAD + 15, mWindow.getLast());
+    }
+
+    public void testScrollingUp_ExtendsAbove() {
+        mWindow.onViewportChanged(50, 59, 1000);
+        mWindow.onViewportChanged(49, 58, 1100);
+        assertEquals(49 - MIN_AHEAD - 2, mWindow.getFirst());
+        assertEquals(58 + BEHIND, mWindow.getLast());
+    }
+
+    public void testFling_CappedToMaxAhead() {
+        mWindow.onViewportChanged(0, 9, 1000);
+        mWindow.onViewportChanged(100, 109, 1016);
+        mWindow.onViewportChanged(200, 209, 1032);
+        assertEquals(209 + MAX_AHEAD, mWindow.getLast());
+    }
+
+    public void testScrollStopped_KeepsDirection() {
+        mWindow.onViewportChanged(50, 59, 1000);
+        mWindow.onViewportChanged(40, 49, 1100);
+        mWindow.onScrollStopped();
+        assertEquals(40 - MIN_AHEAD, mWindow.getFirst());
+        assertEquals(49 + BEHIND, mWindow.getLast());
+    }
+
+    public void testReset() {
+        mWindow.onViewportChanged(50, 59, 1000);
+        mWindow.onViewportChanged(40, 49, 1100);
+        mWindow.reset();
+        mWindow.onViewportChanged(0, 9, 2000);
+        assertEquals(-BEHIND, mWindow.getFirst());
+        assertEquals(9 + MIN_AHEAD, mWindow.getLast());
+    }
+}
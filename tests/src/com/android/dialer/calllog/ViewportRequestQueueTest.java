@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.calllog;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Unit tests for {@link ViewportRequestQueue}.
+ */
+@SmallTest
+public class ViewportRequestQueueTest extends AndroidTestCase {
+    private static final int STALE_DISTANCE = 10;
+
+    /** The object under test. */
+    private ViewportRequestQueue<String> mQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mQueue = new ViewportRequestQueue<String>(STALE_DISTANCE);
+    }
+
+    public void testPoll_FifoWithoutViewport() {
+        mQueue.add("a", 30);
+        mQueue.add("b", 0);
+        mQueue.add("c", 15);
+        assertEquals(Lists.newArrayList("a", "b", "c"), mQueue.poll(10));
+        assertEquals(0, mQueue.size());
+    }
+
+    public void testPoll_ClosestToViewportFirst() {
+        mQueue.setViewport(10, 15);
+        mQueue.add("far", 20);
+        mQueue.add("visible", 12);
+        mQueue.add("near", 9);
+        assertEquals(Lists.newArrayList("visible", "near", "far"), mQueue.poll(10));
+    }
+
+    public void testPoll_MaxCount() {
+        mQueue.add("a", 0);
+        mQueue.add("b", 1);
+        mQueue.add("c", 2);
+        assertEquals(Lists.newArrayList("a", "b"), mQueue.poll(2));
+        assertEquals(Lists.newArrayList("c"), mQueue.poll(2));
+    }
+
+    public void testAdd_DuplicateMovesRequest() {
+        mQueue.setViewport(0, 5);
+        assertTrue(mQueue.add("a", 8));
+        assertTrue(mQueue.add("b", 6));
+        assertFalse(mQueue.add("a", 2));
+        assertEquals(2, mQueue.size());
+        assertEquals(Lists.newArrayList("a", "b"), mQueue.poll(10));
+    }
+
+    public void testSetViewport_ReordersRequests() {
+        mQueue.setViewport(0, 5);
+        mQueue.add("top", 1);
+        mQueue.add("lower", 8);
+        mQueue.setViewport(6, 11);
+        assertEquals(Lists.newArrayList("lower", "top"), mQueue.poll(10));
+    }
+
+    public void testSetViewport_DropsStaleRequests() {
+        mQueue.setViewport(0, 5);
+        mQueue.add("top", 1);
+        mQueue.add("middle", 20);
+        assertEquals(Lists.newArrayList("top"), mQueue.setViewport(20, 25));
+        assertEquals(Lists.newArrayList("middle"), mQueue.poll(10));
+        // A dropped request can be added again.
+        assertTrue(mQueue.add("top", 1));
+    }
+
+    public void testAddPrefetch_AfterOtherRequests() {
+        mQueue.setViewport(10, 15);
+        mQueue.addPrefetch("prefetch", 16);
+        mQueue.add("offscreen", 20);
+        mQueue.add("visible", 12);
+        assertEquals(Lists.newArrayList("visible", "offscreen", "prefetch"), mQueue.poll(10));
+    }
+
+    public void testAddPrefetch_VisibleRowFirst() {
+        mQueue.setViewport(10, 15);
+        mQueue.add("offscreen", 16);
+        mQueue.addPrefetch("prefetch", 20);
+        mQueue.setViewport(18, 23);
+        assertEquals(Lists.newArrayList("prefetch", "offscreen"), mQueue.poll(10));
+    }
+
+    public void testAddPrefetch_DoesNotDemoteRequest() {
+        mQueue.setViewport(10, 15);
+        assertTrue(mQueue.add("a", 17));
+        assertTrue(mQueue.addPrefetch("b", 16));
+        assertFalse(mQueue.addPrefetch("a", 16));
+        assertEquals(Lists.newArrayList("a", "b"), mQueue.poll(10));
+    }
+
+    public void testAdd_PromotesPrefetch() {
+        mQueue.setViewport(10, 15);
+        mQueue.addPrefetch("a", 17);
+        mQueue.add("b", 18);
+        assertFalse(mQueue.add("a", 17));
+        assertEquals(Lists.newArrayList("a", "b"), mQueue.poll(10));
+    }
+}
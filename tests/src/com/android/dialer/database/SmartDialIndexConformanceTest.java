@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.database;
+
+import android.test.AndroidTestCase;
+
+import com.android.dialer.dialpad.SmartDialNameMatcher;
+import com.android.dialer.dialpad.SmartDialPrefix;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Behavior every {@link SmartDialIndex} implementation must share. Subclasses only provide the
+ * index under test.
+ */
+public abstract class SmartDialIndexConformanceTest extends AndroidTestCase {
+
+    private SmartDialIndex mIndex;
+
+    protected abstract SmartDialIndex createIndex();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = createIndex();
+        mIndex.build(Lists.<SmartDialContact>newArrayList().iterator());
+    }
+
+    private static SmartDialContact contact(long id, String number, String displayName) {
+        return contact(id, id, number, displayName, 0, false);
+    }
+
+    private static SmartDialContact contact(long dataId, long contactId, String number,
+            String displayName, int timesUsed, boolean starred) {
+        return new SmartDialContact(dataId, number, contactId, String.valueOf(contactId),
+                displayName, 0, 0, timesUsed, starred, false, true, false);
+    }
+
+    private ArrayList<ContactNumber> query(String query) {
+        return query(query, SmartDialIndex.DEFAULT_MAX_RESULTS);
+    }
+
+    private ArrayList<ContactNumber> query(String query, int maxResults) {
+        final SmartDialNameMatcher nameMatcher = new SmartDialNameMatcher(query,
+                SmartDialPrefix.getMap());
+        return mIndex.query(query, nameMatcher, maxResults);
+    }
+
+    private void build(SmartDialContact... contacts) {
+        mIndex.build(Arrays.asList(contacts).iterator());
+    }
+
+    public void testBuild_MatchesNamesAndNumbers() {
+        final SmartDialContact jason = contact(1, "650-555-1234", "Jason Smith");
+        final SmartDialContact mary = contact(2, "415-555-9876", "Mary Jane");
+        build(jason, mary);
+
+        assertEquals(Arrays.asList(jason.toContactNumber()), query("527"));
+        assertEquals(Arrays.asList(mary.toContactNumber()), query("6279"));
+        assertEquals(Arrays.asList(mary.toContactNumber()), query("415555"));
+        assertTrue(query("999").isEmpty());
+    }
+
+    public void testBuild_ReplacesPreviousContent() {
+        build(contact(1, "1234", "Jason Smith"));
+        build(contact(2, "5678", "Mary Jane"));
+
+        assertTrue(query("527").isEmpty());
+        assertEquals(1, query("6279").size());
+    }
+
+    public void testBuild_SkipsRowsWithoutNumber() {
+        build(contact(1, "", "Jason Smith"), contact(2, null, "Jason Smitt"));
+
+        assertTrue(query("527").isEmpty());
+    }
+
+    public void testApplyDelta_ReplacesRowsOfUpdatedContacts() {
+        build(contact(1, "1234", "Jason Smith"), contact(2, "5678", "Mary Jane"));
+
+        final SmartDialContact renamed = contact(1, "1234", "Sarah Smith");
+        mIndex.applyDelta(Arrays.asList(renamed).iterator());
+
+        assertTrue(query("527").isEmpty());
+        assertEquals(Arrays.asList(renamed.toContactNumber()), query("7272"));
+        assertEquals(1, query("6279").size());
+    }
+
+    public void testDelete_RemovesAllRowsOfContact() {
+        build(contact(10, 1, "1234", "Jason Smith", 0, false),
+                contact(11, 1, "5678", "Jason Smith", 0, false),
+                contact(20, 2, "9999", "Jason Smitt", 0, false));
+
+        mIndex.delete(Arrays.asList(1L));
+
+        final ArrayList<ContactNumber> result = query("527");
+        assertEquals(1, result.size());
+        assertEquals(2, result.get(0).id);
+        assertTrue(query("1234").isEmpty());
+        assertTrue(query("5678").isEmpty());
+    }
+
+    public void testQuery_OneResultPerContact() {
+        build(contact(10, 1, "1234", "Jason Smith", 0, false),
+                contact(11, 1, "5678", "Jason Smith", 0, false));
+
+        assertEquals(1, query("527").size());
+    }
+
+    public void testQuery_RanksStarredAndFrequentFirst() {
+        final SmartDialContact plain = contact(1, 1, "1111", "Jason Aaron", 0, false);
+        final SmartDialContact frequent = contact(2, 2, "2222", "Jason Bates", 5, false);
+        final SmartDialContact starred = contact(3, 3, "3333", "Jason Clark", 0, true);
+        build(plain, frequent, starred);
+
+        assertEquals(Arrays.asList(starred.toContactNumber(), frequent.toContactNumber(),
+                plain.toContactNumber()), query("527"));
+    }
+
+    public void testQuery_TiesBrokenByName() {
+        final SmartDialContact bob = contact(1, "1111", "Jason Bob");
+        final SmartDialContact alice = contact(2, "2222", "Jason Alice");
+        build(bob, alice);
+
+        assertEquals(Arrays.asList(alice.toContactNumber(), bob.toContactNumber()),
+                query("527"));
+    }
+
+    public void testQuery_LimitsResults() {
+        final ArrayList<SmartDialContact> contacts = Lists.newArrayList();
+        for (int i = 0; i < 30; i++) {
+            contacts.add(contact(i, String.valueOf(1000 + i), "Jason " + i));
+        }
+        mIndex.build(contacts.iterator());
+
+        assertEquals(SmartDialIndex.DEFAULT_MAX_RESULTS, query("527").size());
+        assertEquals(5, query("527", 5).size());
+    }
+}
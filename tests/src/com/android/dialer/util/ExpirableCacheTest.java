@@ -22,11 +22,31 @@ import android.util.LruCache;
 
 import com.android.dialer.util.ExpirableCache.CachedValue;
 
+import com.google.common.collect.Lists;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Unit tests for {@link ExpirableCache}.
  */
 @SmallTest
 public class ExpirableCacheTest extends AndroidTestCase {
+    /** A clock which only moves when told to. */
+    private static class FakeClock implements ExpirableCache.Clock {
+        public long mNowMillis = 1000;
+
+        @Override
+        public long elapsedRealtime() {
+            return mNowMillis;
+        }
+    }
+
     /** The object under test. */
     private ExpirableCache<String, Integer> mCache;
 
@@ -99,6 +119,40 @@ public class ExpirableCacheTest extends AndroidTestCase {
         assertFalse("Should not be expired", mCache.getCachedValue("a").isExpired());
     }
 
+    public void testExpire() {
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.expire("a");
+        assertTrue("Should be expired", mCache.getCachedValue("a").isExpired());
+        assertEquals(1, mCache.getPossiblyExpired("a").intValue());
+        assertFalse("Should not be expired", mCache.getCachedValue("b").isExpired());
+        // Still expired after all the values are expired.
+        mCache.expireAll();
+        assertTrue("Should be expired", mCache.getCachedValue("a").isExpired());
+    }
+
+    public void testExpire_PutAfterExpired() {
+        mCache.put("a", 1);
+        mCache.expire("a");
+        mCache.put("a", 2);
+        assertFalse("Should not be expired", mCache.getCachedValue("a").isExpired());
+    }
+
+    public void testExpire_NotExisting() {
+        mCache.expire("a");
+        assertNull(mCache.getCachedValue("a"));
+    }
+
+    public void testSnapshot() {
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.expireAll();
+        final Map<String, Integer> snapshot = mCache.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(1, snapshot.get("a").intValue());
+        assertEquals(2, snapshot.get("b").intValue());
+    }
+
     public void testComputingCache() {
         // Creates a cache in which all unknown values default to zero.
         mCache = ExpirableCache.create(
@@ -122,4 +176,231 @@ public class ExpirableCacheTest extends AndroidTestCase {
         assertEquals(0, expiredCachedValue.getValue().intValue());
         assertTrue("Should be expired", expiredCachedValue.isExpired());
     }
+
+    public void testMaxAge() {
+        final FakeClock clock = new FakeClock();
+        mCache = new ExpirableCache.Builder<String, Integer>()
+                .setMaxSize(10)
+                .setMaxAge(100, TimeUnit.MILLISECONDS)
+                .setClock(clock)
+                .build();
+        mCache.put("a", 1);
+        clock.mNowMillis += 50;
+        mCache.put("b", 2);
+        clock.mNowMillis += 50;
+        assertTrue("Should be expired", mCache.getCachedValue("a").isExpired());
+        assertEquals(1, mCache.getPossiblyExpired("a").intValue());
+        assertFalse("Should not be expired", mCache.getCachedValue("b").isExpired());
+        mCache.put("a", 3);
+        assertFalse("Should not be expired", mCache.getCachedValue("a").isExpired());
+        // Expiring all the values still applies.
+        mCache.expireAll();
+        assertTrue("Should be expired", mCache.getCachedValue("a").isExpired());
+    }
+
+    public void testEvictionOrder_LeastRecentlyUsedFirst() {
+        mCache = ExpirableCache.create(3);
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.put("c", 3);
+        // Using "a" makes "b" the least recently used.
+        mCache.getCachedValue("a");
+        mCache.put("d", 4);
+        assertNull(mCache.getCachedValue("b"));
+        assertEquals(Lists.newArrayList("c", "a", "d"),
+                Lists.newArrayList(mCache.snapshot().keySet()));
+        assertEquals(1, mCache.getStats().evictionCount);
+    }
+
+    public void testEvictionOrder_ExpiredValuesAreNotEvictedFirst() {
+        // Expiry does not affect the LRU order: an expired value is still useful.
+        mCache = ExpirableCache.create(2);
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.expire("b");
+        mCache.put("c", 3);
+        assertNull(mCache.getCachedValue("a"));
+        assertNotNull(mCache.getCachedValue("b"));
+    }
+
+    public void testWeigher() {
+        mCache = new ExpirableCache.Builder<String, Integer>()
+                .setMaxSize(10)
+                .setWeigher(new ExpirableCache.Weigher<String, Integer>() {
+                    @Override
+                    public int weigh(String key, Integer value) {
+                        return value;
+                    }
+                })
+                .build();
+        mCache.put("a", 4);
+        mCache.put("b", 4);
+        assertEquals(8, mCache.getStats().size);
+        // Does not fit with both "a" and "b".
+        mCache.put("c", 3);
+        assertNull(mCache.getCachedValue("a"));
+        assertEquals(4, mCache.getPossiblyExpired("b").intValue());
+        assertEquals(7, mCache.getStats().size);
+        assertEquals(10, mCache.getStats().maxSize);
+    }
+
+    public void testStats() {
+        mCache.put("a", 1);
+        mCache.put("b", 2, TimeUnit.MILLISECONDS.toNanos(3));
+        mCache.put("c", 3, TimeUnit.MILLISECONDS.toNanos(5));
+        mCache.getCachedValue("a");
+        mCache.get("b");
+        mCache.getPossiblyExpired("x");
+        mCache.expireAll();
+        mCache.getCachedValue("c");
+
+        final ExpirableCache.Stats stats = mCache.getStats();
+        assertEquals(2, stats.hitCount);
+        assertEquals(1, stats.expiredHitCount);
+        assertEquals(1, stats.missCount);
+        assertEquals(4, stats.requestCount());
+        assertEquals(0.5, stats.hitRate(), 0.001);
+        assertEquals(2, stats.loadCount);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(4), stats.averageLoadNanos());
+        assertEquals(3, stats.size);
+    }
+
+    public void testStats_NotAffectedByExpireAndSnapshot() {
+        mCache.put("a", 1);
+        mCache.expire("a");
+        mCache.snapshot();
+        assertEquals(0, mCache.getStats().requestCount());
+    }
+
+    public void testResetStats() {
+        mCache = ExpirableCache.create(1);
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.getCachedValue("a");
+        mCache.resetStats();
+        final ExpirableCache.Stats stats = mCache.getStats();
+        assertEquals(0, stats.requestCount());
+        assertEquals(0, stats.evictionCount);
+        assertEquals(1, stats.size);
+    }
+
+    public void testDump() {
+        mCache = new ExpirableCache.Builder<String, Integer>()
+                .setName("numbers")
+                .setMaxSize(10)
+                .build();
+        mCache.put("a", 1);
+        mCache.getCachedValue("a");
+        mCache.getCachedValue("b");
+        final StringWriter output = new StringWriter();
+        mCache.dump("  ", new PrintWriter(output));
+        final String dump = output.toString();
+        assertTrue(dump, dump.startsWith("  numbers: size=1/10 hits=1 expiredHits=0 misses=1"));
+    }
+
+    public void testStriped_ExpireAndExpireAll() {
+        mCache = new ExpirableCache.Builder<String, Integer>()
+                .setMaxSize(20)
+                .setConcurrencyLevel(4)
+                .build();
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.expire("a");
+        assertTrue(mCache.getCachedValue("a").isExpired());
+        assertFalse(mCache.getCachedValue("b").isExpired());
+        mCache.expireAll();
+        assertTrue(mCache.getCachedValue("b").isExpired());
+        assertEquals(Integer.valueOf(2), mCache.getPossiblyExpired("b"));
+        mCache.put("b", 3);
+        assertEquals(Integer.valueOf(3), mCache.get("b"));
+        assertEquals(2, mCache.snapshot().size());
+    }
+
+    public void testStriped_Weigher() {
+        mCache = new ExpirableCache.Builder<String, Integer>()
+                .setMaxSize(40)
+                .setConcurrencyLevel(4)
+                .setWeigher(new ExpirableCache.Weigher<String, Integer>() {
+                    @Override
+                    public int weigh(String key, Integer value) {
+                        return value;
+                    }
+                })
+                .build();
+        for (int i = 0; i < 100; i++) {
+            mCache.put(String.valueOf(i), 3);
+        }
+        final ExpirableCache.Stats stats = mCache.getStats();
+        assertTrue(stats.size <= 40);
+        assertEquals(stats.size, 3 * mCache.snapshot().size());
+        assertEquals(100 - mCache.snapshot().size(), stats.evictionCount);
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        runConcurrentAccess(1);
+    }
+
+    public void testConcurrentAccess_Striped() throws Exception {
+        runConcurrentAccess(4);
+    }
+
+    private void runConcurrentAccess(int concurrencyLevel) throws Exception {
+        final int threadCount = 4;
+        final int operationCount = 2000;
+        final int maxSize = 50;
+        mCache = new ExpirableCache.Builder<String, Integer>()
+                .setMaxSize(maxSize)
+                .setConcurrencyLevel(concurrencyLevel)
+                .build();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < threadCount; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < operationCount; j++) {
+                            final String key = String.valueOf((j * 7 + thread) % (maxSize * 2));
+                            switch (j % 4) {
+                                case 0:
+                                    mCache.put(key, j);
+                                    break;
+                                case 1:
+                                    mCache.expire(key);
+                                    break;
+                                default:
+                                    final CachedValue<Integer> value = mCache.getCachedValue(key);
+                                    if (value != null) {
+                                        assertNotNull(value.getValue());
+                                    }
+                                    break;
+                            }
+                            if (thread == 0 && j % 500 == 0) {
+                                mCache.expireAll();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        final ExpirableCache.Stats stats = mCache.getStats();
+        // Every lookup is counted exactly once.
+        assertEquals(threadCount * operationCount / 2, stats.requestCount());
+        assertTrue(stats.size <= maxSize);
+        assertEquals(stats.size, mCache.snapshot().size());
+    }
 }
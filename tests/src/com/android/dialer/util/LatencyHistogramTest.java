@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ */
+@SmallTest
+public class LatencyHistogramTest extends AndroidTestCase {
+    /** The object under test. */
+    private LatencyHistogram mHistogram;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHistogram = new LatencyHistogram("test");
+    }
+
+    public void testEmpty() {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMeanMicros());
+        assertEquals(0, mHistogram.getPercentileMicros(50));
+    }
+
+    public void testRecord() {
+        mHistogram.recordMicros(10);
+        mHistogram.recordMicros(20);
+        mHistogram.recordNanos(30000);
+        assertEquals(3, mHistogram.getCount());
+        assertEquals(20, mHistogram.getMeanMicros());
+        assertEquals(30, mHistogram.getMaxMicros());
+    }
+
+    public void testPercentile_UpperBoundOfBucket() {
+        for (int i = 0; i < 99; i++) {
+            mHistogram.recordMicros(5);
+        }
+        mHistogram.recordMicros(1000);
+        // 5us falls into the [4, 8) bucket.
+        assertEquals(7, mHistogram.getPercentileMicros(50));
+        assertEquals(7, mHistogram.getPercentileMicros(99));
+        assertEquals(1000, mHistogram.getPercentileMicros(100));
+    }
+
+    public void testReset() {
+        mHistogram.recordMicros(10);
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMaxMicros());
+    }
+
+    public void testDump() {
+        mHistogram.recordMicros(10);
+        final StringWriter out = new StringWriter();
+        mHistogram.dump("  ", new PrintWriter(out));
+        assertTrue(out.toString().startsWith("  test: count=1"));
+    }
+}
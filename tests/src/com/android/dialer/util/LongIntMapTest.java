@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link LongIntMap}.
+ */
+@SmallTest
+public class LongIntMapTest extends AndroidTestCase {
+    public void testPutGet() {
+        final LongIntMap map = new LongIntMap();
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.get(1, -1));
+        assertFalse(map.containsKey(1));
+
+        map.put(1, 10);
+        map.put(Long.MAX_VALUE, 20);
+        map.put(-5, 0);
+        assertEquals(3, map.size());
+        assertEquals(10, map.get(1, -1));
+        assertEquals(20, map.get(Long.MAX_VALUE, -1));
+        assertEquals(0, map.get(-5, -1));
+        assertTrue(map.containsKey(-5));
+        assertFalse(map.containsKey(0));
+
+        map.put(1, 11);
+        assertEquals(3, map.size());
+        assertEquals(11, map.get(1, -1));
+    }
+
+    public void testClear() {
+        final LongIntMap map = new LongIntMap(4);
+        map.put(1, 10);
+        map.put(2, 20);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(1));
+        assertEquals(-1, map.get(2, -1));
+
+        map.put(2, 21);
+        assertEquals(1, map.size());
+        assertEquals(21, map.get(2, -1));
+    }
+
+    public void testGrow_MatchesHashMap() {
+        final Random random = new Random(0x5eed);
+        final LongIntMap map = new LongIntMap();
+        final Map<Long, Integer> expected = Maps.newHashMap();
+        for (int i = 0; i < 5000; i++) {
+            // Consecutive ids, like rows, and random ones.
+            final long key = i % 2 == 0 ? i / 2 : random.nextLong();
+            final int value = random.nextInt();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey(), 0));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Unit tests for {@link OrderedDelivery}.
+ */
+@SmallTest
+public class OrderedDeliveryTest extends AndroidTestCase {
+    private OrderedDelivery mDelivery;
+    private List<String> mDelivered;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDelivery = new OrderedDelivery();
+        mDelivered = Lists.newArrayList();
+    }
+
+    public void testFinishInOrder() {
+        final long first = mDelivery.start();
+        final long second = mDelivery.start();
+        mDelivery.finish(first, deliver("first"));
+        assertEquals(Lists.newArrayList("first"), mDelivered);
+        mDelivery.finish(second, deliver("second"));
+        assertEquals(Lists.newArrayList("first", "second"), mDelivered);
+    }
+
+    public void testFinishOutOfOrder() {
+        final long first = mDelivery.start();
+        final long second = mDelivery.start();
+        final long third = mDelivery.start();
+        mDelivery.finish(third, deliver("third"));
+        mDelivery.finish(second, deliver("second"));
+        assertTrue(mDelivered.isEmpty());
+        assertEquals(2, mDelivery.getPendingCount());
+
+        mDelivery.finish(first, deliver("first"));
+        assertEquals(Lists.newArrayList("first", "second", "third"), mDelivered);
+        assertEquals(0, mDelivery.getPendingCount());
+    }
+
+    public void testFinishWithoutDelivery() {
+        final long first = mDelivery.start();
+        final long second = mDelivery.start();
+        mDelivery.finish(second, deliver("second"));
+        mDelivery.finish(first, null);
+        assertEquals(Lists.newArrayList("second"), mDelivered);
+    }
+
+    public void testDeliveryThrows() {
+        final long first = mDelivery.start();
+        final long second = mDelivery.start();
+        mDelivery.finish(second, deliver("second"));
+        try {
+            mDelivery.finish(first, new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        // The delivery held back is run when the next task finishes.
+        mDelivery.finish(mDelivery.start(), deliver("third"));
+        assertEquals(Lists.newArrayList("second", "third"), mDelivered);
+    }
+
+    private Runnable deliver(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mDelivered.add(name);
+            }
+        };
+    }
+}
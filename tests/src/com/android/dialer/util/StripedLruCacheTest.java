@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dialer.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Map;
+
+/**
+ * Unit tests for {@link StripedLruCache}.
+ */
+@SmallTest
+public class StripedLruCacheTest extends AndroidTestCase {
+    public void testPutGetRemove() {
+        final StripedLruCache<String, Integer> cache = new StripedLruCache<String, Integer>(10, 4);
+        assertNull(cache.put("a", 1));
+        assertEquals(Integer.valueOf(1), cache.put("a", 2));
+        assertEquals(Integer.valueOf(2), cache.get("a"));
+        assertEquals(1, cache.size());
+        assertEquals(Integer.valueOf(2), cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testReplace_ComparesByIdentity() {
+        final StripedLruCache<String, String> cache = new StripedLruCache<String, String>(10, 4);
+        final String value = new String("value");
+        cache.put("a", value);
+        assertFalse(cache.replace("a", new String("value"), "other"));
+        assertSame(value, cache.get("a"));
+        assertTrue(cache.replace("a", value, "other"));
+        assertEquals("other", cache.get("a"));
+        assertFalse(cache.replace("b", null, "new"));
+    }
+
+    public void testEviction_StaysWithinMaxSize() {
+        final StripedLruCache<Integer, Integer> cache =
+                new StripedLruCache<Integer, Integer>(10, 4);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 10);
+        assertEquals(100 - cache.size(), cache.evictionCount());
+        assertEquals(cache.size(), cache.snapshot().size());
+    }
+
+    public void testEviction_LeastRecentlyUsedInSegment() {
+        // A single segment behaves as an LruCache.
+        final StripedLruCache<Integer, Integer> cache = new StripedLruCache<Integer, Integer>(3, 1);
+        cache.put(1, 1);
+        cache.put(2, 2);
+        cache.put(3, 3);
+        cache.get(1);
+        cache.put(4, 4);
+        final Map<Integer, Integer> snapshot = cache.snapshot();
+        assertEquals(3, snapshot.size());
+        assertFalse(snapshot.containsKey(2));
+    }
+
+    public void testSizeOf() {
+        final StripedLruCache<String, String> cache = new StripedLruCache<String, String>(20, 2) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length();
+            }
+        };
+        cache.put("a", "12345");
+        cache.put("b", "123");
+        assertEquals(8, cache.size());
+        cache.remove("a");
+        assertEquals(3, cache.size());
+    }
+
+    public void testConcurrencyLevel_BoundedByMaxSize() {
+        // Every segment holds at least one item.
+        final StripedLruCache<Integer, Integer> cache = new StripedLruCache<Integer, Integer>(2, 16);
+        cache.put(1, 1);
+        cache.put(2, 2);
+        assertEquals(2, cache.maxSize());
+        assertTrue(cache.size() >= 1);
+    }
+}